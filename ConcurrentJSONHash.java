@@ -0,0 +1,317 @@
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+
+/**
+ * JSON hashes that many threads may read and change at once, such as a
+ * session or state document shared by workers. Reads take no locks;
+ * writes lock (or compare-and-set) only the bin their key falls in; and
+ * the table grows a slice at a time, with readers carrying on in the old
+ * table while it does. All of that comes from ConcurrentHashMap, which
+ * holds the pairs.
+ *
+ * Iterators (and so writeJSON, equals, and hashCode) are weakly
+ * consistent: they never throw ConcurrentModificationException, and see
+ * each pair at most once, but may or may not see changes made while they
+ * run.
+ *
+ * Only the hash itself is thread-safe. Values put in it should be
+ * immutable (scalars, frozen, or persistent) or not changed once shared;
+ * to update a nested value, replace it, perhaps with compute.
+ */
+public class ConcurrentJSONHash implements JSONValue {
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The pairs.
+   */
+  final ConcurrentHashMap<JSONString, JSONValue> pairs;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  public ConcurrentJSONHash() {
+    this.pairs = new ConcurrentHashMap<JSONString, JSONValue>();
+  } // ConcurrentJSONHash()
+
+  /**
+   * Build a hash with room for the given number of pairs, so that adding
+   * them won't need to grow the table.
+   */
+  public ConcurrentJSONHash(int capacity) {
+    this.pairs = new ConcurrentHashMap<JSONString, JSONValue>(capacity);
+  } // ConcurrentJSONHash(int)
+
+  /**
+   * Make a concurrent copy of a hash. The values are shared, not copied.
+   */
+  public static ConcurrentJSONHash from(JSONHash hash) {
+    ConcurrentJSONHash result = new ConcurrentJSONHash(hash.size());
+    Iterator<KVPair<JSONString, JSONValue>> pairs = hash.iterator();
+    while (pairs.hasNext()) {
+      KVPair<JSONString, JSONValue> pair = pairs.next();
+      result.set(pair.key(), pair.value());
+    } // while
+    return result;
+  } // from(JSONHash)
+
+  // +-------------------------+-------------------------------------
+  // | Standard object methods |
+  // +-------------------------+
+
+  /**
+   * Convert to a string (e.g., for printing).
+   */
+  public String toString() {
+    StringBuilder result = new StringBuilder("{");
+    Iterator<KVPair<JSONString, JSONValue>> pairs = this.iterator();
+    while (pairs.hasNext()) {
+      KVPair<JSONString, JSONValue> pair = pairs.next();
+      result.append(pair.key()).append(" : ").append(pair.value());
+      if (pairs.hasNext()) {
+        result.append(",");
+      } // if
+    } // while
+    return result.append("}").toString();
+  } // toString()
+
+  /**
+   * Compare to another object. Hashes of any kind with the same pairs are
+   * equal.
+   */
+  public boolean equals(Object other) {
+    return JSON.equal(this, other);
+  } // equals(Object)
+
+  /**
+   * Compute the hash code, which doesn't depend on the order of the pairs.
+   */
+  public int hashCode() {
+    return JSON.hashCode(this);
+  } // hashCode()
+
+  // +--------------------+------------------------------------------
+  // | Additional methods |
+  // +--------------------+
+
+  /**
+   * Write the value as JSON.
+   */
+  public void writeJSON(PrintWriter pen) {
+    JSONWriter.print(this, pen);
+  } // writeJSON(PrintWriter)
+
+  /**
+   * Estimate the bytes held by the hash and everything in it. While other
+   * threads are changing it, this is only an estimate of an estimate.
+   */
+  public long estimatedRetainedBytes() {
+    return JSONMemory.retainedBytes(this);
+  } // estimatedRetainedBytes()
+
+  /**
+   * Get the underlying value.
+   */
+  public Iterator<KVPair<JSONString, JSONValue>> getValue() {
+    return this.iterator();
+  } // getValue()
+
+  // +---------+-----------------------------------------------------
+  // | Reading |
+  // +---------+
+
+  /**
+   * Determine if the hash contains a key.
+   */
+  public boolean containsKey(JSONString key) {
+    return this.pairs.containsKey(key);
+  } // containsKey(JSONString)
+
+  /**
+   * Determine if the hash contains a key, given as plain text.
+   */
+  public boolean containsKey(CharSequence key) {
+    return this.pairs.containsKey(new JSONString(key.toString()));
+  } // containsKey(CharSequence)
+
+  /**
+   * Get the value associated with a key.
+   *
+   * @throws IndexOutOfBoundsException if the key is not in the hash.
+   */
+  public JSONValue get(JSONString key) {
+    JSONValue value = this.pairs.get(key);
+    if (value == null) {
+      throw new IndexOutOfBoundsException("Invalid key: " + key.toString());
+    } // if
+    return value;
+  } // get(JSONString)
+
+  /**
+   * Get the value associated with a key, or null if there is none.
+   */
+  public JSONValue getOrNull(JSONString key) {
+    return this.pairs.get(key);
+  } // getOrNull(JSONString)
+
+  /**
+   * Get the value associated with a key given as plain text, or null if
+   * there is none.
+   */
+  public JSONValue getOrNull(CharSequence key) {
+    return this.pairs.get(new JSONString(key.toString()));
+  } // getOrNull(CharSequence)
+
+  /**
+   * Get the value associated with a key, or otherwise if there is none.
+   */
+  public JSONValue getOrDefault(JSONString key, JSONValue otherwise) {
+    JSONValue value = this.pairs.get(key);
+    return (value == null) ? otherwise : value;
+  } // getOrDefault(JSONString, JSONValue)
+
+  /**
+   * Get the value associated with a key given as plain text, or otherwise
+   * if there is none.
+   */
+  public JSONValue getOrDefault(CharSequence key, JSONValue otherwise) {
+    JSONValue value = this.getOrNull(key);
+    return (value == null) ? otherwise : value;
+  } // getOrDefault(CharSequence, JSONValue)
+
+  /**
+   * Get the string associated with a key, or otherwise if the key is
+   * missing or its value is not a string.
+   */
+  public String getString(CharSequence key, String otherwise) {
+    return JSON.asString(this.getOrNull(key), otherwise);
+  } // getString(CharSequence, String)
+
+  /**
+   * Get the integer associated with a key, or otherwise if the key is
+   * missing or its value is not an integer that fits in a long.
+   */
+  public long getLong(CharSequence key, long otherwise) {
+    return JSON.asLong(this.getOrNull(key), otherwise);
+  } // getLong(CharSequence, long)
+
+  /**
+   * Get the number associated with a key, or otherwise if the key is
+   * missing or its value is not a number.
+   */
+  public double getDouble(CharSequence key, double otherwise) {
+    return JSON.asDouble(this.getOrNull(key), otherwise);
+  } // getDouble(CharSequence, double)
+
+  /**
+   * Get the boolean associated with a key, or otherwise if the key is
+   * missing or its value is not true or false.
+   */
+  public boolean getBoolean(CharSequence key, boolean otherwise) {
+    return JSON.asBoolean(this.getOrNull(key), otherwise);
+  } // getBoolean(CharSequence, boolean)
+
+  /**
+   * Get all of the key/value pairs. The iterator is weakly consistent.
+   */
+  public Iterator<KVPair<JSONString, JSONValue>> iterator() {
+    Iterator<Map.Entry<JSONString, JSONValue>> entries = this.pairs.entrySet().iterator();
+    return new Iterator<KVPair<JSONString, JSONValue>>() {
+      public boolean hasNext() {
+        return entries.hasNext();
+      } // hasNext()
+
+      public KVPair<JSONString, JSONValue> next() {
+        Map.Entry<JSONString, JSONValue> entry = entries.next();
+        return new KVPair<JSONString, JSONValue>(entry.getKey(), entry.getValue());
+      } // next()
+    }; // new Iterator
+  } // iterator()
+
+  /**
+   * Copy the pairs as they are now, or at least as some iteration saw
+   * them.
+   */
+  ArrayList<KVPair<JSONString, JSONValue>> snapshot() {
+    ArrayList<KVPair<JSONString, JSONValue>> result =
+        new ArrayList<KVPair<JSONString, JSONValue>>(this.pairs.size());
+    this.iterator().forEachRemaining(result::add);
+    return result;
+  } // snapshot()
+
+  /**
+   * Find out how many key/value pairs are in the hash. While other
+   * threads are changing it, this is only an estimate.
+   */
+  public int size() {
+    return this.pairs.size();
+  } // size()
+
+  // +---------+-----------------------------------------------------
+  // | Writing |
+  // +---------+
+
+  /**
+   * Set the value associated with a key.
+   */
+  public void set(JSONString key, JSONValue value) {
+    this.pairs.put(key, checkValue(value));
+  } // set(JSONString, JSONValue)
+
+  /**
+   * Set the value associated with a key, unless it already has one.
+   * Returns the value it already had, or null if we set it.
+   */
+  public JSONValue setIfAbsent(JSONString key, JSONValue value) {
+    return this.pairs.putIfAbsent(key, checkValue(value));
+  } // setIfAbsent(JSONString, JSONValue)
+
+  /**
+   * Replace the value associated with a key, but only if it is (equal to)
+   * expected. Returns true if we replaced it.
+   */
+  public boolean replace(JSONString key, JSONValue expected, JSONValue value) {
+    return this.pairs.replace(key, expected, checkValue(value));
+  } // replace(JSONString, JSONValue, JSONValue)
+
+  /**
+   * Update the value associated with a key atomically, giving update the
+   * key and the current value (or null) and storing what it returns (or
+   * removing the key if it returns null). Returns the new value. Other
+   * writers to the same part of the table wait while update runs, so it
+   * should be quick, and must not touch this hash.
+   */
+  public JSONValue compute(JSONString key,
+      BiFunction<JSONString, JSONValue, JSONValue> update) {
+    return this.pairs.compute(key, update);
+  } // compute(JSONString, BiFunction<JSONString, JSONValue, JSONValue>)
+
+  /**
+   * Remove a key and its value, returning the value (or null if the key
+   * wasn't there).
+   */
+  public JSONValue remove(JSONString key) {
+    return this.pairs.remove(key);
+  } // remove(JSONString)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Make sure a value can be stored.
+   */
+  private static JSONValue checkValue(JSONValue value) {
+    if (value == null) {
+      throw new IllegalArgumentException("Null value (use JSONConstant.NULL)");
+    } // if
+    return value;
+  } // checkValue(JSONValue)
+} // class ConcurrentJSONHash
@@ -1,9 +1,23 @@
-import java.io.FileReader;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.Reader;
-import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
-import java.io.BufferedReader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.function.Predicate;
 
 /**
  * Utilities for our simple implementation of JSON.
@@ -14,14 +28,40 @@ import java.io.BufferedReader;
  * @author Shibam Mukhopadhyay
  */
 public class JSON {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * What childHash returns for a container whose hash code we don't know
+   * yet. (Every int is a hash code, so this isn't one.)
+   */
+  static final long NO_HASH = Long.MIN_VALUE;
+
   // +---------------+-----------------------------------------------
   // | Static fields |
   // +---------------+
 
   /**
-   * The current position in the input.
+   * The listener told about each parse, or null if we are not instrumenting.
    */
-  static int pos;
+  static volatile JSONParseListener listener;
+
+  /**
+   * The limits used when the caller does not supply any.
+   */
+  static volatile ParserLimits defaultLimits = ParserLimits.DEFAULT;
+
+  /**
+   * The cache consulted by parse(String), or null if there is none.
+   */
+  static volatile JSONParseCache cache;
+
+  /**
+   * Whether parsers keep every digit of reals (as BigDecimals), rather
+   * than rounding them to doubles.
+   */
+  static volatile boolean exactReals = true;
 
   // +----------------+----------------------------------------------
   // | Static methods |
@@ -31,416 +71,785 @@ public class JSON {
    * Parse a string into JSON.
    */
   public static JSONValue parse(String source) throws ParseException, IOException {
-    StringReader reader = new StringReader(source);
-    return parse(reader);
+    JSONParseCache current = cache;
+    if (current != null) {
+      return current.parse(source, defaultLimits);
+    } // if
+    return parse(source, defaultLimits);
   } // parse(String)
 
   /**
-   * Parse a file into JSON.
+   * Parse a string into JSON, enforcing the given limits.
+   */
+  public static JSONValue parse(String source, ParserLimits limits)
+      throws ParseException, IOException {
+    return parse(new JSONLexer(source, limits));
+  } // parse(String, ParserLimits)
+
+  /**
+   * Parse a file of UTF-8 into JSON. Gzipped and zlib-compressed files
+   * are recognized and inflated (on another thread, while we parse).
    */
   public static JSONValue parseFile(String filename) throws ParseException, IOException {
-    BufferedReader reader = new BufferedReader(new FileReader(filename)); // to-fix
-    JSONValue result = parse(reader);
-    reader.close();
-    return result;
+    try (InputStream stream = JSONCompression.decompress(new FileInputStream(filename))) {
+      return parse(stream);
+    } // try
   } // parseFile(String)
 
   /**
    * Parse JSON from a reader.
    */
   public static JSONValue parse(Reader source) throws ParseException, IOException {
-    pos = 0;
-    JSONValue result = parseKernel(source);
-    if (-1 != skipWhitespace(source)) {
-      throw new ParseException("Characters remain at end", pos);
-    }
-    return result;
+    return parse(source, defaultLimits);
   } // parse(Reader)
 
-  // +---------------+-----------------------------------------------
-  // | Local helpers |
-  // +---------------+
+  /**
+   * Parse JSON from a reader, enforcing the given limits.
+   */
+  public static JSONValue parse(Reader source, ParserLimits limits)
+      throws ParseException, IOException {
+    return parse(new JSONLexer(source, limits));
+  } // parse(Reader, ParserLimits)
 
   /**
-   * Parse JSON from a reader, keeping track of the current position
+   * Parse UTF-8 bytes into JSON. Bytes that aren't well-formed UTF-8 are
+   * a parse error.
    */
-  static JSONValue parseKernel(Reader source) throws ParseException, IOException {
-    int ch;
-    ch = skipWhitespace(source);
-    if (-1 == ch) {
-      throw new ParseException("Unexpected end of file", pos);
-    }
-    char curr = (char) ch;
-    try {
-      return type(source, curr);
-    } catch (Exception e) {
-      throw new ParseException("Character not recognized", pos);
-    }
-  } // parseKernel(Reader)
-
-  /*
-   * Based on the character read, figure out the type of JSON to parse
-   */
-  static JSONValue type(Reader source, char beginCh) throws Exception {
-    if (Character.isDigit(beginCh)) {
-      try {
-        return parseJSONNum(source, false);
-      } catch (Exception e) {
-        throw new ParseException("Character not recognized", pos);
-      } // try catch
-    } // if
+  public static JSONValue parse(byte[] source) throws ParseException, IOException {
+    return parse(source, defaultLimits);
+  } // parse(byte[])
 
-    switch (beginCh) {
-      case '"':
-        return parseJSONString(source);
-      case '-':
-        return parseJSONNum(source, true);
-      case '{':
-        return parseJSONHash(source);
-      case '[':
-        return parseJSONArray(source);
-      case 'n':
-      case 'f':
-      case 't':
-        return parseJSONConstant(source);
-      default:
-        throw new ParseException("Character not recognized", pos);
-    } // switch case
-  } // type(Reader, char)
-
-  /**
-   * Get the next character from source, skipping over whitespace.
-   */
-  static int skipWhitespace(Reader source) throws IOException {
-    int ch;
-    do {
-      ch = source.read();
-      ++pos;
-    } while (isWhitespace(ch));
-    return ch;
-  } // skipWhitespace(Reader)
-
-  /**
-   * Determine if a character is JSON whitespace (newline, carriage return, space, or tab).
-   */
-  static boolean isWhitespace(int ch) {
-    return (' ' == ch) || ('\n' == ch) || ('\r' == ch) || ('\t' == ch);
-  } // isWhiteSpace(int)
-
-  /*
-   * Check if the character is special!
-   */
-  private static char specialChar(Reader source, char currChar) throws IOException, ParseException {
-    if (currChar == '\\') {
-      source.mark(0);
-      char nextChar = (char) source.read();
-      switch (nextChar) {
-        case '\\':
-          return '\\';
-        case 'n':
-          return '\n';
-        case 't':
-          return '\t';
-        case 'r':
-          return '\r';
-        case '"':
-          return '\"';
-        case '/':
-          return '/';
-        case 'b':
-          return '\b';
-        case 'f':
-          return '\f';
-        case 'u':
-          return unicodeConverter(source);
-        default:
-          throw new ParseException(
-              "Invalid String syntax, backslash not followed by valid character", pos);
-      } // switch case
-    } // if-else
-    return currChar;
-  } // specialChar(Reader, char)
-
-  /*
-   * Reads from source and converts into unicode character.
-   */
-  private static char unicodeConverter(Reader source) throws IOException, ParseException {
-    StringBuilder hexValue = new StringBuilder();
-    for (int i = 0; i < 4; i++) {
-      source.mark(0);
-      char currChar = (char) source.read();
-      if (Character.isDigit(currChar) || ('A' <= currChar && currChar <= 'F')) {
-        hexValue.append(Character.toUpperCase(currChar));
-      } else {
-        throw new ParseException("Invalid hexadecimal unicode character", pos);
-      }
-    }
-    return (char) Integer.parseInt(hexValue.toString(), 16);
-  } // unicodeConverter(Reader)
+  /**
+   * Parse UTF-8 bytes into JSON, enforcing the given limits.
+   */
+  public static JSONValue parse(byte[] source, ParserLimits limits)
+      throws ParseException, IOException {
+    return parse(new JSONLexer(source, limits));
+  } // parse(byte[], ParserLimits)
 
   /**
-   * Parse JSONString.
+   * Parse UTF-8 from a stream into JSON. The stream is left open.
    */
-  private static JSONString parseJSONString(Reader source) throws IOException, ParseException {
-    String output = "";
-    int inputChar = skipWhitespace(source);
-    char currentChar = (char) inputChar;
+  public static JSONValue parse(InputStream source) throws ParseException, IOException {
+    return parse(source, defaultLimits);
+  } // parse(InputStream)
 
-    // Read till end of JSONString
-    while (currentChar != '"') {
-      // deal with special charactes
-      output += specialChar(source, currentChar);
+  /**
+   * Parse UTF-8 from a stream into JSON, enforcing the given limits.
+   */
+  public static JSONValue parse(InputStream source, ParserLimits limits)
+      throws ParseException, IOException {
+    return parse(new JSONLexer(new JSONUtf8Reader(source), limits));
+  } // parse(InputStream, ParserLimits)
 
-      source.mark(1);
-      inputChar = source.read();
-      currentChar = (char) inputChar;
+  /**
+   * Parse the UTF-8 between a buffer's position and limit into JSON. The
+   * buffer's position is left alone.
+   */
+  public static JSONValue parse(ByteBuffer source) throws ParseException, IOException {
+    return parse(source, defaultLimits);
+  } // parse(ByteBuffer)
 
-      // If end of file
-      if (inputChar == -1) {
-        throw new ParseException("Unexpected end of file", pos);
-      } // if
-    } // while
-    return new JSONString(output);
-  } // parseString(Reader source)
+  /**
+   * Parse the UTF-8 in a buffer into JSON, enforcing the given limits.
+   */
+  public static JSONValue parse(ByteBuffer source, ParserLimits limits)
+      throws ParseException, IOException {
+    return parse(new JSONLexer(new JSONUtf8Reader(source), limits));
+  } // parse(ByteBuffer, ParserLimits)
 
   /**
-   * Parse JSONNum, returns JSONInteger or JSONReal.
+   * Read an object of the given type from a string, without building a tree
+   * first. See JSONCodecs for the types we can bind.
    */
-  private static JSONValue parseJSONNum(Reader source, boolean isNegative)
-      throws IOException, ParseException {
-    // initialize values
-    int inputChar;
-    boolean seenExponent = false;
-    boolean seenSign = false;
-    boolean seenDecimal = false;
-    String output = "";
+  public static <T> T decode(String source, Class<T> type) throws ParseException, IOException {
+    return decode(new JSONReader(source), JSONCodecs.forType(type));
+  } // decode(String, Class<T>)
 
-    if (isNegative) {
-      output += '-';
-    } else {
-      // Unread the first digit
-      source.reset();
-    } // if else
+  /**
+   * Read an object of the given type from a reader, without building a tree
+   * first.
+   */
+  public static <T> T decode(Reader source, Class<T> type) throws ParseException, IOException {
+    return decode(new JSONReader(source), JSONCodecs.forType(type));
+  } // decode(Reader, Class<T>)
 
+  /**
+   * Write an object (or a JSONValue) as JSON text.
+   */
+  public static String encode(Object value) {
+    StringWriter text = new StringWriter();
+    try {
+      encode(value, text);
+    } catch (IOException e) {
+      // StringWriter never throws IOException.
+      throw new UncheckedIOException(e);
+    } // try/catch
+    return text.toString();
+  } // encode(Object)
 
-    // Read character
-    inputChar = skipWhitespace(source);
-    char currentChar = (char) inputChar;
+  /**
+   * Write an object (or a JSONValue) as JSON to a writer.
+   */
+  public static void encode(Object value, Writer out) throws IOException {
+    JSONWriter writer = new JSONWriter(out);
+    JSONCodecs.forType(Object.class).encode(value, writer);
+    writer.flush();
+  } // encode(Object, Writer)
 
-    while (currentChar != ' ' || inputChar != -1) {
-      if (!validateChar(currentChar, seenDecimal, seenExponent, seenSign)) {
-        break;
+  /**
+   * Write an object (or a JSONValue) as JSON to a file, in UTF-8, gzipped
+   * if the name ends with ".gz".
+   */
+  public static void encodeFile(Object value, String filename) throws IOException {
+    OutputStream stream = new FileOutputStream(filename);
+    try {
+      if (filename.endsWith(".gz")) {
+        stream = JSONCompression.gzip(stream);
       } // if
+    } catch (IOException e) {
+      stream.close();
+      throw e;
+    } // try/catch
+    try (Writer writer = new OutputStreamWriter(stream, StandardCharsets.UTF_8)) {
+      encode(value, writer);
+    } // try
+  } // encodeFile(Object, String)
 
-      switch (currentChar) {
-        case '.':
-          seenDecimal = true;
-          break;
-        case 'e':
-          seenExponent = true;
-          break;
-        case '+':
-          seenSign = true;
-          break;
-        case '-':
-          seenSign = true;
-          break;
-        default:
-          break;
-      } // switch case
-
-      output += currentChar;
-
-      // Read next char
-      source.mark(0);
-      inputChar = source.read();
-      currentChar = (char) inputChar;
-    } // while
-
+  /**
+   * Set the listener told about each parse. Use null to turn instrumentation
+   * off.
+   */
+  public static void setListener(JSONParseListener newListener) {
+    listener = newListener;
+  } // setListener(JSONParseListener)
 
-    if (seenExponent || seenDecimal) {
-      return new JSONReal(output.toString());
-    } // if
+  /**
+   * Get the listener told about each parse (or null, if there is none).
+   */
+  public static JSONParseListener getListener() {
+    return listener;
+  } // getListener()
 
-    return new JSONInteger(output.toString());
-  } // parseNum(Reader, boolean)
+  /**
+   * Set the cache consulted by parse(String). Values returned through the
+   * cache are frozen and shared, so callers must not expect to modify them.
+   * Use null to stop caching.
+   */
+  public static void setCache(JSONParseCache newCache) {
+    cache = newCache;
+  } // setCache(JSONParseCache)
 
-  /*
-   * Validate characters in a number.
+  /**
+   * Get the cache consulted by parse(String) (or null, if there is none).
    */
-  private static boolean validateChar(char currentChar, boolean seenDecimal, boolean seenExponent,
-      boolean seenSign) throws ParseException {
-    String validChars = ".eE-+";
-    if (!Character.isDigit(currentChar) && !validChars.contains(String.valueOf(currentChar))) {
-      return false;
-    } // if
+  public static JSONParseCache getCache() {
+    return cache;
+  } // getCache()
 
-    // if seeing for second time
-    if (currentChar == '.' && seenDecimal) {
-      throw new ParseException("Invalid real value. Cannot have more than one decimal point", pos);
-    } // if
-    if ((currentChar == 'e' || currentChar == 'E') && seenExponent) {
-      throw new ParseException("Invalid exponent notation", pos);
-    } // if
-    if (seenSign && !seenExponent) {
-      return false; // Sign can only be added after exponent
-    } // if
-    return true;
-  } // validateChar(char, boolean, boolean, boolean)
+  /**
+   * Freeze a value and everything inside it, so that it may be shared. We
+   * walk the tree with an explicit stack, since trees may be very deep.
+   */
+  public static JSONValue freeze(JSONValue value) {
+    ArrayDeque<JSONValue> pending = new ArrayDeque<JSONValue>();
+    pending.push(value);
+    while (!pending.isEmpty()) {
+      JSONValue next = pending.pop();
+      if (next instanceof JSONArray) {
+        JSONArray array = (JSONArray) next;
+        if (!array.frozen) {
+          array.frozen = true;
+          for (JSONValue element : array.values) {
+            pending.push(element);
+          } // for
+        } // if
+      } else if (next instanceof JSONHash) {
+        JSONHash hash = (JSONHash) next;
+        if (!hash.frozen) {
+          hash.frozen = true;
+          Iterator<KVPair<JSONString, JSONValue>> pairs = hash.iterator();
+          while (pairs.hasNext()) {
+            pending.push(pairs.next().value());
+          } // while
+        } // if
+      } // if/else
+    } // while
+    return value;
+  } // freeze(JSONValue)
 
+  /**
+   * Make a persistent copy of a value, in which every array and hash is a
+   * PersistentJSONArray or PersistentJSONHash. Scalars, and persistent
+   * values already in the tree, are shared rather than copied.
+   */
+  public static JSONValue persist(JSONValue value) {
+    IdentityHashMap<JSONValue, JSONValue> copies = new IdentityHashMap<JSONValue, JSONValue>();
+    for (JSONValue next : postOrder(value, (child) -> !(child instanceof JSONArray)
+        && !(child instanceof JSONHash))) {
+      if (next instanceof JSONArray) {
+        PersistentJSONArray array = PersistentJSONArray.EMPTY;
+        for (JSONValue element : ((JSONArray) next).values) {
+          array = array.append(copies.getOrDefault(element, element));
+        } // for
+        copies.put(next, array);
+      } else {
+        PersistentJSONHash hash = PersistentJSONHash.EMPTY;
+        Iterator<KVPair<JSONString, JSONValue>> pairs = ((JSONHash) next).iterator();
+        while (pairs.hasNext()) {
+          KVPair<JSONString, JSONValue> pair = pairs.next();
+          hash = hash.with(pair.key(), copies.getOrDefault(pair.value(), pair.value()));
+        } // while
+        copies.put(next, hash);
+      } // if/else
+    } // for
+    return copies.getOrDefault(value, value);
+  } // persist(JSONValue)
 
-  /*
-   * Parse JSONArray.
+  /**
+   * Get the text of a value that should be a string, or otherwise if it
+   * isn't one (or is null).
    */
-  private static JSONArray parseJSONArray(Reader source) throws Exception {
-    JSONArray output = new JSONArray();
-    int inputChar = skipWhitespace(source);
-    char currentChar = (char) inputChar;
+  public static String asString(JSONValue value, String otherwise) {
+    return (value instanceof JSONString) ? ((JSONString) value).value : otherwise;
+  } // asString(JSONValue, String)
 
-    // if array is empty
-    if (currentChar == ']') {
-      inputChar = skipWhitespace(source);
-      currentChar = (char) inputChar;
-      return output;
+  /**
+   * Get the value of a value that should be an integer, or otherwise if it
+   * isn't one or doesn't fit in a long.
+   */
+  public static long asLong(JSONValue value, long otherwise) {
+    if (value instanceof JSONInteger) {
+      BigInteger integer = ((JSONInteger) value).value;
+      if (integer.bitLength() < 64) {
+        return integer.longValue();
+      } // if
     } // if
+    return otherwise;
+  } // asLong(JSONValue, long)
 
-    // Until end of file
-    while (inputChar != -1) {
-      JSONValue arrayElement = type(source, currentChar);
-      output.add(arrayElement);
-      source.reset();
-
-      inputChar = skipWhitespace(source);
-      currentChar = (char) inputChar;
-      if (currentChar == '"' && (arrayElement instanceof JSONString)) {
-        inputChar = skipWhitespace(source);
-        currentChar = (char) inputChar;
-      } // if
+  /**
+   * Get the value of a value that should be a number, or otherwise if it
+   * isn't one.
+   */
+  public static double asDouble(JSONValue value, double otherwise) {
+    if (value instanceof JSONInteger) {
+      return ((JSONInteger) value).value.doubleValue();
+    } else if (value instanceof JSONReal) {
+      return ((JSONReal) value).doubleValue();
+    } // if/else
+    return otherwise;
+  } // asDouble(JSONValue, double)
 
-      // if end of array
-      if (currentChar == ']') {
-        inputChar = skipWhitespace(source);
-        currentChar = (char) inputChar;
-        return output;
-      } // if
+  /**
+   * Get the value of a value that should be true or false, or otherwise if
+   * it isn't.
+   */
+  public static boolean asBoolean(JSONValue value, boolean otherwise) {
+    if ((value instanceof JSONConstant) && (((JSONConstant) value).value instanceof Boolean)) {
+      return (Boolean) ((JSONConstant) value).value;
+    } // if
+    return otherwise;
+  } // asBoolean(JSONValue, boolean)
 
-      // Check for comma
-      if (currentChar != ',') {
-        throw new ParseException("Comma not found. Instead found " + currentChar, pos);
-      } // if
+  /**
+   * Set the limits used when the caller does not supply any.
+   */
+  public static void setDefaultLimits(ParserLimits newLimits) {
+    if (newLimits == null) {
+      throw new NullPointerException("limits");
+    } // if
+    defaultLimits = newLimits;
+  } // setDefaultLimits(ParserLimits)
 
-      inputChar = skipWhitespace(source);
-      currentChar = (char) inputChar;
-    } // while
+  /**
+   * Get the limits used when the caller does not supply any.
+   */
+  public static ParserLimits getDefaultLimits() {
+    return defaultLimits;
+  } // getDefaultLimits()
 
+  /**
+   * Choose whether parsers created from now on keep every digit of reals,
+   * as BigDecimals (the default), or round them to the nearest double.
+   * Doubles parse and print several times faster and take less memory,
+   * but 1.50 reads as 1.5, and digits beyond a double's precision are
+   * lost. Reals too large for a double stay exact.
+   */
+  public static void setExactReals(boolean exact) {
+    exactReals = exact;
+  } // setExactReals(boolean)
 
-    throw new ParseException("Invalid array!", pos);
-  } // parseJSONArray(Reader)
+  /**
+   * Determine whether parsers keep every digit of reals.
+   */
+  public static boolean getExactReals() {
+    return exactReals;
+  } // getExactReals()
+
+  // +---------------+-----------------------------------------------
+  // | Local helpers |
+  // +---------------+
 
-  /*
-   * Parse JSONHash.
+  /**
+   * Decode one value, making sure nothing follows it.
    */
-  private static JSONHash parseJSONHash(Reader source) throws Exception {
-    JSONHash output = new JSONHash();
-    JSONValue key;
-    JSONValue value;
+  static <T> T decode(JSONReader in, JSONCodec<T> codec) throws ParseException, IOException {
+    T result = codec.decode(in);
+    in.next();
+    return result;
+  } // decode(JSONReader, JSONCodec<T>)
 
-    int inputChar = skipWhitespace(source);
-    char currentChar = (char) inputChar;
+  /**
+   * Compute the hash code of a value: the ordered hash of the elements of
+   * arrays, and the sum of the scrambled hashes of the pairs of hashes, so
+   * that the order of pairs doesn't matter. Ordinary and persistent arrays
+   * (or hashes) with the same contents have the same hash code. Frozen and
+   * persistent containers remember their hash codes, since they can't
+   * change; mutable ones recompute them every time.
+   */
+  static int hashCode(JSONValue value) {
+    if (!isContainer(value)) {
+      return value.hashCode();
+    } // if
+    int known = knownHash(value);
+    if (known != 0) {
+      return known;
+    } // if
+    // Most containers, such as records, hold only scalars (or containers
+    // that remember their hash codes), so we hash them directly, and only
+    // walk the tree when that fails.
+    long flat = entriesHash(value, null);
+    if (flat != NO_HASH) {
+      rememberHash(value, (int) flat);
+      return (int) flat;
+    } // if
+    return hashCode(value, new IdentityHashMap<JSONValue, Integer>());
+  } // hashCode(JSONValue)
 
-    // if hashtable is empty
-    if (currentChar == '}') {
-      inputChar = skipWhitespace(source);
-      return output;
+  /**
+   * Compute the hash code of a value, given the hash codes of containers
+   * computed earlier, and adding those we compute now.
+   */
+  static int hashCode(JSONValue value, IdentityHashMap<JSONValue, Integer> hashes) {
+    if (!isContainer(value)) {
+      return value.hashCode();
+    } // if
+    long known = childHash(value, hashes);
+    if (known != NO_HASH) {
+      return (int) known;
     } // if
 
-    // Until end of file
-    while (inputChar != -1) {
-      // Read JSONKey
-      key = type(source, currentChar);
+    ArrayList<JSONValue> order =
+        postOrder(value, (child) -> childHash(child, hashes) != NO_HASH);
+    for (JSONValue next : order) {
+      // The children come first, so we know all of their hash codes.
+      int hash = (int) entriesHash(next, hashes);
+      hashes.put(next, hash);
+      rememberHash(next, hash);
+    } // for
+    return hashes.get(value);
+  } // hashCode(JSONValue, IdentityHashMap<JSONValue, Integer>)
 
-      // Verify key type
-      if (!(key instanceof JSONString)) {
-        throw new ParseException("Invalid key. JSON key must be of type String", pos);
+  /**
+   * Hash the entries of a container, or return NO_HASH if we don't know
+   * the hash code of a container in it. hashes (which may be null) holds
+   * the hash codes we've computed.
+   */
+  private static long entriesHash(JSONValue container,
+      IdentityHashMap<JSONValue, Integer> hashes) {
+    Iterator<?> entries = entries(container);
+    if (isArray(container)) {
+      int hash = 1;
+      while (entries.hasNext()) {
+        long child = childHash((JSONValue) entries.next(), hashes);
+        if (child == NO_HASH) {
+          return NO_HASH;
+        } // if
+        hash = (31 * hash) + (int) child;
+      } // while
+      return hash;
+    } // if
+    int hash = 0;
+    while (entries.hasNext()) {
+      @SuppressWarnings("unchecked")
+      KVPair<JSONString, JSONValue> pair = (KVPair<JSONString, JSONValue>) entries.next();
+      long child = childHash(pair.value(), hashes);
+      if (child == NO_HASH) {
+        return NO_HASH;
       } // if
+      int pairHash = (31 * pair.key().hashCode() + (int) child) * 0x9E3779B9;
+      hash += pairHash ^ (pairHash >>> 16);
+    } // while
+    return hash;
+  } // entriesHash(JSONValue, IdentityHashMap<JSONValue, Integer>)
 
-      // Read next character
-      inputChar = skipWhitespace(source);
-      currentChar = (char) inputChar;
-      if (currentChar != ':') {
-        throw new ParseException("Invalid hash syntax", pos);
+  /**
+   * Compare a value to another object, structurally. We compare sizes,
+   * and the hash codes of containers that remember them, before looking
+   * inside, and we walk the trees with an explicit stack, since they may
+   * be very deep.
+   */
+  static boolean equal(JSONValue value, Object other) {
+    if (other == null) {
+      return false;
+    } // if
+    ArrayDeque<Object> pending = new ArrayDeque<Object>();
+    pending.push(other);
+    pending.push(value);
+    while (!pending.isEmpty()) {
+      JSONValue left = (JSONValue) pending.pop();
+      Object right = pending.pop();
+      if (left == right) {
+        continue;
+      } else if (!isContainer(left)) {
+        if (!left.equals(right)) {
+          return false;
+        } // if
+        continue;
+      } else if (!(right instanceof JSONValue)) {
+        return false;
+      } // if/else
+
+      JSONValue that = (JSONValue) right;
+      if ((isArray(left) != isArray(that)) || !isContainer(that)
+          || (size(left) != size(that))) {
+        return false;
       } // if
+      int leftHash = knownHash(left);
+      int rightHash = knownHash(that);
+      if ((leftHash != 0) && (rightHash != 0) && (leftHash != rightHash)) {
+        return false;
+      } // if
+      Iterator<?> entries = entries(left);
+      if (isArray(left)) {
+        Iterator<?> others = entries(that);
+        while (entries.hasNext()) {
+          pending.push(others.next());
+          pending.push(entries.next());
+        } // while
+      } else {
+        while (entries.hasNext()) {
+          @SuppressWarnings("unchecked")
+          KVPair<JSONString, JSONValue> pair = (KVPair<JSONString, JSONValue>) entries.next();
+          JSONValue match = member(that, pair.key());
+          if (match == null) {
+            return false;
+          } // if
+          pending.push(match);
+          pending.push(pair.value());
+        } // while
+      } // if/else
+    } // while
+    return true;
+  } // equal(JSONValue, Object)
 
-      // Read JSONValue
-      source.mark(0);
-      inputChar = skipWhitespace(source);
-      currentChar = (char) inputChar;
-      value = type(source, currentChar);
-
-      output.set((JSONString) key, value);
-      source.reset();
+  /**
+   * Determine if two values are equal when numbers are compared by value,
+   * as JSON Patch and JSON Schema compare them (so 1, 1.0, and 1e0 are
+   * all equal).
+   */
+  static boolean equalByValue(JSONValue value, JSONValue other) {
+    return byValue(value).equals(byValue(other));
+  } // equalByValue(JSONValue, JSONValue)
 
-      // Check for end of string
-      inputChar = skipWhitespace(source);
-      currentChar = (char) inputChar;
+  /**
+   * Get a value that equals another value's byValue exactly when the two
+   * are equal by value: numbers become reals without trailing zeros, and
+   * containers with numbers in them become ordinary copies. Values with
+   * no numbers in them come back as they are.
+   */
+  static JSONValue byValue(JSONValue value) {
+    if (!isContainer(value)) {
+      return numberByValue(value);
+    } // if
+    IdentityHashMap<JSONValue, JSONValue> copies = new IdentityHashMap<JSONValue, JSONValue>();
+    for (JSONValue next : postOrder(value, (child) -> false)) {
+      ArrayList<JSONValue> children = new ArrayList<JSONValue>(size(next));
+      boolean changed = false;
+      Iterator<?> entries = entries(next);
+      while (entries.hasNext()) {
+        JSONValue child = valueOf(entries.next());
+        JSONValue copy = isContainer(child) ? copies.get(child) : numberByValue(child);
+        changed |= (copy != child);
+        children.add(copy);
+      } // while
+      if (!changed) {
+        copies.put(next, next);
+      } else if (isArray(next)) {
+        JSONArray array = new JSONArray();
+        array.values.addAll(children);
+        copies.put(next, array);
+      } else {
+        JSONHash hash = new JSONHash(children.size());
+        entries = entries(next);
+        for (JSONValue child : children) {
+          @SuppressWarnings("unchecked")
+          KVPair<JSONString, JSONValue> pair = (KVPair<JSONString, JSONValue>) entries.next();
+          hash.set(pair.key(), child);
+        } // for
+        copies.put(next, hash);
+      } // if/else
+    } // for
+    return copies.get(value);
+  } // byValue(JSONValue)
 
+  /**
+   * Get the byValue of a scalar.
+   */
+  private static JSONValue numberByValue(JSONValue value) {
+    if (value instanceof JSONInteger) {
+      return new JSONReal(new BigDecimal(((JSONInteger) value).value).stripTrailingZeros());
+    } else if (value instanceof JSONReal) {
+      return new JSONReal(((JSONReal) value).decimalValue().stripTrailingZeros());
+    } // if/else
+    return value;
+  } // numberByValue(JSONValue)
 
-      // if starting new pair
-      if (currentChar == '"') {
-        inputChar = skipWhitespace(source);
+  /**
+   * List the arrays and hashes in a tree, children before their parents,
+   * each once (even if it appears in several places), skipping those for
+   * which skip is true, and everything inside them. We walk the tree with
+   * an explicit stack, since it may be very deep.
+   */
+  static ArrayList<JSONValue> postOrder(JSONValue root, Predicate<JSONValue> skip) {
+    ArrayList<JSONValue> order = new ArrayList<JSONValue>();
+    // Containers map to false once we've pushed their children, and to
+    // true once they're listed.
+    IdentityHashMap<JSONValue, Boolean> seen = new IdentityHashMap<JSONValue, Boolean>();
+    ArrayDeque<JSONValue> pending = new ArrayDeque<JSONValue>();
+    pending.push(root);
+    while (!pending.isEmpty()) {
+      JSONValue next = pending.pop();
+      if (!isContainer(next) || skip.test(next)) {
+        continue;
       } // if
+      Boolean listed = seen.get(next);
+      if (listed == null) {
+        seen.put(next, Boolean.FALSE);
+        pending.push(next);
+        Iterator<?> entries = entries(next);
+        while (entries.hasNext()) {
+          pending.push(valueOf(entries.next()));
+        } // while
+      } else if (!listed) {
+        seen.put(next, Boolean.TRUE);
+        order.add(next);
+      } // if/else
+    } // while
+    return order;
+  } // postOrder(JSONValue, Predicate<JSONValue>)
 
-      // if end of hashtable
-      if (currentChar == '}') {
-        inputChar = skipWhitespace(source);
-        return output;
-      } // if
+  /**
+   * Get the hash code of a child, which we've either computed (and put in
+   * hashes, which may be null) or which its container remembers, or
+   * NO_HASH if we don't know it yet.
+   */
+  private static long childHash(JSONValue child, IdentityHashMap<JSONValue, Integer> hashes) {
+    if (!isContainer(child)) {
+      return child.hashCode();
+    } // if
+    Integer hash = (hashes == null) ? null : hashes.get(child);
+    if (hash != null) {
+      return hash;
+    } // if
+    int known = knownHash(child);
+    return (known != 0) ? known : NO_HASH;
+  } // childHash(JSONValue, IdentityHashMap<JSONValue, Integer>)
+
+  /**
+   * Get the hash code a container remembers, or 0 if it doesn't.
+   */
+  static int knownHash(JSONValue container) {
+    if (container instanceof JSONHash) {
+      return ((JSONHash) container).frozen ? ((JSONHash) container).hash : 0;
+    } else if (container instanceof JSONArray) {
+      return ((JSONArray) container).frozen ? ((JSONArray) container).hash : 0;
+    } else if (container instanceof PersistentJSONHash) {
+      return ((PersistentJSONHash) container).hash;
+    } else if (container instanceof PersistentJSONArray) {
+      return ((PersistentJSONArray) container).hash;
+    } else if (container instanceof JSONStore.Hash) {
+      return ((JSONStore.Hash) container).hash;
+    } else if (container instanceof JSONStore.Array) {
+      return ((JSONStore.Array) container).hash;
+    } else if (container instanceof ConcurrentJSONHash) {
+      return 0;
+    } // if/else
+    throw notContainer(container);
+  } // knownHash(JSONValue)
 
-      // if not a new pair
-      if (currentChar != ',') {
-        throw new ParseException("Comma not found. Instead found " + currentChar, pos);
+  /**
+   * Have a container remember its hash code, if it can't change.
+   */
+  static void rememberHash(JSONValue container, int hash) {
+    if (container instanceof JSONHash) {
+      if (((JSONHash) container).frozen) {
+        ((JSONHash) container).hash = hash;
+      } // if
+    } else if (container instanceof JSONArray) {
+      if (((JSONArray) container).frozen) {
+        ((JSONArray) container).hash = hash;
       } // if
+    } else if (container instanceof PersistentJSONHash) {
+      ((PersistentJSONHash) container).hash = hash;
+    } else if (container instanceof PersistentJSONArray) {
+      ((PersistentJSONArray) container).hash = hash;
+    } else if (!(container instanceof ConcurrentJSONHash) && !(container instanceof JSONStore.Hash)
+        && !(container instanceof JSONStore.Array)) {
+      // (Concurrent hashes may change at any time, so they don't remember,
+      // and stored containers have their hash codes written with them.)
+      throw notContainer(container);
+    } // if/else
+  } // rememberHash(JSONValue, int)
 
+  /**
+   * Determine if a value is an array or hash, ordinary, persistent,
+   * stored, or concurrent. This and the helpers below are where the kinds
+   * of container are listed; the rest of the code goes through them.
+   */
+  static boolean isContainer(Object value) {
+    return isArray(value) || (value instanceof JSONHash) || (value instanceof PersistentJSONHash)
+        || (value instanceof JSONStore.Hash) || (value instanceof ConcurrentJSONHash);
+  } // isContainer(Object)
 
-      inputChar = skipWhitespace(source);
-      currentChar = (char) inputChar;
-    } // while
+  /**
+   * Determine if a value is an array, ordinary, persistent, or stored.
+   */
+  static boolean isArray(Object value) {
+    return (value instanceof JSONArray) || (value instanceof PersistentJSONArray)
+        || (value instanceof JSONStore.Array);
+  } // isArray(Object)
 
+  /**
+   * Get the number of entries in a container.
+   */
+  static int size(JSONValue container) {
+    if (container instanceof JSONHash) {
+      return ((JSONHash) container).size();
+    } else if (container instanceof JSONArray) {
+      return ((JSONArray) container).size();
+    } else if (container instanceof PersistentJSONHash) {
+      return ((PersistentJSONHash) container).size();
+    } else if (container instanceof PersistentJSONArray) {
+      return ((PersistentJSONArray) container).size();
+    } else if (container instanceof JSONStore.Hash) {
+      return ((JSONStore.Hash) container).size();
+    } else if (container instanceof JSONStore.Array) {
+      return ((JSONStore.Array) container).size();
+    } else if (container instanceof ConcurrentJSONHash) {
+      return ((ConcurrentJSONHash) container).size();
+    } // if/else
+    throw notContainer(container);
+  } // size(JSONValue)
 
-    throw new ParseException("Invalid Array", pos);
-  } // parseJSONHash(Reader)
+  /**
+   * Iterate the values of an array or the pairs of a hash.
+   */
+  static Iterator<?> entries(JSONValue container) {
+    if (container instanceof JSONHash) {
+      return ((JSONHash) container).iterator();
+    } else if (container instanceof JSONArray) {
+      return ((JSONArray) container).values.iterator();
+    } else if (container instanceof PersistentJSONHash) {
+      return ((PersistentJSONHash) container).iterator();
+    } else if (container instanceof PersistentJSONArray) {
+      return ((PersistentJSONArray) container).iterator();
+    } else if (container instanceof JSONStore.Hash) {
+      return ((JSONStore.Hash) container).iterator();
+    } else if (container instanceof JSONStore.Array) {
+      return ((JSONStore.Array) container).iterator();
+    } else if (container instanceof ConcurrentJSONHash) {
+      return ((ConcurrentJSONHash) container).iterator();
+    } // if/else
+    throw notContainer(container);
+  } // entries(JSONValue)
 
-  /*
-   * Parse JSONConstant.
+  /**
+   * Get the value associated with a key in a hash, or null if there is
+   * none.
    */
-  private static JSONConstant parseJSONConstant(Reader source) throws IOException, ParseException {
-    String constant = "";
+  static JSONValue member(JSONValue hash, JSONString key) {
+    if (hash instanceof JSONHash) {
+      return ((JSONHash) hash).getOrNull(key);
+    } else if (hash instanceof PersistentJSONHash) {
+      return ((PersistentJSONHash) hash).getOrNull(key);
+    } else if (hash instanceof JSONStore.Hash) {
+      return ((JSONStore.Hash) hash).getOrNull(key);
+    } else if (hash instanceof ConcurrentJSONHash) {
+      return ((ConcurrentJSONHash) hash).getOrNull(key);
+    } // if/else
+    throw new IllegalArgumentException("Not a hash: "
+        + ((hash == null) ? "null" : hash.getClass().getName()));
+  } // member(JSONValue, JSONString)
 
-    source.reset();
-    int inputChar = skipWhitespace(source);
-    char currentChar = (char) inputChar;
+  /**
+   * Get the value at an index in an array, or null if there is none.
+   */
+  static JSONValue element(JSONValue array, int index) {
+    if (array instanceof JSONArray) {
+      return ((JSONArray) array).getOrNull(index);
+    } else if (array instanceof PersistentJSONArray) {
+      return ((PersistentJSONArray) array).getOrNull(index);
+    } else if (array instanceof JSONStore.Array) {
+      return ((JSONStore.Array) array).getOrNull(index);
+    } // if/else
+    throw new IllegalArgumentException("Not an array: "
+        + ((array == null) ? "null" : array.getClass().getName()));
+  } // element(JSONValue, int)
 
-    // Read five characters
-    while (constant.length() <= 5) {
-      constant += currentChar;
+  /**
+   * Get the value of an entry from entries.
+   */
+  @SuppressWarnings("unchecked")
+  static JSONValue valueOf(Object entry) {
+    return (entry instanceof KVPair)
+        ? ((KVPair<JSONString, JSONValue>) entry).value()
+        : (JSONValue) entry;
+  } // valueOf(Object)
 
-      if (constant.equals("null")) {
-        skipWhitespace(source);
-        return new JSONConstant(null);
-      } // if
-      if (constant.equals("true")) {
-        skipWhitespace(source);
-        return new JSONConstant(true);
-      } // if
-      if (constant.equals("false")) {
-        skipWhitespace(source);
-        return new JSONConstant(false);
-      } // if
+  /**
+   * Build the exception for a value that should have been a container.
+   */
+  static IllegalArgumentException notContainer(JSONValue value) {
+    return new IllegalArgumentException("Not an array or hash: "
+        + ((value == null) ? "null" : value.getClass().getName()));
+  } // notContainer(JSONValue)
 
-      inputChar = skipWhitespace(source);
-      currentChar = (char) inputChar;
-    } // while
+  /**
+   * Parse a whole document from a lexer, telling the listener (if any).
+   */
+  static JSONValue parse(JSONLexer lexer) throws ParseException, IOException {
+    return parse(new JSONParser(lexer));
+  } // parse(JSONLexer)
 
-    throw new ParseException("Invalid Constant", pos);
-  } // parseJSONConstant(Reader)
+  /**
+   * Parse a whole document with a parser, telling the listener (if any).
+   */
+  static JSONValue parse(JSONParser parser) throws ParseException, IOException {
+    JSONLexer lexer = parser.lexer;
+    JSONParseListener current = listener;
+    if (current == null) {
+      return parser.parse();
+    } // if
+
+    JSONParseStats stats = new JSONParseStats();
+    parser.stats = stats;
+    parser.wantsBytes = current.wantsRetainedBytes();
+    long start = System.nanoTime();
+    try {
+      JSONValue result = parser.parse();
+      stats.nanos = System.nanoTime() - start;
+      stats.charsRead = lexer.offset();
+      stats.retainedBytes = parser.bytes;
+      current.parsed(stats);
+      return result;
+    } catch (ParseException e) {
+      stats.nanos = System.nanoTime() - start;
+      stats.charsRead = lexer.offset();
+      stats.retainedBytes = parser.bytes;
+      current.failed(stats, e);
+      throw e;
+    } // try/catch
+  } // parse(JSONParser)
 } // class JSON
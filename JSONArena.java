@@ -0,0 +1,440 @@
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+
+/**
+ * A parser for short-lived documents that recycles its nodes. The hashes,
+ * arrays, strings, and numbers of every tree it builds come from pools
+ * that it owns, and release hands all of them back at once, so that a
+ * server that parses (and soon forgets) one document per request
+ * allocates almost nothing once the pools have grown to fit.
+ *
+ * Typical use:
+ *
+ * <pre>
+ *   JSONValue request = arena.parse(text);
+ *   ... handle the request ...
+ *   arena.release();
+ * </pre>
+ *
+ * Nodes from an arena belong to it. After release they will be emptied
+ * and reused, so nothing may keep them: use detach to copy a value that
+ * must outlive the request. (Keys are the exception; the arena keeps one
+ * JSONString for each key it has seen, and never changes them.) What we
+ * can't pool are the texts of strings and the digits of large numbers,
+ * which are immutable, so documents that are mostly long strings still
+ * allocate.
+ *
+ * An arena is for one thread at a time.
+ */
+public class JSONArena {
+
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The most nodes of each kind we keep after release, so that one huge
+   * document doesn't leave the arena huge.
+   */
+  static final int MAX_POOLED = 1 << 16;
+
+  /**
+   * The number of keys we remember. Must be a power of two.
+   */
+  static final int KEY_TABLE_SIZE = 1 << 12;
+
+  /**
+   * The number of string values we remember. Must be a power of two.
+   */
+  static final int TEXT_CACHE_SIZE = 1 << 10;
+
+  /**
+   * The longest string value we remember.
+   */
+  static final int MAX_CACHED_TEXT = 32;
+
+  /**
+   * The small non-negative integers, which we share rather than build.
+   */
+  static final BigInteger[] SMALL = new BigInteger[1024];
+
+  static {
+    for (int i = 0; i < SMALL.length; i++) {
+      SMALL[i] = BigInteger.valueOf(i);
+    } // for
+  } // static
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The limits we enforce.
+   */
+  ParserLimits limits;
+
+  /**
+   * The lexer and parser, once we've parsed something.
+   */
+  JSONLexer lexer;
+  JSONParser parser;
+
+  /**
+   * The pools. The first used entries of each are in use.
+   */
+  ArrayList<JSONHash> hashes = new ArrayList<JSONHash>();
+  ArrayList<JSONArray> arrays = new ArrayList<JSONArray>();
+  ArrayList<JSONString> strings = new ArrayList<JSONString>();
+  ArrayList<JSONInteger> integers = new ArrayList<JSONInteger>();
+  ArrayList<JSONReal> reals = new ArrayList<JSONReal>();
+  int usedHashes;
+  int usedArrays;
+  int usedStrings;
+  int usedIntegers;
+  int usedReals;
+
+  /**
+   * The keys we've seen, in an open-addressed table keyed by their hash
+   * codes.
+   */
+  JSONString[] keys = new JSONString[KEY_TABLE_SIZE];
+
+  /**
+   * The number of keys in the table.
+   */
+  int keyCount;
+
+  /**
+   * Recent short string values, each in the slot for its hash code, so
+   * that values that repeat (enums, names, and so on) share one String.
+   */
+  String[] texts = new String[TEXT_CACHE_SIZE];
+
+  /**
+   * The hash code of the string most recently found by scan.
+   */
+  int scannedHash;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Build an arena that enforces the default limits.
+   */
+  public JSONArena() {
+    this(JSON.defaultLimits);
+  } // JSONArena()
+
+  /**
+   * Build an arena that enforces the given limits.
+   */
+  public JSONArena(ParserLimits limits) {
+    this.limits = limits;
+  } // JSONArena(ParserLimits)
+
+  // +---------+-----------------------------------------------------
+  // | Parsing |
+  // +---------+
+
+  /**
+   * Parse a document into nodes from the arena. They stay valid until the
+   * next release.
+   */
+  public JSONValue parse(String source) throws ParseException, IOException {
+    if (this.lexer == null) {
+      this.lexer = new JSONLexer(source, this.limits);
+      this.parser = new JSONParser(this.lexer);
+      this.parser.arena = this;
+    } else {
+      this.lexer.reset(source);
+      this.parser.reset();
+    } // if/else
+    return JSON.parse(this.parser);
+  } // parse(String)
+
+  /**
+   * Hand every node back to the arena. Nodes from earlier parses (or
+   * from hash, array, string, and integer) must not be used afterwards.
+   */
+  public void release() {
+    this.usedHashes = release(this.hashes);
+    this.usedArrays = release(this.arrays);
+    this.usedStrings = release(this.strings);
+    this.usedIntegers = release(this.integers);
+    this.usedReals = release(this.reals);
+  } // release()
+
+  /**
+   * Copy a value (and everything in it) into ordinary nodes, which may
+   * outlive the arena. Keys and constants are shared.
+   */
+  public static JSONValue detach(JSONValue value) {
+    IdentityHashMap<JSONValue, JSONValue> copies = new IdentityHashMap<JSONValue, JSONValue>();
+    for (JSONValue next : JSON.postOrder(value, (child) -> false)) {
+      if (next instanceof JSONArray) {
+        JSONArray array = new JSONArray();
+        array.values.ensureCapacity(((JSONArray) next).size());
+        for (JSONValue element : ((JSONArray) next).values) {
+          array.values.add(detached(element, copies));
+        } // for
+        copies.put(next, array);
+      } else if (next instanceof JSONHash) {
+        JSONHash hash = new JSONHash(((JSONHash) next).size());
+        Iterator<KVPair<JSONString, JSONValue>> pairs = ((JSONHash) next).iterator();
+        while (pairs.hasNext()) {
+          KVPair<JSONString, JSONValue> pair = pairs.next();
+          hash.set(pair.key(), detached(pair.value(), copies));
+        } // while
+        copies.put(next, hash);
+      } // if/else
+    } // for
+    return detached(value, copies);
+  } // detach(JSONValue)
+
+  // +-------+-------------------------------------------------------
+  // | Nodes |
+  // +-------+
+
+  /**
+   * Get an empty hash from the arena.
+   */
+  public JSONHash hash() {
+    if (this.usedHashes < this.hashes.size()) {
+      JSONHash hash = this.hashes.get(this.usedHashes++);
+      hash.reset();
+      return hash;
+    } // if
+    JSONHash hash = new JSONHash();
+    this.hashes.add(hash);
+    ++this.usedHashes;
+    return hash;
+  } // hash()
+
+  /**
+   * Get an empty array from the arena.
+   */
+  public JSONArray array() {
+    if (this.usedArrays < this.arrays.size()) {
+      JSONArray array = this.arrays.get(this.usedArrays++);
+      array.reset();
+      return array;
+    } // if
+    JSONArray array = new JSONArray();
+    this.arrays.add(array);
+    ++this.usedArrays;
+    return array;
+  } // array()
+
+  /**
+   * Get a string from the arena.
+   */
+  public JSONString string(String text) {
+    if (this.usedStrings < this.strings.size()) {
+      JSONString string = this.strings.get(this.usedStrings++);
+      string.value = text;
+      return string;
+    } // if
+    JSONString string = new JSONString(text);
+    this.strings.add(string);
+    ++this.usedStrings;
+    return string;
+  } // string(String)
+
+  /**
+   * Get an integer from the arena.
+   */
+  public JSONInteger integer(long value) {
+    BigInteger big = ((value >= 0) && (value < SMALL.length))
+        ? SMALL[(int) value]
+        : BigInteger.valueOf(value);
+    if (this.usedIntegers < this.integers.size()) {
+      JSONInteger integer = this.integers.get(this.usedIntegers++);
+      integer.value = big;
+      return integer;
+    } // if
+    JSONInteger integer = new JSONInteger(big);
+    this.integers.add(integer);
+    ++this.usedIntegers;
+    return integer;
+  } // integer(long)
+
+  /**
+   * Get a real from the arena.
+   */
+  JSONReal real(BigDecimal value) {
+    if (this.usedReals < this.reals.size()) {
+      JSONReal real = this.reals.get(this.usedReals++);
+      real.value = value;
+      real.holdsDouble = false;
+      return real;
+    } // if
+    JSONReal real = new JSONReal(value);
+    this.reals.add(real);
+    ++this.usedReals;
+    return real;
+  } // real(BigDecimal)
+
+  /**
+   * Get a real that holds a finite double from the arena.
+   */
+  JSONReal real(double value) {
+    if (this.usedReals < this.reals.size()) {
+      JSONReal real = this.reals.get(this.usedReals++);
+      real.value = null;
+      real.number = value;
+      real.holdsDouble = true;
+      return real;
+    } // if
+    JSONReal real = new JSONReal(value);
+    this.reals.add(real);
+    ++this.usedReals;
+    return real;
+  } // real(double)
+
+  /**
+   * Read a number whose first character the lexer has consumed.
+   */
+  JSONValue number(JSONLexer lexer, int first) throws ParseException, IOException {
+    lexer.scanNumber(first);
+    if (lexer.numberReal) {
+      if (!lexer.exactReals) {
+        double value = lexer.makeDouble();
+        if (!Double.isInfinite(value)) {
+          return this.real(value);
+        } // if
+      } // if
+      return this.real(lexer.makeDecimal());
+    } else if (lexer.numberLength > JSONLexer.LONG_DIGITS) {
+      // Perhaps too big for a long; not worth pooling.
+      return lexer.makeNumber();
+    } // if/else
+    return this.integer(lexer.makeLong());
+  } // number(JSONLexer, int)
+
+  /**
+   * Read a key whose opening quote the lexer has consumed, reusing the
+   * JSONString we made the last time we saw the same text.
+   */
+  JSONString key(JSONLexer lexer) throws ParseException, IOException {
+    int start = lexer.bufPos;
+    int end = this.scan(lexer);
+    if (end < 0) {
+      return new JSONString(lexer.readString());
+    } // if
+    lexer.bufPos = end + 1;
+
+    int hash = this.scannedHash;
+    int length = end - start;
+    int mask = this.keys.length - 1;
+    int slot = (hash ^ (hash >>> 16)) & mask;
+    JSONString key;
+    while ((key = this.keys[slot]) != null) {
+      if ((key.value.hashCode() == hash) && matches(key.value, lexer.buf, start, length)) {
+        return key;
+      } // if
+      slot = (slot + 1) & mask;
+    } // while
+    key = new JSONString(new String(lexer.buf, start, length));
+    if (this.keyCount < this.keys.length / 2) {
+      this.keys[slot] = key;
+      ++this.keyCount;
+    } // if
+    return key;
+  } // key(JSONLexer)
+
+  /**
+   * Read a string value whose opening quote the lexer has consumed,
+   * sharing the text with a recent string with the same text.
+   */
+  JSONString readString(JSONLexer lexer) throws ParseException, IOException {
+    int start = lexer.bufPos;
+    int end = this.scan(lexer);
+    if ((end < 0) || (end - start > MAX_CACHED_TEXT)) {
+      return this.string(lexer.readString());
+    } // if
+    lexer.bufPos = end + 1;
+
+    int hash = this.scannedHash;
+    int slot = (hash ^ (hash >>> 16)) & (this.texts.length - 1);
+    String text = this.texts[slot];
+    if ((text == null) || (text.hashCode() != hash)
+        || !matches(text, lexer.buf, start, end - start)) {
+      text = new String(lexer.buf, start, end - start);
+      this.texts[slot] = text;
+    } // if
+    return this.string(text);
+  } // readString(JSONLexer)
+
+  /**
+   * Find the closing quote of a string whose opening quote the lexer has
+   * consumed, noting its hash code, without consuming anything. Returns
+   * -1 if the lexer should read the string itself, because it has escapes
+   * or errors, or isn't all in the buffer.
+   */
+  int scan(JSONLexer lexer) {
+    char[] buf = lexer.buf;
+    int end = (int) Math.min(lexer.bufLimit, (long) lexer.bufPos + this.limits.maxStringLength + 1);
+    int hash = 0;
+    for (int i = lexer.bufPos; i < end; i++) {
+      char ch = buf[i];
+      if (ch == '"') {
+        this.scannedHash = hash;
+        return i;
+      } else if ((ch == '\\') || (ch < ' ')) {
+        return -1;
+      } // if/else
+      hash = (31 * hash) + ch;
+    } // for
+    return -1;
+  } // scan(JSONLexer)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Trim a pool after release, returning the new number in use (0).
+   */
+  static int release(ArrayList<?> pool) {
+    if (pool.size() > MAX_POOLED) {
+      pool.subList(MAX_POOLED, pool.size()).clear();
+    } // if
+    return 0;
+  } // release(ArrayList<?>)
+
+  /**
+   * Get the detached copy of a value.
+   */
+  static JSONValue detached(JSONValue value, IdentityHashMap<JSONValue, JSONValue> copies) {
+    if (value instanceof JSONString) {
+      return new JSONString(((JSONString) value).value);
+    } else if (value instanceof JSONInteger) {
+      return new JSONInteger(((JSONInteger) value).value);
+    } else if (value instanceof JSONReal) {
+      JSONReal real = (JSONReal) value;
+      return real.holdsDouble ? new JSONReal(real.number) : new JSONReal(real.value);
+    } // if/else
+    return copies.getOrDefault(value, value);
+  } // detached(JSONValue, IdentityHashMap<JSONValue, JSONValue>)
+
+  /**
+   * Determine if a string has the same text as part of a buffer.
+   */
+  static boolean matches(String text, char[] buf, int start, int length) {
+    if (text.length() != length) {
+      return false;
+    } // if
+    for (int i = 0; i < length; i++) {
+      if (text.charAt(i) != buf[start + i]) {
+        return false;
+      } // if
+    } // for
+    return true;
+  } // matches(String, char[], int, int)
+} // class JSONArena
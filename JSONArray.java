@@ -1,6 +1,10 @@
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * JSON arrays.
@@ -16,6 +20,26 @@ public class JSONArray implements JSONValue {
    */
   ArrayList<JSONValue> values;
 
+  /**
+   * Whether the array (and everything in it) has been frozen.
+   */
+  boolean frozen = false;
+
+  /**
+   * The hash code, once computed for a frozen array (or 0).
+   */
+  int hash;
+
+  /**
+   * The estimated retained bytes, once computed for a frozen array (or 0).
+   */
+  long bytes;
+
+  /**
+   * The indexes to keep up to date as the array changes (or null).
+   */
+  JSONIndex[] indexes;
+
   // +--------------+------------------------------------------------
   // | Constructors |
   // +--------------+
@@ -45,35 +69,18 @@ public class JSONArray implements JSONValue {
   } // toString()
 
   /**
-   * Compare to another object.
+   * Compare to another object. Ordinary and persistent arrays with the
+   * same values are equal.
    */
-
   public boolean equals(Object other) {
-    if (!(other instanceof JSONArray)) {
-      return false;
-    } // if
-
-    if (this.values.size() != ((JSONArray) other).values.size()) {
-      return false;
-    } // if
-
-    // Checking each element of array
-    for (int i = 0; i < values.size(); i++) {
-      JSONValue thisValue = this.values.get(i);
-      JSONValue otherValue = ((JSONArray) other).values.get(i);
-      if (!thisValue.equals(otherValue)) {
-        return false;
-      } // if
-    } // for
-
-    return true;
+    return JSON.equal(this, other);
   } // equals(Object)
 
   /**
-   * Compute the hash code.
+   * Compute the hash code; frozen arrays remember it.
    */
   public int hashCode() {
-    return this.values.hashCode();
+    return JSON.hashCode(this);
   } // hashCode()
 
   // +--------------------+------------------------------------------
@@ -84,24 +91,23 @@ public class JSONArray implements JSONValue {
    * Write the value as JSON.
    */
   public void writeJSON(PrintWriter pen) {
-    int arrayLength = this.values.size();
-
-    pen.printf("[");
-    for (int i = 0; i < arrayLength - 1; i++) {
-      this.values.get(i).writeJSON(pen);
-      pen.printf(", ");
-    } // for
-
-    // Print last item
-    this.values.get(arrayLength - 1).writeJSON(pen);
-    pen.printf("]");
+    JSONWriter.print(this, pen);
   } // writeJSON(PrintWriter)
 
   /**
-   * Get the underlying value.
+   * Estimate the bytes held by the array and everything in it; frozen
+   * arrays remember the total.
+   */
+  public long estimatedRetainedBytes() {
+    return JSONMemory.retainedBytes(this);
+  } // estimatedRetainedBytes()
+
+  /**
+   * Get the underlying value. Frozen arrays may be shared, so for them
+   * this is a copy, and changing it doesn't change the array.
    */
   public ArrayList<JSONValue> getValue() {
-    return this.values;
+    return this.frozen ? new ArrayList<JSONValue>(this.values) : this.values;
   } // getValue()
 
   // +---------------+-----------------------------------------------
@@ -112,9 +118,24 @@ public class JSONArray implements JSONValue {
    * Add a value to the end of the array.
    */
   public void add(JSONValue value) {
+    this.checkMutable();
     this.values.add(value);
+    if (this.indexes != null) {
+      for (JSONIndex index : this.indexes) {
+        index.added(this.values.size() - 1, value);
+      } // for
+    } // if
   } // add(JSONValue)
 
+  /**
+   * Insert a value at a particular index, shifting later values along.
+   */
+  public void add(int index, JSONValue value) throws IndexOutOfBoundsException {
+    this.checkMutable();
+    this.values.add(index, value);
+    this.shiftIndexes();
+  } // add(int, JSONValue)
+
   /**
    * Get the value at a particular index.
    */
@@ -123,17 +144,121 @@ public class JSONArray implements JSONValue {
   } // get(int)
 
   /**
-   * Get the iterator for the elements.
+   * Get the value at a particular index, or null if the index is out of
+   * bounds.
+   */
+  public JSONValue getOrNull(int index) {
+    return ((index >= 0) && (index < this.values.size())) ? this.values.get(index) : null;
+  } // getOrNull(int)
+
+  /**
+   * Get the value at a particular index, or otherwise if the index is out
+   * of bounds.
+   */
+  public JSONValue getOrDefault(int index, JSONValue otherwise) {
+    JSONValue value = this.getOrNull(index);
+    return (value == null) ? otherwise : value;
+  } // getOrDefault(int, JSONValue)
+
+  /**
+   * Get the string at a particular index, or otherwise if there isn't one.
+   */
+  public String getString(int index, String otherwise) {
+    return JSON.asString(this.getOrNull(index), otherwise);
+  } // getString(int, String)
+
+  /**
+   * Get the integer at a particular index, or otherwise if there isn't one
+   * that fits in a long.
+   */
+  public long getLong(int index, long otherwise) {
+    return JSON.asLong(this.getOrNull(index), otherwise);
+  } // getLong(int, long)
+
+  /**
+   * Get the number at a particular index, or otherwise if there isn't one.
+   */
+  public double getDouble(int index, double otherwise) {
+    return JSON.asDouble(this.getOrNull(index), otherwise);
+  } // getDouble(int, double)
+
+  /**
+   * Get the boolean at a particular index, or otherwise if there isn't one.
+   */
+  public boolean getBoolean(int index, boolean otherwise) {
+    return JSON.asBoolean(this.getOrNull(index), otherwise);
+  } // getBoolean(int, boolean)
+
+  /**
+   * Get the hash at a particular index, or null if there isn't one.
+   */
+  public JSONHash getHash(int index) {
+    JSONValue value = this.getOrNull(index);
+    return (value instanceof JSONHash) ? (JSONHash) value : null;
+  } // getHash(int)
+
+  /**
+   * Get the array at a particular index, or null if there isn't one.
+   */
+  public JSONArray getArray(int index) {
+    JSONValue value = this.getOrNull(index);
+    return (value instanceof JSONArray) ? (JSONArray) value : null;
+  } // getArray(int)
+
+  /**
+   * Get the iterator for the elements. For frozen arrays, the iterator
+   * can't remove them.
    */
   public Iterator<JSONValue> iterator() {
-    return this.values.iterator();
+    return this.frozen
+        ? Collections.unmodifiableList(this.values).iterator()
+        : this.values.iterator();
   } // iterator()
 
+  /**
+   * Get a spliterator for the elements, which splits the array evenly.
+   */
+  public Spliterator<JSONValue> spliterator() {
+    return this.values.spliterator();
+  } // spliterator()
+
+  /**
+   * Get a stream of the elements.
+   */
+  public Stream<JSONValue> stream() {
+    return StreamSupport.stream(this.spliterator(), false);
+  } // stream()
+
+  /**
+   * Get a parallel stream of the elements. Don't modify the array while
+   * it runs.
+   */
+  public Stream<JSONValue> parallelStream() {
+    return StreamSupport.stream(this.spliterator(), true);
+  } // parallelStream()
+
+  /**
+   * Remove the value at a particular index, shifting later values back,
+   * and return it.
+   */
+  public JSONValue remove(int index) throws IndexOutOfBoundsException {
+    this.checkMutable();
+    JSONValue removed = this.values.remove(index);
+    this.shiftIndexes();
+    return removed;
+  } // remove(int)
+
   /**
    * Set the value at a particular index.
    */
   public void set(int index, JSONValue value) throws IndexOutOfBoundsException {
-    this.values.set(index, value);
+    this.checkMutable();
+    JSONValue old = this.values.set(index, value);
+    if (this.indexes != null) {
+      for (JSONIndex each : this.indexes) {
+        each.replaced(index, old, value);
+      } // for
+    } // if
   } // set(int, JSONValue)
 
   /**
@@ -142,4 +267,56 @@ public class JSONArray implements JSONValue {
   public int size() {
     return this.values.size();
   } // size()
+
+  /**
+   * Make this array and everything in it immutable. Later calls to add or
+   * set throw an UnsupportedOperationException.
+   */
+  public JSONArray freeze() {
+    JSON.freeze(this);
+    return this;
+  } // freeze()
+
+  /**
+   * Determine if this array has been frozen.
+   */
+  public boolean isFrozen() {
+    return this.frozen;
+  } // isFrozen()
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Make sure the array may be modified.
+   */
+  void checkMutable() {
+    if (this.frozen) {
+      throw new UnsupportedOperationException("Cannot modify a frozen array");
+    } // if
+  } // checkMutable()
+
+  /**
+   * Tell the indexes that values have moved to other positions.
+   */
+  void shiftIndexes() {
+    if (this.indexes != null) {
+      for (JSONIndex index : this.indexes) {
+        index.shifted();
+      } // for
+    } // if
+  } // shiftIndexes()
+
+  /**
+   * Empty the array so that an arena can hand it out again, keeping the
+   * room for values.
+   */
+  void reset() {
+    this.values.clear();
+    this.frozen = false;
+    this.hash = 0;
+    this.bytes = 0;
+    this.indexes = null;
+  } // reset()
 } // class JSONArray
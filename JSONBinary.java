@@ -0,0 +1,1025 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A compact binary encoding of JSONValues, for when neither end needs to
+ * read the text.
+ *
+ * A document is the bytes 'J' 'B', a version byte, a flags byte, (if the
+ * shared-key flag is set) a table of keys that occur more than once, and
+ * then one value. Each value starts with a tag byte:
+ *
+ * <pre>
+ *   0x00 null, 0x01 false, 0x02 true
+ *   0x03 integer: zigzag varint
+ *   0x04 big integer: varint length, two's-complement bytes
+ *   0x05 real: zigzag varint scale, zigzag varint unscaled value
+ *   0x06 big real: zigzag varint scale, varint length, unscaled bytes
+ *   0x07 string: varint length, UTF-8 bytes
+ *   0x08 array: varint count, varint body length, values
+ *   0x09 hash: varint count, varint body length, key/value pairs
+ *   0x20-0x3F string of 0-31 UTF-8 bytes, which follow
+ *   0x40-0x7F integer from -16 to 47
+ * </pre>
+ *
+ * A key is a varint n followed, if n is even, by n/2 bytes of UTF-8; an odd
+ * n refers to entry n/2 of the shared-key table. Since containers give
+ * their length in bytes, readers can step over whole subtrees (see
+ * selectFirst). Numbers keep their full precision and scale; strings,
+ * including unpaired surrogates, survive unchanged.
+ */
+public class JSONBinary {
+
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  static final int VERSION = 1;
+
+  /**
+   * The flag for documents with a shared-key table.
+   */
+  static final int SHARED_KEYS = 1;
+
+  /**
+   * The most keys we put in the shared-key table.
+   */
+  static final int MAX_SHARED_KEYS = 65536;
+
+  static final int NULL = 0x00;
+  static final int FALSE = 0x01;
+  static final int TRUE = 0x02;
+  static final int INTEGER = 0x03;
+  static final int BIG_INTEGER = 0x04;
+  static final int REAL = 0x05;
+  static final int BIG_REAL = 0x06;
+  static final int STRING = 0x07;
+  static final int ARRAY = 0x08;
+  static final int HASH = 0x09;
+  static final int SHORT_STRING = 0x20;
+  static final int SMALL_INTEGER = 0x40;
+
+  /**
+   * The smallest integer with a one-byte encoding.
+   */
+  static final int SMALL_MIN = -16;
+
+  /**
+   * The largest integer with a one-byte encoding.
+   */
+  static final int SMALL_MAX = 47;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The keys in the shared-key table, and their positions.
+   */
+  LinkedHashMap<String, Integer> shared = new LinkedHashMap<String, Integer>();
+
+  /**
+   * The length of the body of each container, in the order they're opened.
+   */
+  int[] sizes = new int[16];
+
+  /**
+   * The number of containers opened so far.
+   */
+  int containers;
+
+  /**
+   * The encoded document.
+   */
+  byte[] buf;
+
+  /**
+   * The number of bytes in buf.
+   */
+  int pos;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Build an encoder. (Use the static methods.)
+   */
+  JSONBinary() {
+  } // JSONBinary()
+
+  // +----------------+----------------------------------------------
+  // | Static methods |
+  // +----------------+
+
+  /**
+   * Encode a value, sharing repeated keys.
+   */
+  public static byte[] encode(JSONValue value) {
+    return encode(value, true);
+  } // encode(JSONValue)
+
+  /**
+   * Encode a value. Sharing keys makes arrays of similar hashes much smaller
+   * but costs an extra pass over the tree.
+   */
+  public static byte[] encode(JSONValue value, boolean shareKeys) {
+    return new JSONBinary().write(value, shareKeys);
+  } // encode(JSONValue, boolean)
+
+  /**
+   * Encode a value to a stream, sharing repeated keys.
+   */
+  public static void encode(JSONValue value, OutputStream out) throws IOException {
+    out.write(encode(value, true));
+  } // encode(JSONValue, OutputStream)
+
+  /**
+   * Decode a document, enforcing the default limits.
+   */
+  public static JSONValue decode(byte[] data) throws ParseException {
+    return decode(data, JSON.defaultLimits);
+  } // decode(byte[])
+
+  /**
+   * Decode a document, enforcing the depth, entry, and string length
+   * limits given.
+   */
+  public static JSONValue decode(byte[] data, ParserLimits limits) throws ParseException {
+    Decoder decoder = new Decoder(data, limits);
+    JSONValue result = decoder.readValue();
+    if (decoder.pos != data.length) {
+      throw decoder.error("Extra bytes after the value");
+    } // if
+    return result;
+  } // decode(byte[], ParserLimits)
+
+  /**
+   * Decode the document in a stream.
+   */
+  public static JSONValue decode(InputStream in) throws ParseException, IOException {
+    return decode(in.readAllBytes());
+  } // decode(InputStream)
+
+  /**
+   * Find the first value a path selects in a document. For paths of plain
+   * names and indices, we decode only the value selected, stepping over
+   * everything else.
+   */
+  public static JSONValue selectFirst(byte[] data, JSONPath path) throws ParseException {
+    if (!path.simple) {
+      return path.selectFirst(decode(data));
+    } // if
+    Decoder decoder = new Decoder(data, JSON.defaultLimits);
+    for (int step = 0; step < path.length; step++) {
+      if (!decoder.find(path.kinds[step], path.names[step], path.indices[step])) {
+        return null;
+      } // if
+    } // for
+    return decoder.readValue();
+  } // selectFirst(byte[], JSONPath)
+
+  // +----------+----------------------------------------------------
+  // | Encoding |
+  // +----------+
+
+  /**
+   * Encode a document.
+   */
+  byte[] write(JSONValue root, boolean shareKeys) {
+    int headerSize = 4;
+    if (shareKeys) {
+      this.findSharedKeys(root);
+      headerSize += varintSize(this.shared.size());
+      for (String key : this.shared.keySet()) {
+        int length = utf8Length(key);
+        headerSize += varintSize(length) + length;
+      } // for
+    } // if
+
+    long size = headerSize + this.measure(root);
+    if (size > Integer.MAX_VALUE - 8) {
+      throw new IllegalArgumentException("Value too large to encode");
+    } // if
+    this.buf = new byte[(int) size];
+    this.buf[this.pos++] = 'J';
+    this.buf[this.pos++] = 'B';
+    this.buf[this.pos++] = VERSION;
+    this.buf[this.pos++] = (byte) (shareKeys ? SHARED_KEYS : 0);
+    if (shareKeys) {
+      this.writeVarint(this.shared.size());
+      for (String key : this.shared.keySet()) {
+        this.writeVarint(utf8Length(key));
+        this.writeUtf8(key);
+      } // for
+    } // if
+    this.writeTree(root);
+    return this.buf;
+  } // write(JSONValue, boolean)
+
+  /**
+   * Find the keys that occur more than once, in order of first appearance.
+   */
+  private void findSharedKeys(JSONValue root) {
+    LinkedHashMap<String, Integer> counts = new LinkedHashMap<String, Integer>();
+    ArrayDeque<JSONValue> pending = new ArrayDeque<JSONValue>();
+    pending.push(root);
+    while (!pending.isEmpty()) {
+      JSONValue value = pending.pop();
+      if (isContainer(value)) {
+        Frame frame = new Frame(value, 0);
+        while (frame.entries.hasNext()) {
+          pending.push(frame.next());
+          if (frame.key != null) {
+            counts.merge(frame.key, 1, Integer::sum);
+          } // if
+        } // while
+      } // if
+    } // while
+    for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+      if ((entry.getValue() > 1) && (this.shared.size() < MAX_SHARED_KEYS)) {
+        this.shared.put(entry.getKey(), this.shared.size());
+      } // if
+    } // for
+  } // findSharedKeys(JSONValue)
+
+  /**
+   * Work out the encoded size of a value, noting the body size of each
+   * container along the way.
+   */
+  private long measure(JSONValue root) {
+    if (!isContainer(root)) {
+      return scalarSize(root);
+    } // if
+    ArrayDeque<Frame> stack = new ArrayDeque<Frame>();
+    stack.push(this.open(root));
+    while (true) {
+      Frame top = stack.peek();
+      if (top.entries.hasNext()) {
+        JSONValue child = top.next();
+        if (top.key != null) {
+          top.size += this.keySize(top.key);
+        } // if
+        if (isContainer(child)) {
+          stack.push(this.open(child));
+        } else {
+          top.size += scalarSize(child);
+        } // if/else
+        continue;
+      } // if
+
+      stack.pop();
+      if (top.size > Integer.MAX_VALUE) {
+        throw new IllegalArgumentException("Value too large to encode");
+      } // if
+      this.sizes[top.id] = (int) top.size;
+      long total = 1 + varintSize(top.count) + varintSize(top.size) + top.size;
+      if (stack.isEmpty()) {
+        return total;
+      } // if
+      stack.peek().size += total;
+    } // while
+  } // measure(JSONValue)
+
+  /**
+   * Write a value, whose containers have been measured.
+   */
+  private void writeTree(JSONValue root) {
+    if (!isContainer(root)) {
+      this.writeScalar(root);
+      return;
+    } // if
+    this.containers = 0;
+    ArrayDeque<Frame> stack = new ArrayDeque<Frame>();
+    stack.push(this.writeHeader(root));
+    while (!stack.isEmpty()) {
+      Frame top = stack.peek();
+      if (!top.entries.hasNext()) {
+        stack.pop();
+        continue;
+      } // if
+      JSONValue child = top.next();
+      if (top.key != null) {
+        this.writeKey(top.key);
+      } // if
+      if (isContainer(child)) {
+        stack.push(this.writeHeader(child));
+      } else {
+        this.writeScalar(child);
+      } // if/else
+    } // while
+  } // writeTree(JSONValue)
+
+  /**
+   * Start measuring a container.
+   */
+  private Frame open(JSONValue container) {
+    if (this.containers == this.sizes.length) {
+      this.sizes = Arrays.copyOf(this.sizes, this.containers * 2);
+    } // if
+    return new Frame(container, this.containers++);
+  } // open(JSONValue)
+
+  /**
+   * Write the tag, count, and body length of a container.
+   */
+  private Frame writeHeader(JSONValue container) {
+    Frame frame = new Frame(container, this.containers++);
+    this.buf[this.pos++] = (byte) (isArray(container) ? ARRAY : HASH);
+    this.writeVarint(frame.count);
+    this.writeVarint(this.sizes[frame.id]);
+    return frame;
+  } // writeHeader(JSONValue)
+
+  /**
+   * Work out the encoded size of a key.
+   */
+  private int keySize(String key) {
+    Integer id = this.shared.get(key);
+    if (id != null) {
+      return varintSize(((long) id << 1) | 1);
+    } // if
+    int length = utf8Length(key);
+    return varintSize((long) length << 1) + length;
+  } // keySize(String)
+
+  /**
+   * Write a key.
+   */
+  private void writeKey(String key) {
+    Integer id = this.shared.get(key);
+    if (id != null) {
+      this.writeVarint(((long) id << 1) | 1);
+    } else {
+      this.writeVarint((long) utf8Length(key) << 1);
+      this.writeUtf8(key);
+    } // if/else
+  } // writeKey(String)
+
+  /**
+   * Work out the encoded size of a value that isn't a container.
+   */
+  static int scalarSize(JSONValue value) {
+    if (value instanceof JSONString) {
+      int length = utf8Length(((JSONString) value).value);
+      return (length < 32) ? 1 + length : 1 + varintSize(length) + length;
+    } else if (value instanceof JSONInteger) {
+      BigInteger integer = ((JSONInteger) value).value;
+      if (integer.bitLength() < 64) {
+        long small = integer.longValue();
+        return ((small >= SMALL_MIN) && (small <= SMALL_MAX)) ? 1 : 1 + varintSize(zigzag(small));
+      } // if
+      int length = integer.bitLength() / 8 + 1;
+      return 1 + varintSize(length) + length;
+    } else if (value instanceof JSONReal) {
+      BigDecimal real = ((JSONReal) value).decimalValue();
+      BigInteger unscaled = real.unscaledValue();
+      int scaleSize = varintSize(zigzag(real.scale()));
+      if (unscaled.bitLength() < 64) {
+        return 1 + scaleSize + varintSize(zigzag(unscaled.longValue()));
+      } // if
+      int length = unscaled.bitLength() / 8 + 1;
+      return 1 + scaleSize + varintSize(length) + length;
+    } else if ((value == null) || (value instanceof JSONConstant)) {
+      return 1;
+    } // if/else
+    throw new IllegalArgumentException("Cannot encode " + value.getClass().getName());
+  } // scalarSize(JSONValue)
+
+  /**
+   * Write a value that isn't a container.
+   */
+  private void writeScalar(JSONValue value) {
+    if (value instanceof JSONString) {
+      String str = ((JSONString) value).value;
+      int length = utf8Length(str);
+      if (length < 32) {
+        this.buf[this.pos++] = (byte) (SHORT_STRING | length);
+      } else {
+        this.buf[this.pos++] = STRING;
+        this.writeVarint(length);
+      } // if/else
+      this.writeUtf8(str);
+    } else if (value instanceof JSONInteger) {
+      BigInteger integer = ((JSONInteger) value).value;
+      if (integer.bitLength() < 64) {
+        long small = integer.longValue();
+        if ((small >= SMALL_MIN) && (small <= SMALL_MAX)) {
+          this.buf[this.pos++] = (byte) (SMALL_INTEGER | (small - SMALL_MIN));
+        } else {
+          this.buf[this.pos++] = INTEGER;
+          this.writeVarint(zigzag(small));
+        } // if/else
+      } else {
+        this.buf[this.pos++] = BIG_INTEGER;
+        this.writeBytes(integer.toByteArray());
+      } // if/else
+    } else if (value instanceof JSONReal) {
+      BigDecimal real = ((JSONReal) value).decimalValue();
+      BigInteger unscaled = real.unscaledValue();
+      if (unscaled.bitLength() < 64) {
+        this.buf[this.pos++] = REAL;
+        this.writeVarint(zigzag(real.scale()));
+        this.writeVarint(zigzag(unscaled.longValue()));
+      } else {
+        this.buf[this.pos++] = BIG_REAL;
+        this.writeVarint(zigzag(real.scale()));
+        this.writeBytes(unscaled.toByteArray());
+      } // if/else
+    } else {
+      Object constant = (value == null) ? null : ((JSONConstant) value).value;
+      if (constant == null) {
+        this.buf[this.pos++] = NULL;
+      } else {
+        this.buf[this.pos++] = ((Boolean) constant) ? (byte) TRUE : (byte) FALSE;
+      } // if/else
+    } // if/else
+  } // writeScalar(JSONValue)
+
+  /**
+   * Write some bytes, preceded by their length.
+   */
+  private void writeBytes(byte[] bytes) {
+    this.writeVarint(bytes.length);
+    System.arraycopy(bytes, 0, this.buf, this.pos, bytes.length);
+    this.pos += bytes.length;
+  } // writeBytes(byte[])
+
+  /**
+   * Write an unsigned varint: seven bits a byte, low bits first, with the
+   * top bit set on all but the last byte.
+   */
+  private void writeVarint(long value) {
+    while ((value & ~0x7FL) != 0) {
+      this.buf[this.pos++] = (byte) ((value & 0x7F) | 0x80);
+      value >>>= 7;
+    } // while
+    this.buf[this.pos++] = (byte) value;
+  } // writeVarint(long)
+
+  /**
+   * Write a string as UTF-8. Unpaired surrogates get three bytes each, as
+   * if they were characters, so that they survive the round trip.
+   */
+  private void writeUtf8(String str) {
+    this.pos = writeUtf8(str, this.buf, this.pos);
+  } // writeUtf8(String)
+
+  /**
+   * Write a string as UTF-8 (as writeUtf8 does) into out at p, which must
+   * have room for it, returning the position after it.
+   */
+  static int writeUtf8(String str, byte[] out, int p) {
+    int length = str.length();
+    for (int i = 0; i < length; i++) {
+      char ch = str.charAt(i);
+      if (ch < 0x80) {
+        out[p++] = (byte) ch;
+      } else if (ch < 0x800) {
+        out[p++] = (byte) (0xC0 | (ch >> 6));
+        out[p++] = (byte) (0x80 | (ch & 0x3F));
+      } else if (Character.isHighSurrogate(ch) && (i + 1 < length)
+          && Character.isLowSurrogate(str.charAt(i + 1))) {
+        int point = Character.toCodePoint(ch, str.charAt(++i));
+        out[p++] = (byte) (0xF0 | (point >> 18));
+        out[p++] = (byte) (0x80 | ((point >> 12) & 0x3F));
+        out[p++] = (byte) (0x80 | ((point >> 6) & 0x3F));
+        out[p++] = (byte) (0x80 | (point & 0x3F));
+      } else {
+        out[p++] = (byte) (0xE0 | (ch >> 12));
+        out[p++] = (byte) (0x80 | ((ch >> 6) & 0x3F));
+        out[p++] = (byte) (0x80 | (ch & 0x3F));
+      } // if/else
+    } // for
+    return p;
+  } // writeUtf8(String, byte[], int)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Determine if a value is an array or hash.
+   */
+  static boolean isContainer(JSONValue value) {
+    return JSON.isContainer(value);
+  } // isContainer(JSONValue)
+
+  /**
+   * Determine if a value is an array.
+   */
+  static boolean isArray(JSONValue value) {
+    return JSON.isArray(value);
+  } // isArray(JSONValue)
+
+  /**
+   * Count the bytes writeUtf8 will write for a string.
+   */
+  static int utf8Length(String str) {
+    int length = str.length();
+    int bytes = length;
+    for (int i = 0; i < length; i++) {
+      char ch = str.charAt(i);
+      if (ch >= 0x80) {
+        if (ch < 0x800) {
+          bytes += 1;
+        } else if (Character.isHighSurrogate(ch) && (i + 1 < length)
+            && Character.isLowSurrogate(str.charAt(i + 1))) {
+          bytes += 2;
+          i++;
+        } else {
+          bytes += 2;
+        } // if/else
+      } // if
+    } // for
+    return bytes;
+  } // utf8Length(String)
+
+  /**
+   * Count the bytes in a varint.
+   */
+  static int varintSize(long value) {
+    int size = 1;
+    while ((value & ~0x7FL) != 0) {
+      value >>>= 7;
+      size++;
+    } // while
+    return size;
+  } // varintSize(long)
+
+  /**
+   * Fold the sign into the low bit, so small negative numbers stay small.
+   */
+  static long zigzag(long value) {
+    return (value << 1) ^ (value >> 63);
+  } // zigzag(long)
+
+  /**
+   * Undo zigzag.
+   */
+  static long unzigzag(long value) {
+    return (value >>> 1) ^ -(value & 1);
+  } // unzigzag(long)
+
+  // +---------------+-----------------------------------------------
+  // | Inner classes |
+  // +---------------+
+
+  /**
+   * A container we're in the middle of measuring or writing.
+   */
+  static class Frame {
+    /**
+     * The position of the container in the order they're opened.
+     */
+    int id;
+
+    /**
+     * The number of entries.
+     */
+    int count;
+
+    /**
+     * Iterates the values or pairs.
+     */
+    Iterator<?> entries;
+
+    /**
+     * The key of the most recent pair, for hashes.
+     */
+    String key;
+
+    /**
+     * The size of the body so far.
+     */
+    long size;
+
+    Frame(JSONValue container, int id) {
+      this.id = id;
+      if (container instanceof ConcurrentJSONHash) {
+        // The count must match what we write, even if the hash changes.
+        ArrayList<KVPair<JSONString, JSONValue>> pairs =
+            ((ConcurrentJSONHash) container).snapshot();
+        this.count = pairs.size();
+        this.entries = pairs.iterator();
+      } else {
+        this.count = JSON.size(container);
+        this.entries = JSON.entries(container);
+      } // if/else
+    } // Frame(JSONValue, int)
+
+    /**
+     * Get the next value, noting its key if it has one.
+     */
+    @SuppressWarnings("unchecked")
+    JSONValue next() {
+      Object entry = this.entries.next();
+      if (entry instanceof KVPair) {
+        KVPair<JSONString, JSONValue> pair = (KVPair<JSONString, JSONValue>) entry;
+        this.key = pair.key().value;
+        return pair.value();
+      } // if
+      return (JSONValue) entry;
+    } // next()
+  } // class Frame
+
+  /**
+   * Reads documents.
+   */
+  static class Decoder {
+    byte[] data;
+
+    int pos;
+
+    ParserLimits limits;
+
+    /**
+     * The shared-key table.
+     */
+    JSONString[] keys = new JSONString[0];
+
+    /**
+     * The open containers, as in JSONParser.
+     */
+    JSONValue[] containers = new JSONValue[16];
+
+    /**
+     * The key each hash is waiting to store a value under.
+     */
+    JSONString[] pendingKeys = new JSONString[16];
+
+    /**
+     * The number of entries left in each open container.
+     */
+    int[] remaining = new int[16];
+
+    /**
+     * Where each open container ends.
+     */
+    int[] ends = new int[16];
+
+    int depth;
+
+    /**
+     * Start reading a document, reading its header.
+     */
+    Decoder(byte[] data, ParserLimits limits) throws ParseException {
+      this.data = data;
+      this.limits = limits;
+      if ((data.length < 4) || (data[0] != 'J') || (data[1] != 'B')) {
+        throw this.error("Not a binary JSON document");
+      } else if (data[2] != VERSION) {
+        throw this.error("Unsupported version " + data[2]);
+      } // if/else
+      this.pos = 4;
+      if ((data[3] & SHARED_KEYS) != 0) {
+        int count = this.readLength();
+        this.keys = new JSONString[count];
+        for (int i = 0; i < count; i++) {
+          this.keys[i] = new JSONString(this.readUtf8(this.readLength()));
+        } // for
+      } // if
+    } // Decoder(byte[], ParserLimits)
+
+    /**
+     * Read one value.
+     */
+    JSONValue readValue() throws ParseException {
+      int base = this.depth;
+      while (true) {
+        JSONValue value;
+        int top = this.depth - 1;
+        if ((top >= base) && (this.remaining[top] == 0)) {
+          if (this.pos != this.ends[top]) {
+            throw this.error("Container length does not match its contents");
+          } // if
+          value = this.containers[top];
+          this.containers[top] = null;
+          this.pendingKeys[top] = null;
+          --this.depth;
+          --top;
+        } else {
+          if ((top >= base) && (this.containers[top] instanceof JSONHash)) {
+            this.pendingKeys[top] = this.readKey();
+          } // if
+          int tag = this.readByte();
+          if ((tag == ARRAY) || (tag == HASH)) {
+            this.open(tag);
+            continue;
+          } // if
+          value = this.readScalar(tag);
+        } // if/else
+
+        if (top < base) {
+          return value;
+        } // if
+        --this.remaining[top];
+        if (this.containers[top] instanceof JSONArray) {
+          ((JSONArray) this.containers[top]).add(value);
+        } else {
+          ((JSONHash) this.containers[top]).set(this.pendingKeys[top], value);
+        } // if/else
+      } // while
+    } // readValue()
+
+    /**
+     * Move to the entry of the container here that a path step selects,
+     * returning false if there is none.
+     */
+    boolean find(int kind, JSONString name, int index) throws ParseException {
+      int tag = this.readByte();
+      if ((tag != ARRAY) && (tag != HASH)) {
+        return false;
+      } // if
+      int count = this.readLength();
+      int length = this.readLength();
+      int end = this.pos + length;
+      if (tag == ARRAY) {
+        if ((kind == JSONPath.NAME) || (index < 0) || (index >= count)) {
+          return false;
+        } // if
+        for (int i = 0; i < index; i++) {
+          this.skipValue();
+        } // for
+        return this.pos < end;
+      } // if
+      if (kind == JSONPath.INDEX) {
+        return false;
+      } // if
+      for (int i = 0; i < count; i++) {
+        if (this.readKey().equals(name)) {
+          return true;
+        } // if
+        this.skipValue();
+      } // for
+      return false;
+    } // find(int, JSONString, int)
+
+    /**
+     * Step over a value without building it.
+     */
+    void skipValue() throws ParseException {
+      int tag = this.readByte();
+      switch (tag) {
+        case ARRAY:
+        case HASH:
+          this.readLength();
+          this.skip(this.readLength());
+          break;
+        case INTEGER:
+          this.readVarint();
+          break;
+        case REAL:
+          this.readVarint();
+          this.readVarint();
+          break;
+        case BIG_REAL:
+          this.readVarint();
+          this.skip(this.readLength());
+          break;
+        case BIG_INTEGER:
+        case STRING:
+          this.skip(this.readLength());
+          break;
+        default:
+          if ((tag & 0xE0) == SHORT_STRING) {
+            this.skip(tag & 0x1F);
+          } else if ((tag > TRUE) && (tag < SMALL_INTEGER)) {
+            throw this.error("Unknown tag " + tag);
+          } // if/else
+          break;
+      } // switch
+    } // skipValue()
+
+    /**
+     * Open a container whose tag we've read.
+     */
+    private void open(int tag) throws ParseException {
+      int count = this.readLength();
+      int length = this.readLength();
+      // Every entry takes at least one byte, so this bounds what we allocate.
+      if (count > length) {
+        throw this.error("Container has more entries than bytes");
+      } else if (count > this.limits.maxEntries) {
+        throw this.error("Container has more than " + this.limits.maxEntries + " entries");
+      } else if (this.depth >= this.limits.maxDepth) {
+        throw this.error("Nesting deeper than " + this.limits.maxDepth + " levels");
+      } // if/else
+
+      if (this.depth == this.containers.length) {
+        int capacity = this.depth * 2;
+        this.containers = Arrays.copyOf(this.containers, capacity);
+        this.pendingKeys = Arrays.copyOf(this.pendingKeys, capacity);
+        this.remaining = Arrays.copyOf(this.remaining, capacity);
+        this.ends = Arrays.copyOf(this.ends, capacity);
+      } // if
+      if (tag == ARRAY) {
+        JSONArray array = new JSONArray();
+        array.values.ensureCapacity(count);
+        this.containers[this.depth] = array;
+      } else {
+        this.containers[this.depth] = new JSONHash(count);
+      } // if/else
+      this.remaining[this.depth] = count;
+      this.ends[this.depth] = this.pos + length;
+      ++this.depth;
+    } // open(int)
+
+    /**
+     * Read a value that isn't a container, whose tag we've read.
+     */
+    private JSONValue readScalar(int tag) throws ParseException {
+      switch (tag) {
+        case NULL:
+          return JSONConstant.NULL;
+        case FALSE:
+          return JSONConstant.FALSE;
+        case TRUE:
+          return JSONConstant.TRUE;
+        case INTEGER:
+          return new JSONInteger(unzigzag(this.readVarint()));
+        case BIG_INTEGER:
+          return new JSONInteger(this.readBigInteger());
+        case REAL:
+          int scale = this.readScale();
+          return new JSONReal(BigDecimal.valueOf(unzigzag(this.readVarint()), scale));
+        case BIG_REAL:
+          scale = this.readScale();
+          return new JSONReal(new BigDecimal(this.readBigInteger(), scale));
+        case STRING:
+          return new JSONString(this.readUtf8(this.readLength()));
+        default:
+          if ((tag & 0xE0) == SHORT_STRING) {
+            if ((tag & 0x1F) > this.data.length - this.pos) {
+              throw this.error("String runs past the end of the document");
+            } // if
+            return new JSONString(this.readUtf8(tag & 0x1F));
+          } else if ((tag & 0xC0) == SMALL_INTEGER) {
+            return new JSONInteger((tag & 0x3F) + SMALL_MIN);
+          } // if/else
+          throw this.error("Unknown tag " + tag);
+      } // switch
+    } // readScalar(int)
+
+    /**
+     * Read a hash key.
+     */
+    private JSONString readKey() throws ParseException {
+      long n = this.readVarint();
+      if ((n & 1) != 0) {
+        long id = n >>> 1;
+        if (id >= this.keys.length) {
+          throw this.error("Reference to missing shared key " + id);
+        } // if
+        return this.keys[(int) id];
+      } // if
+      if ((n >>> 1) > this.data.length - this.pos) {
+        throw this.error("Key runs past the end of the document");
+      } // if
+      return new JSONString(this.readUtf8((int) (n >>> 1)));
+    } // readKey()
+
+    private int readByte() throws ParseException {
+      if (this.pos >= this.data.length) {
+        throw this.error("Unexpected end of document");
+      } // if
+      return this.data[this.pos++] & 0xFF;
+    } // readByte()
+
+    private long readVarint() throws ParseException {
+      long value = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        int b = this.readByte();
+        value |= (long) (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return value;
+        } // if
+      } // for
+      throw this.error("Varint longer than ten bytes");
+    } // readVarint()
+
+    /**
+     * Read a length, making sure that many bytes remain.
+     */
+    private int readLength() throws ParseException {
+      long length = this.readVarint();
+      if ((length < 0) || (length > this.data.length - this.pos)) {
+        throw this.error("Length runs past the end of the document");
+      } // if
+      return (int) length;
+    } // readLength()
+
+    private int readScale() throws ParseException {
+      long scale = unzigzag(this.readVarint());
+      if ((scale < Integer.MIN_VALUE) || (scale > Integer.MAX_VALUE)) {
+        throw this.error("Scale out of range");
+      } // if
+      return (int) scale;
+    } // readScale()
+
+    private BigInteger readBigInteger() throws ParseException {
+      int length = this.readLength();
+      if (length == 0) {
+        throw this.error("Empty big integer");
+      } // if
+      BigInteger value = new BigInteger(this.data, this.pos, length);
+      this.pos += length;
+      return value;
+    } // readBigInteger()
+
+    private void skip(int count) throws ParseException {
+      if (count > this.data.length - this.pos) {
+        throw this.error("Value runs past the end of the document");
+      } // if
+      this.pos += count;
+    } // skip(int)
+
+    /**
+     * Read length bytes of UTF-8 (which readLength has checked are there).
+     */
+    private String readUtf8(int length) throws ParseException {
+      byte[] in = this.data;
+      int start = this.pos;
+      int end = start + length;
+      this.pos = end;
+      int i = start;
+      while ((i < end) && (in[i] >= 0)) {
+        i++;
+      } // while
+      if (i == end) {
+        if (length > this.limits.maxStringLength) {
+          throw this.error("String longer than " + this.limits.maxStringLength + " characters");
+        } // if
+        return new String(in, start, length, StandardCharsets.ISO_8859_1);
+      } // if
+
+      char[] chars = new char[length];
+      int n = 0;
+      for (int j = start; j < i; j++) {
+        chars[n++] = (char) in[j];
+      } // for
+      while (i < end) {
+        int b = in[i++] & 0xFF;
+        if (b < 0x80) {
+          chars[n++] = (char) b;
+        } else if ((b >> 5) == 0x6) {
+          int ch = ((b & 0x1F) << 6) | this.continuation(in, i++, end);
+          if (ch < 0x80) {
+            throw this.error("Overlong UTF-8");
+          } // if
+          chars[n++] = (char) ch;
+        } else if ((b >> 4) == 0xE) {
+          int ch = ((b & 0x0F) << 12) | (this.continuation(in, i++, end) << 6)
+              | this.continuation(in, i++, end);
+          if (ch < 0x800) {
+            throw this.error("Overlong UTF-8");
+          } // if
+          chars[n++] = (char) ch;
+        } else if ((b >> 3) == 0x1E) {
+          int point = ((b & 0x07) << 18) | (this.continuation(in, i++, end) << 12)
+              | (this.continuation(in, i++, end) << 6) | this.continuation(in, i++, end);
+          if ((point < 0x10000) || (point > Character.MAX_CODE_POINT)) {
+            throw this.error("Invalid UTF-8 code point");
+          } // if
+          chars[n++] = Character.highSurrogate(point);
+          chars[n++] = Character.lowSurrogate(point);
+        } else {
+          throw this.error("Invalid UTF-8 lead byte");
+        } // if/else
+      } // while
+      if (n > this.limits.maxStringLength) {
+        throw this.error("String longer than " + this.limits.maxStringLength + " characters");
+      } // if
+      return new String(chars, 0, n);
+    } // readUtf8(int)
+
+    /**
+     * Get the low six bits of a UTF-8 continuation byte.
+     */
+    private int continuation(byte[] in, int i, int end) throws ParseException {
+      if ((i >= end) || ((in[i] & 0xC0) != 0x80)) {
+        throw this.error("Truncated UTF-8 sequence");
+      } // if
+      return in[i] & 0x3F;
+    } // continuation(byte[], int, int)
+
+    /**
+     * Build an exception for a malformed document.
+     */
+    ParseException error(String reason) {
+      return new ParseException(reason + " at byte " + this.pos, this.pos);
+    } // error(String)
+  } // class Decoder
+} // class JSONBinary
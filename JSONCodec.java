@@ -0,0 +1,22 @@
+import java.io.IOException;
+import java.text.ParseException;
+
+/**
+ * Converts between JSON text and objects of one Java type, reading tokens
+ * straight from a JSONReader and writing them straight to a JSONWriter, so
+ * that no JSONValue tree is built in between. See JSONCodecs for codecs
+ * for records, classes, collections, and the like.
+ */
+public interface JSONCodec<T> {
+
+  /**
+   * Read the next value from in (which may be null).
+   */
+  public T decode(JSONReader in) throws ParseException, IOException;
+
+  /**
+   * Write value (which may be null) to out.
+   */
+  public void encode(T value, JSONWriter out) throws IOException;
+
+} // interface JSONCodec<T>
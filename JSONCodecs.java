@@ -0,0 +1,946 @@
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.RecordComponent;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.lang.reflect.WildcardType;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.text.ParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Codecs that bind JSON directly to Java objects: records (through their
+ * canonical constructors and accessors), other classes (through a
+ * no-argument constructor and their fields), enums (by name), collections,
+ * maps with string keys, arrays, primitives and their boxes, strings, big
+ * numbers, and JSONValues.
+ *
+ * We look at a type's members reflectively once, when we first build its
+ * codec; after that, fields are read and written through method handles.
+ * Codecs are cached and may be shared between threads.
+ *
+ * Fields missing from the input keep their defaults (null, zero, or
+ * false, or whatever a no-argument constructor sets), as do fields whose
+ * value is null but whose type is primitive. Unknown keys are skipped.
+ */
+public class JSONCodecs {
+
+  // +---------------+-----------------------------------------------
+  // | Static fields |
+  // +---------------+
+
+  /**
+   * Finds the members of the types we bind.
+   */
+  static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+  /**
+   * The codecs we've finished building, by type.
+   */
+  static final ConcurrentHashMap<Type, JSONCodec<?>> codecs =
+      new ConcurrentHashMap<Type, JSONCodec<?>>();
+
+  /**
+   * The codecs we're in the middle of building. Recursive types (a record
+   * with a list of itself, say) find their own codec here.
+   */
+  static final HashMap<Type, JSONCodec<?>> building = new HashMap<Type, JSONCodec<?>>();
+
+  static {
+    scalar(ScalarCodec.BOOLEAN, boolean.class, Boolean.class);
+    scalar(ScalarCodec.BYTE, byte.class, Byte.class);
+    scalar(ScalarCodec.SHORT, short.class, Short.class);
+    scalar(ScalarCodec.INT, int.class, Integer.class);
+    scalar(ScalarCodec.LONG, long.class, Long.class);
+    scalar(ScalarCodec.FLOAT, float.class, Float.class);
+    scalar(ScalarCodec.DOUBLE, double.class, Double.class);
+    scalar(ScalarCodec.CHAR, char.class, Character.class);
+    scalar(ScalarCodec.STRING, String.class, CharSequence.class);
+    scalar(ScalarCodec.BIG_INTEGER, BigInteger.class);
+    scalar(ScalarCodec.BIG_DECIMAL, BigDecimal.class, Number.class);
+    codecs.put(Object.class, new ObjectCodec());
+  } // static
+
+  // +----------------+----------------------------------------------
+  // | Static methods |
+  // +----------------+
+
+  /**
+   * Get the codec for a class.
+   *
+   * @throws IllegalArgumentException if we don't know how to bind the
+   *   class (e.g., it's an interface, or has no suitable constructor).
+   */
+  @SuppressWarnings("unchecked")
+  public static <T> JSONCodec<T> forType(Class<T> type) {
+    return (JSONCodec<T>) forType((Type) type);
+  } // forType(Class<T>)
+
+  /**
+   * Get the codec for a type, which may be generic (e.g., the type of a
+   * List&lt;String&gt; field).
+   *
+   * @throws IllegalArgumentException if we don't know how to bind the
+   *   type.
+   */
+  public static JSONCodec<?> forType(Type type) {
+    JSONCodec<?> codec = codecs.get(type);
+    if (codec == null) {
+      codec = build(type);
+    } // if
+    return codec;
+  } // forType(Type)
+
+  /**
+   * Use our own codec for a class (and any field of that class).
+   */
+  public static <T> void register(Class<T> type, JSONCodec<T> codec) {
+    codecs.put(type, codec);
+  } // register(Class<T>, JSONCodec<T>)
+
+  // +---------------+-----------------------------------------------
+  // | Local helpers |
+  // +---------------+
+
+  /**
+   * Register a scalar codec for some classes.
+   */
+  private static void scalar(int kind, Class<?>... types) {
+    ScalarCodec codec = new ScalarCodec(kind);
+    for (Class<?> type : types) {
+      codecs.put(type, codec);
+    } // for
+  } // scalar(int, Class<?>...)
+
+  /**
+   * Build the codec for a type, along with the codecs for everything it
+   * contains. Codecs are only published once the outermost one is
+   * complete.
+   */
+  private static synchronized JSONCodec<?> build(Type type) {
+    JSONCodec<?> codec = codecs.get(type);
+    if (codec == null) {
+      codec = building.get(type);
+    } // if
+    if (codec != null) {
+      return codec;
+    } // if
+
+    boolean outermost = building.isEmpty();
+    try {
+      codec = create(type);
+      building.put(type, codec);
+      if (outermost) {
+        codecs.putAll(building);
+      } // if
+    } finally {
+      if (outermost) {
+        building.clear();
+      } // if
+    } // try/finally
+    return codec;
+  } // build(Type)
+
+  /**
+   * Create the codec for a type.
+   */
+  private static JSONCodec<?> create(Type type) {
+    if (type instanceof Class) {
+      return createForClass((Class<?>) type);
+    } else if (type instanceof ParameterizedType) {
+      ParameterizedType generic = (ParameterizedType) type;
+      Class<?> raw = (Class<?>) generic.getRawType();
+      Type[] args = generic.getActualTypeArguments();
+      if (Collection.class.isAssignableFrom(raw)) {
+        return new CollectionCodec(raw, forType(args[0]));
+      } else if (Map.class.isAssignableFrom(raw)) {
+        Class<?> keys = rawClass(args[0]);
+        if ((keys != String.class) && (keys != CharSequence.class) && (keys != Object.class)) {
+          throw new IllegalArgumentException("Map keys must be strings in " + type);
+        } // if
+        return new MapCodec(raw, forType(args[1]));
+      } // if/else
+      return forType(raw);
+    } else if (type instanceof GenericArrayType) {
+      Type component = ((GenericArrayType) type).getGenericComponentType();
+      return new ArrayCodec(rawClass(component), forType(component));
+    } else if ((type instanceof WildcardType) || (type instanceof TypeVariable)) {
+      return forType(rawClass(type));
+    } // if/else
+    throw new IllegalArgumentException("No codec for " + type);
+  } // create(Type)
+
+  /**
+   * Create the codec for a class.
+   */
+  @SuppressWarnings("unchecked")
+  private static JSONCodec<?> createForClass(Class<?> type) {
+    if (JSONValue.class.isAssignableFrom(type)) {
+      return new TreeCodec(type);
+    } else if (type.isEnum()) {
+      return new EnumCodec(type);
+    } else if (type.isArray()) {
+      return new ArrayCodec(type.getComponentType(), forType(type.getComponentType()));
+    } else if (Collection.class.isAssignableFrom(type)) {
+      return new CollectionCodec(type, forType(Object.class));
+    } else if (Map.class.isAssignableFrom(type)) {
+      return new MapCodec(type, forType(Object.class));
+    } else if (type.isInterface() || type.isPrimitive()
+        || Modifier.isAbstract(type.getModifiers())) {
+      throw new IllegalArgumentException("No codec for " + type.getName());
+    } // if/else
+
+    // Records and other classes may contain themselves, so they must be
+    // findable before we build the codecs for their fields.
+    FieldsCodec codec = type.isRecord() ? new RecordCodec(type) : new BeanCodec(type);
+    building.put(type, codec);
+    for (int i = 0; i < codec.names.length; i++) {
+      codec.fields[i] = (JSONCodec<Object>) forType(codec.types[i]);
+    } // for
+    return codec;
+  } // createForClass(Class<?>)
+
+  /**
+   * Find the class a type erases to.
+   */
+  static Class<?> rawClass(Type type) {
+    if (type instanceof Class) {
+      return (Class<?>) type;
+    } else if (type instanceof ParameterizedType) {
+      return (Class<?>) ((ParameterizedType) type).getRawType();
+    } else if (type instanceof GenericArrayType) {
+      Class<?> component = rawClass(((GenericArrayType) type).getGenericComponentType());
+      return Array.newInstance(component, 0).getClass();
+    } else if (type instanceof WildcardType) {
+      return rawClass(((WildcardType) type).getUpperBounds()[0]);
+    } else if (type instanceof TypeVariable) {
+      return rawClass(((TypeVariable<?>) type).getBounds()[0]);
+    } // if/else
+    return Object.class;
+  } // rawClass(Type)
+
+  /**
+   * Get the value a field of some type has before it's set.
+   */
+  static Object defaultValue(Class<?> type) {
+    return type.isPrimitive() ? Array.get(Array.newInstance(type, 1), 0) : null;
+  } // defaultValue(Class<?>)
+
+  /**
+   * Get a handle that calls a class's no-argument constructor, as an
+   * ()Object.
+   */
+  static MethodHandle noArgConstructor(Class<?> type) {
+    try {
+      Constructor<?> constructor = type.getDeclaredConstructor();
+      constructor.setAccessible(true);
+      return LOOKUP.unreflectConstructor(constructor)
+          .asType(MethodType.methodType(Object.class));
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      throw new IllegalArgumentException("No usable no-argument constructor for "
+          + type.getName(), e);
+    } // try/catch
+  } // noArgConstructor(Class<?>)
+
+  /**
+   * Turn whatever a method handle threw into something we can throw.
+   */
+  static RuntimeException rethrow(Throwable e) {
+    if (e instanceof RuntimeException) {
+      return (RuntimeException) e;
+    } else if (e instanceof Error) {
+      throw (Error) e;
+    } // if/else
+    return new IllegalStateException(e);
+  } // rethrow(Throwable)
+
+  /**
+   * Read the token that starts a value, returning false for null and
+   * complaining about anything other than expected.
+   */
+  static boolean start(JSONReader in, JSONToken expected, String what)
+      throws ParseException, IOException {
+    JSONToken token = in.next();
+    if (token == JSONToken.NULL) {
+      return false;
+    } else if (token != expected) {
+      throw in.error("Unexpected " + token, what);
+    } // if/else
+    return true;
+  } // start(JSONReader, JSONToken, String)
+
+  // +---------------+-----------------------------------------------
+  // | Inner classes |
+  // +---------------+
+
+  /**
+   * Numbers, strings, and booleans.
+   */
+  static class ScalarCodec implements JSONCodec<Object> {
+    static final int BOOLEAN = 0;
+    static final int BYTE = 1;
+    static final int SHORT = 2;
+    static final int INT = 3;
+    static final int LONG = 4;
+    static final int FLOAT = 5;
+    static final int DOUBLE = 6;
+    static final int CHAR = 7;
+    static final int STRING = 8;
+    static final int BIG_INTEGER = 9;
+    static final int BIG_DECIMAL = 10;
+
+    /**
+     * Which kind of scalar we handle.
+     */
+    int kind;
+
+    ScalarCodec(int kind) {
+      this.kind = kind;
+    } // ScalarCodec(int)
+
+    public Object decode(JSONReader in) throws ParseException, IOException {
+      JSONToken token = in.next();
+      if (token == JSONToken.NULL) {
+        return null;
+      } // if
+      switch (this.kind) {
+        case BOOLEAN:
+          if ((token == JSONToken.TRUE) || (token == JSONToken.FALSE)) {
+            return token == JSONToken.TRUE;
+          } // if
+          throw in.error("Unexpected " + token, "true or false");
+        case CHAR:
+        case STRING:
+          if (token != JSONToken.STRING) {
+            throw in.error("Unexpected " + token, "string");
+          } // if
+          String str = in.stringValue();
+          if (this.kind == STRING) {
+            return str;
+          } else if (str.length() != 1) {
+            throw in.error("String is not a single character", "one-character string");
+          } // if/else
+          return str.charAt(0);
+        default:
+          if (token != JSONToken.NUMBER) {
+            throw in.error("Unexpected " + token, "number");
+          } // if
+          return this.number(in);
+      } // switch
+    } // decode(JSONReader)
+
+    public void encode(Object value, JSONWriter out) throws IOException {
+      if (value == null) {
+        out.nullValue();
+        return;
+      } // if
+      switch (this.kind) {
+        case BOOLEAN:
+          out.value(((Boolean) value).booleanValue());
+          break;
+        case BYTE:
+        case SHORT:
+        case INT:
+        case LONG:
+          out.value(((Number) value).longValue());
+          break;
+        case FLOAT:
+          // Write the shortest float, not the shortest double that's equal.
+          out.value(Double.parseDouble(value.toString()));
+          break;
+        case DOUBLE:
+          out.value(((Number) value).doubleValue());
+          break;
+        case CHAR:
+        case STRING:
+          out.value(value.toString());
+          break;
+        case BIG_INTEGER:
+          out.value((BigInteger) value);
+          break;
+        default:
+          if (value instanceof BigDecimal) {
+            out.value((BigDecimal) value);
+          } else {
+            out.value(new BigDecimal(value.toString()));
+          } // if/else
+          break;
+      } // switch
+    } // encode(Object, JSONWriter)
+
+    /**
+     * Get the value of the number just read.
+     */
+    private Object number(JSONReader in) throws ParseException {
+      switch (this.kind) {
+        case BYTE:
+          return (byte) this.range(in, Byte.MIN_VALUE, Byte.MAX_VALUE);
+        case SHORT:
+          return (short) this.range(in, Short.MIN_VALUE, Short.MAX_VALUE);
+        case INT:
+          return (int) this.range(in, Integer.MIN_VALUE, Integer.MAX_VALUE);
+        case LONG:
+          return in.longValue();
+        case FLOAT:
+          return (float) in.doubleValue();
+        case DOUBLE:
+          return in.doubleValue();
+        case BIG_INTEGER:
+          JSONValue number = in.numberValue();
+          if (number instanceof JSONInteger) {
+            return ((JSONInteger) number).value;
+          } // if
+          try {
+            return ((JSONReal) number).decimalValue().toBigIntegerExact();
+          } catch (ArithmeticException e) {
+            throw in.error("Number is not an integer", "integer");
+          } // try/catch
+        default:
+          number = in.numberValue();
+          if (number instanceof JSONReal) {
+            return ((JSONReal) number).decimalValue();
+          } // if
+          return new BigDecimal(((JSONInteger) number).value);
+      } // switch
+    } // number(JSONReader)
+
+    /**
+     * Get the value of the integer just read, making sure it's in range.
+     */
+    private long range(JSONReader in, long min, long max) throws ParseException {
+      long value = in.longValue();
+      if ((value < min) || (value > max)) {
+        throw in.error("Number out of range", "integer from " + min + " to " + max);
+      } // if
+      return value;
+    } // range(JSONReader, long, long)
+  } // class ScalarCodec
+
+  /**
+   * JSONValues, which we read and write as trees.
+   */
+  static class TreeCodec implements JSONCodec<Object> {
+    Class<?> type;
+
+    TreeCodec(Class<?> type) {
+      this.type = type;
+    } // TreeCodec(Class<?>)
+
+    public Object decode(JSONReader in) throws ParseException, IOException {
+      JSONValue value = in.readValue();
+      if (this.type.isInstance(value)) {
+        return value;
+      } else if (value == JSONConstant.NULL) {
+        return null;
+      } // if/else
+      throw in.error("Unexpected " + value.getClass().getSimpleName(),
+          this.type.getSimpleName());
+    } // decode(JSONReader)
+
+    public void encode(Object value, JSONWriter out) throws IOException {
+      out.value((JSONValue) value);
+    } // encode(Object, JSONWriter)
+  } // class TreeCodec
+
+  /**
+   * Enums, by constant name.
+   */
+  static class EnumCodec implements JSONCodec<Object> {
+    HashMap<String, Object> constants = new HashMap<String, Object>();
+
+    EnumCodec(Class<?> type) {
+      for (Object constant : type.getEnumConstants()) {
+        this.constants.put(((Enum<?>) constant).name(), constant);
+      } // for
+    } // EnumCodec(Class<?>)
+
+    public Object decode(JSONReader in) throws ParseException, IOException {
+      if (!start(in, JSONToken.STRING, "string")) {
+        return null;
+      } // if
+      Object constant = this.constants.get(in.stringValue());
+      if (constant == null) {
+        throw in.error("Unknown constant", "one of " + this.constants.keySet());
+      } // if
+      return constant;
+    } // decode(JSONReader)
+
+    public void encode(Object value, JSONWriter out) throws IOException {
+      out.value((value == null) ? null : ((Enum<?>) value).name());
+    } // encode(Object, JSONWriter)
+  } // class EnumCodec
+
+  /**
+   * Values of unknown type, which we read as plain Java objects (maps,
+   * lists, strings, Longs or BigIntegers, BigDecimals, and Booleans) and
+   * write according to their runtime class.
+   */
+  static class ObjectCodec implements JSONCodec<Object> {
+    public Object decode(JSONReader in) throws ParseException, IOException {
+      JSONToken token = in.next();
+      switch (token) {
+        case BEGIN_ARRAY:
+          ArrayList<Object> list = new ArrayList<Object>();
+          while (in.peek() != JSONToken.END_ARRAY) {
+            list.add(this.decode(in));
+          } // while
+          in.next();
+          return list;
+        case BEGIN_HASH:
+          LinkedHashMap<String, Object> map = new LinkedHashMap<String, Object>();
+          while (in.peek() == JSONToken.KEY) {
+            in.next();
+            String key = in.stringValue();
+            map.put(key, this.decode(in));
+          } // while
+          in.next();
+          return map;
+        case STRING:
+          return in.stringValue();
+        case NUMBER:
+          JSONValue number = in.numberValue();
+          if (number instanceof JSONReal) {
+            return ((JSONReal) number).decimalValue();
+          } // if
+          BigInteger integer = ((JSONInteger) number).value;
+          return (integer.bitLength() < 64) ? (Object) integer.longValue() : integer;
+        case TRUE:
+          return Boolean.TRUE;
+        case FALSE:
+          return Boolean.FALSE;
+        case NULL:
+          return null;
+        default:
+          throw in.error("Unexpected " + token, "value");
+      } // switch
+    } // decode(JSONReader)
+
+    @SuppressWarnings("unchecked")
+    public void encode(Object value, JSONWriter out) throws IOException {
+      if (value == null) {
+        out.nullValue();
+      } else if (value.getClass() == Object.class) {
+        out.beginHash().endHash();
+      } else {
+        Class<?> type = (value instanceof Enum)
+            ? ((Enum<?>) value).getDeclaringClass()
+            : value.getClass();
+        ((JSONCodec<Object>) forType(type)).encode(value, out);
+      } // if/else
+    } // encode(Object, JSONWriter)
+  } // class ObjectCodec
+
+  /**
+   * Collections, as arrays.
+   */
+  static class CollectionCodec implements JSONCodec<Object> {
+    /**
+     * The class we create when decoding.
+     */
+    Class<?> concrete;
+
+    /**
+     * Its no-argument constructor, found when we first decode (so that we
+     * can still encode, say, the immutable lists from List.of).
+     */
+    MethodHandle factory;
+
+    JSONCodec<Object> elements;
+
+    @SuppressWarnings("unchecked")
+    CollectionCodec(Class<?> type, JSONCodec<?> elements) {
+      Class<?> concrete = type;
+      if (type.isInterface() || Modifier.isAbstract(type.getModifiers())) {
+        if (type.isAssignableFrom(ArrayList.class)) {
+          concrete = ArrayList.class;
+        } else if (type.isAssignableFrom(LinkedHashSet.class)) {
+          concrete = LinkedHashSet.class;
+        } else if (type.isAssignableFrom(TreeSet.class)) {
+          concrete = TreeSet.class;
+        } else if (type.isAssignableFrom(ArrayDeque.class)) {
+          concrete = ArrayDeque.class;
+        } // if/else
+      } // if
+      this.concrete = concrete;
+      this.elements = (JSONCodec<Object>) elements;
+    } // CollectionCodec(Class<?>, JSONCodec<?>)
+
+    @SuppressWarnings("unchecked")
+    public Object decode(JSONReader in) throws ParseException, IOException {
+      if (!start(in, JSONToken.BEGIN_ARRAY, "array")) {
+        return null;
+      } // if
+      Collection<Object> collection;
+      if (this.factory == null) {
+        this.factory = noArgConstructor(this.concrete);
+      } // if
+      try {
+        collection = (Collection<Object>) (Object) this.factory.invokeExact();
+      } catch (Throwable e) {
+        throw rethrow(e);
+      } // try/catch
+      while (in.peek() != JSONToken.END_ARRAY) {
+        collection.add(this.elements.decode(in));
+      } // while
+      in.next();
+      return collection;
+    } // decode(JSONReader)
+
+    public void encode(Object value, JSONWriter out) throws IOException {
+      if (value == null) {
+        out.nullValue();
+        return;
+      } // if
+      out.beginArray();
+      for (Object element : (Collection<?>) value) {
+        this.elements.encode(element, out);
+      } // for
+      out.endArray();
+    } // encode(Object, JSONWriter)
+  } // class CollectionCodec
+
+  /**
+   * Maps with string keys, as hashes.
+   */
+  static class MapCodec implements JSONCodec<Object> {
+    /**
+     * The class we create when decoding.
+     */
+    Class<?> concrete;
+
+    /**
+     * Its no-argument constructor, found when we first decode.
+     */
+    MethodHandle factory;
+
+    JSONCodec<Object> values;
+
+    @SuppressWarnings("unchecked")
+    MapCodec(Class<?> type, JSONCodec<?> values) {
+      Class<?> concrete = type;
+      if (type.isInterface() || Modifier.isAbstract(type.getModifiers())) {
+        if (type.isAssignableFrom(LinkedHashMap.class)) {
+          concrete = LinkedHashMap.class;
+        } else if (type.isAssignableFrom(TreeMap.class)) {
+          concrete = TreeMap.class;
+        } else if (type.isAssignableFrom(ConcurrentHashMap.class)) {
+          concrete = ConcurrentHashMap.class;
+        } // if/else
+      } // if
+      this.concrete = concrete;
+      this.values = (JSONCodec<Object>) values;
+    } // MapCodec(Class<?>, JSONCodec<?>)
+
+    @SuppressWarnings("unchecked")
+    public Object decode(JSONReader in) throws ParseException, IOException {
+      if (!start(in, JSONToken.BEGIN_HASH, "hash")) {
+        return null;
+      } // if
+      Map<String, Object> map;
+      if (this.factory == null) {
+        this.factory = noArgConstructor(this.concrete);
+      } // if
+      try {
+        map = (Map<String, Object>) (Object) this.factory.invokeExact();
+      } catch (Throwable e) {
+        throw rethrow(e);
+      } // try/catch
+      while (in.peek() == JSONToken.KEY) {
+        in.next();
+        String key = in.stringValue();
+        map.put(key, this.values.decode(in));
+      } // while
+      in.next();
+      return map;
+    } // decode(JSONReader)
+
+    public void encode(Object value, JSONWriter out) throws IOException {
+      if (value == null) {
+        out.nullValue();
+        return;
+      } // if
+      out.beginHash();
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+        out.key(String.valueOf(entry.getKey()));
+        this.values.encode(entry.getValue(), out);
+      } // for
+      out.endHash();
+    } // encode(Object, JSONWriter)
+  } // class MapCodec
+
+  /**
+   * Java arrays (of objects or primitives), as arrays.
+   */
+  static class ArrayCodec implements JSONCodec<Object> {
+    Class<?> component;
+    JSONCodec<Object> elements;
+
+    @SuppressWarnings("unchecked")
+    ArrayCodec(Class<?> component, JSONCodec<?> elements) {
+      this.component = component;
+      this.elements = (JSONCodec<Object>) elements;
+    } // ArrayCodec(Class<?>, JSONCodec<?>)
+
+    public Object decode(JSONReader in) throws ParseException, IOException {
+      if (!start(in, JSONToken.BEGIN_ARRAY, "array")) {
+        return null;
+      } // if
+      ArrayList<Object> list = new ArrayList<Object>();
+      while (in.peek() != JSONToken.END_ARRAY) {
+        list.add(this.elements.decode(in));
+      } // while
+      in.next();
+      Object array = Array.newInstance(this.component, list.size());
+      for (int i = 0; i < list.size(); i++) {
+        Object element = list.get(i);
+        if ((element != null) || !this.component.isPrimitive()) {
+          Array.set(array, i, element);
+        } // if
+      } // for
+      return array;
+    } // decode(JSONReader)
+
+    public void encode(Object value, JSONWriter out) throws IOException {
+      if (value == null) {
+        out.nullValue();
+        return;
+      } // if
+      out.beginArray();
+      int length = Array.getLength(value);
+      for (int i = 0; i < length; i++) {
+        this.elements.encode(Array.get(value, i), out);
+      } // for
+      out.endArray();
+    } // encode(Object, JSONWriter)
+  } // class ArrayCodec
+
+  /**
+   * Objects with named fields, as hashes.
+   */
+  abstract static class FieldsCodec implements JSONCodec<Object> {
+    /**
+     * The class we bind.
+     */
+    Class<?> type;
+
+    /**
+     * The field names, which are also the keys.
+     */
+    String[] names;
+
+    /**
+     * The generic types of the fields.
+     */
+    Type[] types;
+
+    /**
+     * The codecs for the fields, filled in once we've been registered.
+     */
+    JSONCodec<Object>[] fields;
+
+    /**
+     * What each field holds before it's set.
+     */
+    Object[] defaults;
+
+    /**
+     * Read the fields, as (Object)Object.
+     */
+    MethodHandle[] getters;
+
+    /**
+     * The position of each name.
+     */
+    HashMap<String, Integer> index = new HashMap<String, Integer>();
+
+    @SuppressWarnings("unchecked")
+    void setFieldCount(int count) {
+      this.names = new String[count];
+      this.types = new Type[count];
+      this.fields = (JSONCodec<Object>[]) new JSONCodec<?>[count];
+      this.defaults = new Object[count];
+      this.getters = new MethodHandle[count];
+    } // setFieldCount(int)
+
+    public void encode(Object value, JSONWriter out) throws IOException {
+      if (value == null) {
+        out.nullValue();
+        return;
+      } // if
+      out.beginHash();
+      for (int i = 0; i < this.names.length; i++) {
+        Object field;
+        try {
+          field = (Object) this.getters[i].invokeExact(value);
+        } catch (Throwable e) {
+          throw rethrow(e);
+        } // try/catch
+        out.key(this.names[i]);
+        this.fields[i].encode(field, out);
+      } // for
+      out.endHash();
+    } // encode(Object, JSONWriter)
+  } // class FieldsCodec
+
+  /**
+   * Records, built through their canonical constructors.
+   */
+  static class RecordCodec extends FieldsCodec {
+    /**
+     * The canonical constructor, as (Object[])Object.
+     */
+    MethodHandle constructor;
+
+    RecordCodec(Class<?> type) {
+      this.type = type;
+      RecordComponent[] components = type.getRecordComponents();
+      this.setFieldCount(components.length);
+      Class<?>[] classes = new Class<?>[components.length];
+      try {
+        for (int i = 0; i < components.length; i++) {
+          this.names[i] = components[i].getName();
+          this.types[i] = components[i].getGenericType();
+          classes[i] = components[i].getType();
+          this.defaults[i] = defaultValue(classes[i]);
+          Method accessor = components[i].getAccessor();
+          accessor.setAccessible(true);
+          this.getters[i] = LOOKUP.unreflect(accessor)
+              .asType(MethodType.methodType(Object.class, Object.class));
+          this.index.put(this.names[i], i);
+        } // for
+        Constructor<?> canonical = type.getDeclaredConstructor(classes);
+        canonical.setAccessible(true);
+        this.constructor = LOOKUP.unreflectConstructor(canonical)
+            .asSpreader(Object[].class, components.length)
+            .asType(MethodType.methodType(Object.class, Object[].class));
+      } catch (ReflectiveOperationException | RuntimeException e) {
+        throw new IllegalArgumentException("Cannot bind " + type.getName(), e);
+      } // try/catch
+    } // RecordCodec(Class<?>)
+
+    public Object decode(JSONReader in) throws ParseException, IOException {
+      if (!start(in, JSONToken.BEGIN_HASH, "hash for " + this.type.getSimpleName())) {
+        return null;
+      } // if
+      Object[] args = this.defaults.clone();
+      while (in.peek() == JSONToken.KEY) {
+        in.next();
+        Integer i = this.index.get(in.stringValue());
+        if (i == null) {
+          in.skipValue();
+        } else {
+          Object value = this.fields[i].decode(in);
+          if (value != null) {
+            args[i] = value;
+          } // if
+        } // if/else
+      } // while
+      in.next();
+      try {
+        return (Object) this.constructor.invokeExact(args);
+      } catch (Throwable e) {
+        throw rethrow(e);
+      } // try/catch
+    } // decode(JSONReader)
+  } // class RecordCodec
+
+  /**
+   * Other classes, built through a no-argument constructor and then filled
+   * in field by field. We bind every field that isn't static or transient,
+   * including inherited ones.
+   */
+  static class BeanCodec extends FieldsCodec {
+    /**
+     * The no-argument constructor, as ()Object.
+     */
+    MethodHandle constructor;
+
+    /**
+     * Write the fields, as (Object,Object)void.
+     */
+    MethodHandle[] setters;
+
+    BeanCodec(Class<?> type) {
+      this.type = type;
+      this.constructor = noArgConstructor(type);
+      ArrayList<Field> found = new ArrayList<Field>();
+      for (Class<?> c = type; c != Object.class; c = c.getSuperclass()) {
+        for (Field field : c.getDeclaredFields()) {
+          int modifiers = field.getModifiers();
+          if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers)
+              && !field.isSynthetic() && !this.index.containsKey(field.getName())) {
+            this.index.put(field.getName(), found.size());
+            found.add(field);
+          } // if
+        } // for
+      } // for
+
+      this.setFieldCount(found.size());
+      this.setters = new MethodHandle[found.size()];
+      try {
+        for (int i = 0; i < found.size(); i++) {
+          Field field = found.get(i);
+          field.setAccessible(true);
+          this.names[i] = field.getName();
+          this.types[i] = field.getGenericType();
+          this.defaults[i] = defaultValue(field.getType());
+          this.getters[i] = LOOKUP.unreflectGetter(field)
+              .asType(MethodType.methodType(Object.class, Object.class));
+          this.setters[i] = LOOKUP.unreflectSetter(field)
+              .asType(MethodType.methodType(void.class, Object.class, Object.class));
+        } // for
+      } catch (ReflectiveOperationException | RuntimeException e) {
+        throw new IllegalArgumentException("Cannot bind " + type.getName(), e);
+      } // try/catch
+    } // BeanCodec(Class<?>)
+
+    public Object decode(JSONReader in) throws ParseException, IOException {
+      if (!start(in, JSONToken.BEGIN_HASH, "hash for " + this.type.getSimpleName())) {
+        return null;
+      } // if
+      Object result;
+      try {
+        result = (Object) this.constructor.invokeExact();
+      } catch (Throwable e) {
+        throw rethrow(e);
+      } // try/catch
+      while (in.peek() == JSONToken.KEY) {
+        in.next();
+        Integer i = this.index.get(in.stringValue());
+        if (i == null) {
+          in.skipValue();
+          continue;
+        } // if
+        Object value = this.fields[i].decode(in);
+        if ((value != null) || (this.defaults[i] == null)) {
+          try {
+            this.setters[i].invokeExact(result, value);
+          } catch (Throwable e) {
+            throw rethrow(e);
+          } // try/catch
+        } // if
+      } // while
+      in.next();
+      return result;
+    } // decode(JSONReader)
+  } // class BeanCodec
+} // class JSONCodecs
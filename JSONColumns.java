@@ -0,0 +1,1116 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Set;
+
+/**
+ * An array of hashes (records), stored by key rather than by record, so
+ * that scanning one field across every record is a loop over a primitive
+ * array. Each key gets a column:
+ *
+ * <ul>
+ *   <li>LongColumn, for integers that fit in a long;</li>
+ *   <li>DoubleColumn, for reals that a double holds exactly (those
+ *     written as the shortest text for their double, such as 2.5 but not
+ *     2.50), and integers mixed with them that a double holds exactly;</li>
+ *   <li>BooleanColumn, for true and false;</li>
+ *   <li>StringColumn, for strings, each stored as a code into a
+ *     dictionary of the distinct strings;</li>
+ *   <li>HashColumn, for hashes, whose keys get columns of their own; and</li>
+ *   <li>ValueColumn, for arrays, keys whose values have mixed types, and
+ *     numbers the other columns can't hold exactly, which holds plain
+ *     JSONValues.</li>
+ * </ul>
+ *
+ * So every value survives the trip into its column: row and toArray
+ * rebuild records equal to the originals (apart from repeated keys and
+ * nulls, which are dropped).
+ *
+ * Every column has a value or a null for every record. A record that
+ * lacks the key, or has null for it, is null in the column; the column's
+ * primitive array holds 0 (or false, or -1 for codes) for it, so that
+ * sums can ignore nulls.
+ *
+ * Typical use:
+ *
+ * <pre>
+ *   JSONColumns orders = JSONColumns.parse(text);
+ *   double total = ((JSONColumns.DoubleColumn) orders.column("price")).sum();
+ * </pre>
+ *
+ * Parsing builds the columns directly, without building the records.
+ */
+public class JSONColumns implements Iterable<String> {
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The number of records.
+   */
+  int rows;
+
+  /**
+   * The columns, by key, in the order we first saw the keys.
+   */
+  LinkedHashMap<String, Column> columns = new LinkedHashMap<String, Column>();
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  JSONColumns() {
+  } // JSONColumns()
+
+  /**
+   * Split an array of hashes into columns. Values of the array that
+   * aren't hashes count as records with no keys.
+   */
+  public static JSONColumns from(JSONArray array) {
+    JSONColumns result = new JSONColumns();
+    for (int row = 0; row < array.size(); row++) {
+      JSONValue record = array.get(row);
+      if (record instanceof JSONHash) {
+        result.putAll(row, (JSONHash) record);
+      } // if
+    } // for
+    result.finish(array.size());
+    return result;
+  } // from(JSONArray)
+
+  /**
+   * Parse an array of hashes straight into columns.
+   *
+   * @throws JSONParseException if the text is malformed or isn't an array
+   *   of hashes (or nulls).
+   */
+  public static JSONColumns parse(String source) throws ParseException, IOException {
+    return read(new JSONReader(source));
+  } // parse(String)
+
+  /**
+   * Parse an array of hashes from a reader straight into columns.
+   */
+  public static JSONColumns parse(Reader source) throws ParseException, IOException {
+    return read(new JSONReader(source));
+  } // parse(Reader)
+
+  // +-------------------------+-------------------------------------
+  // | Standard object methods |
+  // +-------------------------+
+
+  /**
+   * Convert to a string (e.g., for printing).
+   */
+  public String toString() {
+    StringBuilder result = new StringBuilder();
+    result.append(this.rows).append(" rows {");
+    for (String key : this) {
+      result.append(key).append(" : ").append(this.columns.get(key).getClass().getSimpleName())
+          .append(",");
+    } // for
+    return result.append("}").toString();
+  } // toString()
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Determine how many records there are.
+   */
+  public int rows() {
+    return this.rows;
+  } // rows()
+
+  /**
+   * Get the keys, in the order they first appeared.
+   */
+  public Iterator<String> iterator() {
+    return this.keys().iterator();
+  } // iterator()
+
+  /**
+   * Get the keys, in the order they first appeared.
+   */
+  public Set<String> keys() {
+    return Collections.unmodifiableSet(this.columns.keySet());
+  } // keys()
+
+  /**
+   * Get the column for a key, following a path of keys into nested
+   * hashes. Returns null if there is no such column.
+   */
+  public Column column(String... path) {
+    JSONColumns columns = this;
+    Column column = null;
+    for (String key : path) {
+      if (columns == null) {
+        return null;
+      } // if
+      column = columns.columns.get(key);
+      columns = (column instanceof HashColumn) ? ((HashColumn) column).columns : null;
+    } // for
+    return column;
+  } // column(String...)
+
+  /**
+   * Rebuild one record. Null columns are left out.
+   */
+  public JSONHash row(int row) {
+    if ((row < 0) || (row >= this.rows)) {
+      throw new IndexOutOfBoundsException("Row " + row + " out of bounds for " + this.rows
+          + " rows");
+    } // if
+    JSONHash result = new JSONHash(this.columns.size());
+    for (String key : this) {
+      JSONValue value = this.columns.get(key).get(row);
+      if (value != null) {
+        result.set(new JSONString(key), value);
+      } // if
+    } // for
+    return result;
+  } // row(int)
+
+  /**
+   * Rebuild the array of records.
+   */
+  public JSONArray toArray() {
+    JSONArray result = new JSONArray();
+    result.values.ensureCapacity(this.rows);
+    for (int row = 0; row < this.rows; row++) {
+      result.values.add(this.row(row));
+    } // for
+    return result;
+  } // toArray()
+
+  // +----------+----------------------------------------------------
+  // | Building |
+  // +----------+
+
+  /**
+   * Put every pair of a hash in a row.
+   */
+  void putAll(int row, JSONHash record) {
+    Iterator<KVPair<JSONString, JSONValue>> pairs = record.iterator();
+    while (pairs.hasNext()) {
+      KVPair<JSONString, JSONValue> pair = pairs.next();
+      this.put(row, pair.key().value, pair.value());
+    } // while
+  } // putAll(int, JSONHash)
+
+  /**
+   * Put a value in a row, changing the kind of column if the value needs
+   * it. A null clears any value an earlier copy of the key put there.
+   */
+  void put(int row, String key, JSONValue value) {
+    Column column = this.columns.get(key);
+    if ((value == null) || JSONPatch.isNull(value)) {
+      if (column != null) {
+        column.clear(row);
+      } // if
+      return;
+    } // if
+    if (column == null) {
+      column = this.add(key, kindFor(value));
+    } else if (!column.accepts(value)) {
+      column = this.widen(key, column, value);
+    } // if/else
+    column.set(row, value);
+  } // put(int, String, JSONValue)
+
+  /**
+   * Put an integer in a row.
+   */
+  void putLong(int row, String key, long value) {
+    Column column = this.columns.get(key);
+    if (column == null) {
+      column = this.add(key, new LongColumn());
+    } // if
+    if (column instanceof LongColumn) {
+      ((LongColumn) column).set(row, value);
+    } else if ((column instanceof DoubleColumn) && DoubleColumn.holds(value)) {
+      ((DoubleColumn) column).setInteger(row, value);
+    } else {
+      this.put(row, key, new JSONInteger(value));
+    } // if/else
+  } // putLong(int, String, long)
+
+  /**
+   * Put a string in a row.
+   */
+  void putString(int row, String key, String value) {
+    Column column = this.columns.get(key);
+    if (column == null) {
+      column = this.add(key, new StringColumn());
+    } // if
+    if (column instanceof StringColumn) {
+      ((StringColumn) column).set(row, value);
+    } else {
+      this.put(row, key, new JSONString(value));
+    } // if/else
+  } // putString(int, String, String)
+
+  /**
+   * Get the nested columns for a hash in a row, or null if the key's
+   * column holds something other than hashes.
+   */
+  JSONColumns nested(int row, String key) {
+    Column column = this.columns.get(key);
+    if (column == null) {
+      column = this.add(key, new HashColumn());
+    } else if (!(column instanceof HashColumn)) {
+      return null;
+    } // if/else
+    column.slot(row);
+    return ((HashColumn) column).columns;
+  } // nested(int, String)
+
+  /**
+   * Add a column, whose earlier rows are all null.
+   */
+  Column add(String key, Column column) {
+    this.columns.put(key, column);
+    return column;
+  } // add(String, Column)
+
+  /**
+   * Replace a column with one that can hold both its values and another
+   * value: doubles for integers and reals, if a double holds them all
+   * exactly, and plain values otherwise.
+   */
+  Column widen(String key, Column column, JSONValue value) {
+    column.finish(column.size);
+    Column wider = ((column instanceof LongColumn) && (kindFor(value) instanceof DoubleColumn))
+        ? new DoubleColumn()
+        : new ValueColumn();
+    if (!copy(column, wider)) {
+      wider = new ValueColumn();
+      copy(column, wider);
+    } // if
+    this.columns.put(key, wider);
+    return wider;
+  } // widen(String, Column, JSONValue)
+
+  /**
+   * Copy the values of one column to another, stopping (and returning
+   * false) if one doesn't fit.
+   */
+  static boolean copy(Column from, Column to) {
+    for (int row = 0; row < from.size; row++) {
+      JSONValue value = from.get(row);
+      if (value != null) {
+        if (!to.accepts(value)) {
+          return false;
+        } // if
+        to.set(row, value);
+      } // if
+    } // for
+    return true;
+  } // copy(Column, Column)
+
+  /**
+   * Fill every column out to the number of rows and drop unused room.
+   */
+  void finish(int rows) {
+    this.rows = rows;
+    for (Column column : this.columns.values()) {
+      column.finish(rows);
+    } // for
+  } // finish(int)
+
+  /**
+   * Make an empty column of the kind that best suits a value.
+   */
+  static Column kindFor(JSONValue value) {
+    if (value instanceof JSONInteger) {
+      return (((JSONInteger) value).value.bitLength() < 64) ? new LongColumn() : new ValueColumn();
+    } else if (value instanceof JSONReal) {
+      return DoubleColumn.holds((JSONReal) value) ? new DoubleColumn() : new ValueColumn();
+    } else if (value instanceof JSONString) {
+      return new StringColumn();
+    } else if ((value instanceof JSONConstant) && (((JSONConstant) value).value instanceof Boolean)) {
+      return new BooleanColumn();
+    } else if (value instanceof JSONHash) {
+      return new HashColumn();
+    } // if/else
+    return new ValueColumn();
+  } // kindFor(JSONValue)
+
+  // +---------+-----------------------------------------------------
+  // | Reading |
+  // +---------+
+
+  /**
+   * Read a whole document, which should be an array of hashes.
+   */
+  static JSONColumns read(JSONReader in) throws ParseException, IOException {
+    JSONColumns result = new JSONColumns();
+    if (in.next() != JSONToken.BEGIN_ARRAY) {
+      throw in.error("Value is not an array", "'['");
+    } // if
+    int row = 0;
+    JSONToken token;
+    while ((token = in.next()) != JSONToken.END_ARRAY) {
+      if (token == JSONToken.BEGIN_HASH) {
+        result.readHash(row, in);
+      } else if (token != JSONToken.NULL) {
+        throw in.error("Record is not a hash", "'{'");
+      } // if/else
+      ++row;
+    } // while
+    if (in.next() != JSONToken.END_DOCUMENT) {
+      throw in.error("Unexpected content after the document", "end of input");
+    } // if
+    result.finish(row);
+    return result;
+  } // read(JSONReader)
+
+  /**
+   * Read the rest of a hash whose BEGIN_HASH we've read into a row.
+   * Numbers and strings go straight into primitive columns.
+   */
+  void readHash(int row, JSONReader in) throws ParseException, IOException {
+    while (in.next() == JSONToken.KEY) {
+      String key = in.stringValue();
+      switch (in.peek()) {
+        case NUMBER:
+          in.next();
+          JSONLexer lexer = in.lexer;
+          if (lexer.numberReal || (lexer.numberLength > JSONLexer.LONG_DIGITS)) {
+            this.put(row, key, lexer.makeNumber());
+          } else {
+            this.putLong(row, key, lexer.makeLong());
+          } // if/else
+          break;
+        case STRING:
+          in.next();
+          this.putString(row, key, in.stringValue());
+          break;
+        case NULL:
+          in.next();
+          this.put(row, key, null);
+          break;
+        case BEGIN_HASH:
+          JSONColumns nested = this.nested(row, key);
+          if (nested != null) {
+            in.next();
+            nested.readHash(row, in);
+            break;
+          } // if
+          this.put(row, key, in.readValue());
+          break;
+        default:
+          this.put(row, key, in.readValue());
+          break;
+      } // switch
+    } // while
+  } // readHash(int, JSONReader)
+
+  // +---------+-----------------------------------------------------
+  // | Columns |
+  // +---------+
+
+  /**
+   * The values for one key. Subclasses keep them in a primitive array, in
+   * which nulls take the default value.
+   */
+  public abstract static class Column {
+    /**
+     * The number of rows, counting nulls.
+     */
+    int size;
+
+    /**
+     * A bit for each row, set if the row is null.
+     */
+    long[] nulls = new long[1];
+
+    /**
+     * The number of null rows.
+     */
+    int nullCount;
+
+    /**
+     * Determine how many rows the column has.
+     */
+    public int size() {
+      return this.size;
+    } // size()
+
+    /**
+     * Determine if a row is null (or lacked the key).
+     */
+    public boolean isNull(int row) {
+      return (this.nulls[row >>> 6] & (1L << row)) != 0;
+    } // isNull(int)
+
+    /**
+     * Determine how many rows are null (or lacked the key).
+     */
+    public int nullCount() {
+      return this.nullCount;
+    } // nullCount()
+
+    /**
+     * Get the value in a row as a JSONValue, or null if it's null.
+     */
+    public abstract JSONValue get(int row);
+
+    /**
+     * Determine if a value can go in the column.
+     */
+    abstract boolean accepts(JSONValue value);
+
+    /**
+     * Put an accepted value in a row.
+     */
+    abstract void set(int row, JSONValue value);
+
+    /**
+     * Determine how many rows the primitive array has room for.
+     */
+    abstract int capacity();
+
+    /**
+     * Change the room in the primitive array.
+     */
+    abstract void resize(int capacity);
+
+    /**
+     * Forget the value in a row, which must have one.
+     */
+    abstract void erase(int row);
+
+    /**
+     * Make a row null, if it has a value.
+     */
+    void clear(int row) {
+      if ((row < this.size) && !this.isNull(row)) {
+        this.erase(row);
+        this.nulls[row >>> 6] |= 1L << row;
+        ++this.nullCount;
+      } // if
+    } // clear(int)
+
+    /**
+     * Make a row ready for a value, marking any rows we skipped as null.
+     * A row that already has a value (from a repeated key) is reused.
+     */
+    int slot(int row) {
+      if (row < this.size) {
+        if (this.isNull(row)) {
+          this.nulls[row >>> 6] &= ~(1L << row);
+          --this.nullCount;
+        } // if
+        return row;
+      } // if
+      this.fill(row + 1);
+      this.nulls[row >>> 6] &= ~(1L << row);
+      --this.nullCount;
+      return row;
+    } // slot(int)
+
+    /**
+     * Extend the column to a number of rows, with nulls.
+     */
+    void fill(int rows) {
+      if (rows > this.capacity()) {
+        int capacity = Math.max(Math.max(16, 2 * this.capacity()), rows);
+        this.resize(capacity);
+        this.nulls = Arrays.copyOf(this.nulls, (capacity + 63) >>> 6);
+      } // if
+      for (int row = this.size; row < rows; row++) {
+        this.nulls[row >>> 6] |= 1L << row;
+      } // for
+      this.nullCount += Math.max(0, rows - this.size);
+      this.size = Math.max(this.size, rows);
+    } // fill(int)
+
+    /**
+     * Fill the column out to the number of rows, without spare room, so
+     * that the primitive array has exactly one entry per row.
+     */
+    void finish(int rows) {
+      this.fill(rows);
+      if (this.capacity() != rows) {
+        this.resize(rows);
+      } // if
+    } // finish(int)
+  } // class Column
+
+  /**
+   * Integers that fit in a long.
+   */
+  public static class LongColumn extends Column {
+    /**
+     * The values, with 0 for nulls.
+     */
+    long[] values = new long[0];
+
+    /**
+     * Get the values, one per row, with 0 for nulls.
+     */
+    public long[] values() {
+      return this.values;
+    } // values()
+
+    /**
+     * Get the value in a row (0 if the row is null).
+     */
+    public long getLong(int row) {
+      return this.values[row];
+    } // getLong(int)
+
+    /**
+     * Add up the values.
+     */
+    public long sum() {
+      long sum = 0;
+      long[] values = this.values;
+      for (int row = 0; row < this.size; row++) {
+        sum += values[row];
+      } // for
+      return sum;
+    } // sum()
+
+    /**
+     * Find the smallest value, or Long.MAX_VALUE if every row is null.
+     */
+    public long min() {
+      long min = Long.MAX_VALUE;
+      long[] values = this.values;
+      boolean anyNulls = this.nullCount > 0;
+      for (int row = 0; row < this.size; row++) {
+        if ((values[row] < min) && !(anyNulls && this.isNull(row))) {
+          min = values[row];
+        } // if
+      } // for
+      return min;
+    } // min()
+
+    /**
+     * Find the largest value, or Long.MIN_VALUE if every row is null.
+     */
+    public long max() {
+      long max = Long.MIN_VALUE;
+      long[] values = this.values;
+      boolean anyNulls = this.nullCount > 0;
+      for (int row = 0; row < this.size; row++) {
+        if ((values[row] > max) && !(anyNulls && this.isNull(row))) {
+          max = values[row];
+        } // if
+      } // for
+      return max;
+    } // max()
+
+    public JSONValue get(int row) {
+      return this.isNull(row) ? null : new JSONInteger(this.values[row]);
+    } // get(int)
+
+    boolean accepts(JSONValue value) {
+      return (value instanceof JSONInteger) && (((JSONInteger) value).value.bitLength() < 64);
+    } // accepts(JSONValue)
+
+    void set(int row, JSONValue value) {
+      this.set(row, ((JSONInteger) value).value.longValue());
+    } // set(int, JSONValue)
+
+    void set(int row, long value) {
+      int slot = this.slot(row);
+      this.values[slot] = value;
+    } // set(int, long)
+
+    void erase(int row) {
+      this.values[row] = 0;
+    } // erase(int)
+
+    int capacity() {
+      return this.values.length;
+    } // capacity()
+
+    void resize(int capacity) {
+      this.values = Arrays.copyOf(this.values, capacity);
+    } // resize(int)
+  } // class LongColumn
+
+  /**
+   * Numbers, as doubles.
+   */
+  public static class DoubleColumn extends Column {
+    /**
+     * The largest integer a double holds exactly, along with every
+     * integer closer to 0.
+     */
+    static final long MAX_EXACT = 1L << 53;
+
+    /**
+     * The values, with 0 for nulls.
+     */
+    double[] values = new double[0];
+
+    /**
+     * A bit for each row, set if the row holds an integer (rather than a
+     * real), so that we rebuild it as one.
+     */
+    long[] integers = new long[0];
+
+    /**
+     * Get the values, one per row, with 0 for nulls.
+     */
+    public double[] values() {
+      return this.values;
+    } // values()
+
+    /**
+     * Get the value in a row (0 if the row is null).
+     */
+    public double getDouble(int row) {
+      return this.values[row];
+    } // getDouble(int)
+
+    /**
+     * Add up the values.
+     */
+    public double sum() {
+      double sum = 0;
+      double[] values = this.values;
+      for (int row = 0; row < this.size; row++) {
+        sum += values[row];
+      } // for
+      return sum;
+    } // sum()
+
+    /**
+     * Find the smallest value, or positive infinity if every row is null.
+     */
+    public double min() {
+      double min = Double.POSITIVE_INFINITY;
+      double[] values = this.values;
+      boolean anyNulls = this.nullCount > 0;
+      for (int row = 0; row < this.size; row++) {
+        if ((values[row] < min) && !(anyNulls && this.isNull(row))) {
+          min = values[row];
+        } // if
+      } // for
+      return min;
+    } // min()
+
+    /**
+     * Find the largest value, or negative infinity if every row is null.
+     */
+    public double max() {
+      double max = Double.NEGATIVE_INFINITY;
+      double[] values = this.values;
+      boolean anyNulls = this.nullCount > 0;
+      for (int row = 0; row < this.size; row++) {
+        if ((values[row] > max) && !(anyNulls && this.isNull(row))) {
+          max = values[row];
+        } // if
+      } // for
+      return max;
+    } // max()
+
+    /**
+     * Determine if a row holds an integer, rather than a real.
+     */
+    public boolean isInteger(int row) {
+      return (this.integers[row >>> 6] & (1L << row)) != 0;
+    } // isInteger(int)
+
+    public JSONValue get(int row) {
+      if (this.isNull(row)) {
+        return null;
+      } else if (this.isInteger(row)) {
+        return new JSONInteger((long) this.values[row]);
+      } // if/else
+      return new JSONReal(this.values[row]);
+    } // get(int)
+
+    boolean accepts(JSONValue value) {
+      if (value instanceof JSONInteger) {
+        BigInteger integer = ((JSONInteger) value).value;
+        return (integer.bitLength() < 64) && holds(integer.longValue());
+      } // if
+      return (value instanceof JSONReal) && holds((JSONReal) value);
+    } // accepts(JSONValue)
+
+    void set(int row, JSONValue value) {
+      if (value instanceof JSONInteger) {
+        this.setInteger(row, ((JSONInteger) value).value.longValue());
+      } else {
+        this.set(row, ((JSONReal) value).doubleValue());
+      } // if/else
+    } // set(int, JSONValue)
+
+    void set(int row, double value) {
+      int slot = this.slot(row);
+      this.values[slot] = value;
+      this.integers[slot >>> 6] &= ~(1L << slot);
+    } // set(int, double)
+
+    /**
+     * Put an integer (which a double holds exactly) in a row.
+     */
+    void setInteger(int row, long value) {
+      int slot = this.slot(row);
+      this.values[slot] = value;
+      this.integers[slot >>> 6] |= 1L << slot;
+    } // setInteger(int, long)
+
+    void erase(int row) {
+      this.values[row] = 0;
+      this.integers[row >>> 6] &= ~(1L << row);
+    } // erase(int)
+
+    int capacity() {
+      return this.values.length;
+    } // capacity()
+
+    void resize(int capacity) {
+      this.values = Arrays.copyOf(this.values, capacity);
+      this.integers = Arrays.copyOf(this.integers, (capacity + 63) >>> 6);
+    } // resize(int)
+
+    /**
+     * Determine if a double holds an integer exactly.
+     */
+    static boolean holds(long value) {
+      return (-MAX_EXACT <= value) && (value <= MAX_EXACT);
+    } // holds(long)
+
+    /**
+     * Determine if a double holds a real exactly: that is, if the real is
+     * written as the shortest text for its double, so that the double
+     * reads back as an equal real.
+     */
+    static boolean holds(JSONReal real) {
+      if (real.holdsDouble) {
+        return true;
+      } // if
+      BigDecimal decimal = real.value;
+      if (decimal.precision() > 17) {
+        return false;
+      } // if
+      double number = real.doubleValue();
+      return !Double.isInfinite(number)
+          && new BigDecimal(JSONNumbers.toString(number)).equals(decimal);
+    } // holds(JSONReal)
+  } // class DoubleColumn
+
+  /**
+   * True and false, as bits.
+   */
+  public static class BooleanColumn extends Column {
+    /**
+     * A bit for each row, set if the row is true.
+     */
+    long[] bits = new long[0];
+
+    /**
+     * Get the value in a row (false if the row is null).
+     */
+    public boolean getBoolean(int row) {
+      return (this.bits[row >>> 6] & (1L << row)) != 0;
+    } // getBoolean(int)
+
+    /**
+     * Count the rows that are true.
+     */
+    public int count() {
+      int count = 0;
+      for (long word : this.bits) {
+        count += Long.bitCount(word);
+      } // for
+      return count;
+    } // count()
+
+    public JSONValue get(int row) {
+      if (this.isNull(row)) {
+        return null;
+      } // if
+      return this.getBoolean(row) ? JSONConstant.TRUE : JSONConstant.FALSE;
+    } // get(int)
+
+    boolean accepts(JSONValue value) {
+      return (value instanceof JSONConstant) && (((JSONConstant) value).value instanceof Boolean);
+    } // accepts(JSONValue)
+
+    void set(int row, JSONValue value) {
+      int slot = this.slot(row);
+      if ((Boolean) ((JSONConstant) value).value) {
+        this.bits[slot >>> 6] |= 1L << slot;
+      } else {
+        this.bits[slot >>> 6] &= ~(1L << slot);
+      } // if/else
+    } // set(int, JSONValue)
+
+    void erase(int row) {
+      this.bits[row >>> 6] &= ~(1L << row);
+    } // erase(int)
+
+    int capacity() {
+      return this.bits.length << 6;
+    } // capacity()
+
+    void resize(int capacity) {
+      this.bits = Arrays.copyOf(this.bits, (capacity + 63) >>> 6);
+    } // resize(int)
+
+    void finish(int rows) {
+      this.fill(rows);
+      this.resize(rows);
+    } // finish(int)
+  } // class BooleanColumn
+
+  /**
+   * Strings, each stored as the index of its text in a dictionary of the
+   * distinct strings, so that repeated strings are kept once and grouping
+   * by a string key is a loop over ints.
+   */
+  public static class StringColumn extends Column {
+    /**
+     * The code of each row's string, with -1 for nulls.
+     */
+    int[] codes = new int[0];
+
+    /**
+     * The distinct strings, in order of first appearance.
+     */
+    ArrayList<String> dictionary = new ArrayList<String>();
+
+    /**
+     * The code for each string, while we build the column.
+     */
+    HashMap<String, Integer> lookup = new HashMap<String, Integer>();
+
+    /**
+     * Get the codes, one per row, with -1 for nulls.
+     */
+    public int[] codes() {
+      return this.codes;
+    } // codes()
+
+    /**
+     * Get the distinct strings. Code i stands for the ith.
+     */
+    public String[] dictionary() {
+      return this.dictionary.toArray(new String[this.dictionary.size()]);
+    } // dictionary()
+
+    /**
+     * Get the string in a row, or null if the row is null.
+     */
+    public String getString(int row) {
+      int code = this.codes[row];
+      return (code < 0) ? null : this.dictionary.get(code);
+    } // getString(int)
+
+    /**
+     * Count the rows with each string, indexed by code.
+     */
+    public int[] counts() {
+      int[] counts = new int[this.dictionary.size()];
+      int[] codes = this.codes;
+      for (int row = 0; row < this.size; row++) {
+        if (codes[row] >= 0) {
+          ++counts[codes[row]];
+        } // if
+      } // for
+      return counts;
+    } // counts()
+
+    /**
+     * Add up a column of integers for each string, indexed by code.
+     */
+    public long[] sums(LongColumn column) {
+      long[] sums = new long[this.dictionary.size()];
+      int[] codes = this.codes;
+      long[] values = column.values;
+      int rows = Math.min(this.size, column.size);
+      for (int row = 0; row < rows; row++) {
+        if (codes[row] >= 0) {
+          sums[codes[row]] += values[row];
+        } // if
+      } // for
+      return sums;
+    } // sums(LongColumn)
+
+    /**
+     * Add up a column of numbers for each string, indexed by code.
+     */
+    public double[] sums(DoubleColumn column) {
+      double[] sums = new double[this.dictionary.size()];
+      int[] codes = this.codes;
+      double[] values = column.values;
+      int rows = Math.min(this.size, column.size);
+      for (int row = 0; row < rows; row++) {
+        if (codes[row] >= 0) {
+          sums[codes[row]] += values[row];
+        } // if
+      } // for
+      return sums;
+    } // sums(DoubleColumn)
+
+    public JSONValue get(int row) {
+      String text = this.getString(row);
+      return (text == null) ? null : new JSONString(text);
+    } // get(int)
+
+    boolean accepts(JSONValue value) {
+      return value instanceof JSONString;
+    } // accepts(JSONValue)
+
+    void set(int row, JSONValue value) {
+      this.set(row, ((JSONString) value).value);
+    } // set(int, JSONValue)
+
+    void set(int row, String text) {
+      Integer code = this.lookup.get(text);
+      if (code == null) {
+        code = this.dictionary.size();
+        this.dictionary.add(text);
+        this.lookup.put(text, code);
+      } // if
+      int slot = this.slot(row);
+      this.codes[slot] = code;
+    } // set(int, String)
+
+    void erase(int row) {
+      this.codes[row] = -1;
+    } // erase(int)
+
+    int capacity() {
+      return this.codes.length;
+    } // capacity()
+
+    void resize(int capacity) {
+      int old = this.codes.length;
+      this.codes = Arrays.copyOf(this.codes, capacity);
+      if (capacity > old) {
+        Arrays.fill(this.codes, old, capacity, -1);
+      } // if
+    } // resize(int)
+
+    void finish(int rows) {
+      super.finish(rows);
+      this.lookup = null;
+    } // finish(int)
+  } // class StringColumn
+
+  /**
+   * Hashes, whose keys have columns of their own, with a row for every
+   * row of this column.
+   */
+  public static class HashColumn extends Column {
+    /**
+     * The columns for the keys of the hashes.
+     */
+    JSONColumns columns = new JSONColumns();
+
+    /**
+     * The number of rows we have room for, which the nested columns
+     * manage themselves.
+     */
+    int capacity;
+
+    /**
+     * Get the columns for the keys of the hashes.
+     */
+    public JSONColumns columns() {
+      return this.columns;
+    } // columns()
+
+    public JSONValue get(int row) {
+      return this.isNull(row) ? null : this.columns.row(row);
+    } // get(int)
+
+    boolean accepts(JSONValue value) {
+      return value instanceof JSONHash;
+    } // accepts(JSONValue)
+
+    void set(int row, JSONValue value) {
+      this.slot(row);
+      this.columns.putAll(row, (JSONHash) value);
+    } // set(int, JSONValue)
+
+    void erase(int row) {
+      for (Column column : this.columns.columns.values()) {
+        column.clear(row);
+      } // for
+    } // erase(int)
+
+    int slot(int row) {
+      // A repeated key replaces the whole hash.
+      if ((row < this.size) && !this.isNull(row)) {
+        this.erase(row);
+      } // if
+      return super.slot(row);
+    } // slot(int)
+
+    int capacity() {
+      return this.capacity;
+    } // capacity()
+
+    void resize(int capacity) {
+      this.capacity = capacity;
+    } // resize(int)
+
+    void finish(int rows) {
+      super.finish(rows);
+      this.columns.finish(rows);
+    } // finish(int)
+  } // class HashColumn
+
+  /**
+   * Anything else (arrays, and keys with values of mixed types), as
+   * plain values.
+   */
+  public static class ValueColumn extends Column {
+    /**
+     * The values, with null for nulls.
+     */
+    JSONValue[] values = new JSONValue[0];
+
+    /**
+     * Get the values, one per row, with null for nulls.
+     */
+    public JSONValue[] values() {
+      return this.values;
+    } // values()
+
+    public JSONValue get(int row) {
+      return this.values[row];
+    } // get(int)
+
+    boolean accepts(JSONValue value) {
+      return true;
+    } // accepts(JSONValue)
+
+    void set(int row, JSONValue value) {
+      int slot = this.slot(row);
+      this.values[slot] = value;
+    } // set(int, JSONValue)
+
+    void erase(int row) {
+      this.values[row] = null;
+    } // erase(int)
+
+    int capacity() {
+      return this.values.length;
+    } // capacity()
+
+    void resize(int capacity) {
+      this.values = Arrays.copyOf(this.values, capacity);
+    } // resize(int)
+  } // class ValueColumn
+} // class JSONColumns
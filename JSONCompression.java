@@ -0,0 +1,267 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compressed input and output. Compressed input is recognized from its
+ * first bytes (gzip, or zlib-wrapped deflate), and is inflated on a
+ * thread of its own, a buffer ahead of whoever is reading it, so that
+ * inflating and parsing overlap rather than take turns. The two threads
+ * pass a small pool of buffers back and forth, so nothing is allocated
+ * once they're going.
+ *
+ * Streams from decompress must be closed, which stops the inflating
+ * thread if the reader stops early.
+ */
+public class JSONCompression {
+
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The size of each buffer passed between threads.
+   */
+  static final int CHUNK_SIZE = 1 << 16;
+
+  /**
+   * The number of buffers in each pipeline.
+   */
+  static final int CHUNKS = 4;
+
+  /**
+   * The chunk that marks the end of the input.
+   */
+  static final Chunk END = new Chunk(0);
+
+  // +----------------+----------------------------------------------
+  // | Static methods |
+  // +----------------+
+
+  /**
+   * Get a stream of the uncompressed contents of in, which may be
+   * gzipped, zlib-compressed, or not compressed at all.
+   */
+  public static InputStream decompress(InputStream in) throws IOException {
+    PushbackInputStream source = new PushbackInputStream(in, 2);
+    byte[] magic = new byte[2];
+    int count = 0;
+    while (count < 2) {
+      int read = source.read(magic, count, 2 - count);
+      if (read < 0) {
+        break;
+      } // if
+      count += read;
+    } // while
+    source.unread(magic, 0, count);
+    if (count < 2) {
+      return source;
+    } // if
+    int first = magic[0] & 0xFF;
+    int second = magic[1] & 0xFF;
+    if ((first == 0x1F) && (second == 0x8B)) {
+      return new Pipeline(new GZIPInputStream(source, CHUNK_SIZE));
+    } else if ((first == 0x78) && (((first << 8) | second) % 31 == 0)) {
+      // Every zlib encoder uses a 32K window, which gives 0x78, a byte
+      // JSON text can't start with.
+      return new Pipeline(new InflaterInputStream(source));
+    } // if/else
+    return source;
+  } // decompress(InputStream)
+
+  /**
+   * Get a stream that gzips what is written to it, and writes the result
+   * to out. Closing it finishes the gzip format and closes out.
+   */
+  public static OutputStream gzip(OutputStream out) throws IOException {
+    return new GZIPOutputStream(out, CHUNK_SIZE);
+  } // gzip(OutputStream)
+
+  // +---------------+-----------------------------------------------
+  // | Inner classes |
+  // +---------------+
+
+  /**
+   * A buffer passed between threads.
+   */
+  static class Chunk {
+    /**
+     * The bytes.
+     */
+    final byte[] data;
+
+    /**
+     * The number of valid bytes (none, for END).
+     */
+    int length;
+
+    Chunk(int size) {
+      this.data = new byte[size];
+    } // Chunk(int)
+  } // class Chunk
+
+  /**
+   * A stream whose contents are read from another on a separate thread.
+   */
+  static class Pipeline extends InputStream {
+    /**
+     * Where the contents come from (read only by the worker).
+     */
+    final InputStream source;
+
+    /**
+     * Chunks the worker has filled, in order.
+     */
+    final ArrayBlockingQueue<Chunk> full = new ArrayBlockingQueue<Chunk>(CHUNKS + 1);
+
+    /**
+     * Chunks the worker may fill.
+     */
+    final ArrayBlockingQueue<Chunk> empty = new ArrayBlockingQueue<Chunk>(CHUNKS);
+
+    /**
+     * The thread reading source.
+     */
+    final Thread worker;
+
+    /**
+     * What went wrong reading source, if anything.
+     */
+    volatile Exception failure;
+
+    /**
+     * The chunk we're reading from, or null.
+     */
+    Chunk current;
+
+    /**
+     * The position of the next unread byte in current.
+     */
+    int pos;
+
+    /**
+     * Whether we've reached the end.
+     */
+    boolean done;
+
+    Pipeline(InputStream source) {
+      this.source = source;
+      for (int i = 0; i < CHUNKS; i++) {
+        this.empty.add(new Chunk(CHUNK_SIZE));
+      } // for
+      this.worker = new Thread(this::fill, "JSON inflater");
+      this.worker.setDaemon(true);
+      this.worker.start();
+    } // Pipeline(InputStream)
+
+    /**
+     * Read a byte.
+     */
+    public int read() throws IOException {
+      byte[] one = new byte[1];
+      return (this.read(one, 0, 1) < 0) ? -1 : one[0] & 0xFF;
+    } // read()
+
+    /**
+     * Read up to len bytes.
+     */
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      } // if
+      if ((this.current == null) || (this.pos == this.current.length)) {
+        if (!this.advance()) {
+          return -1;
+        } // if
+      } // if
+      int count = Math.min(len, this.current.length - this.pos);
+      System.arraycopy(this.current.data, this.pos, b, off, count);
+      this.pos += count;
+      return count;
+    } // read(byte[], int, int)
+
+    /**
+     * Stop the worker, once it finishes any read it's in the middle of,
+     * and close the source.
+     */
+    public void close() throws IOException {
+      this.done = true;
+      this.worker.interrupt();
+      try {
+        this.worker.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } // try/catch
+      this.source.close();
+    } // close()
+
+    /**
+     * Give the current chunk back and wait for the next. Returns false at
+     * the end of the input.
+     */
+    private boolean advance() throws IOException {
+      if (this.done) {
+        return false;
+      } // if
+      if (this.current != null) {
+        this.empty.add(this.current);
+        this.current = null;
+      } // if
+      Chunk next;
+      try {
+        next = this.full.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted waiting for input");
+      } // try/catch
+      if (next == END) {
+        this.done = true;
+        if (this.failure != null) {
+          throw new IOException(this.failure.getMessage(), this.failure);
+        } // if
+        return false;
+      } // if
+      this.current = next;
+      this.pos = 0;
+      return true;
+    } // advance()
+
+    /**
+     * Fill chunks from the source until it ends, fails, or we're closed.
+     */
+    private void fill() {
+      try {
+        while (true) {
+          Chunk chunk = this.empty.take();
+          int count = 0;
+          while (count < CHUNK_SIZE) {
+            int read = this.source.read(chunk.data, count, CHUNK_SIZE - count);
+            if (read < 0) {
+              break;
+            } // if
+            count += read;
+          } // while
+          if (count > 0) {
+            chunk.length = count;
+            this.full.put(chunk);
+          } // if
+          if (count < CHUNK_SIZE) {
+            break;
+          } // if
+        } // while
+      } catch (InterruptedException e) {
+        // We've been closed.
+        return;
+      } catch (IOException | RuntimeException e) {
+        this.failure = e;
+      } // try/catch
+      this.full.add(END);
+    } // fill()
+  } // class Pipeline
+} // class JSONCompression
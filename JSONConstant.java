@@ -1,4 +1,5 @@
 import java.io.PrintWriter;
+import java.util.Objects;
 
 /**
  * JSON constants.
@@ -63,9 +64,10 @@ public class JSONConstant implements JSONValue {
    * Compare to another object.
    */
   public boolean equals(Object other) {
-    return (((other instanceof JSONConstant) 
-            && (this.value.equals(((JSONConstant) other).value)))
-            || (this.value.equals(other)));
+    if (other instanceof JSONConstant) {
+      return Objects.equals(this.value, ((JSONConstant) other).value);
+    } // if
+    return (this.value != null) && this.value.equals(other);
   } // equals(Object)
 
   /**
@@ -89,6 +91,14 @@ public class JSONConstant implements JSONValue {
     pen.printf(this.toString());
   } // writeJSON(PrintWriter)
 
+  /**
+   * Estimate the bytes held by the constant, which is none, since there's
+   * only one of each.
+   */
+  public long estimatedRetainedBytes() {
+    return 0;
+  } // estimatedRetainedBytes()
+
   /**
    * Get the underlying value.
    */
@@ -1,10 +1,20 @@
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.Random;
+import java.util.Spliterator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * JSON hashes/objects.
+ *
+ * A hash starts out with a shape (see JSONShape), which it shares with
+ * every other hash built from the same keys in the same order, and keeps
+ * only its values. Removing a key, or adding one that the shapes can't
+ * accommodate, moves the hash to a hash table of its own for good.
  * 
  * @author Arsal Shaikh
  * @author Pranav Kapoor Bhandari
@@ -33,24 +43,64 @@ public class JSONHash implements JSONValue {
   int size = 0;
 
   /**
-   * The array that we use to store the key/value pairs.
+   * The keys and their slots in values, or null once the hash uses a
+   * table.
    */
-  Object[] buckets = new Object[4];
+  JSONShape shape = JSONShape.EMPTY;
 
   /**
-   * Our helpful random number generator, used primarily when expanding the size
-   * of the table..
+   * The values, in the order of the shape's keys (or null, if there are
+   * none yet or the hash uses a table).
    */
-  Random rand;
+  JSONValue[] values;
+
+  /**
+   * The array that we use to store the key/value pairs, once the hash
+   * uses a table (or null, while it has a shape).
+   */
+  Object[] buckets;
+
+  /**
+   * The shape the hash had before it switched to a table (or null). The
+   * table shares its keys, so they aren't counted as the hash's own.
+   */
+  JSONShape former;
+
+  /**
+   * Whether the hash (and everything in it) has been frozen.
+   */
+  boolean frozen = false;
+
+  /**
+   * The hash code, once computed for a frozen hash (or 0).
+   */
+  int hash;
+
+  /**
+   * The estimated retained bytes, once computed for a frozen hash (or 0).
+   */
+  long bytes;
 
   // +--------------+------------------------------------------------
   // | Constructors |
   // +--------------+
 
   public JSONHash() {
-    this.rand = new Random();
   } // JSONHash()
 
+  /**
+   * Build a hash with room for the given number of pairs, so that adding
+   * them won't need to grow anything.
+   */
+  JSONHash(int capacity) {
+    if (capacity > JSONShape.MAX_KEYS) {
+      this.shape = null;
+      this.buckets = new Object[(int) (capacity / LOAD_FACTOR) + 1];
+    } else if (capacity > 0) {
+      this.values = new JSONValue[capacity];
+    } // if/else
+  } // JSONHash(int)
+
   // +-------------------------+-------------------------------------
   // | Standard object methods |
   // +-------------------------+
@@ -73,43 +123,19 @@ public class JSONHash implements JSONValue {
   } // toString()
 
   /**
-   * Compare to another object.
+   * Compare to another object. Ordinary and persistent hashes with the
+   * same pairs, in any order, are equal.
    */
   public boolean equals(Object other) {
-    if (!(other instanceof JSONHash)) {
-      return false;
-    } // if
-
-    Iterator<KVPair<JSONString,JSONValue>> iter = this.iterator();
-    JSONHash otherHash = (JSONHash) other;
-    JSONString thisKey;
-    JSONValue otherValue;
-    while (iter.hasNext()) {
-      // Get pair from this
-      KVPair<JSONString, JSONValue> pair = (KVPair<JSONString, JSONValue>) iter.next();
-      thisKey = pair.key();
-      JSONValue thisValue = pair.value();
-      
-      try {
-        otherValue = otherHash.get(thisKey);
-        if (!thisValue.equals(otherValue)) {
-          return false;
-        } // if
-      } catch (IndexOutOfBoundsException e) {
-        // if value not found
-        return false;
-      } // try catch
-
-    } // while
-    
-    return true; 
+    return JSON.equal(this, other);
   } // equals(Object)
 
   /**
-   * Compute the hash code.
+   * Compute the hash code, which doesn't depend on the order of the pairs.
+   * Frozen hashes remember it.
    */
   public int hashCode() {
-    return this.buckets.hashCode();
+    return JSON.hashCode(this);
   } // hashCode()
 
   // +--------------------+------------------------------------------
@@ -120,9 +146,17 @@ public class JSONHash implements JSONValue {
    * Write the value as JSON.
    */
   public void writeJSON(PrintWriter pen) {
-    pen.printf(this.toString());
+    JSONWriter.print(this, pen);
   } // writeJSON(PrintWriter)
 
+  /**
+   * Estimate the bytes held by the hash and everything in it; frozen
+   * hashes remember the total.
+   */
+  public long estimatedRetainedBytes() {
+    return JSONMemory.retainedBytes(this);
+  } // estimatedRetainedBytes()
+
   /**
    * Get the underlying value.
    */
@@ -134,42 +168,139 @@ public class JSONHash implements JSONValue {
   // | Hashtable methods |
   // +-------------------+
 
+  /**
+   * Determine if the hash contains a key.
+   */
   public boolean containsKey(JSONString key) {
-    try {
-      get(key);
-      return true;
-    } catch (Exception e) {
-      return false;
-    } // try catch
+    if (this.shape != null) {
+      return this.shape.indexOf(key) >= 0;
+    } // if
+    return this.findPair(key) != null;
   } // containsKey(JSONString)
 
+  /**
+   * Determine if the hash contains a key, given as plain text.
+   */
+  public boolean containsKey(CharSequence key) {
+    if (this.shape != null) {
+      return this.shape.indexOf(key) >= 0;
+    } // if
+    return this.findPair(key) != null;
+  } // containsKey(CharSequence)
+
   /**
    * Get the value associated with a key.
+   *
+   * @throws IndexOutOfBoundsException if the key is not in the hash.
    */
   public JSONValue get(JSONString key) {
-    int index = find(key);
-    @SuppressWarnings("unchecked")
-    ArrayList<KVPair<JSONString, JSONValue>> alist =
-        (ArrayList<KVPair<JSONString, JSONValue>>) buckets[index];
-    
-    if (alist == null) {
+    if (!this.containsKey(key)) {
       throw new IndexOutOfBoundsException("Invalid key: " + key.toString());
-    } 
+    } // if
+    return this.lookup(key, null);
+  } // get(JSONString)
 
-    for (KVPair<JSONString, JSONValue> pair : alist) {
-      if (pair.key().equals(key)) {
-        return pair.value();
-      } // if
-    } // for
+  /**
+   * Get the value associated with a key, or null if there is none.
+   */
+  public JSONValue getOrNull(JSONString key) {
+    return this.lookup(key, null);
+  } // getOrNull(JSONString)
 
-    // if not found
-    throw new IndexOutOfBoundsException("Invalid key: " + key.toString());
-  } // get(JSONString)
+  /**
+   * Get the value associated with a key given as plain text, or null if
+   * there is none. No JSONString is allocated.
+   */
+  public JSONValue getOrNull(CharSequence key) {
+    return this.lookup(key, null);
+  } // getOrNull(CharSequence)
+
+  /**
+   * Get the value associated with a key, or otherwise if there is none.
+   */
+  public JSONValue getOrDefault(JSONString key, JSONValue otherwise) {
+    return this.lookup(key, otherwise);
+  } // getOrDefault(JSONString, JSONValue)
+
+  /**
+   * Get the value associated with a key given as plain text, or otherwise
+   * if there is none.
+   */
+  public JSONValue getOrDefault(CharSequence key, JSONValue otherwise) {
+    return this.lookup(key, otherwise);
+  } // getOrDefault(CharSequence, JSONValue)
+
+  /**
+   * Get the string associated with a key, or otherwise if the key is
+   * missing or its value is not a string.
+   */
+  public String getString(CharSequence key, String otherwise) {
+    return JSON.asString(this.getOrNull(key), otherwise);
+  } // getString(CharSequence, String)
+
+  /**
+   * Get the integer associated with a key, or otherwise if the key is
+   * missing or its value is not an integer that fits in a long.
+   */
+  public long getLong(CharSequence key, long otherwise) {
+    return JSON.asLong(this.getOrNull(key), otherwise);
+  } // getLong(CharSequence, long)
+
+  /**
+   * Get the number associated with a key, or otherwise if the key is
+   * missing or its value is not a number.
+   */
+  public double getDouble(CharSequence key, double otherwise) {
+    return JSON.asDouble(this.getOrNull(key), otherwise);
+  } // getDouble(CharSequence, double)
+
+  /**
+   * Get the boolean associated with a key, or otherwise if the key is
+   * missing or its value is not true or false.
+   */
+  public boolean getBoolean(CharSequence key, boolean otherwise) {
+    return JSON.asBoolean(this.getOrNull(key), otherwise);
+  } // getBoolean(CharSequence, boolean)
+
+  /**
+   * Get the hash associated with a key, or null if the key is missing or
+   * its value is not a hash.
+   */
+  public JSONHash getHash(CharSequence key) {
+    JSONValue value = this.getOrNull(key);
+    return (value instanceof JSONHash) ? (JSONHash) value : null;
+  } // getHash(CharSequence)
+
+  /**
+   * Get the array associated with a key, or null if the key is missing or
+   * its value is not an array.
+   */
+  public JSONArray getArray(CharSequence key) {
+    JSONValue value = this.getOrNull(key);
+    return (value instanceof JSONArray) ? (JSONArray) value : null;
+  } // getArray(CharSequence)
 
   /**
    * Get all of the key/value pairs.
    */
   public Iterator<KVPair<JSONString, JSONValue>> iterator() {
+    if (this.shape != null) {
+      return new Iterator<KVPair<JSONString,JSONValue>>() {
+        int slot = 0;
+
+        public boolean hasNext() {
+          return this.slot < JSONHash.this.size;
+        } // hasNext()
+
+        public KVPair<JSONString,JSONValue> next() {
+          if (!this.hasNext()) {
+            throw new IndexOutOfBoundsException();
+          } // if
+          JSONString key = JSONHash.this.shape.keys[this.slot];
+          return new KVPair<JSONString, JSONValue>(key, JSONHash.this.values[this.slot++]);
+        } // next()
+      }; // new Iterator
+    } // if
     return new Iterator<KVPair<JSONString,JSONValue>>() {
       int numVisited = 0;
       int currentBucket = 0;
@@ -185,36 +316,77 @@ public class JSONHash implements JSONValue {
           throw new IndexOutOfBoundsException();
         } // if
 
-        ArrayList<KVPair<JSONString, JSONValue>> alist = 
-            (ArrayList<KVPair<JSONString, JSONValue>>) JSONHash.this.buckets[currentBucket];
-        
-        // if the bucket is null then skip it
-        if (alist == null) {
+        // Skip past empty buckets, and buckets we've finished, with a loop
+        // (sparse tables can have long runs of them).
+        while (true) {
+          ArrayList<KVPair<JSONString, JSONValue>> alist =
+              (ArrayList<KVPair<JSONString, JSONValue>>) JSONHash.this.buckets[currentBucket];
+          if ((alist != null) && (nextPair < alist.size())) {
+            numVisited++;
+            return alist.get(nextPair++);
+          } // if
           currentBucket++;
           nextPair = 0;
-          return this.next();
-        } // if
-        
-        int index = nextPair;
-        nextPair = (index + 1) % alist.size();
-        
-        // if reached end of alist then go to the next bucket
-        if (nextPair == 0) {
-          currentBucket++;
-        } // if
-
-        numVisited++;
-        return alist.get(index);
+        } // while
       } // next()
     }; // new Iterator
   } // iterator()
 
+  /**
+   * Get a spliterator for the pairs, which splits them evenly, in the
+   * same order as iterator.
+   */
+  public Spliterator<KVPair<JSONString, JSONValue>> spliterator() {
+    int end = (this.shape != null) ? this.size : this.buckets.length;
+    return new Pairs(this, 0, end, 0, this.size, null);
+  } // spliterator()
+
+  /**
+   * Get a stream of the pairs.
+   */
+  public Stream<KVPair<JSONString, JSONValue>> stream() {
+    return StreamSupport.stream(this.spliterator(), false);
+  } // stream()
+
+  /**
+   * Get a parallel stream of the pairs. Don't modify the hash while it
+   * runs.
+   */
+  public Stream<KVPair<JSONString, JSONValue>> parallelStream() {
+    return StreamSupport.stream(this.spliterator(), true);
+  } // parallelStream()
+
   /**
    * Set the value associated with a key.
    */
   @SuppressWarnings("unchecked")
   public void set(JSONString key, JSONValue value) {
+    if (this.frozen) {
+      throw new UnsupportedOperationException("Cannot modify a frozen hash");
+    } // if
     boolean keyExists = false;
+
+    // While we have a shape, replace the value in its slot or move to
+    // the shape with one more key.
+    if (this.shape != null) {
+      int slot = this.shape.indexOf(key);
+      if (slot >= 0) {
+        this.values[slot] = value;
+        return;
+      } // if
+      JSONShape next = this.shape.with(key);
+      if (next != null) {
+        if (this.values == null) {
+          this.values = new JSONValue[4];
+        } else if (this.size == this.values.length) {
+          this.values = Arrays.copyOf(this.values, 2 * this.size);
+        } // if/else
+        this.values[this.size++] = value;
+        this.shape = next;
+        return;
+      } // if
+      this.useTable();
+    } // if
     
     // If there are too many entries, expand the table.
     if (this.size > (this.buckets.length * LOAD_FACTOR)) {
@@ -249,6 +421,54 @@ public class JSONHash implements JSONValue {
     } // if
   } // set(JSONString, JSONValue)
 
+  /**
+   * Remove a key and its value, returning the value (or null if the key
+   * wasn't there).
+   */
+  @SuppressWarnings("unchecked")
+  public JSONValue remove(JSONString key) {
+    if (this.frozen) {
+      throw new UnsupportedOperationException("Cannot modify a frozen hash");
+    } // if
+    if (this.shape != null) {
+      if (this.shape.indexOf(key) < 0) {
+        return null;
+      } // if
+      this.useTable();
+    } // if
+    ArrayList<KVPair<JSONString, JSONValue>> alist =
+        (ArrayList<KVPair<JSONString, JSONValue>>) this.buckets[find(key)];
+    if (alist != null) {
+      for (int i = 0; i < alist.size(); i++) {
+        if (alist.get(i).key().equals(key)) {
+          JSONValue value = alist.remove(i).value();
+          if (alist.isEmpty()) {
+            this.buckets[find(key)] = null;
+          } // if
+          --this.size;
+          return value;
+        } // if
+      } // for
+    } // if
+    return null;
+  } // remove(JSONString)
+
+  /**
+   * Make this hash and everything in it immutable. Later calls to set
+   * throw an UnsupportedOperationException.
+   */
+  public JSONHash freeze() {
+    JSON.freeze(this);
+    return this;
+  } // freeze()
+
+  /**
+   * Determine if this hash has been frozen.
+   */
+  public boolean isFrozen() {
+    return this.frozen;
+  } // isFrozen()
+
   /**
    * Find out how many key/value pairs are in the hash table.
    */
@@ -262,7 +482,7 @@ public class JSONHash implements JSONValue {
   @SuppressWarnings("unchecked")
   private void expand() {
     // Figure out the size of the new table
-    int newSize = (2 * this.buckets.length) + rand.nextInt(10);
+    int newSize = (2 * this.buckets.length) + ThreadLocalRandom.current().nextInt(10);
     // Remember the old table
     Object[] oldBuckets = this.buckets;
     // Create a new table of that size.
@@ -280,10 +500,278 @@ public class JSONHash implements JSONValue {
     } // for
   } // expand()
 
+  /**
+   * Move the pairs from the shape and values to a table of their own.
+   */
+  private void useTable() {
+    JSONShape oldShape = this.shape;
+    JSONValue[] oldValues = this.values;
+    int count = this.size;
+    this.shape = null;
+    this.values = null;
+    this.size = 0;
+    this.former = oldShape;
+    this.buckets = new Object[Math.max(4, (int) (count / LOAD_FACTOR) + 1)];
+    for (int i = 0; i < count; i++) {
+      this.set(oldShape.keys[i], oldValues[i]);
+    } // for
+  } // useTable()
+
+  /**
+   * Drop any unused room for values, once the hash is complete.
+   */
+  void trim() {
+    if ((this.values != null) && (this.values.length > this.size)) {
+      this.values = Arrays.copyOf(this.values, this.size);
+    } // if
+  } // trim()
+
+  /**
+   * Empty the hash so that an arena can hand it out again, keeping the
+   * room for values.
+   */
+  void reset() {
+    if (this.values != null) {
+      Arrays.fill(this.values, 0, Math.min(this.size, this.values.length), null);
+    } // if
+    this.shape = JSONShape.EMPTY;
+    this.buckets = null;
+    this.former = null;
+    this.size = 0;
+    this.frozen = false;
+    this.hash = 0;
+    this.bytes = 0;
+  } // reset()
+
+  /**
+   * Get the value associated with a key, or otherwise if there is none.
+   */
+  private JSONValue lookup(JSONString key, JSONValue otherwise) {
+    if (this.shape != null) {
+      int slot = this.shape.indexOf(key);
+      return (slot < 0) ? otherwise : this.values[slot];
+    } // if
+    KVPair<JSONString, JSONValue> pair = this.findPair(key);
+    return (pair == null) ? otherwise : pair.value();
+  } // lookup(JSONString, JSONValue)
+
+  /**
+   * Get the value associated with a key given as plain text, or otherwise
+   * if there is none.
+   */
+  private JSONValue lookup(CharSequence key, JSONValue otherwise) {
+    if (this.shape != null) {
+      int slot = this.shape.indexOf(key);
+      return (slot < 0) ? otherwise : this.values[slot];
+    } // if
+    KVPair<JSONString, JSONValue> pair = this.findPair(key);
+    return (pair == null) ? otherwise : pair.value();
+  } // lookup(CharSequence, JSONValue)
+
+  /**
+   * Find the pair for a key, or null if there is none.
+   */
+  @SuppressWarnings("unchecked")
+  KVPair<JSONString, JSONValue> findPair(JSONString key) {
+    ArrayList<KVPair<JSONString, JSONValue>> alist =
+        (ArrayList<KVPair<JSONString, JSONValue>>) this.buckets[find(key)];
+    if (alist != null) {
+      for (int i = 0; i < alist.size(); i++) {
+        KVPair<JSONString, JSONValue> pair = alist.get(i);
+        if (pair.key().equals(key)) {
+          return pair;
+        } // if
+      } // for
+    } // if
+    return null;
+  } // findPair(JSONString)
+
+  /**
+   * Find the pair for a key given as plain text, or null if there is none.
+   */
+  @SuppressWarnings("unchecked")
+  KVPair<JSONString, JSONValue> findPair(CharSequence key) {
+    ArrayList<KVPair<JSONString, JSONValue>> alist =
+        (ArrayList<KVPair<JSONString, JSONValue>>) this.buckets[indexFor(hashOf(key))];
+    if (alist != null) {
+      for (int i = 0; i < alist.size(); i++) {
+        KVPair<JSONString, JSONValue> pair = alist.get(i);
+        if (pair.key().value.contentEquals(key)) {
+          return pair;
+        } // if
+      } // for
+    } // if
+    return null;
+  } // findPair(CharSequence)
+
+  /**
+   * Compute the hash code a JSONString with the given text would have
+   * (which is the hash code of the equivalent String).
+   */
+  static int hashOf(CharSequence key) {
+    if (key instanceof String) {
+      return key.hashCode();
+    } // if
+    int hash = 0;
+    for (int i = 0; i < key.length(); i++) {
+      hash = (31 * hash) + key.charAt(i);
+    } // for
+    return hash;
+  } // hashOf(CharSequence)
+
   /**
    * Calculate the hash of the key to get the index to the store the key.
    */
   private int find(JSONString key) {
-    return Math.abs(key.hashCode()) % this.buckets.length;
+    return indexFor(key.hashCode());
   } // find(JSONString)
+
+  /**
+   * Turn a hash code into a bucket index. (Math.abs won't do, since
+   * Math.abs(Integer.MIN_VALUE) is negative.)
+   */
+  private int indexFor(int hash) {
+    return (hash & Integer.MAX_VALUE) % this.buckets.length;
+  } // indexFor(int)
+
+  // +---------------+-----------------------------------------------
+  // | Inner classes |
+  // +---------------+
+
+  /**
+   * Splits and walks the pairs of a hash: by slot while the hash has a
+   * shape, and by bucket once it has a table. For tables, we count the
+   * pairs before each bucket when we first split, so that we can split
+   * at the middle pair rather than the middle bucket, and know exactly
+   * how many pairs each part has.
+   */
+  static class Pairs implements Spliterator<KVPair<JSONString, JSONValue>> {
+    /**
+     * The hash.
+     */
+    final JSONHash hash;
+
+    /**
+     * The next slot or bucket.
+     */
+    int lo;
+
+    /**
+     * The slot or bucket after the last one.
+     */
+    int hi;
+
+    /**
+     * The next pair in bucket lo, for tables.
+     */
+    int pair;
+
+    /**
+     * The number of pairs left.
+     */
+    int remaining;
+
+    /**
+     * For tables, the number of pairs in the buckets before each bucket
+     * (or null, until we first split).
+     */
+    int[] before;
+
+    Pairs(JSONHash hash, int lo, int hi, int pair, int remaining, int[] before) {
+      this.hash = hash;
+      this.lo = lo;
+      this.hi = hi;
+      this.pair = pair;
+      this.remaining = remaining;
+      this.before = before;
+    } // Pairs(JSONHash, int, int, int, int, int[])
+
+    /**
+     * Give the next pair to action, if there is one.
+     */
+    @SuppressWarnings("unchecked")
+    public boolean tryAdvance(Consumer<? super KVPair<JSONString, JSONValue>> action) {
+      if (this.remaining == 0) {
+        return false;
+      } // if
+      --this.remaining;
+      if (this.hash.shape != null) {
+        JSONString key = this.hash.shape.keys[this.lo];
+        action.accept(new KVPair<JSONString, JSONValue>(key, this.hash.values[this.lo++]));
+        return true;
+      } // if
+      while (true) {
+        ArrayList<KVPair<JSONString, JSONValue>> alist =
+            (ArrayList<KVPair<JSONString, JSONValue>>) this.hash.buckets[this.lo];
+        if ((alist != null) && (this.pair < alist.size())) {
+          action.accept(alist.get(this.pair++));
+          return true;
+        } // if
+        ++this.lo;
+        this.pair = 0;
+      } // while
+    } // tryAdvance(Consumer)
+
+    /**
+     * Hand off the first half of the pairs left.
+     */
+    @SuppressWarnings("unchecked")
+    public Pairs trySplit() {
+      if (this.remaining < 2) {
+        return null;
+      } // if
+      if (this.hash.shape != null) {
+        int mid = this.lo + this.remaining / 2;
+        Pairs first = new Pairs(this.hash, this.lo, mid, 0, mid - this.lo, null);
+        this.remaining -= mid - this.lo;
+        this.lo = mid;
+        return first;
+      } // if
+
+      Object[] buckets = this.hash.buckets;
+      if (this.before == null) {
+        this.before = new int[buckets.length + 1];
+        for (int i = 0; i < buckets.length; i++) {
+          int count = (buckets[i] == null) ? 0 : ((ArrayList<?>) buckets[i]).size();
+          this.before[i + 1] = this.before[i] + count;
+        } // for
+      } // if
+      // Find the first bucket at or after the middle pair.
+      int done = this.before[this.lo] + this.pair;
+      int goal = done + this.remaining / 2;
+      int low = this.lo + 1;
+      int high = this.hi;
+      while (low < high) {
+        int mid = (low + high) >>> 1;
+        if (this.before[mid] < goal) {
+          low = mid + 1;
+        } else {
+          high = mid;
+        } // if/else
+      } // while
+      if (low >= this.hi) {
+        return null;
+      } // if
+      int count = this.before[low] - done;
+      Pairs first = new Pairs(this.hash, this.lo, low, this.pair, count, this.before);
+      this.lo = low;
+      this.pair = 0;
+      this.remaining -= count;
+      return first;
+    } // trySplit()
+
+    /**
+     * Get the number of pairs left.
+     */
+    public long estimateSize() {
+      return this.remaining;
+    } // estimateSize()
+
+    /**
+     * Describe the pairs: in a fixed order, and counted exactly.
+     */
+    public int characteristics() {
+      return ORDERED | SIZED | SUBSIZED | NONNULL;
+    } // characteristics()
+  } // class Pairs
 } // class JSONHash
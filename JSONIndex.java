@@ -0,0 +1,1262 @@
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntBinaryOperator;
+import java.util.function.Predicate;
+
+/**
+ * Indexes over the records (hashes) of an array, by the value of a field,
+ * so that finding the records with a given value doesn't mean scanning
+ * the array. There are two kinds:
+ *
+ * <ul>
+ *   <li>HashIndex, which finds the records with a given value in
+ *     constant time; and</li>
+ *   <li>SortedIndex, which keeps numbers and strings in order, and so
+ *     also finds ranges of values and strings with a given prefix, in
+ *     logarithmic time.</li>
+ * </ul>
+ *
+ * A field is given by a path of keys, as for JSONColumns.column, and
+ * records that lack it (or aren't hashes) aren't indexed. Integers that
+ * fit in a long are kept as longs, and strings as the records' own
+ * strings, so an index needs a few ints per record besides.
+ *
+ * An array keeps its indexes up to date as it changes through add, set,
+ * and remove. Inserting or removing in the middle renumbers the records,
+ * so the indexes are rebuilt the next time they're used. Changes made to
+ * the records themselves, or to the list from getValue, go unnoticed;
+ * replace the record with set, or call rebuild, after making them.
+ *
+ * Typical use:
+ *
+ * <pre>
+ *   JSONIndex.HashIndex bySku = JSONIndex.hash(products, "sku");
+ *   JSONHash product = bySku.first(new JSONString("A-1021"));
+ *   List&lt;JSONHash&gt; cheap = JSONIndex.sorted(products, "price").range(0, 10);
+ * </pre>
+ *
+ * Indexes aren't thread-safe, and even lookups may update them.
+ */
+public abstract class JSONIndex {
+
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * No row.
+   */
+  static final int NONE = -1;
+
+  /**
+   * The room for rows (or keys) we start with.
+   */
+  static final int INITIAL_CAPACITY = 16;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The records.
+   */
+  final JSONArray array;
+
+  /**
+   * The keys that lead from a record to the field.
+   */
+  final String[] path;
+
+  /**
+   * Whether the index is out of date, and must be rebuilt before use.
+   */
+  boolean stale = true;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  JSONIndex(JSONArray array, String[] path) {
+    if (path.length == 0) {
+      throw new IllegalArgumentException("An index needs a field");
+    } // if
+    this.array = array;
+    this.path = path.clone();
+  } // JSONIndex(JSONArray, String[])
+
+  /**
+   * Index the records of an array by the value of a field, for finding
+   * them by that value.
+   */
+  public static HashIndex hash(JSONArray array, String... path) {
+    HashIndex index = new HashIndex(array, path);
+    index.attach();
+    return index;
+  } // hash(JSONArray, String...)
+
+  /**
+   * Index the records of an array by the value of a field (a number or
+   * string), for finding them by that value, by a range of values, or by
+   * prefix.
+   */
+  public static SortedIndex sorted(JSONArray array, String... path) {
+    SortedIndex index = new SortedIndex(array, path);
+    index.attach();
+    return index;
+  } // sorted(JSONArray, String...)
+
+  // +-------------------------+-------------------------------------
+  // | Standard object methods |
+  // +-------------------------+
+
+  /**
+   * Convert to a string (e.g., for printing).
+   */
+  public String toString() {
+    return this.getClass().getSimpleName() + "(" + String.join(".", this.path) + ")";
+  } // toString()
+
+  // +-----------+---------------------------------------------------
+  // | Accessors |
+  // +-----------+
+
+  /**
+   * Get the array whose records are indexed.
+   */
+  public JSONArray array() {
+    return this.array;
+  } // array()
+
+  /**
+   * Get the keys that lead from a record to the field.
+   */
+  public String[] path() {
+    return this.path.clone();
+  } // path()
+
+  // +---------+-----------------------------------------------------
+  // | Lookups |
+  // +---------+
+
+  /**
+   * Get the records whose field is equal to key.
+   */
+  public abstract List<JSONHash> get(JSONValue key);
+
+  /**
+   * Get the records whose field is a given integer.
+   */
+  public List<JSONHash> get(long key) {
+    return this.get(new JSONInteger(key));
+  } // get(long)
+
+  /**
+   * Get the records whose field is a given string.
+   */
+  public List<JSONHash> get(String key) {
+    return this.get(new JSONString(key));
+  } // get(String)
+
+  /**
+   * Get the first record whose field is equal to key, or null if there
+   * is none.
+   */
+  public JSONHash first(JSONValue key) {
+    List<JSONHash> records = this.get(key);
+    return records.isEmpty() ? null : records.get(0);
+  } // first(JSONValue)
+
+  /**
+   * Determine how many records are indexed (that is, have the field).
+   */
+  public int size() {
+    this.refresh();
+    return this.count();
+  } // size()
+
+  // +-------------+-------------------------------------------------
+  // | Maintenance |
+  // +-------------+
+
+  /**
+   * Index the records again, as after changing them in place.
+   */
+  public void rebuild() {
+    this.stale = false;
+    this.build();
+  } // rebuild()
+
+  /**
+   * Stop keeping the index up to date, and let it go.
+   */
+  public void drop() {
+    JSONIndex[] indexes = this.array.indexes;
+    if (indexes == null) {
+      return;
+    } // if
+    for (int i = 0; i < indexes.length; i++) {
+      if (indexes[i] == this) {
+        JSONIndex[] rest = new JSONIndex[indexes.length - 1];
+        System.arraycopy(indexes, 0, rest, 0, i);
+        System.arraycopy(indexes, i + 1, rest, i, rest.length - i);
+        this.array.indexes = (rest.length == 0) ? null : rest;
+        return;
+      } // if
+    } // for
+  } // drop()
+
+  // +-------+-------------------------------------------------------
+  // | Hooks |
+  // +-------+
+
+  /**
+   * Note that a record has been added at the end of the array.
+   */
+  abstract void added(int row, JSONValue record);
+
+  /**
+   * Note that the record in a row has been replaced.
+   */
+  abstract void replaced(int row, JSONValue old, JSONValue record);
+
+  /**
+   * Note that records have been renumbered.
+   */
+  void shifted() {
+    this.stale = true;
+  } // shifted()
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Index every record, from scratch.
+   */
+  abstract void build();
+
+  /**
+   * Determine how many records are indexed.
+   */
+  abstract int count();
+
+  /**
+   * Start keeping the index up to date, and build it.
+   */
+  void attach() {
+    JSONIndex[] indexes = this.array.indexes;
+    if (indexes == null) {
+      this.array.indexes = new JSONIndex[] {this};
+    } else {
+      indexes = Arrays.copyOf(indexes, indexes.length + 1);
+      indexes[indexes.length - 1] = this;
+      this.array.indexes = indexes;
+    } // if/else
+    this.rebuild();
+  } // attach()
+
+  /**
+   * Rebuild the index if it's out of date.
+   */
+  void refresh() {
+    if (this.stale) {
+      this.rebuild();
+    } // if
+  } // refresh()
+
+  /**
+   * Get the field of a record, or null if it hasn't got one.
+   */
+  JSONValue keyOf(JSONValue record) {
+    for (String key : this.path) {
+      if (!(record instanceof JSONHash)) {
+        return null;
+      } // if
+      record = ((JSONHash) record).getOrNull(key);
+    } // for
+    return record;
+  } // keyOf(JSONValue)
+
+  /**
+   * Get the records in some rows.
+   */
+  List<JSONHash> records(int[] rows, int count) {
+    ArrayList<JSONHash> records = new ArrayList<JSONHash>(count);
+    for (int i = 0; i < count; i++) {
+      records.add((JSONHash) this.array.get(rows[i]));
+    } // for
+    return records;
+  } // records(int[], int)
+
+  /**
+   * Determine if a key is an integer that fits in a long.
+   */
+  static boolean isLong(JSONValue key) {
+    return (key instanceof JSONInteger) && (((JSONInteger) key).value.bitLength() < 64);
+  } // isLong(JSONValue)
+
+  /**
+   * Sort order[from..count) and merge it with order[0..from), which is
+   * in order already, so that adding a few keys to many costs a merge,
+   * not a sort. The sort is stable.
+   */
+  static void sort(int[] order, int from, int count, IntBinaryOperator compare) {
+    int[] scratch = new int[count];
+    sort(order, scratch, from, count, compare);
+    merge(order, scratch, 0, from, count, compare);
+  } // sort(int[], int, int, IntBinaryOperator)
+
+  /**
+   * Merge sort order[lo..hi).
+   */
+  private static void sort(int[] order, int[] scratch, int lo, int hi,
+      IntBinaryOperator compare) {
+    if (hi - lo < 2) {
+      return;
+    } // if
+    int mid = (lo + hi) >>> 1;
+    sort(order, scratch, lo, mid, compare);
+    sort(order, scratch, mid, hi, compare);
+    merge(order, scratch, lo, mid, hi, compare);
+  } // sort(int[], int[], int, int, IntBinaryOperator)
+
+  /**
+   * Merge order[lo..mid) and order[mid..hi), each in order.
+   */
+  private static void merge(int[] order, int[] scratch, int lo, int mid, int hi,
+      IntBinaryOperator compare) {
+    if ((lo == mid) || (mid == hi) || (compare.applyAsInt(order[mid - 1], order[mid]) <= 0)) {
+      return;
+    } // if
+    System.arraycopy(order, lo, scratch, lo, hi - lo);
+    int i = lo;
+    int j = mid;
+    for (int k = lo; k < hi; k++) {
+      if ((j >= hi) || ((i < mid) && (compare.applyAsInt(scratch[i], scratch[j]) <= 0))) {
+        order[k] = scratch[i++];
+      } else {
+        order[k] = scratch[j++];
+      } // if/else
+    } // for
+  } // merge(int[], int[], int, int, int, IntBinaryOperator)
+
+  // +---------------+-----------------------------------------------
+  // | Inner classes |
+  // +---------------+
+
+  /**
+   * An index that finds records by value in constant time. Keys are kept
+   * in open-addressed tables, longs in one and other values in another,
+   * each key with the first of its rows; the rest are chained through an
+   * int per row. Values are compared with equals, so a field that holds a
+   * container should hold one that doesn't change.
+   */
+  public static class HashIndex extends JSONIndex {
+    /**
+     * The mark for a slot with no key.
+     */
+    static final int FREE = -2;
+
+    /**
+     * The integer keys.
+     */
+    long[] longKeys;
+
+    /**
+     * For each slot of longKeys, FREE, or the first row with the key (or
+     * NONE, if all of them have gone).
+     */
+    int[] longHeads;
+
+    /**
+     * The number of slots of longKeys in use.
+     */
+    int longSlots;
+
+    /**
+     * The other keys.
+     */
+    JSONValue[] valueKeys;
+
+    /**
+     * For each slot of valueKeys, FREE, or the first row with the key (or
+     * NONE).
+     */
+    int[] valueHeads;
+
+    /**
+     * The number of slots of valueKeys in use.
+     */
+    int valueSlots;
+
+    /**
+     * For each row, the next row with the same key (or NONE).
+     */
+    int[] next;
+
+    /**
+     * The number of rows indexed.
+     */
+    int rows;
+
+    HashIndex(JSONArray array, String[] path) {
+      super(array, path);
+    } // HashIndex(JSONArray, String[])
+
+    /**
+     * Get the records whose field is equal to key, in order.
+     */
+    public List<JSONHash> get(JSONValue key) {
+      this.refresh();
+      if (isLong(key)) {
+        return this.get(((JSONInteger) key).value.longValue());
+      } // if
+      int slot = this.valueSlot(key, false);
+      return (slot == NONE) ? new ArrayList<JSONHash>() : this.chain(this.valueHeads[slot]);
+    } // get(JSONValue)
+
+    /**
+     * Get the records whose field is a given integer, in order.
+     */
+    public List<JSONHash> get(long key) {
+      this.refresh();
+      int slot = this.longSlot(key, false);
+      return (slot == NONE) ? new ArrayList<JSONHash>() : this.chain(this.longHeads[slot]);
+    } // get(long)
+
+    void build() {
+      this.longKeys = new long[INITIAL_CAPACITY];
+      this.longHeads = new int[INITIAL_CAPACITY];
+      Arrays.fill(this.longHeads, FREE);
+      this.longSlots = 0;
+      this.valueKeys = new JSONValue[INITIAL_CAPACITY];
+      this.valueHeads = new int[INITIAL_CAPACITY];
+      Arrays.fill(this.valueHeads, FREE);
+      this.valueSlots = 0;
+      this.next = new int[Math.max(INITIAL_CAPACITY, this.array.size())];
+      this.rows = 0;
+      for (int row = 0; row < this.array.size(); row++) {
+        this.link(row, this.array.get(row));
+      } // for
+    } // build()
+
+    int count() {
+      return this.rows;
+    } // count()
+
+    void added(int row, JSONValue record) {
+      if (!this.stale) {
+        this.link(row, record);
+      } // if
+    } // added(int, JSONValue)
+
+    void replaced(int row, JSONValue old, JSONValue record) {
+      if (!this.stale) {
+        this.unlink(row, old);
+        this.link(row, record);
+      } // if
+    } // replaced(int, JSONValue, JSONValue)
+
+    /**
+     * Add a row to the chain for its key.
+     */
+    void link(int row, JSONValue record) {
+      JSONValue key = this.keyOf(record);
+      if (key == null) {
+        return;
+      } // if
+      if (row >= this.next.length) {
+        this.next = Arrays.copyOf(this.next, Math.max(row + 1, 2 * this.next.length));
+      } // if
+      int[] heads;
+      int slot;
+      if (isLong(key)) {
+        slot = this.longSlot(((JSONInteger) key).value.longValue(), true);
+        heads = this.longHeads;
+      } else {
+        slot = this.valueSlot(key, true);
+        heads = this.valueHeads;
+      } // if/else
+      this.next[row] = (heads[slot] == FREE) ? NONE : heads[slot];
+      heads[slot] = row;
+      ++this.rows;
+    } // link(int, JSONValue)
+
+    /**
+     * Remove a row from the chain for its key. If it isn't there, the
+     * record must have changed in place, so we start again.
+     */
+    void unlink(int row, JSONValue record) {
+      JSONValue key = this.keyOf(record);
+      if (key == null) {
+        return;
+      } // if
+      int[] heads;
+      int slot;
+      if (isLong(key)) {
+        slot = this.longSlot(((JSONInteger) key).value.longValue(), false);
+        heads = this.longHeads;
+      } else {
+        slot = this.valueSlot(key, false);
+        heads = this.valueHeads;
+      } // if/else
+      int previous = NONE;
+      for (int r = (slot == NONE) ? NONE : heads[slot]; r != NONE; r = this.next[r]) {
+        if (r == row) {
+          if (previous == NONE) {
+            heads[slot] = this.next[r];
+          } else {
+            this.next[previous] = this.next[r];
+          } // if/else
+          --this.rows;
+          return;
+        } // if
+        previous = r;
+      } // for
+      this.stale = true;
+    } // unlink(int, JSONValue)
+
+    /**
+     * Get the records in a chain, in order.
+     */
+    List<JSONHash> chain(int head) {
+      int count = 0;
+      for (int row = head; row != NONE; row = this.next[row]) {
+        ++count;
+      } // for
+      int[] rows = new int[count];
+      int i = 0;
+      for (int row = head; row != NONE; row = this.next[row]) {
+        rows[i++] = row;
+      } // for
+      Arrays.sort(rows);
+      return this.records(rows, count);
+    } // chain(int)
+
+    /**
+     * Find the slot for an integer key, or NONE if it has none and we
+     * aren't to add one.
+     */
+    int longSlot(long key, boolean add) {
+      if (add && (2 * (this.longSlots + 1) > this.longKeys.length)) {
+        long[] oldKeys = this.longKeys;
+        int[] oldHeads = this.longHeads;
+        this.longKeys = new long[2 * oldKeys.length];
+        this.longHeads = new int[2 * oldKeys.length];
+        Arrays.fill(this.longHeads, FREE);
+        this.longSlots = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+          if (oldHeads[i] >= 0) {
+            this.longHeads[this.longSlot(oldKeys[i], true)] = oldHeads[i];
+          } // if
+        } // for
+      } // if
+      int mask = this.longKeys.length - 1;
+      // The top bits of the product are mixed best.
+      int start = (int) ((key * 0x9E3779B97F4A7C15L) >>> Long.numberOfLeadingZeros(mask));
+      for (int slot = start; ; slot = (slot + 1) & mask) {
+        if (this.longHeads[slot] == FREE) {
+          if (!add) {
+            return NONE;
+          } // if
+          this.longKeys[slot] = key;
+          this.longHeads[slot] = NONE;
+          ++this.longSlots;
+          return slot;
+        } else if (this.longKeys[slot] == key) {
+          return slot;
+        } // if/else
+      } // for
+    } // longSlot(long, boolean)
+
+    /**
+     * Find the slot for any other key, or NONE if it has none and we
+     * aren't to add one.
+     */
+    int valueSlot(JSONValue key, boolean add) {
+      if (add && (2 * (this.valueSlots + 1) > this.valueKeys.length)) {
+        JSONValue[] oldKeys = this.valueKeys;
+        int[] oldHeads = this.valueHeads;
+        this.valueKeys = new JSONValue[2 * oldKeys.length];
+        this.valueHeads = new int[2 * oldKeys.length];
+        Arrays.fill(this.valueHeads, FREE);
+        this.valueSlots = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+          if (oldHeads[i] >= 0) {
+            this.valueHeads[this.valueSlot(oldKeys[i], true)] = oldHeads[i];
+          } // if
+        } // for
+      } // if
+      int mask = this.valueKeys.length - 1;
+      int start = (key.hashCode() * 0x9E3779B9) >>> Integer.numberOfLeadingZeros(mask);
+      for (int slot = start; ; slot = (slot + 1) & mask) {
+        if (this.valueHeads[slot] == FREE) {
+          if (!add) {
+            return NONE;
+          } // if
+          this.valueKeys[slot] = key;
+          this.valueHeads[slot] = NONE;
+          ++this.valueSlots;
+          return slot;
+        } else if (this.valueKeys[slot].equals(key)) {
+          return slot;
+        } // if/else
+      } // for
+    } // valueSlot(JSONValue, boolean)
+  } // class HashIndex
+
+  /**
+   * An index that keeps records in order of a number or string field,
+   * numbers first. Keys are kept in sorted arrays, alongside their rows:
+   * numbers in a long array, and, once one doesn't fit in a long, in a
+   * double array as well, which orders them unless they round to the same
+   * double; and strings as themselves. Numbers compare exactly, so large
+   * integers that share a double stay apart. Records without a number or
+   * string aren't indexed.
+   *
+   * Rows added or replaced wait in a short list, which lookups search as
+   * well. Once it grows past about the square root of the number of keys,
+   * the next lookup sorts it and merges it in; the rows replaced are
+   * marked removed until then.
+   */
+  public static class SortedIndex extends JSONIndex {
+    /**
+     * The fewest rows we let wait before merging them in.
+     */
+    static final int MIN_PENDING = 64;
+
+    /**
+     * The integers of at most 53 bits, from -EXACT up to EXACT, are exactly
+     * their doubles.
+     */
+    static final long EXACT = 1L << 53;
+
+    /**
+     * The number keys that fit in a long (0 for the others).
+     */
+    long[] longs;
+
+    /**
+     * The number keys rounded to doubles, once one doesn't fit in a long
+     * (or null). Rounding keeps the order of keys, so when the doubles
+     * differ they decide, and only ties need a closer look.
+     */
+    double[] doubles;
+
+    /**
+     * A bit for each number key that's a real held as a double, along
+     * with the doubles.
+     */
+    long[] reals;
+
+    /**
+     * The number keys that are neither longs nor reals held as doubles
+     * (null for the rest), along with the doubles.
+     */
+    JSONValue[] others;
+
+    /**
+     * The row for each number key (NONE, if removed).
+     */
+    int[] numberRows;
+
+    /**
+     * The number of number keys.
+     */
+    int numbers;
+
+    /**
+     * The string keys.
+     */
+    String[] strings;
+
+    /**
+     * The row for each string key (NONE, if removed).
+     */
+    int[] stringRows;
+
+    /**
+     * The number of string keys.
+     */
+    int stringCount;
+
+    /**
+     * The rows waiting to be merged in.
+     */
+    int[] pending;
+
+    /**
+     * The number of rows waiting.
+     */
+    int pendingCount;
+
+    /**
+     * A bit for each row, set if the row is waiting.
+     */
+    long[] waiting;
+
+    /**
+     * The number of keys marked removed.
+     */
+    int removed;
+
+    SortedIndex(JSONArray array, String[] path) {
+      super(array, path);
+    } // SortedIndex(JSONArray, String[])
+
+    /**
+     * Get the records whose field is equal to key (a number or string), in
+     * order.
+     */
+    public List<JSONHash> get(JSONValue key) {
+      this.refresh();
+      check(key);
+      return this.between(this.position(key, false), this.position(key, true),
+          (other) -> compareKeys(other, key) == 0);
+    } // get(JSONValue)
+
+    /**
+     * Get the records whose field is at least low and less than high, in
+     * order of the field. Either bound may be null, for no bound; numbers
+     * come before strings.
+     */
+    public List<JSONHash> range(JSONValue low, JSONValue high) {
+      this.refresh();
+      int from = 0;
+      int to = this.numbers + this.stringCount;
+      if (low != null) {
+        check(low);
+        from = this.position(low, false);
+      } // if
+      if (high != null) {
+        check(high);
+        to = Math.max(from, this.position(high, false));
+      } // if
+      return this.between(from, to,
+          (other) -> ((low == null) || (compareKeys(other, low) >= 0))
+              && ((high == null) || (compareKeys(other, high) < 0)));
+    } // range(JSONValue, JSONValue)
+
+    /**
+     * Get the records whose field is a number at least low and less than
+     * high, in order.
+     */
+    public List<JSONHash> range(double low, double high) {
+      return this.range(new JSONReal(low), new JSONReal(high));
+    } // range(double, double)
+
+    /**
+     * Get the records whose field is a string at least low and less than
+     * high, in order. Either bound may be null, for no bound.
+     */
+    public List<JSONHash> range(String low, String high) {
+      return this.range((low == null) ? null : new JSONString(low),
+          (high == null) ? null : new JSONString(high));
+    } // range(String, String)
+
+    /**
+     * Get the records whose field is a string that starts with prefix, in
+     * order.
+     */
+    public List<JSONHash> prefix(String prefix) {
+      this.refresh();
+      int from = this.position(new JSONString(prefix), false);
+      int to = from;
+      while ((to < this.numbers + this.stringCount)
+          && this.strings[to - this.numbers].startsWith(prefix)) {
+        ++to;
+      } // while
+      return this.between(from, to, (other) -> (other instanceof JSONString)
+          && ((JSONString) other).value.startsWith(prefix));
+    } // prefix(String)
+
+    /**
+     * Get the smallest key, or null if nothing is indexed.
+     */
+    public JSONValue min() {
+      return (this.count() == 0) ? null : this.keyAt(0);
+    } // min()
+
+    /**
+     * Get the largest key, or null if nothing is indexed.
+     */
+    public JSONValue max() {
+      return (this.count() == 0) ? null : this.keyAt(this.numbers + this.stringCount - 1);
+    } // max()
+
+    void build() {
+      this.longs = new long[0];
+      this.doubles = null;
+      this.reals = null;
+      this.others = null;
+      this.numberRows = new int[0];
+      this.numbers = 0;
+      this.strings = new String[0];
+      this.stringRows = new int[0];
+      this.stringCount = 0;
+      this.removed = 0;
+      this.pending = new int[Math.max(INITIAL_CAPACITY, this.array.size())];
+      this.pendingCount = 0;
+      this.waiting = new long[(this.array.size() >>> 6) + 1];
+      for (int row = 0; row < this.array.size(); row++) {
+        this.defer(row);
+      } // for
+      this.merge();
+    } // build()
+
+    int count() {
+      this.settle();
+      return this.numbers + this.stringCount - this.removed;
+    } // count()
+
+    void added(int row, JSONValue record) {
+      if (!this.stale) {
+        this.defer(row);
+      } // if
+    } // added(int, JSONValue)
+
+    void replaced(int row, JSONValue old, JSONValue record) {
+      if (this.stale || this.isWaiting(row)) {
+        // We'll see the new record when we merge.
+        return;
+      } // if
+      JSONValue key = this.keyOf(old);
+      if (isOrdered(key)) {
+        int at = this.position(key, false);
+        int to = this.position(key, true);
+        while ((at < to) && (this.rowAt(at) != row)) {
+          ++at;
+        } // while
+        if (at == to) {
+          this.stale = true;
+          return;
+        } // if
+        if (at < this.numbers) {
+          this.numberRows[at] = NONE;
+        } else {
+          this.stringRows[at - this.numbers] = NONE;
+        } // if/else
+        ++this.removed;
+      } // if
+      this.defer(row);
+    } // replaced(int, JSONValue, JSONValue)
+
+    /**
+     * Rebuild the index if it's out of date, and merge in the waiting rows
+     * if there are too many to search.
+     */
+    void refresh() {
+      super.refresh();
+      int keys = this.numbers + this.stringCount;
+      if (this.pendingCount > Math.max(MIN_PENDING, (int) Math.sqrt(keys))) {
+        this.merge();
+      } // if
+    } // refresh()
+
+    /**
+     * Rebuild the index if it's out of date, and merge in any waiting
+     * rows.
+     */
+    void settle() {
+      super.refresh();
+      if (this.pendingCount > 0) {
+        this.merge();
+      } // if
+    } // settle()
+
+    /**
+     * Have a row wait to be merged in.
+     */
+    void defer(int row) {
+      if (this.pendingCount == this.pending.length) {
+        this.pending = Arrays.copyOf(this.pending, 2 * this.pending.length);
+      } // if
+      this.pending[this.pendingCount++] = row;
+      if ((row >>> 6) >= this.waiting.length) {
+        this.waiting = Arrays.copyOf(this.waiting, Math.max((row >>> 6) + 1,
+            2 * this.waiting.length));
+      } // if
+      this.waiting[row >>> 6] |= 1L << row;
+    } // defer(int)
+
+    /**
+     * Determine if a row is waiting to be merged in.
+     */
+    boolean isWaiting(int row) {
+      return ((row >>> 6) < this.waiting.length) && ((this.waiting[row >>> 6] & (1L << row)) != 0);
+    } // isWaiting(int)
+
+    /**
+     * Index the waiting rows, and forget the removed ones.
+     */
+    void merge() {
+      // Put the keys we keep, then the waiting ones, in the same arrays;
+      // sort the waiting ones and merge the two runs.
+      int waitingNumbers = 0;
+      int waitingStrings = 0;
+      boolean wide = (this.doubles != null);
+      JSONValue[] keys = new JSONValue[this.pendingCount];
+      for (int i = 0; i < this.pendingCount; i++) {
+        this.waiting[this.pending[i] >>> 6] &= ~(1L << this.pending[i]);
+        JSONValue key = this.keyOf(this.array.get(this.pending[i]));
+        if (key instanceof JSONString) {
+          ++waitingStrings;
+        } else if (isOrdered(key)) {
+          ++waitingNumbers;
+          wide = wide || !isLong(key);
+        } else {
+          key = null;
+        } // if/else
+        keys[i] = key;
+      } // for
+
+      int n = 0;
+      int capacity = this.numbers + waitingNumbers;
+      long[] longs = new long[capacity];
+      double[] doubles = wide ? new double[capacity] : null;
+      long[] reals = wide ? new long[(capacity >>> 6) + 1] : null;
+      JSONValue[] others = wide ? new JSONValue[capacity] : null;
+      int[] numberRows = new int[capacity];
+      for (int i = 0; i < this.numbers; i++) {
+        if (this.numberRows[i] != NONE) {
+          longs[n] = this.longs[i];
+          if (this.doubles != null) {
+            doubles[n] = this.doubles[i];
+            others[n] = this.others[i];
+            if (this.isRealAt(i)) {
+              reals[n >>> 6] |= 1L << n;
+            } // if
+          } else if (wide) {
+            doubles[n] = this.longs[i];
+          } // if/else
+          numberRows[n++] = this.numberRows[i];
+        } // if
+      } // for
+      int keptNumbers = n;
+      int s = 0;
+      String[] strings = new String[this.stringCount + waitingStrings];
+      int[] stringRows = new int[strings.length];
+      for (int i = 0; i < this.stringCount; i++) {
+        if (this.stringRows[i] != NONE) {
+          strings[s] = this.strings[i];
+          stringRows[s++] = this.stringRows[i];
+        } // if
+      } // for
+      int keptStrings = s;
+      for (int i = 0; i < this.pendingCount; i++) {
+        JSONValue key = keys[i];
+        if (key instanceof JSONString) {
+          strings[s] = ((JSONString) key).value;
+          stringRows[s++] = this.pending[i];
+        } else if (key != null) {
+          if (isLong(key)) {
+            longs[n] = ((JSONInteger) key).value.longValue();
+          } else if ((key instanceof JSONReal) && ((JSONReal) key).holdsDouble) {
+            reals[n >>> 6] |= 1L << n;
+          } else {
+            others[n] = key;
+          } // if/else
+          if (wide) {
+            doubles[n] = JSON.asDouble(key, 0);
+          } // if
+          numberRows[n++] = this.pending[i];
+        } // if/else
+      } // for
+
+      // The comparisons read the fields, so they hold the unsorted keys
+      // until we put them in order.
+      this.longs = longs;
+      this.doubles = doubles;
+      this.reals = reals;
+      this.others = others;
+      int[] order = identity(n);
+      if (wide) {
+        sort(order, keptNumbers, n, (a, b) -> {
+          int c = this.compareNumbersAt(a, b);
+          return (c != 0) ? c : Integer.compare(numberRows[a], numberRows[b]);
+        });
+        this.doubles = new double[n];
+        this.reals = new long[(n >>> 6) + 1];
+        this.others = new JSONValue[n];
+        for (int i = 0; i < n; i++) {
+          this.doubles[i] = doubles[order[i]];
+          this.others[i] = others[order[i]];
+          if ((reals[order[i] >>> 6] & (1L << order[i])) != 0) {
+            this.reals[i >>> 6] |= 1L << i;
+          } // if
+        } // for
+      } else {
+        sort(order, keptNumbers, n, (a, b) -> {
+          int c = Long.compare(longs[a], longs[b]);
+          return (c != 0) ? c : Integer.compare(numberRows[a], numberRows[b]);
+        });
+      } // if/else
+      this.longs = new long[n];
+      for (int i = 0; i < n; i++) {
+        this.longs[i] = longs[order[i]];
+      } // for
+      this.numberRows = new int[n];
+      for (int i = 0; i < n; i++) {
+        this.numberRows[i] = numberRows[order[i]];
+      } // for
+      this.numbers = n;
+
+      order = identity(s);
+      sort(order, keptStrings, s, (a, b) -> {
+        int c = strings[a].compareTo(strings[b]);
+        return (c != 0) ? c : Integer.compare(stringRows[a], stringRows[b]);
+      });
+      this.strings = new String[s];
+      this.stringRows = new int[s];
+      for (int i = 0; i < s; i++) {
+        this.strings[i] = strings[order[i]];
+        this.stringRows[i] = stringRows[order[i]];
+      } // for
+      this.stringCount = s;
+
+      this.pendingCount = 0;
+      this.removed = 0;
+    } // merge()
+
+    /**
+     * Find the position of the first key not less than key (or, if after
+     * is true, greater than key), counting numbers and then strings.
+     */
+    int position(JSONValue key, boolean after) {
+      int lo = (key instanceof JSONString) ? this.numbers : 0;
+      int hi = (key instanceof JSONString) ? this.numbers + this.stringCount : this.numbers;
+      while (lo < hi) {
+        int mid = (lo + hi) >>> 1;
+        int c = this.compareAt(mid, key);
+        if ((c < 0) || (after && (c == 0))) {
+          lo = mid + 1;
+        } else {
+          hi = mid;
+        } // if/else
+      } // while
+      return lo;
+    } // position(JSONValue, boolean)
+
+    /**
+     * Compare the key at a position with another (a number or string).
+     */
+    int compareAt(int position, JSONValue key) {
+      if (position >= this.numbers) {
+        return (key instanceof JSONString)
+            ? this.strings[position - this.numbers].compareTo(((JSONString) key).value)
+            : 1;
+      } else if (key instanceof JSONString) {
+        return -1;
+      } else if (isLong(key) && this.isLongAt(position)) {
+        return Long.compare(this.longs[position], ((JSONInteger) key).value.longValue());
+      } // if/else
+      double number = (this.doubles != null) ? this.doubles[position] : this.longs[position];
+      double other = JSON.asDouble(key, 0);
+      if (number != other) {
+        return (number < other) ? -1 : 1;
+      } else if (this.isExactAt(position) && isExact(key)) {
+        return 0;
+      } // if/else
+      return compareNumbers(this.numberAt(position), key);
+    } // compareAt(int, JSONValue)
+
+    /**
+     * Compare the number keys at two positions.
+     */
+    int compareNumbersAt(int a, int b) {
+      if (this.doubles[a] != this.doubles[b]) {
+        return (this.doubles[a] < this.doubles[b]) ? -1 : 1;
+      } else if (this.isExactAt(a) && this.isExactAt(b)) {
+        return 0;
+      } // if/else
+      return compareNumbers(this.numberAt(a), this.numberAt(b));
+    } // compareNumbersAt(int, int)
+
+    /**
+     * Determine if the number key at a position is a long.
+     */
+    boolean isLongAt(int position) {
+      return (this.doubles == null) || (!this.isRealAt(position) && (this.others[position] == null));
+    } // isLongAt(int)
+
+    /**
+     * Determine if the number key at a position is a real held as a
+     * double.
+     */
+    boolean isRealAt(int position) {
+      return (this.reals != null) && ((this.reals[position >>> 6] & (1L << position)) != 0);
+    } // isRealAt(int)
+
+    /**
+     * Determine if the number key at a position is exactly its double (as
+     * for isExact).
+     */
+    boolean isExactAt(int position) {
+      if (this.isLongAt(position)) {
+        return (this.longs[position] >= -EXACT) && (this.longs[position] < EXACT);
+      } // if
+      return this.isRealAt(position);
+    } // isExactAt(int)
+
+    /**
+     * Get the number key at a position.
+     */
+    JSONValue numberAt(int position) {
+      if (this.isLongAt(position)) {
+        return new JSONInteger(this.longs[position]);
+      } else if (this.isRealAt(position)) {
+        return new JSONReal(this.doubles[position]);
+      } // if/else
+      return this.others[position];
+    } // numberAt(int)
+
+    /**
+     * Get the row at a position (NONE, if removed).
+     */
+    int rowAt(int position) {
+      return (position < this.numbers)
+          ? this.numberRows[position]
+          : this.stringRows[position - this.numbers];
+    } // rowAt(int)
+
+    /**
+     * Get the key at a position.
+     */
+    JSONValue keyAt(int position) {
+      if (position >= this.numbers) {
+        return new JSONString(this.strings[position - this.numbers]);
+      } // if
+      return this.numberAt(position);
+    } // keyAt(int)
+
+    /**
+     * Get the records at positions from..to, skipping removed ones, along
+     * with the waiting records whose keys are wanted, in order.
+     */
+    List<JSONHash> between(int from, int to, Predicate<JSONValue> wanted) {
+      int matches = 0;
+      int[] extras = new int[this.pendingCount];
+      JSONValue[] extraKeys = new JSONValue[this.pendingCount];
+      for (int i = 0; i < this.pendingCount; i++) {
+        JSONValue key = this.keyOf(this.array.get(this.pending[i]));
+        if (isOrdered(key) && wanted.test(key)) {
+          extraKeys[matches] = key;
+          extras[matches++] = this.pending[i];
+        } // if
+      } // for
+      int[] order = identity(matches);
+      sort(order, 0, matches, (a, b) -> {
+        int c = compareKeys(extraKeys[a], extraKeys[b]);
+        return (c != 0) ? c : Integer.compare(extras[a], extras[b]);
+      });
+
+      int[] rows = new int[to - from + matches];
+      int count = 0;
+      int j = 0;
+      for (int i = from; i < to; i++) {
+        int row = this.rowAt(i);
+        if (row == NONE) {
+          continue;
+        } // if
+        while (j < matches) {
+          int c = this.compareAt(i, extraKeys[order[j]]);
+          if ((c < 0) || ((c == 0) && (row < extras[order[j]]))) {
+            break;
+          } // if
+          rows[count++] = extras[order[j++]];
+        } // while
+        rows[count++] = row;
+      } // for
+      while (j < matches) {
+        rows[count++] = extras[order[j++]];
+      } // while
+      return this.records(rows, count);
+    } // between(int, int, Predicate<JSONValue>)
+
+    /**
+     * Make sure a key can be looked up.
+     */
+    static void check(JSONValue key) {
+      if (!isOrdered(key)) {
+        throw new IllegalArgumentException("Sorted indexes hold numbers and strings, not "
+            + key);
+      } // if
+    } // check(JSONValue)
+
+    /**
+     * Determine if a key is a number or string.
+     */
+    static boolean isOrdered(JSONValue key) {
+      return (key instanceof JSONString) || (key instanceof JSONInteger)
+          || (key instanceof JSONReal);
+    } // isOrdered(JSONValue)
+
+    /**
+     * Compare two keys, each a number or string.
+     */
+    static int compareKeys(JSONValue left, JSONValue right) {
+      boolean leftString = left instanceof JSONString;
+      boolean rightString = right instanceof JSONString;
+      if (leftString && rightString) {
+        return ((JSONString) left).value.compareTo(((JSONString) right).value);
+      } else if (leftString || rightString) {
+        return leftString ? 1 : -1;
+      } else {
+        return compareNumbers(left, right);
+      } // if/else
+    } // compareKeys(JSONValue, JSONValue)
+
+    /**
+     * Compare two numbers exactly. Rounding to double keeps their order,
+     * so we only compare decimals when the doubles tie.
+     */
+    static int compareNumbers(JSONValue left, JSONValue right) {
+      if (isLong(left) && isLong(right)) {
+        return Long.compare(((JSONInteger) left).value.longValue(),
+            ((JSONInteger) right).value.longValue());
+      } // if
+      double l = JSON.asDouble(left, 0);
+      double r = JSON.asDouble(right, 0);
+      if (l != r) {
+        return (l < r) ? -1 : 1;
+      } else if (isExact(left) && isExact(right)) {
+        return 0;
+      } // if/else
+      return decimalOf(left).compareTo(decimalOf(right));
+    } // compareNumbers(JSONValue, JSONValue)
+
+    /**
+     * Determine if a number is exactly its double, so that numbers like it
+     * are equal when their doubles are: a real held as a double, or an
+     * integer of at most 53 bits.
+     */
+    static boolean isExact(JSONValue number) {
+      if (number instanceof JSONReal) {
+        return ((JSONReal) number).holdsDouble;
+      } // if
+      return ((JSONInteger) number).value.bitLength() <= 53;
+    } // isExact(JSONValue)
+
+    /**
+     * Get the exact value of a number.
+     */
+    static BigDecimal decimalOf(JSONValue number) {
+      return (number instanceof JSONInteger)
+          ? new BigDecimal(((JSONInteger) number).value)
+          : ((JSONReal) number).decimalValue();
+    } // decimalOf(JSONValue)
+
+    /**
+     * Make the array 0, 1, ..., n-1.
+     */
+    static int[] identity(int n) {
+      int[] order = new int[n];
+      for (int i = 0; i < n; i++) {
+        order[i] = i;
+      } // for
+      return order;
+    } // identity(int)
+  } // class SortedIndex
+} // class JSONIndex
@@ -76,6 +76,13 @@ public class JSONInteger implements JSONValue {
     pen.print(this.value.toString());
   } // writeJSON(PrintWriter)
 
+  /**
+   * Estimate the bytes held by the integer.
+   */
+  public long estimatedRetainedBytes() {
+    return JSONMemory.retainedBytes(this);
+  } // estimatedRetainedBytes()
+
   /**
    * Get the underlying value.
    */
@@ -0,0 +1,803 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.CharacterCodingException;
+import java.text.ParseException;
+
+/**
+ * The character-level half of the parser: a buffered scanner that reads
+ * whitespace, strings, numbers, and constants. It knows nothing about
+ * nesting; see JSONParser for that.
+ */
+public class JSONLexer {
+
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The size of the buffer used when reading from a Reader.
+   */
+  static final int BUFFER_SIZE = 8192;
+
+  /**
+   * The longest run of digits we know fits in a long.
+   */
+  static final int LONG_DIGITS = 18;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * Where more input comes from, or null if all of it is in the buffer.
+   */
+  Reader source;
+
+  /**
+   * The buffered input.
+   */
+  char[] buf;
+
+  /**
+   * The position of the next unread character in buf.
+   */
+  int bufPos;
+
+  /**
+   * The number of valid characters in buf.
+   */
+  int bufLimit;
+
+  /**
+   * The offset in the input of buf[0].
+   */
+  long bufOffset;
+
+  /**
+   * The start of the token being read, which must survive refills. -1 if we
+   * are not in the middle of a token.
+   */
+  int tokenStart = -1;
+
+  /**
+   * The limits we enforce.
+   */
+  ParserLimits limits;
+
+  /**
+   * The number of newlines in the input before buf[0]. Only maintained for
+   * readers; strings keep all of their text in the buffer.
+   */
+  long linesBefore;
+
+  /**
+   * The offset of the start of the line containing buf[0].
+   */
+  long lineStartBefore;
+
+  /**
+   * The parser using this lexer, which tells us the path for error
+   * messages. May be null.
+   */
+  JSONParser parser;
+
+  /**
+   * Where the most recently scanned number starts in buf. Only valid until
+   * the next read.
+   */
+  int numberStart;
+
+  /**
+   * The length of the most recently scanned number.
+   */
+  int numberLength;
+
+  /**
+   * Whether the most recently scanned number has a fraction or exponent.
+   */
+  boolean numberReal;
+
+  /**
+   * Whether reals keep every digit, rather than becoming doubles.
+   */
+  boolean exactReals = JSON.exactReals;
+
+  /**
+   * Where text we're copying goes, or null if we aren't copying.
+   */
+  JSONWriter copy;
+
+  /**
+   * The start in buf of text we're copying that hasn't been written yet.
+   */
+  int copyStart;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Build a lexer for a string.
+   */
+  public JSONLexer(String source, ParserLimits limits) throws ParseException {
+    this.limits = limits;
+    if (source.length() > limits.maxDocumentLength) {
+      throw new JSONParseException("Document longer than " + limits.maxDocumentLength
+          + " characters", null, 0, 1, 1, null);
+    } // if
+    this.buf = source.toCharArray();
+    this.bufLimit = this.buf.length;
+  } // JSONLexer(String, ParserLimits)
+
+  /**
+   * Build a lexer for a reader.
+   */
+  public JSONLexer(Reader source, ParserLimits limits) {
+    this(source, BUFFER_SIZE, limits);
+  } // JSONLexer(Reader, ParserLimits)
+
+  /**
+   * Build a lexer for a reader, starting with a buffer of the given size.
+   */
+  JSONLexer(Reader source, int bufferSize, ParserLimits limits) {
+    this.limits = limits;
+    this.source = source;
+    this.buf = new char[Math.max(1, bufferSize)];
+  } // JSONLexer(Reader, int, ParserLimits)
+
+  /**
+   * Build a lexer for UTF-8 bytes. We decode a buffer at a time, as for
+   * readers, rather than all at once, which keeps what we're scanning in
+   * cache.
+   */
+  public JSONLexer(byte[] source, ParserLimits limits) {
+    this(new JSONUtf8Reader(source, 0, source.length), Math.min(source.length, BUFFER_SIZE),
+        limits);
+  } // JSONLexer(byte[], ParserLimits)
+
+  /**
+   * Start over on a new string, reusing the buffer when it's big enough.
+   */
+  void reset(String source) throws ParseException {
+    if (source.length() > this.limits.maxDocumentLength) {
+      throw new JSONParseException("Document longer than " + this.limits.maxDocumentLength
+          + " characters", null, 0, 1, 1, null);
+    } // if
+    if (this.buf.length < source.length()) {
+      this.buf = new char[Math.max(source.length(), 2 * this.buf.length)];
+    } // if
+    source.getChars(0, source.length(), this.buf, 0);
+    this.source = null;
+    this.bufPos = 0;
+    this.bufLimit = source.length();
+    this.bufOffset = 0;
+    this.tokenStart = -1;
+    this.linesBefore = 0;
+    this.lineStartBefore = 0;
+  } // reset(String)
+
+  // +-----------+---------------------------------------------------
+  // | Accessors |
+  // +-----------+
+
+  /**
+   * Get the offset in the input of the next unread character.
+   */
+  public long offset() {
+    return this.bufOffset + this.bufPos;
+  } // offset()
+
+  // +----------+----------------------------------------------------
+  // | Scanning |
+  // +----------+
+
+  /**
+   * Read the next character that is not whitespace, or -1 at the end of the
+   * input.
+   */
+  int nextNonWhitespace() throws ParseException, IOException {
+    while (true) {
+      while (this.bufPos < this.bufLimit) {
+        char ch = this.buf[this.bufPos++];
+        if ((ch > ' ') || !isWhitespace(ch)) {
+          return ch;
+        } // if
+      } // while
+      if (!this.refill()) {
+        return -1;
+      } // if
+    } // while
+  } // nextNonWhitespace()
+
+  /**
+   * Find the next character that is not whitespace without consuming it.
+   * Returns -1 at the end of the input.
+   */
+  int peekNonWhitespace() throws ParseException, IOException {
+    int ch = this.nextNonWhitespace();
+    if (ch != -1) {
+      --this.bufPos;
+    } // if
+    return ch;
+  } // peekNonWhitespace()
+
+  /**
+   * Read the rest of a string whose opening quote has been consumed.
+   */
+  String readString() throws ParseException, IOException {
+    // Fast path: no escapes and the whole string is already buffered.
+    int start = this.bufPos;
+    int end = (int) Math.min(this.bufLimit, (long) start + this.limits.maxStringLength + 1);
+    for (int i = start; i < end; i++) {
+      char ch = this.buf[i];
+      if (ch == '"') {
+        this.bufPos = i + 1;
+        return new String(this.buf, start, i - start);
+      } // if
+      if ((ch == '\\') || (ch < ' ')) {
+        break;
+      } // if
+    } // for
+    return this.readStringSlowly();
+  } // readString()
+
+  /**
+   * Read the rest of a string that needs unescaping or spans refills.
+   */
+  private String readStringSlowly() throws ParseException, IOException {
+    StringBuilder result = new StringBuilder();
+    while (true) {
+      if ((this.bufPos >= this.bufLimit) && !this.refill()) {
+        throw this.error("Unterminated string", "'\"'");
+      } // if
+      char ch = this.buf[this.bufPos++];
+      if (ch == '"') {
+        return result.toString();
+      } else if (ch == '\\') {
+        result.append(this.readEscape());
+      } else if (ch < ' ') {
+        --this.bufPos;
+        throw this.error("Unescaped control character in string", null);
+      } else {
+        result.append(ch);
+      } // if/else
+      if (result.length() > this.limits.maxStringLength) {
+        throw this.error("String longer than " + this.limits.maxStringLength + " characters",
+            null);
+      } // if
+    } // while
+  } // readStringSlowly()
+
+  /**
+   * Skip the rest of a string whose opening quote has been consumed,
+   * without building it.
+   */
+  void skipString() throws ParseException, IOException {
+    long start = this.offset();
+    while (true) {
+      while (this.bufPos < this.bufLimit) {
+        char ch = this.buf[this.bufPos++];
+        if (ch == '"') {
+          return;
+        } else if (ch == '\\') {
+          this.readEscape();
+        } else if (ch < ' ') {
+          --this.bufPos;
+          throw this.error("Unescaped control character in string", null);
+        } // if/else
+      } // while
+      if (this.offset() - start > this.limits.maxStringLength) {
+        throw this.error("String longer than " + this.limits.maxStringLength + " characters",
+            null);
+      } // if
+      if (!this.refill()) {
+        throw this.error("Unterminated string", "'\"'");
+      } // if
+    } // while
+  } // skipString()
+
+  /**
+   * Skip the rest of an array or hash whose opening bracket has been
+   * consumed, without building anything. For speed, we only check that
+   * brackets balance and strings are well formed; other mistakes inside
+   * skipped values go unreported. depth is the nesting depth of the
+   * container being skipped.
+   */
+  void skipContainer(int depth) throws ParseException, IOException {
+    int level = 1;
+    while (true) {
+      int ch = this.next();
+      switch (ch) {
+        case '"':
+          this.skipString();
+          break;
+        case '[':
+        case '{':
+          if (depth + level >= this.limits.maxDepth) {
+            throw this.error("Nesting deeper than " + this.limits.maxDepth, null);
+          } // if
+          ++level;
+          break;
+        case ']':
+        case '}':
+          if (--level == 0) {
+            return;
+          } // if
+          break;
+        case -1:
+          throw this.unexpected(ch, "']' or '}'");
+        default:
+          break;
+      } // switch
+    } // while
+  } // skipContainer(int)
+
+  /**
+   * Read the character named by an escape whose backslash has been consumed.
+   */
+  private char readEscape() throws ParseException, IOException {
+    int ch = this.next();
+    switch (ch) {
+      case '"':
+        return '"';
+      case '\\':
+        return '\\';
+      case '/':
+        return '/';
+      case 'b':
+        return '\b';
+      case 'f':
+        return '\f';
+      case 'n':
+        return '\n';
+      case 'r':
+        return '\r';
+      case 't':
+        return '\t';
+      case 'u':
+        int code = 0;
+        for (int i = 0; i < 4; i++) {
+          int digit = hexDigit(this.next());
+          if (digit < 0) {
+            throw this.error("Invalid hexadecimal unicode character", "hexadecimal digit");
+          } // if
+          code = (code << 4) | digit;
+        } // for
+        return (char) code;
+      default:
+        throw this.error("Invalid escape in string", "one of \"\\/bfnrtu after '\\'");
+    } // switch
+  } // readEscape()
+
+  /**
+   * Read a number whose first character (a digit or minus sign) has been
+   * consumed.
+   */
+  JSONValue readNumber(int first) throws ParseException, IOException {
+    this.scanNumber(first);
+    return this.makeNumber();
+  } // readNumber(int)
+
+  /**
+   * Build the value of the number most recently scanned.
+   */
+  JSONValue makeNumber() {
+    if (this.numberReal) {
+      if (!this.exactReals) {
+        double value = this.makeDouble();
+        if (!Double.isInfinite(value)) {
+          return new JSONReal(value);
+        } // if
+      } // if
+      return new JSONReal(this.makeDecimal());
+    } // if
+    return makeInteger(this.buf, this.numberStart, this.numberLength);
+  } // makeNumber()
+
+  /**
+   * Get the exact value of the number most recently scanned. Numbers with
+   * few enough digits are built from a long, without BigDecimal's parser.
+   */
+  BigDecimal makeDecimal() {
+    int i = this.numberStart;
+    int end = i + this.numberLength;
+    boolean negative = (this.buf[i] == '-');
+    if (negative) {
+      ++i;
+    } // if
+    long unscaled = 0;
+    int digits = 0;
+    int scale = 0;
+    boolean fraction = false;
+    for (; i < end; i++) {
+      char ch = this.buf[i];
+      if (ch == '.') {
+        fraction = true;
+      } else if ((ch == 'e') || (ch == 'E')) {
+        break;
+      } else {
+        unscaled = (unscaled * 10) + (ch - '0');
+        ++digits;
+        if (fraction) {
+          ++scale;
+        } // if
+      } // if/else
+    } // for
+    if ((digits > LONG_DIGITS) || (end - i > 10)) {
+      return new BigDecimal(this.buf, this.numberStart, this.numberLength);
+    } // if
+    if (i < end) {
+      ++i;
+      boolean negativeExponent = (this.buf[i] == '-');
+      if ((this.buf[i] == '-') || (this.buf[i] == '+')) {
+        ++i;
+      } // if
+      long exponent = 0;
+      for (; i < end; i++) {
+        exponent = (exponent * 10) + (this.buf[i] - '0');
+      } // for
+      long adjusted = negativeExponent ? scale + exponent : scale - exponent;
+      if ((adjusted < Integer.MIN_VALUE) || (adjusted > Integer.MAX_VALUE)) {
+        return new BigDecimal(this.buf, this.numberStart, this.numberLength);
+      } // if
+      scale = (int) adjusted;
+    } // if
+    return BigDecimal.valueOf(negative ? -unscaled : unscaled, scale);
+  } // makeDecimal()
+
+  /**
+   * Get the value of the number most recently scanned as a long, without
+   * building a JSONValue when we can avoid it.
+   *
+   * @throws ArithmeticException if the number is not a whole number that
+   *   fits in a long.
+   */
+  long makeLong() {
+    boolean negative = (this.buf[this.numberStart] == '-');
+    int digits = negative ? this.numberLength - 1 : this.numberLength;
+    if (this.numberReal || (digits > LONG_DIGITS)) {
+      return new BigDecimal(this.buf, this.numberStart, this.numberLength).longValueExact();
+    } // if
+    long value = 0;
+    for (int i = this.numberStart + (negative ? 1 : 0); i < this.numberStart + this.numberLength;
+        i++) {
+      value = (value * 10) + (this.buf[i] - '0');
+    } // for
+    return negative ? -value : value;
+  } // makeLong()
+
+  /**
+   * Get the value of the number most recently scanned as a double.
+   */
+  double makeDouble() {
+    return JSONNumbers.parseDouble(this.buf, this.numberStart, this.numberLength);
+  } // makeDouble()
+
+  /**
+   * Check the syntax of a number whose first character has been consumed,
+   * noting where its text lies in the buffer without building its value.
+   */
+  void scanNumber(int first) throws ParseException, IOException {
+    this.tokenStart = this.bufPos - 1;
+    boolean real = false;
+    int ch = first;
+
+    if (ch == '-') {
+      ch = this.next();
+    } // if
+    if (ch == '0') {
+      ch = this.peek();
+    } else if (isDigit(ch)) {
+      ch = this.skipDigits();
+    } else {
+      throw this.numberError();
+    } // if/else
+
+    if (ch == '.') {
+      real = true;
+      ++this.bufPos;
+      if (!isDigit(this.peek())) {
+        throw this.numberError();
+      } // if
+      ch = this.skipDigits();
+    } // if
+
+    if ((ch == 'e') || (ch == 'E')) {
+      real = true;
+      ++this.bufPos;
+      ch = this.peek();
+      if ((ch == '+') || (ch == '-')) {
+        ++this.bufPos;
+        ch = this.peek();
+      } // if
+      if (!isDigit(ch)) {
+        throw this.numberError();
+      } // if
+      this.skipDigits();
+    } // if
+
+    this.numberStart = this.tokenStart;
+    this.numberLength = this.bufPos - this.tokenStart;
+    this.numberReal = real;
+    this.tokenStart = -1;
+    this.checkNumberLength(this.numberLength);
+  } // scanNumber(int)
+
+  /**
+   * Read the rest of true, false, or null.
+   */
+  JSONConstant readConstant(int first) throws ParseException, IOException {
+    switch (first) {
+      case 't':
+        this.expect("rue");
+        return JSONConstant.TRUE;
+      case 'f':
+        this.expect("alse");
+        return JSONConstant.FALSE;
+      case 'n':
+        this.expect("ull");
+        return JSONConstant.NULL;
+      default:
+        throw this.error("Invalid constant", "true, false, or null");
+    } // switch
+  } // readConstant(int)
+
+  // +---------+-----------------------------------------------------
+  // | Copying |
+  // +---------+
+
+  /**
+   * Start copying the input, from the given position in the buffer, to a
+   * writer. Text is written as refills discard it, and at endCopy.
+   */
+  void startCopy(int start, JSONWriter out) {
+    this.copy = out;
+    this.copyStart = start;
+  } // startCopy(int, JSONWriter)
+
+  /**
+   * Write the rest of the text since startCopy (up to the next unread
+   * character) and stop copying.
+   */
+  void endCopy() throws IOException {
+    this.copy.writeRaw(this.buf, this.copyStart, this.bufPos);
+    this.copy = null;
+  } // endCopy()
+
+  // +--------+------------------------------------------------------
+  // | Errors |
+  // +--------+
+
+  /**
+   * Build an exception describing a problem at the current position.
+   */
+  JSONParseException error(String reason, String expected) {
+    return this.errorAt(this.offset(), reason, expected);
+  } // error(String, String)
+
+  /**
+   * Build an exception describing an unexpected character, which has just
+   * been consumed (or -1, for the end of the input).
+   */
+  JSONParseException unexpected(int ch, String expected) {
+    if (ch == -1) {
+      return this.error("Unexpected end of input", expected);
+    } // if
+    return this.errorAt(this.offset() - 1, "Unexpected character " + describe(ch), expected);
+  } // unexpected(int, String)
+
+  /**
+   * Build an exception describing a problem at the given offset. This is
+   * the only place we work out line and column numbers, so the cost of
+   * tracking them is only paid when something goes wrong.
+   */
+  JSONParseException errorAt(long offset, String reason, String expected) {
+    long line = 1 + this.linesBefore;
+    long lineStart = this.lineStartBefore;
+    int end = (int) Math.max(0, Math.min(this.bufLimit, offset - this.bufOffset));
+    for (int i = 0; i < end; i++) {
+      if (this.buf[i] == '\n') {
+        ++line;
+        lineStart = this.bufOffset + i + 1;
+      } // if
+    } // for
+    String path = (this.parser == null) ? null : this.parser.path();
+    return new JSONParseException(reason, expected, offset, line, offset - lineStart + 1, path);
+  } // errorAt(long, String, String)
+
+  /**
+   * Build an exception describing a malformed number.
+   */
+  private JSONParseException numberError() {
+    this.tokenStart = -1;
+    return this.error("Invalid number", "digit");
+  } // numberError()
+
+  /**
+   * Describe a character for an error message.
+   */
+  static String describe(int ch) {
+    if ((ch < ' ') || (ch > '~')) {
+      return String.format("U+%04X", ch);
+    } // if
+    return "'" + (char) ch + "'";
+  } // describe(int)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Determine if a character is JSON whitespace (newline, carriage return, space, or tab).
+   */
+  static boolean isWhitespace(int ch) {
+    return (' ' == ch) || ('\n' == ch) || ('\r' == ch) || ('\t' == ch);
+  } // isWhitespace(int)
+
+  /**
+   * Determine if a character is an ASCII digit.
+   */
+  static boolean isDigit(int ch) {
+    return ('0' <= ch) && (ch <= '9');
+  } // isDigit(int)
+
+  /**
+   * Get the value of an ASCII hexadecimal digit, or -1 if ch isn't one.
+   */
+  static int hexDigit(int ch) {
+    if (isDigit(ch)) {
+      return ch - '0';
+    } else if (('a' <= ch) && (ch <= 'f')) {
+      return ch - 'a' + 10;
+    } else if (('A' <= ch) && (ch <= 'F')) {
+      return ch - 'A' + 10;
+    } // if/else
+    return -1;
+  } // hexDigit(int)
+
+  /**
+   * Build an integer from its text, avoiding BigInteger's string parser when
+   * the value fits in a long.
+   */
+  static JSONInteger makeInteger(char[] text, int start, int length) {
+    boolean negative = (text[start] == '-');
+    int digits = negative ? length - 1 : length;
+    if (digits > LONG_DIGITS) {
+      return new JSONInteger(new BigInteger(new String(text, start, length)));
+    } // if
+    long value = 0;
+    for (int i = start + (negative ? 1 : 0); i < start + length; i++) {
+      value = (value * 10) + (text[i] - '0');
+    } // for
+    return new JSONInteger(negative ? -value : value);
+  } // makeInteger(char[], int, int)
+
+  /**
+   * Read the next character, or -1 at the end of the input.
+   */
+  int next() throws ParseException, IOException {
+    if ((this.bufPos >= this.bufLimit) && !this.refill()) {
+      return -1;
+    } // if
+    return this.buf[this.bufPos++];
+  } // next()
+
+  /**
+   * Look at the next character without consuming it, or -1 at the end of the
+   * input.
+   */
+  int peek() throws ParseException, IOException {
+    if ((this.bufPos >= this.bufLimit) && !this.refill()) {
+      return -1;
+    } // if
+    return this.buf[this.bufPos];
+  } // peek()
+
+  /**
+   * Skip over a run of digits, returning the character after them (which is
+   * not consumed).
+   */
+  private int skipDigits() throws ParseException, IOException {
+    while (true) {
+      while (this.bufPos < this.bufLimit) {
+        char ch = this.buf[this.bufPos];
+        if (!isDigit(ch)) {
+          return ch;
+        } // if
+        ++this.bufPos;
+      } // while
+      this.checkNumberLength(this.bufPos - this.tokenStart);
+      if (!this.refill()) {
+        return -1;
+      } // if
+    } // while
+  } // skipDigits()
+
+  /**
+   * Make sure a number is not too long.
+   */
+  private void checkNumberLength(int length) throws ParseException {
+    if (length > this.limits.maxNumberLength) {
+      this.tokenStart = -1;
+      throw this.error("Number longer than " + this.limits.maxNumberLength + " characters",
+          null);
+    } // if
+  } // checkNumberLength(int)
+
+  /**
+   * Consume the given characters, which must come next.
+   */
+  private void expect(String rest) throws ParseException, IOException {
+    for (int i = 0; i < rest.length(); i++) {
+      if (this.next() != rest.charAt(i)) {
+        throw this.error("Invalid constant", "true, false, or null");
+      } // if
+    } // for
+  } // expect(String)
+
+  /**
+   * Note the newlines in the first count characters of the buffer, which
+   * are about to be discarded.
+   */
+  private void countLines(int count) {
+    for (int i = 0; i < count; i++) {
+      if (this.buf[i] == '\n') {
+        ++this.linesBefore;
+        this.lineStartBefore = this.bufOffset + i + 1;
+      } // if
+    } // for
+  } // countLines(int)
+
+  /**
+   * Read more input into the buffer, keeping any partial token. Returns
+   * false at the end of the input.
+   */
+  boolean refill() throws ParseException, IOException {
+    if (this.source == null) {
+      return false;
+    } // if
+
+    // Slide whatever we still need to the front of the buffer.
+    int keep = (this.tokenStart >= 0) ? this.tokenStart : this.bufPos;
+    int remaining = this.bufLimit - keep;
+    if ((this.copy != null) && (keep > this.copyStart)) {
+      this.copy.writeRaw(this.buf, this.copyStart, keep);
+      this.copyStart = keep;
+    } // if
+    if ((keep == 0) && (remaining == this.buf.length)) {
+      char[] bigger = new char[this.buf.length * 2];
+      System.arraycopy(this.buf, 0, bigger, 0, remaining);
+      this.buf = bigger;
+    } else if (keep > 0) {
+      this.countLines(keep);
+      System.arraycopy(this.buf, keep, this.buf, 0, remaining);
+      this.bufOffset += keep;
+      this.bufPos -= keep;
+      this.bufLimit -= keep;
+      this.copyStart = Math.max(0, this.copyStart - keep);
+      if (this.tokenStart >= 0) {
+        this.tokenStart -= keep;
+      } // if
+    } // if/else
+
+    int count;
+    try {
+      count = this.source.read(this.buf, this.bufLimit, this.buf.length - this.bufLimit);
+    } catch (CharacterCodingException e) {
+      // Readers that decode strictly (ours, for bytes) stop just before
+      // the mistake.
+      throw this.errorAt(this.bufOffset + this.bufLimit, "Invalid UTF-8", null);
+    } // try/catch
+    if (count <= 0) {
+      return false;
+    } // if
+    this.bufLimit += count;
+    if (this.bufOffset + this.bufLimit > this.limits.maxDocumentLength) {
+      throw this.error("Document longer than " + this.limits.maxDocumentLength + " characters",
+          null);
+    } // if
+    return true;
+  } // refill()
+} // class JSONLexer
@@ -0,0 +1,470 @@
+import com.sun.management.HotSpotDiagnosticMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+
+/**
+ * Estimates of how much heap values hold on to. Object sizes follow the
+ * layout of the running JVM (header size, compressed references, object
+ * alignment, compact strings), which we ask HotSpot for once; on other
+ * JVMs we assume the usual 64-bit layout. Field sizes come from
+ * reflection, so the JDK classes we count (String, BigInteger,
+ * ArrayList, and so on) are measured as they are, not as we remember
+ * them.
+ *
+ * What we can't see, we estimate: ArrayList capacities are taken to be
+ * what adding the elements one at a time would give. Shared objects
+ * (constants, small cached integers, the contents of stores) aren't
+ * counted at all. Shapes, which may be shared too, are counted once for
+ * each value that uses them, since a value keeps its shapes alive.
+ */
+final class JSONMemory {
+
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The size of an object header.
+   */
+  static final int HEADER;
+
+  /**
+   * The size of a reference.
+   */
+  static final int REF;
+
+  /**
+   * The alignment of objects.
+   */
+  static final int ALIGNMENT;
+
+  /**
+   * Whether strings of Latin-1 characters use a byte per character.
+   */
+  static final boolean COMPACT_STRINGS;
+
+  static {
+    boolean oops = true;
+    boolean classes = true;
+    boolean compact = true;
+    int alignment = 8;
+    try {
+      HotSpotDiagnosticMXBean hotspot =
+          ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+      oops = Boolean.parseBoolean(hotspot.getVMOption("UseCompressedOops").getValue());
+      classes = Boolean.parseBoolean(hotspot.getVMOption("UseCompressedClassPointers").getValue());
+      compact = Boolean.parseBoolean(hotspot.getVMOption("CompactStrings").getValue());
+      alignment = Integer.parseInt(hotspot.getVMOption("ObjectAlignmentInBytes").getValue());
+    } catch (RuntimeException | LinkageError e) {
+      // Not HotSpot; keep the defaults.
+    } // try/catch
+    if ("32".equals(System.getProperty("sun.arch.data.model"))) {
+      HEADER = 8;
+      REF = 4;
+    } else {
+      HEADER = classes ? 12 : 16;
+      REF = oops ? 4 : 8;
+    } // if/else
+    ALIGNMENT = alignment;
+    COMPACT_STRINGS = compact;
+  } // static
+
+  /**
+   * The size of a node of a ConcurrentHashMap: a hash, and references to
+   * the key, the value, and the next node.
+   */
+  static final long CHM_NODE = align(HEADER + 4 + 3 * REF);
+
+  /**
+   * The size of a node of a HashMap, which is laid out like that of a
+   * ConcurrentHashMap.
+   */
+  static final long HASH_MAP_NODE = CHM_NODE;
+
+  /**
+   * The sizes of instances of classes, without anything they refer to.
+   */
+  static final ClassValue<Long> SHALLOW = new ClassValue<Long>() {
+    protected Long computeValue(Class<?> type) {
+      long size = HEADER;
+      for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+        for (Field field : c.getDeclaredFields()) {
+          if (!Modifier.isStatic(field.getModifiers())) {
+            size += fieldSize(field.getType());
+          } // if
+        } // for
+      } // for
+      return align(size);
+    } // computeValue(Class<?>)
+  }; // new ClassValue
+
+  // +----------------+----------------------------------------------
+  // | Static methods |
+  // +----------------+
+
+  /**
+   * Estimate the bytes held by a value and everything in it. Containers
+   * and shapes that appear in several places are counted once, and frozen
+   * and persistent containers remember their totals.
+   */
+  static long retainedBytes(JSONValue value) {
+    if (!JSON.isContainer(value) || isStored(value)) {
+      return scalarBytes(value);
+    } // if
+    long known = knownBytes(value);
+    if (known != 0) {
+      return known;
+    } // if
+
+    IdentityHashMap<JSONValue, Long> totals = new IdentityHashMap<JSONValue, Long>();
+    IdentityHashMap<JSONValue, Boolean> counted = new IdentityHashMap<JSONValue, Boolean>();
+    IdentityHashMap<Object, Boolean> shapes = new IdentityHashMap<Object, Boolean>();
+    ArrayList<JSONValue> order =
+        JSON.postOrder(value, (child) -> (knownBytes(child) != 0) || isStored(child));
+    for (JSONValue next : order) {
+      long total = ownBytes(next) + shapeBytes(next, shapes);
+      Iterator<?> entries = JSON.entries(next);
+      while (entries.hasNext()) {
+        total += childBytes(JSON.valueOf(entries.next()), totals, counted);
+      } // while
+      totals.put(next, total);
+      rememberBytes(next, total);
+    } // for
+    return totals.get(value);
+  } // retainedBytes(JSONValue)
+
+  /**
+   * Estimate the bytes held by a scalar (or a view of a store, whose
+   * contents are off the heap, or at least not ours).
+   */
+  static long scalarBytes(JSONValue value) {
+    if (value instanceof JSONString) {
+      return shallow(JSONString.class) + stringBytes(((JSONString) value).value);
+    } else if (value instanceof JSONInteger) {
+      return shallow(JSONInteger.class) + bigIntegerBytes(((JSONInteger) value).value);
+    } else if (value instanceof JSONReal) {
+      BigDecimal decimal = ((JSONReal) value).value;
+      return shallow(JSONReal.class) + ((decimal == null) ? 0 : bigDecimalBytes(decimal));
+    } else if (value instanceof JSONConstant) {
+      // There's only one of each.
+      return 0;
+    } else {
+      return shallow(value.getClass());
+    } // if/else
+  } // scalarBytes(JSONValue)
+
+  /**
+   * Estimate the bytes a container holds itself, not counting the values
+   * in it (but counting hash keys, where the container has its own).
+   */
+  static long ownBytes(JSONValue container) {
+    if (container instanceof JSONArray) {
+      return shallow(JSONArray.class) + listBytes(((JSONArray) container).values.size());
+    } else if (container instanceof JSONHash) {
+      JSONHash hash = (JSONHash) container;
+      long bytes = shallow(JSONHash.class);
+      if (hash.values != null) {
+        // The shape is counted by shapeBytes.
+        bytes += arrayBytes(hash.values.length, REF);
+      } // if
+      if (hash.buckets != null) {
+        bytes += arrayBytes(hash.buckets.length, REF);
+        for (Object bucket : hash.buckets) {
+          if (bucket != null) {
+            @SuppressWarnings("unchecked")
+            ArrayList<KVPair<JSONString, JSONValue>> pairs =
+                (ArrayList<KVPair<JSONString, JSONValue>>) bucket;
+            bytes += listBytes(pairs.size());
+            for (KVPair<JSONString, JSONValue> pair : pairs) {
+              bytes += isShared(pair.key(), hash.former)
+                  ? shallow(KVPair.class)
+                  : pairBytes(pair.key());
+            } // for
+          } // if
+        } // for
+      } // if
+      return bytes;
+    } else if (container instanceof PersistentJSONArray) {
+      PersistentJSONArray array = (PersistentJSONArray) container;
+      long bytes = shallow(PersistentJSONArray.class) + trieBytes(array.root, array.shift);
+      return (array.tail == null) ? bytes : bytes + arrayBytes(array.tail.length, REF);
+    } else if (container instanceof PersistentJSONHash) {
+      PersistentJSONHash hash = (PersistentJSONHash) container;
+      return shallow(PersistentJSONHash.class)
+          + ((hash.root == null) ? 0 : nodeBytes(hash.root));
+    } else if (container instanceof ConcurrentJSONHash) {
+      ConcurrentJSONHash hash = (ConcurrentJSONHash) container;
+      long bytes = shallow(ConcurrentJSONHash.class) + shallow(hash.pairs.getClass());
+      int size = hash.pairs.size();
+      int table = 16;
+      while (size >= table - (table >>> 2)) {
+        table <<= 1;
+      } // while
+      bytes += (size == 0) ? 0 : arrayBytes(table, REF);
+      for (JSONString key : hash.pairs.keySet()) {
+        bytes += CHM_NODE + scalarBytes(key);
+      } // for
+      return bytes;
+    } else {
+      return shallow(container.getClass());
+    } // if/else
+  } // ownBytes(JSONValue)
+
+  /**
+   * Estimate the bytes held by the shape of a hash (or, for a hash with a
+   * table, the shape it had, whose keys the table shares), unless it, or
+   * some of its keys, are among those already counted. Adds what it
+   * counts to counted.
+   */
+  static long shapeBytes(JSONValue container, IdentityHashMap<Object, Boolean> counted) {
+    if (!(container instanceof JSONHash)) {
+      return 0;
+    } // if
+    JSONHash hash = (JSONHash) container;
+    JSONShape shape = (hash.shape != null) ? hash.shape : hash.former;
+    if ((shape == null) || (shape == JSONShape.EMPTY)
+        || (counted.put(shape, Boolean.TRUE) != null)) {
+      return 0;
+    } // if
+    long bytes = shapeBytes(shape);
+    for (JSONString key : shape.keys) {
+      if (counted.put(key, Boolean.TRUE) == null) {
+        bytes += scalarBytes(key);
+      } // if
+    } // for
+    return bytes;
+  } // shapeBytes(JSONValue, IdentityHashMap<Object, Boolean>)
+
+  /**
+   * Estimate the bytes a shape holds itself, not counting its keys or the
+   * shapes that follow it.
+   */
+  static long shapeBytes(JSONShape shape) {
+    int size = shape.keys.length;
+    long bytes = shallow(JSONShape.class) + arrayBytes(size, REF);
+    if (shape.slots != null) {
+      // A HashMap with room for twice the keys; its Integers are cached.
+      int table = Integer.highestOneBit(Math.max(1, 2 * size - 1)) << 1;
+      bytes += shallow(HashMap.class) + arrayBytes(table, REF) + size * HASH_MAP_NODE;
+    } // if
+    return bytes;
+  } // shapeBytes(JSONShape)
+
+  /**
+   * Estimate the bytes held by a pair in a table, including its key.
+   */
+  static long pairBytes(JSONString key) {
+    return shallow(KVPair.class) + scalarBytes(key);
+  } // pairBytes(JSONString)
+
+  /**
+   * Estimate the bytes held by an ArrayList of the given size, built by
+   * adding elements one at a time.
+   */
+  static long listBytes(int size) {
+    if (size == 0) {
+      return shallow(ArrayList.class);
+    } // if
+    int capacity = 10;
+    while (capacity < size) {
+      capacity += capacity >> 1;
+    } // while
+    return shallow(ArrayList.class) + arrayBytes(capacity, REF);
+  } // listBytes(int)
+
+  /**
+   * Estimate the bytes held by a string.
+   */
+  static long stringBytes(String str) {
+    int length = str.length();
+    boolean latin1 = COMPACT_STRINGS;
+    for (int i = 0; latin1 && (i < length); i++) {
+      latin1 = str.charAt(i) <= 0xFF;
+    } // for
+    return shallow(String.class) + arrayBytes(length, latin1 ? 1 : 2);
+  } // stringBytes(String)
+
+  /**
+   * Estimate the bytes held by a BigInteger: its magnitude is an array of
+   * ints. Small integers cached by BigInteger or by arenas are shared.
+   */
+  static long bigIntegerBytes(BigInteger integer) {
+    int bits = integer.bitLength();
+    if (bits <= 10) {
+      long small = integer.longValue();
+      if ((BigInteger.valueOf(small) == integer)
+          || ((small >= 0) && (JSONArena.SMALL[(int) small] == integer))) {
+        return 0;
+      } // if
+    } // if
+    return shallow(BigInteger.class) + arrayBytes((bits + 31) >>> 5, 4);
+  } // bigIntegerBytes(BigInteger)
+
+  /**
+   * Estimate the bytes held by a BigDecimal, which only needs a BigInteger
+   * when its unscaled value doesn't fit in a long.
+   */
+  static long bigDecimalBytes(BigDecimal decimal) {
+    long bytes = shallow(BigDecimal.class);
+    if (decimal.precision() > 18) {
+      BigInteger unscaled = decimal.unscaledValue();
+      if (unscaled.bitLength() > 63) {
+        bytes += bigIntegerBytes(unscaled);
+      } // if
+    } // if
+    return bytes;
+  } // bigDecimalBytes(BigDecimal)
+
+  /**
+   * Get the size of an array.
+   */
+  static long arrayBytes(long length, int elementSize) {
+    return align(HEADER + 4 + length * elementSize);
+  } // arrayBytes(long, int)
+
+  /**
+   * Get the size of an instance of a class, without anything it refers
+   * to.
+   */
+  static long shallow(Class<?> type) {
+    return SHALLOW.get(type);
+  } // shallow(Class<?>)
+
+  /**
+   * Get the total a container remembers, or 0 if it doesn't.
+   */
+  static long knownBytes(JSONValue container) {
+    if (container instanceof JSONHash) {
+      return ((JSONHash) container).frozen ? ((JSONHash) container).bytes : 0;
+    } else if (container instanceof JSONArray) {
+      return ((JSONArray) container).frozen ? ((JSONArray) container).bytes : 0;
+    } else if (container instanceof PersistentJSONHash) {
+      return ((PersistentJSONHash) container).bytes;
+    } else if (container instanceof PersistentJSONArray) {
+      return ((PersistentJSONArray) container).bytes;
+    } else {
+      return 0;
+    } // if/else
+  } // knownBytes(JSONValue)
+
+  /**
+   * Have a container remember its total, if it can't change.
+   */
+  static void rememberBytes(JSONValue container, long bytes) {
+    if (container instanceof JSONHash) {
+      if (((JSONHash) container).frozen) {
+        ((JSONHash) container).bytes = bytes;
+      } // if
+    } else if (container instanceof JSONArray) {
+      if (((JSONArray) container).frozen) {
+        ((JSONArray) container).bytes = bytes;
+      } // if
+    } else if (container instanceof PersistentJSONHash) {
+      ((PersistentJSONHash) container).bytes = bytes;
+    } else if (container instanceof PersistentJSONArray) {
+      ((PersistentJSONArray) container).bytes = bytes;
+    } // if/else
+  } // rememberBytes(JSONValue, long)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Get the total for a child: nothing for a container we've already
+   * counted, and otherwise what we've just computed or what it remembers.
+   */
+  private static long childBytes(JSONValue child, IdentityHashMap<JSONValue, Long> totals,
+      IdentityHashMap<JSONValue, Boolean> counted) {
+    if (!JSON.isContainer(child) || isStored(child)) {
+      return scalarBytes(child);
+    } // if
+    if (counted.put(child, Boolean.TRUE) != null) {
+      return 0;
+    } // if
+    Long total = totals.get(child);
+    return (total != null) ? total : knownBytes(child);
+  } // childBytes(JSONValue, IdentityHashMap, IdentityHashMap)
+
+  /**
+   * Determine if a key belongs to a shape, rather than to a hash.
+   */
+  private static boolean isShared(JSONString key, JSONShape shape) {
+    if (shape == null) {
+      return false;
+    } // if
+    int slot = shape.indexOf(key);
+    return (slot >= 0) && (shape.keys[slot] == key);
+  } // isShared(JSONString, JSONShape)
+
+  /**
+   * Determine if a value is a view of a store.
+   */
+  private static boolean isStored(JSONValue value) {
+    return (value instanceof JSONStore.Array) || (value instanceof JSONStore.Hash);
+  } // isStored(JSONValue)
+
+  /**
+   * Estimate the bytes in the trie of a persistent array below a node.
+   */
+  private static long trieBytes(Object[] node, int level) {
+    long bytes = arrayBytes(node.length, REF);
+    if (level > 0) {
+      for (Object child : node) {
+        if (child != null) {
+          bytes += trieBytes((Object[]) child, level - PersistentJSONArray.BITS);
+        } // if
+      } // for
+    } // if
+    return bytes;
+  } // trieBytes(Object[], int)
+
+  /**
+   * Estimate the bytes in the trie of a persistent hash below a node,
+   * including the pairs and their keys.
+   */
+  @SuppressWarnings("unchecked")
+  private static long nodeBytes(PersistentJSONHash.Node node) {
+    Object[] slots = node.slots();
+    long bytes = shallow(node.getClass()) + arrayBytes(slots.length, REF);
+    for (Object slot : slots) {
+      if (slot instanceof PersistentJSONHash.Node) {
+        bytes += nodeBytes((PersistentJSONHash.Node) slot);
+      } else {
+        bytes += pairBytes(((KVPair<JSONString, JSONValue>) slot).key());
+      } // if/else
+    } // for
+    return bytes;
+  } // nodeBytes(PersistentJSONHash.Node)
+
+  /**
+   * Get the size of a field of a given type.
+   */
+  private static int fieldSize(Class<?> type) {
+    if ((type == long.class) || (type == double.class)) {
+      return 8;
+    } else if ((type == int.class) || (type == float.class)) {
+      return 4;
+    } else if ((type == short.class) || (type == char.class)) {
+      return 2;
+    } else if ((type == byte.class) || (type == boolean.class)) {
+      return 1;
+    } else {
+      return REF;
+    } // if/else
+  } // fieldSize(Class<?>)
+
+  /**
+   * Round a size up to the object alignment.
+   */
+  private static long align(long size) {
+    return (size + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+  } // align(long)
+} // class JSONMemory
@@ -0,0 +1,528 @@
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+/**
+ * Conversions between decimal text and doubles that don't go through
+ * strings or BigDecimal. Parsing uses the Eisel-Lemire algorithm (after
+ * Clinger's fast path for short, small numbers), and formatting uses
+ * Schubfach, which finds the shortest decimal that reads back as the
+ * same double. Both are exact: the results are what Double.parseDouble
+ * gives, and what Double.toString would give if it always chose the
+ * shortest digits.
+ *
+ * The 128-bit powers both algorithms need are computed once, when the
+ * class is loaded.
+ */
+final class JSONNumbers {
+
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The powers of ten that doubles represent exactly.
+   */
+  static final double[] EXACT_POWERS = {
+    1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15,
+    1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+  };
+
+  /**
+   * The smallest decimal exponent that can give a non-zero double, given
+   * at most 19 significant digits.
+   */
+  static final int MIN_EXPONENT = -342;
+
+  /**
+   * The largest decimal exponent that can give a finite double.
+   */
+  static final int MAX_EXPONENT = 308;
+
+  /**
+   * The high and low halves of the leading 128 bits of 5^q, for each q
+   * from MIN_EXPONENT to MAX_EXPONENT. For negative q, this is 2^b / 5^-q
+   * for a suitable b.
+   */
+  static final long[] FIVES_HIGH = new long[MAX_EXPONENT - MIN_EXPONENT + 1];
+  static final long[] FIVES_LOW = new long[MAX_EXPONENT - MIN_EXPONENT + 1];
+
+  /**
+   * The range of decimal exponents Schubfach needs for doubles.
+   */
+  static final int K_MIN = -324;
+  static final int K_MAX = 292;
+
+  /**
+   * For each k from K_MIN to K_MAX, the high and low 63 bits of
+   * g = floor(10^-k * 2^-r) + 1, where r is chosen so that
+   * 2^125 <= g < 2^126 (or so).
+   */
+  static final long[] TENS_HIGH = new long[K_MAX - K_MIN + 1];
+  static final long[] TENS_LOW = new long[K_MAX - K_MIN + 1];
+
+  /**
+   * The least significand of a normal double.
+   */
+  static final long C_MIN = 1L << 52;
+
+  /**
+   * The least binary exponent of a double.
+   */
+  static final int Q_MIN = -1074;
+
+  /**
+   * Subnormal significands below this need an extra digit of precision.
+   */
+  static final int C_TINY = 3;
+
+  /**
+   * The most characters format writes.
+   */
+  static final int MAX_CHARS = 26;
+
+  /**
+   * The tens and ones digits of each number below 100.
+   */
+  static final char[] TENS_DIGITS = new char[100];
+  static final char[] ONES_DIGITS = new char[100];
+
+  /**
+   * The powers of ten that fit in a long.
+   */
+  static final long[] LONG_POWERS = new long[19];
+
+  static {
+    for (int i = 0; i < 100; i++) {
+      TENS_DIGITS[i] = (char) ('0' + i / 10);
+      ONES_DIGITS[i] = (char) ('0' + i % 10);
+    } // for
+    LONG_POWERS[0] = 1;
+    for (int i = 1; i < LONG_POWERS.length; i++) {
+      LONG_POWERS[i] = 10 * LONG_POWERS[i - 1];
+    } // for
+
+    BigInteger five = BigInteger.valueOf(5);
+    for (int q = MIN_EXPONENT; q <= MAX_EXPONENT; q++) {
+      BigInteger power;
+      if (q >= 0) {
+        power = five.pow(q);
+        int shift = power.bitLength() - 128;
+        power = (shift < 0) ? power.shiftLeft(-shift) : power.shiftRight(shift);
+      } else {
+        BigInteger divisor = five.pow(-q);
+        int z = divisor.bitLength();
+        int b = (q >= -27) ? z + 127 : 2 * z + 128;
+        power = BigInteger.ONE.shiftLeft(b).divide(divisor).add(BigInteger.ONE);
+        if (power.bitLength() > 128) {
+          power = power.shiftRight(power.bitLength() - 128);
+        } // if
+      } // if/else
+      FIVES_HIGH[q - MIN_EXPONENT] = power.shiftRight(64).longValue();
+      FIVES_LOW[q - MIN_EXPONENT] = power.longValue();
+    } // for
+
+    BigInteger ten = BigInteger.TEN;
+    BigInteger mask = BigInteger.ONE.shiftLeft(63).subtract(BigInteger.ONE);
+    for (int k = K_MIN; k <= K_MAX; k++) {
+      BigInteger g;
+      if (k <= 0) {
+        BigInteger power = ten.pow(-k);
+        int shift = 126 - power.bitLength();
+        g = (shift >= 0) ? power.shiftLeft(shift) : power.shiftRight(-shift);
+      } else {
+        BigInteger power = ten.pow(k);
+        g = BigInteger.ONE.shiftLeft(125 + power.bitLength()).divide(power);
+      } // if/else
+      g = g.add(BigInteger.ONE);
+      TENS_HIGH[k - K_MIN] = g.shiftRight(63).longValue();
+      TENS_LOW[k - K_MIN] = g.and(mask).longValue();
+    } // for
+  } // static
+
+  // +---------+-----------------------------------------------------
+  // | Parsing |
+  // +---------+
+
+  /**
+   * Get the double nearest a number in JSON syntax, which the caller has
+   * already checked.
+   */
+  static double parseDouble(char[] text, int start, int length) {
+    int end = start + length;
+    int i = start;
+    boolean negative = (text[i] == '-');
+    if (negative) {
+      ++i;
+    } // if
+
+    // Gather up to 19 significant digits, noting the decimal exponent.
+    long significand = 0;
+    int digits = 0;
+    int exponent = 0;
+    boolean truncated = false;
+    boolean fraction = false;
+    for (; i < end; i++) {
+      char ch = text[i];
+      if (ch == '.') {
+        fraction = true;
+        continue;
+      } else if ((ch == 'e') || (ch == 'E')) {
+        break;
+      } // if/else
+      if (digits < 19) {
+        significand = (significand * 10) + (ch - '0');
+        if (significand != 0) {
+          ++digits;
+        } // if
+        if (fraction) {
+          --exponent;
+        } // if
+      } else {
+        truncated |= (ch != '0');
+        if (!fraction) {
+          ++exponent;
+        } // if
+      } // if/else
+    } // for
+
+    if (i < end) {
+      ++i;
+      boolean negativeExponent = (text[i] == '-');
+      if ((text[i] == '-') || (text[i] == '+')) {
+        ++i;
+      } // if
+      int written = 0;
+      for (; i < end; i++) {
+        // Anything this large is zero or infinity anyway.
+        written = Math.min(written * 10 + (text[i] - '0'), 100_000_000);
+      } // for
+      exponent += negativeExponent ? -written : written;
+    } // if
+
+    if (truncated) {
+      return Double.parseDouble(new String(text, start, length));
+    } // if
+    return toDouble(negative, significand, exponent);
+  } // parseDouble(char[], int, int)
+
+  /**
+   * Get the double nearest to significand * 10^exponent, negated if
+   * negative is set. The significand is unsigned.
+   */
+  static double toDouble(boolean negative, long significand, int exponent) {
+    if ((significand == 0) || (exponent < MIN_EXPONENT)) {
+      return negative ? -0.0 : 0.0;
+    } else if (exponent > MAX_EXPONENT) {
+      return negative ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+    } // if/else
+
+    // Clinger: both numbers are exact doubles, so one operation rounds
+    // correctly.
+    if ((significand >= 0) && (significand <= (1L << 53))
+        && (exponent >= -22) && (exponent <= 22)) {
+      double value = (double) significand;
+      value = (exponent < 0) ? value / EXACT_POWERS[-exponent] : value * EXACT_POWERS[exponent];
+      return negative ? -value : value;
+    } // if
+
+    // Eisel-Lemire: multiply by a truncated power of five and check that
+    // the truncation can't change the rounding.
+    int zeros = Long.numberOfLeadingZeros(significand);
+    long w = significand << zeros;
+    int index = exponent - MIN_EXPONENT;
+    long high = unsignedMultiplyHigh(w, FIVES_HIGH[index]);
+    long low = w * FIVES_HIGH[index];
+    if ((high & 0x1FF) == 0x1FF) {
+      long carry = unsignedMultiplyHigh(w, FIVES_LOW[index]);
+      low += carry;
+      if (Long.compareUnsigned(carry, low) > 0) {
+        ++high;
+      } // if
+    } // if
+    int upper = (int) (high >>> 63);
+    long mantissa = high >>> (upper + 9);
+    int power = (((152170 + 65536) * exponent) >> 16) + 63 + upper - zeros + 1023;
+
+    if (power <= 0) {
+      // Subnormal, or zero.
+      if (1 - power >= 64) {
+        return negative ? -0.0 : 0.0;
+      } // if
+      mantissa >>>= 1 - power;
+      mantissa += mantissa & 1;
+      mantissa >>>= 1;
+      power = (mantissa < (1L << 52)) ? 0 : 1;
+      return assemble(negative, mantissa, power);
+    } // if
+
+    // Round half to even when the product is exact and halfway.
+    if ((Long.compareUnsigned(low, 1) <= 0) && (exponent >= -4) && (exponent <= 23)
+        && ((mantissa & 3) == 1) && ((mantissa << (upper + 9)) == high)) {
+      mantissa &= ~1L;
+    } // if
+    mantissa += mantissa & 1;
+    mantissa >>>= 1;
+    if (mantissa >= (2L << 52)) {
+      mantissa = 1L << 52;
+      ++power;
+    } // if
+    mantissa &= ~(1L << 52);
+    if (power >= 0x7FF) {
+      return negative ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+    } // if
+    return assemble(negative, mantissa, power);
+  } // toDouble(boolean, long, int)
+
+  /**
+   * Get the double nearest to a decimal.
+   */
+  static double toDouble(BigDecimal decimal) {
+    BigInteger unscaled = decimal.unscaledValue();
+    if ((unscaled.bitLength() < 64) && (decimal.scale() > Integer.MIN_VALUE + MAX_EXPONENT)) {
+      long significand = unscaled.longValue();
+      return toDouble(significand < 0, Math.abs(significand), -decimal.scale());
+    } // if
+    return decimal.doubleValue();
+  } // toDouble(BigDecimal)
+
+  // +------------+--------------------------------------------------
+  // | Formatting |
+  // +------------+
+
+  /**
+   * Write the shortest decimal that reads back as a finite double.
+   * Integers keep a ".0", so they read back as reals, and very large and
+   * small numbers use exponents, as in 1.5e-7 and 1e21.
+   */
+  static String toString(double value) {
+    char[] chars = new char[MAX_CHARS];
+    return new String(chars, 0, format(value, chars, 0));
+  } // toString(double)
+
+  /**
+   * Write a finite double to out, as toString would, returning the
+   * position after it. There must be room for MAX_CHARS characters.
+   */
+  static int format(double value, char[] out, int pos) {
+    long bits = Double.doubleToRawLongBits(value);
+    if (bits < 0) {
+      out[pos++] = '-';
+    } // if
+    long fraction = bits & (C_MIN - 1);
+    int biased = (int) (bits >>> 52) & 0x7FF;
+    if (biased != 0) {
+      int shift = 1075 - biased;
+      long c = C_MIN | fraction;
+      if ((0 < shift) && (shift < 53)) {
+        // Small integers are their own shortest decimals.
+        long integer = c >> shift;
+        if ((integer << shift) == c) {
+          return emit(integer, 0, out, pos);
+        } // if
+      } // if
+      return schubfach(-shift, c, 0, out, pos);
+    } else if (fraction != 0) {
+      return (fraction < C_TINY)
+          ? schubfach(Q_MIN, 10 * fraction, -1, out, pos)
+          : schubfach(Q_MIN, fraction, 0, out, pos);
+    } // if/else
+    out[pos++] = '0';
+    out[pos++] = '.';
+    out[pos++] = '0';
+    return pos;
+  } // format(double, char[], int)
+
+  /**
+   * Find the shortest decimal in the rounding interval of c * 2^q (the
+   * closest, if there are several) and write it. dk adjusts the exponent
+   * for subnormals whose significand we've multiplied by ten.
+   */
+  private static int schubfach(int q, long c, int dk, char[] out, int pos) {
+    int odd = (int) c & 1;
+    long cb = c << 2;
+    long cbr = cb + 2;
+    long cbl;
+    int k;
+    if ((c != C_MIN) | (q == Q_MIN)) {
+      cbl = cb - 2;
+      k = flog10pow2(q);
+    } else {
+      cbl = cb - 1;
+      k = flog10threeQuartersPow2(q);
+    } // if/else
+    int h = q + flog2pow10(-k) + 2;
+    long g1 = TENS_HIGH[k - K_MIN];
+    long g0 = TENS_LOW[k - K_MIN];
+    long vb = roundToOdd(g1, g0, cb << h);
+    long vbl = roundToOdd(g1, g0, cbl << h);
+    long vbr = roundToOdd(g1, g0, cbr << h);
+
+    long s = vb >> 2;
+    if (s >= 100) {
+      // Try for one digit fewer.
+      long sp10 = 10 * Math.multiplyHigh(s, 115_292_150_460_684_698L << 4);
+      long tp10 = sp10 + 10;
+      boolean upin = vbl + odd <= sp10 << 2;
+      boolean wpin = (tp10 << 2) + odd <= vbr;
+      if (upin != wpin) {
+        return emit(upin ? sp10 : tp10, k, out, pos);
+      } // if
+    } // if
+    long t = s + 1;
+    boolean uin = vbl + odd <= s << 2;
+    boolean win = (t << 2) + odd <= vbr;
+    if (uin != win) {
+      return emit(uin ? s : t, k + dk, out, pos);
+    } // if
+    long cmp = vb - ((s + t) << 1);
+    return emit(((cmp < 0) || ((cmp == 0) && ((s & 1) == 0))) ? s : t, k + dk, out, pos);
+  } // schubfach(int, long, int, char[], int)
+
+  /**
+   * Write significand * 10^exponent.
+   */
+  private static int emit(long significand, int exponent, char[] out, int pos) {
+    while (significand % 10 == 0) {
+      significand /= 10;
+      ++exponent;
+    } // while
+    int length = 1;
+    while ((length < LONG_POWERS.length) && (significand >= LONG_POWERS[length])) {
+      ++length;
+    } // while
+    // The decimal point goes after the first point digits.
+    int point = length + exponent;
+
+    if ((point > 0) && (point <= 21)) {
+      writeDigits(significand, length, out, pos);
+      if (point >= length) {
+        pos += length;
+        for (int i = length; i < point; i++) {
+          out[pos++] = '0';
+        } // for
+        out[pos++] = '.';
+        out[pos++] = '0';
+        return pos;
+      } // if
+      System.arraycopy(out, pos + point, out, pos + point + 1, length - point);
+      out[pos + point] = '.';
+      return pos + length + 1;
+    } else if ((point <= 0) && (point > -6)) {
+      out[pos++] = '0';
+      out[pos++] = '.';
+      for (int i = point; i < 0; i++) {
+        out[pos++] = '0';
+      } // for
+      writeDigits(significand, length, out, pos);
+      return pos + length;
+    } // if/else
+
+    writeDigits(significand, length, out, pos + 1);
+    out[pos] = out[pos + 1];
+    if (length > 1) {
+      out[pos + 1] = '.';
+      pos += length + 1;
+    } else {
+      pos += 1;
+    } // if/else
+    out[pos++] = 'e';
+    int power = point - 1;
+    if (power < 0) {
+      out[pos++] = '-';
+      power = -power;
+    } // if
+    if (power >= 100) {
+      out[pos++] = (char) ('0' + power / 100);
+    } // if
+    if (power >= 10) {
+      out[pos++] = (char) ('0' + (power / 10) % 10);
+    } // if
+    out[pos++] = (char) ('0' + power % 10);
+    return pos;
+  } // emit(long, int, char[], int)
+
+  /**
+   * Write the length digits of a number at pos, two at a time, and in int
+   * arithmetic once the number is small enough.
+   */
+  private static void writeDigits(long number, int length, char[] out, int pos) {
+    int i = pos + length;
+    while (number >= 100_000_000L) {
+      long rest = number / 100_000_000L;
+      int low = (int) (number - rest * 100_000_000L);
+      for (int j = 0; j < 4; j++) {
+        int pair = low % 100;
+        low /= 100;
+        out[--i] = ONES_DIGITS[pair];
+        out[--i] = TENS_DIGITS[pair];
+      } // for
+      number = rest;
+    } // while
+    int small = (int) number;
+    while (small >= 100) {
+      int pair = small % 100;
+      small /= 100;
+      out[--i] = ONES_DIGITS[pair];
+      out[--i] = TENS_DIGITS[pair];
+    } // while
+    if (small >= 10) {
+      out[--i] = ONES_DIGITS[small];
+      out[--i] = TENS_DIGITS[small];
+    } else {
+      out[--i] = (char) ('0' + small);
+    } // if/else
+  } // writeDigits(long, int, char[], int)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Build a double from its parts.
+   */
+  private static double assemble(boolean negative, long mantissa, int power) {
+    long bits = mantissa | ((long) power << 52);
+    return Double.longBitsToDouble(negative ? bits | Long.MIN_VALUE : bits);
+  } // assemble(boolean, long, int)
+
+  /**
+   * Get the high 64 bits of the unsigned product of two longs.
+   */
+  static long unsignedMultiplyHigh(long x, long y) {
+    return Math.multiplyHigh(x, y) + ((x >> 63) & y) + ((y >> 63) & x);
+  } // unsignedMultiplyHigh(long, long)
+
+  /**
+   * Compute (g1 * 2^63 + g0) * cp / 2^127, rounding to odd, so that the
+   * result records whether anything was lost.
+   */
+  private static long roundToOdd(long g1, long g0, long cp) {
+    long x1 = Math.multiplyHigh(g0, cp);
+    long y0 = g1 * cp;
+    long y1 = Math.multiplyHigh(g1, cp);
+    long z = (y0 >>> 1) + x1;
+    long vbp = y1 + (z >>> 63);
+    return vbp | (((z & Long.MAX_VALUE) + Long.MAX_VALUE) >>> 63);
+  } // roundToOdd(long, long, long)
+
+  /**
+   * floor(log10(2^e)), for |e| <= 5456721.
+   */
+  static int flog10pow2(int e) {
+    return (int) ((e * 661_971_961_083L) >> 41);
+  } // flog10pow2(int)
+
+  /**
+   * floor(log10(3/4 * 2^e)), for |e| <= 5456721.
+   */
+  static int flog10threeQuartersPow2(int e) {
+    return (int) ((e * 661_971_961_083L - 274_743_187_321L) >> 41);
+  } // flog10threeQuartersPow2(int)
+
+  /**
+   * floor(log2(10^e)), for |e| <= 1838394.
+   */
+  static int flog2pow10(int e) {
+    return (int) ((e * 913_124_641_741L) >> 38);
+  } // flog2pow10(int)
+} // class JSONNumbers
@@ -0,0 +1,334 @@
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded, thread-safe cache of parse results, keyed by a 64-bit xxHash of
+ * the source text. Cached values are frozen and shared between callers. A
+ * result is only reused for a parse under the same limits (and the same
+ * setting of JSON.setExactReals), so tightening the limits takes effect at
+ * once.
+ *
+ * The cache is split into independently locked segments, each of which
+ * evicts its least recently used entries once it holds too many entries or
+ * too many characters of source. A hit costs one hash of the source plus
+ * one comparison with the cached source (to rule out hash collisions).
+ */
+public class JSONParseCache {
+
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The number of segments. Must be a power of two.
+   */
+  static final int SEGMENTS = 16;
+
+  static final long PRIME1 = 0x9E3779B185EBCA87L;
+  static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+  static final long PRIME3 = 0x165667B19E3779F9L;
+  static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+  static final long PRIME5 = 0x27D4EB2F165667C5L;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The segments.
+   */
+  Segment[] segments;
+
+  /**
+   * The most entries each segment may hold.
+   */
+  int maxEntriesPerSegment;
+
+  /**
+   * The most characters of source each segment may hold.
+   */
+  long maxWeightPerSegment;
+
+  LongAdder hits = new LongAdder();
+
+  LongAdder misses = new LongAdder();
+
+  LongAdder evictions = new LongAdder();
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Build a cache holding at most maxEntries documents whose sources total
+   * at most maxWeight characters. Documents too large to fit in one segment
+   * (maxWeight / 16) are parsed but never cached.
+   */
+  public JSONParseCache(int maxEntries, long maxWeight) {
+    if ((maxEntries < 1) || (maxWeight < 1)) {
+      throw new IllegalArgumentException("Cache limits must be positive");
+    } // if
+    this.maxEntriesPerSegment = Math.max(1, maxEntries / SEGMENTS);
+    this.maxWeightPerSegment = Math.max(1, maxWeight / SEGMENTS);
+    this.segments = new Segment[SEGMENTS];
+    for (int i = 0; i < SEGMENTS; i++) {
+      this.segments[i] = new Segment();
+    } // for
+  } // JSONParseCache(int, long)
+
+  // +-------------------------+-------------------------------------
+  // | Standard object methods |
+  // +-------------------------+
+
+  /**
+   * Convert to a string (e.g., for printing).
+   */
+  public String toString() {
+    return "JSONParseCache(size=" + this.size() + ", weight=" + this.weight() + ", hits="
+        + this.hitCount() + ", misses=" + this.missCount() + ", evictions="
+        + this.evictionCount() + ")";
+  } // toString()
+
+  // +---------+-----------------------------------------------------
+  // | Caching |
+  // +---------+
+
+  /**
+   * Parse a string, reusing an earlier result if we have one. The result is
+   * frozen.
+   */
+  public JSONValue parse(String source, ParserLimits limits)
+      throws ParseException, IOException {
+    long hash = hash(source);
+    Segment segment = this.segments[(int) (hash >>> 60) & (SEGMENTS - 1)];
+    boolean exact = JSON.exactReals;
+    JSONValue cached = segment.get(hash, source, limits, exact);
+    if (cached != null) {
+      this.hits.increment();
+      return cached;
+    } // if
+    this.misses.increment();
+    JSONValue result = JSON.freeze(JSON.parse(source, limits));
+    if (source.length() <= this.maxWeightPerSegment) {
+      segment.put(hash, source, limits, exact, result);
+    } // if
+    return result;
+  } // parse(String, ParserLimits)
+
+  /**
+   * Forget everything.
+   */
+  public void clear() {
+    for (Segment segment : this.segments) {
+      segment.clear();
+    } // for
+  } // clear()
+
+  // +------------+--------------------------------------------------
+  // | Statistics |
+  // +------------+
+
+  public long hitCount() {
+    return this.hits.sum();
+  } // hitCount()
+
+  public long missCount() {
+    return this.misses.sum();
+  } // missCount()
+
+  public long evictionCount() {
+    return this.evictions.sum();
+  } // evictionCount()
+
+  /**
+   * Get the fraction of lookups that were hits.
+   */
+  public double hitRate() {
+    long hitCount = this.hitCount();
+    long total = hitCount + this.missCount();
+    return (total == 0) ? 0.0 : (double) hitCount / total;
+  } // hitRate()
+
+  /**
+   * Get the number of cached documents.
+   */
+  public int size() {
+    int size = 0;
+    for (Segment segment : this.segments) {
+      size += segment.size();
+    } // for
+    return size;
+  } // size()
+
+  /**
+   * Get the number of characters of cached source.
+   */
+  public long weight() {
+    long weight = 0;
+    for (Segment segment : this.segments) {
+      weight += segment.weight();
+    } // for
+    return weight;
+  } // weight()
+
+  // +---------+-----------------------------------------------------
+  // | Hashing |
+  // +---------+
+
+  /**
+   * Compute the 64-bit xxHash (XXH64, seed 0) of a string's UTF-16 code
+   * units, read as little-endian bytes.
+   */
+  public static long hash(String source) {
+    int length = source.length();
+    int i = 0;
+    long hash;
+
+    if (length >= 16) {
+      long v1 = PRIME1 + PRIME2;
+      long v2 = PRIME2;
+      long v3 = 0;
+      long v4 = -PRIME1;
+      for (; i + 16 <= length; i += 16) {
+        v1 = round(v1, lane(source, i));
+        v2 = round(v2, lane(source, i + 4));
+        v3 = round(v3, lane(source, i + 8));
+        v4 = round(v4, lane(source, i + 12));
+      } // for
+      hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12)
+          + Long.rotateLeft(v4, 18);
+      hash = merge(hash, v1);
+      hash = merge(hash, v2);
+      hash = merge(hash, v3);
+      hash = merge(hash, v4);
+    } else {
+      hash = PRIME5;
+    } // if/else
+
+    hash += 2L * length;
+    for (; i + 4 <= length; i += 4) {
+      hash ^= round(0, lane(source, i));
+      hash = Long.rotateLeft(hash, 27) * PRIME1 + PRIME4;
+    } // for
+    for (; i + 2 <= length; i += 2) {
+      long word = source.charAt(i) | ((long) source.charAt(i + 1) << 16);
+      hash ^= word * PRIME1;
+      hash = Long.rotateLeft(hash, 23) * PRIME2 + PRIME3;
+    } // for
+    if (i < length) {
+      // The two bytes of the last code unit.
+      hash ^= (source.charAt(i) & 0xFF) * PRIME5;
+      hash = Long.rotateLeft(hash, 11) * PRIME1;
+      hash ^= (source.charAt(i) >>> 8) * PRIME5;
+      hash = Long.rotateLeft(hash, 11) * PRIME1;
+    } // if
+
+    hash ^= hash >>> 33;
+    hash *= PRIME2;
+    hash ^= hash >>> 29;
+    hash *= PRIME3;
+    hash ^= hash >>> 32;
+    return hash;
+  } // hash(String)
+
+  /**
+   * Read four code units as one little-endian 64-bit lane.
+   */
+  private static long lane(String source, int i) {
+    return source.charAt(i) | ((long) source.charAt(i + 1) << 16)
+        | ((long) source.charAt(i + 2) << 32) | ((long) source.charAt(i + 3) << 48);
+  } // lane(String, int)
+
+  private static long round(long acc, long input) {
+    acc += input * PRIME2;
+    acc = Long.rotateLeft(acc, 31);
+    return acc * PRIME1;
+  } // round(long, long)
+
+  private static long merge(long hash, long acc) {
+    hash ^= round(0, acc);
+    return hash * PRIME1 + PRIME4;
+  } // merge(long, long)
+
+  // +---------------+-----------------------------------------------
+  // | Inner classes |
+  // +---------------+
+
+  /**
+   * A cached document.
+   */
+  static class Entry {
+    String source;
+    ParserLimits limits;
+    boolean exact;
+    JSONValue value;
+
+    Entry(String source, ParserLimits limits, boolean exact, JSONValue value) {
+      this.source = source;
+      this.limits = limits;
+      this.exact = exact;
+      this.value = value;
+    } // Entry(String, ParserLimits, boolean, JSONValue)
+
+    /**
+     * Determine if this entry is the result of parsing source under
+     * limits.
+     */
+    boolean matches(String source, ParserLimits limits, boolean exact) {
+      return (this.exact == exact) && this.limits.equals(limits) && this.source.equals(source);
+    } // matches(String, ParserLimits, boolean)
+  } // class Entry
+
+  /**
+   * One independently locked piece of the cache, in least-recently-used
+   * order.
+   */
+  class Segment {
+    LinkedHashMap<Long, Entry> entries = new LinkedHashMap<Long, Entry>(16, 0.75f, true);
+
+    long weight = 0;
+
+    synchronized JSONValue get(long hash, String source, ParserLimits limits, boolean exact) {
+      Entry entry = this.entries.get(hash);
+      if ((entry == null) || !entry.matches(source, limits, exact)) {
+        return null;
+      } // if
+      return entry.value;
+    } // get(long, String, ParserLimits, boolean)
+
+    synchronized void put(long hash, String source, ParserLimits limits, boolean exact,
+        JSONValue value) {
+      Entry old = this.entries.put(hash, new Entry(source, limits, exact, value));
+      if (old != null) {
+        this.weight -= old.source.length();
+      } // if
+      this.weight += source.length();
+
+      Iterator<Map.Entry<Long, Entry>> oldest = this.entries.entrySet().iterator();
+      while ((this.entries.size() > JSONParseCache.this.maxEntriesPerSegment)
+          || (this.weight > JSONParseCache.this.maxWeightPerSegment)) {
+        Entry evicted = oldest.next().getValue();
+        oldest.remove();
+        this.weight -= evicted.source.length();
+        JSONParseCache.this.evictions.increment();
+      } // while
+    } // put(long, String, ParserLimits, boolean, JSONValue)
+
+    synchronized void clear() {
+      this.entries.clear();
+      this.weight = 0;
+    } // clear()
+
+    synchronized int size() {
+      return this.entries.size();
+    } // size()
+
+    synchronized long weight() {
+      return this.weight;
+    } // weight()
+  } // class Segment
+} // class JSONParseCache
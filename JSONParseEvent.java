@@ -0,0 +1,45 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * A Flight Recorder event describing one parse.
+ */
+@Name("json.Parse")
+@Label("JSON Parse")
+@Category("JSON")
+@Description("A document parsed by JSON.parse")
+public class JSONParseEvent extends jdk.jfr.Event {
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  @Label("Characters Read")
+  long charsRead;
+
+  @Label("Tokens")
+  int tokens;
+
+  @Label("Containers")
+  int containers;
+
+  @Label("Maximum Depth")
+  int maxDepth;
+
+  @Label("Strings")
+  int strings;
+
+  @Label("Numbers")
+  int numbers;
+
+  @Label("Parse Time")
+  @Timespan(Timespan.NANOSECONDS)
+  long parseTime;
+
+  @Label("Succeeded")
+  boolean succeeded;
+
+} // class JSONParseEvent
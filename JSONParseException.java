@@ -0,0 +1,134 @@
+import java.text.ParseException;
+
+/**
+ * A parse error that knows where it happened: the character offset, the
+ * line and column, what the parser expected to see, and the JSON path of
+ * the value being read (e.g., $.items[42].price).
+ */
+public class JSONParseException extends ParseException {
+
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  private static final long serialVersionUID = 1L;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * What went wrong, without the position information.
+   */
+  String reason;
+
+  /**
+   * A description of what we expected to see, or null if that's unclear.
+   */
+  String expected;
+
+  /**
+   * The offset of the error in the input, in characters.
+   */
+  long offset;
+
+  /**
+   * The line of the error, starting at 1.
+   */
+  long line;
+
+  /**
+   * The column of the error, starting at 1.
+   */
+  long column;
+
+  /**
+   * The path to the value being read, or null if unknown.
+   */
+  String path;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Build a new exception.
+   */
+  public JSONParseException(String reason, String expected, long offset, long line,
+      long column, String path) {
+    super(describe(reason, expected, line, column, path),
+        (int) Math.min(Integer.MAX_VALUE, offset));
+    this.reason = reason;
+    this.expected = expected;
+    this.offset = offset;
+    this.line = line;
+    this.column = column;
+    this.path = path;
+  } // JSONParseException(String, String, long, long, long, String)
+
+  // +-----------+---------------------------------------------------
+  // | Accessors |
+  // +-----------+
+
+  /**
+   * Get the description of what went wrong, without position information.
+   */
+  public String getReason() {
+    return this.reason;
+  } // getReason()
+
+  /**
+   * Get a description of what we expected to see (or null).
+   */
+  public String getExpected() {
+    return this.expected;
+  } // getExpected()
+
+  /**
+   * Get the offset of the error, which may exceed getErrorOffset() for huge
+   * inputs.
+   */
+  public long getOffset() {
+    return this.offset;
+  } // getOffset()
+
+  /**
+   * Get the line of the error, starting at 1.
+   */
+  public long getLine() {
+    return this.line;
+  } // getLine()
+
+  /**
+   * Get the column of the error, starting at 1.
+   */
+  public long getColumn() {
+    return this.column;
+  } // getColumn()
+
+  /**
+   * Get the path to the value being read (or null).
+   */
+  public String getPath() {
+    return this.path;
+  } // getPath()
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Build the full message.
+   */
+  static String describe(String reason, String expected, long line, long column, String path) {
+    StringBuilder message = new StringBuilder(reason);
+    if (expected != null) {
+      message.append(" (expected ").append(expected).append(")");
+    } // if
+    message.append(" at line ").append(line).append(", column ").append(column);
+    if (path != null) {
+      message.append(", path ").append(path);
+    } // if
+    return message.toString();
+  } // describe(String, String, long, long, String)
+} // class JSONParseException
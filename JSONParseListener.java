@@ -0,0 +1,30 @@
+import java.text.ParseException;
+
+/**
+ * Things that want to hear about parses (e.g., to collect metrics).
+ *
+ * Listeners are called on the parsing thread once the parse is over, so
+ * implementations should be thread safe and quick.
+ */
+public interface JSONParseListener {
+
+  /**
+   * Called after a successful parse.
+   */
+  public void parsed(JSONParseStats stats);
+
+  /**
+   * Called after a parse that failed.
+   */
+  public void failed(JSONParseStats stats, ParseException e);
+
+  /**
+   * Determine if the listener wants the estimated bytes held by the
+   * parsed value, which cost the parser a good deal more to keep than
+   * the other counters. By default, it doesn't.
+   */
+  public default boolean wantsRetainedBytes() {
+    return false;
+  } // wantsRetainedBytes()
+
+} // interface JSONParseListener
@@ -0,0 +1,270 @@
+import java.lang.management.ManagementFactory;
+import java.text.ParseException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * A thread-safe listener that accumulates parse counters and a latency
+ * histogram, exposes them over JMX, and emits a JSONParseEvent for each parse
+ * when Flight Recorder is recording.
+ *
+ * Typical use:
+ *
+ * <pre>
+ *   JSONParseMetrics metrics = new JSONParseMetrics();
+ *   metrics.register("default");
+ *   JSON.setListener(metrics);
+ * </pre>
+ */
+public class JSONParseMetrics implements JSONParseListener, JSONParseMetricsMBean {
+
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The number of latency buckets. The last one catches everything slower
+   * than about half an hour.
+   */
+  static final int BUCKETS = 32;
+
+  /**
+   * The JMX domain we register under.
+   */
+  static final String DOMAIN = "mp.json";
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The number of successful parses.
+   */
+  LongAdder parses = new LongAdder();
+
+  /**
+   * The number of parses that failed.
+   */
+  LongAdder failures = new LongAdder();
+
+  /**
+   * The characters consumed, over all parses.
+   */
+  LongAdder charsRead = new LongAdder();
+
+  /**
+   * The tokens seen, over all parses.
+   */
+  LongAdder tokens = new LongAdder();
+
+  /**
+   * The arrays and hashes seen, over all parses.
+   */
+  LongAdder containers = new LongAdder();
+
+  /**
+   * The strings seen (including hash keys), over all parses.
+   */
+  LongAdder strings = new LongAdder();
+
+  /**
+   * The numbers seen, over all parses.
+   */
+  LongAdder numbers = new LongAdder();
+
+  /**
+   * The time spent parsing, in nanoseconds, over all parses.
+   */
+  LongAdder nanos = new LongAdder();
+
+  /**
+   * The deepest nesting seen in any parse.
+   */
+  AtomicInteger maxDepth = new AtomicInteger();
+
+  /**
+   * Parse counts by power-of-two microsecond bucket.
+   */
+  AtomicLongArray latencies = new AtomicLongArray(BUCKETS);
+
+  // +-------------------------+-------------------------------------
+  // | Standard object methods |
+  // +-------------------------+
+
+  /**
+   * Convert to a string (e.g., for printing).
+   */
+  public String toString() {
+    return "parses=" + this.getParses() + ", failures=" + this.getFailures() + ", chars="
+        + this.getCharsRead() + ", tokens=" + this.getTokens() + ", maxDepth="
+        + this.getMaxDepth() + ", meanMicros=" + this.getMeanMicros();
+  } // toString()
+
+  // +---------------------------+-----------------------------------
+  // | JSONParseListener methods |
+  // +---------------------------+
+
+  /**
+   * Record a successful parse.
+   */
+  public void parsed(JSONParseStats stats) {
+    this.parses.increment();
+    this.record(stats, true);
+  } // parsed(JSONParseStats)
+
+  /**
+   * Record a failed parse.
+   */
+  public void failed(JSONParseStats stats, ParseException e) {
+    this.failures.increment();
+    this.record(stats, false);
+  } // failed(JSONParseStats, ParseException)
+
+  // +-------------------------------+-------------------------------
+  // | JSONParseMetricsMBean methods |
+  // +-------------------------------+
+
+  public long getParses() {
+    return this.parses.sum();
+  } // getParses()
+
+  public long getFailures() {
+    return this.failures.sum();
+  } // getFailures()
+
+  public long getCharsRead() {
+    return this.charsRead.sum();
+  } // getCharsRead()
+
+  public long getTokens() {
+    return this.tokens.sum();
+  } // getTokens()
+
+  public long getContainers() {
+    return this.containers.sum();
+  } // getContainers()
+
+  public long getStrings() {
+    return this.strings.sum();
+  } // getStrings()
+
+  public long getNumbers() {
+    return this.numbers.sum();
+  } // getNumbers()
+
+  public int getMaxDepth() {
+    return this.maxDepth.get();
+  } // getMaxDepth()
+
+  public double getMeanMicros() {
+    long count = this.getParses() + this.getFailures();
+    if (count == 0) {
+      return 0.0;
+    } // if
+    return this.nanos.sum() / 1000.0 / count;
+  } // getMeanMicros()
+
+  public long[] getLatencyHistogram() {
+    long[] result = new long[BUCKETS];
+    for (int i = 0; i < BUCKETS; i++) {
+      result[i] = this.latencies.get(i);
+    } // for
+    return result;
+  } // getLatencyHistogram()
+
+  /**
+   * Estimate a latency percentile. We only know bucket boundaries, so the
+   * result is the upper bound of the bucket holding the percentile.
+   */
+  public long percentileMicros(double percentile) {
+    long[] histogram = this.getLatencyHistogram();
+    long total = 0;
+    for (long count : histogram) {
+      total += count;
+    } // for
+    long target = (long) Math.ceil(total * percentile / 100.0);
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += histogram[i];
+      if (seen >= target && seen > 0) {
+        return 1L << i;
+      } // if
+    } // for
+    return 0;
+  } // percentileMicros(double)
+
+  public void reset() {
+    this.parses.reset();
+    this.failures.reset();
+    this.charsRead.reset();
+    this.tokens.reset();
+    this.containers.reset();
+    this.strings.reset();
+    this.numbers.reset();
+    this.nanos.reset();
+    this.maxDepth.set(0);
+    for (int i = 0; i < BUCKETS; i++) {
+      this.latencies.set(i, 0);
+    } // for
+  } // reset()
+
+  // +--------------------+------------------------------------------
+  // | Additional methods |
+  // +--------------------+
+
+  /**
+   * Register these metrics with the platform MBean server as
+   * mp.json:type=JSONParseMetrics,name=[name].
+   */
+  public ObjectName register(String name) throws JMException {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName objectName =
+        new ObjectName(DOMAIN + ":type=JSONParseMetrics,name=" + ObjectName.quote(name));
+    server.registerMBean(this, objectName);
+    return objectName;
+  } // register(String)
+
+  /**
+   * Determine the histogram bucket for a duration.
+   */
+  static int bucket(long nanos) {
+    long micros = nanos / 1000;
+    int bucket = 64 - Long.numberOfLeadingZeros(micros);
+    return Math.min(bucket, BUCKETS - 1);
+  } // bucket(long)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Fold one parse into the totals.
+   */
+  private void record(JSONParseStats stats, boolean succeeded) {
+    this.charsRead.add(stats.charsRead);
+    this.tokens.add(stats.tokens);
+    this.containers.add(stats.containers);
+    this.strings.add(stats.strings);
+    this.numbers.add(stats.numbers);
+    this.nanos.add(stats.nanos);
+    this.maxDepth.accumulateAndGet(stats.maxDepth, Math::max);
+    this.latencies.incrementAndGet(bucket(stats.nanos));
+
+    JSONParseEvent event = new JSONParseEvent();
+    if (event.isEnabled()) {
+      event.charsRead = stats.charsRead;
+      event.tokens = stats.tokens;
+      event.containers = stats.containers;
+      event.maxDepth = stats.maxDepth;
+      event.strings = stats.strings;
+      event.numbers = stats.numbers;
+      event.parseTime = stats.nanos;
+      event.succeeded = succeeded;
+      event.commit();
+    } // if
+  } // record(JSONParseStats, boolean)
+} // class JSONParseMetrics
@@ -0,0 +1,67 @@
+/**
+ * The JMX view of JSONParseMetrics.
+ */
+public interface JSONParseMetricsMBean {
+
+  /**
+   * Get the number of successful parses.
+   */
+  public long getParses();
+
+  /**
+   * Get the number of failed parses.
+   */
+  public long getFailures();
+
+  /**
+   * Get the total number of characters read.
+   */
+  public long getCharsRead();
+
+  /**
+   * Get the total number of tokens seen.
+   */
+  public long getTokens();
+
+  /**
+   * Get the total number of arrays and hashes seen.
+   */
+  public long getContainers();
+
+  /**
+   * Get the total number of strings seen.
+   */
+  public long getStrings();
+
+  /**
+   * Get the total number of numbers seen.
+   */
+  public long getNumbers();
+
+  /**
+   * Get the deepest nesting seen in any parse.
+   */
+  public int getMaxDepth();
+
+  /**
+   * Get the mean parse time, in microseconds.
+   */
+  public double getMeanMicros();
+
+  /**
+   * Get the number of parses in each latency bucket. Bucket i counts parses
+   * that took less than 2^i microseconds (and at least 2^(i-1)).
+   */
+  public long[] getLatencyHistogram();
+
+  /**
+   * Estimate a latency percentile (0-100), in microseconds.
+   */
+  public long percentileMicros(double percentile);
+
+  /**
+   * Clear all of the counters.
+   */
+  public void reset();
+
+} // interface JSONParseMetricsMBean
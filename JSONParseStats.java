@@ -0,0 +1,127 @@
+/**
+ * Counters describing a single parse. The parser only fills these in when a
+ * listener is installed (see JSON.setListener).
+ */
+public class JSONParseStats {
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The number of characters consumed from the input.
+   */
+  long charsRead;
+
+  /**
+   * The number of tokens (scalars, brackets, braces) seen.
+   */
+  int tokens;
+
+  /**
+   * The number of arrays and hashes seen.
+   */
+  int containers;
+
+  /**
+   * The deepest nesting seen.
+   */
+  int maxDepth;
+
+  /**
+   * The number of strings seen, including hash keys.
+   */
+  int strings;
+
+  /**
+   * The number of numbers seen.
+   */
+  int numbers;
+
+  /**
+   * How long the parse took, in nanoseconds.
+   */
+  long nanos;
+
+  /**
+   * The estimated bytes held by the parsed value, if the listener asked
+   * for them or the limits set a budget (or 0).
+   */
+  long retainedBytes;
+
+  // +-------------------------+-------------------------------------
+  // | Standard object methods |
+  // +-------------------------+
+
+  /**
+   * Convert to a string (e.g., for printing).
+   */
+  public String toString() {
+    return "chars=" + this.charsRead + ", tokens=" + this.tokens + ", containers="
+        + this.containers + ", maxDepth=" + this.maxDepth + ", strings=" + this.strings
+        + ", numbers=" + this.numbers + ", nanos=" + this.nanos + ", retainedBytes="
+        + this.retainedBytes;
+  } // toString()
+
+  // +-----------+---------------------------------------------------
+  // | Accessors |
+  // +-----------+
+
+  /**
+   * Get the number of characters consumed from the input.
+   */
+  public long charsRead() {
+    return this.charsRead;
+  } // charsRead()
+
+  /**
+   * Get the number of tokens seen.
+   */
+  public int tokens() {
+    return this.tokens;
+  } // tokens()
+
+  /**
+   * Get the number of arrays and hashes seen.
+   */
+  public int containers() {
+    return this.containers;
+  } // containers()
+
+  /**
+   * Get the deepest nesting seen.
+   */
+  public int maxDepth() {
+    return this.maxDepth;
+  } // maxDepth()
+
+  /**
+   * Get the number of strings seen.
+   */
+  public int strings() {
+    return this.strings;
+  } // strings()
+
+  /**
+   * Get the number of numbers seen.
+   */
+  public int numbers() {
+    return this.numbers;
+  } // numbers()
+
+  /**
+   * Get the duration of the parse, in nanoseconds.
+   */
+  public long nanos() {
+    return this.nanos;
+  } // nanos()
+
+  /**
+   * Get the estimated bytes held by the parsed value (or, for a failed
+   * parse, by what had been parsed so far). This is 0 unless the listener
+   * wants retained bytes or the limits set a budget.
+   */
+  public long retainedBytes() {
+    return this.retainedBytes;
+  } // retainedBytes()
+} // class JSONParseStats
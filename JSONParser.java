@@ -0,0 +1,446 @@
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+/**
+ * The structural half of the parser. Rather than recursing once per level
+ * of nesting, we keep the open arrays and hashes on an explicit stack and
+ * run a single loop, so the depth we can handle is bounded by the heap (and
+ * ParserLimits), not by the thread's stack.
+ */
+public class JSONParser {
+
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The kind of stack entry for an open array.
+   */
+  static final int ARRAY = 0;
+
+  /**
+   * The kind of stack entry for an open hash.
+   */
+  static final int HASH = 1;
+
+  /**
+   * The initial capacity of the container stack.
+   */
+  static final int INITIAL_DEPTH = 16;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * Where the characters come from.
+   */
+  JSONLexer lexer;
+
+  /**
+   * The limits we enforce.
+   */
+  ParserLimits limits;
+
+  /**
+   * Counters to fill in, or null if nobody is listening.
+   */
+  JSONParseStats stats;
+
+  /**
+   * The kind (ARRAY or HASH) of each open container.
+   */
+  int[] kinds = new int[INITIAL_DEPTH];
+
+  /**
+   * The open containers.
+   */
+  Object[] containers = new Object[INITIAL_DEPTH];
+
+  /**
+   * For open hashes, the key whose value we are reading.
+   */
+  JSONString[] keys = new JSONString[INITIAL_DEPTH];
+
+  /**
+   * The number of entries read so far in each open container.
+   */
+  int[] counts = new int[INITIAL_DEPTH];
+
+  /**
+   * For each open container, the bytes we've counted for its entries
+   * before knowing exactly what it will hold.
+   */
+  long[] reserved = new long[INITIAL_DEPTH];
+
+  /**
+   * The number of open containers.
+   */
+  int depth = 0;
+
+  /**
+   * Where nodes come from, or null to allocate them.
+   */
+  JSONArena arena;
+
+  /**
+   * Whether the listener wants the estimated bytes held by each value.
+   */
+  boolean wantsBytes;
+
+  /**
+   * Whether we keep a running estimate of the bytes the value holds on
+   * to, which we only do when there's a budget or the listener asks.
+   */
+  boolean counting;
+
+  /**
+   * The estimated bytes held by what we've parsed of the current value.
+   */
+  long bytes;
+
+  /**
+   * The shapes (and their keys) we've counted in the current value, while
+   * counting.
+   */
+  IdentityHashMap<Object, Boolean> shapes;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Build a parser that reads from a lexer.
+   */
+  public JSONParser(JSONLexer lexer) {
+    this.lexer = lexer;
+    this.limits = lexer.limits;
+    lexer.parser = this;
+  } // JSONParser(JSONLexer)
+
+  // +---------+-----------------------------------------------------
+  // | Parsing |
+  // +---------+
+
+  /**
+   * Parse a complete document, which must contain exactly one value.
+   */
+  public JSONValue parse() throws ParseException, IOException {
+    JSONValue result = this.parseValue(this.lexer.nextNonWhitespace());
+    int ch = this.lexer.nextNonWhitespace();
+    if (ch != -1) {
+      throw this.lexer.unexpected(ch, "end of input");
+    } // if
+    return result;
+  } // parse()
+
+  /**
+   * Parse the value that starts with ch (which has already been consumed),
+   * stopping right after its last character.
+   */
+  JSONValue parseValue(int ch) throws ParseException, IOException {
+    int base = this.depth;
+    JSONValue value;
+    this.counting = this.wantsBytes || (this.limits.maxRetainedBytes != Long.MAX_VALUE);
+    this.bytes = 0;
+    this.shapes = this.counting ? new IdentityHashMap<Object, Boolean>() : null;
+
+    while (true) {
+      // Start a value. Scalars are read whole; containers are pushed and
+      // we go around again for their first entry.
+      switch (ch) {
+        case '{':
+          ch = this.lexer.nextNonWhitespace();
+          if (ch == '}') {
+            this.checkDepth();
+            value = this.newHash();
+            this.countContainer(this.depth + 1);
+            break;
+          } // if
+          this.push(HASH, this.newHash());
+          this.countEntry(this.depth - 1, "Hash");
+          ch = this.readKey(ch);
+          continue;
+        case '[':
+          ch = this.lexer.nextNonWhitespace();
+          if (ch == ']') {
+            this.checkDepth();
+            value = this.newArray();
+            this.countContainer(this.depth + 1);
+            break;
+          } // if
+          this.push(ARRAY, this.newArray());
+          this.countEntry(this.depth - 1, "Array");
+          continue;
+        case '"':
+          value = (this.arena == null)
+              ? new JSONString(this.lexer.readString())
+              : this.arena.readString(this.lexer);
+          if (this.stats != null) {
+            ++this.stats.strings;
+          } // if
+          break;
+        case 't':
+        case 'f':
+        case 'n':
+          value = this.lexer.readConstant(ch);
+          break;
+        case '-':
+        case '0':
+        case '1':
+        case '2':
+        case '3':
+        case '4':
+        case '5':
+        case '6':
+        case '7':
+        case '8':
+        case '9':
+          value = (this.arena == null)
+              ? this.lexer.readNumber(ch)
+              : this.arena.number(this.lexer, ch);
+          if (this.stats != null) {
+            ++this.stats.numbers;
+          } // if
+          break;
+        default:
+          throw this.lexer.unexpected(ch, "value");
+      } // switch
+      if (this.counting) {
+        this.account(JSON.isContainer(value)
+            ? JSONMemory.ownBytes(value)
+            : JSONMemory.scalarBytes(value));
+      } // if
+      if (this.stats != null) {
+        ++this.stats.tokens;
+      } // if
+
+      // Store the finished value in its container. If that closes the
+      // container, the container becomes the finished value, and so on.
+      while (true) {
+        if (this.depth == base) {
+          return value;
+        } // if
+        int top = this.depth - 1;
+        ch = this.lexer.nextNonWhitespace();
+        if (this.kinds[top] == ARRAY) {
+          JSONArray array = (JSONArray) this.containers[top];
+          array.add(value);
+          if (this.counting) {
+            this.reserve(top, JSONMemory.REF);
+          } // if
+          if (ch == ',') {
+            this.countEntry(top, "Array");
+            ch = this.lexer.nextNonWhitespace();
+            break;
+          } else if (ch == ']') {
+            value = this.pop();
+          } else {
+            throw this.lexer.unexpected(ch, "',' or ']'");
+          } // if/else
+        } else {
+          JSONHash hash = (JSONHash) this.containers[top];
+          hash.set(this.keys[top], value);
+          if (this.counting) {
+            // Whether the hash keeps the key depends on whether it ends up
+            // with a shape or a table; assume the worst until it's closed.
+            this.reserve(top, JSONMemory.REF + JSONMemory.pairBytes(this.keys[top]));
+          } // if
+          if (ch == ',') {
+            this.countEntry(top, "Hash");
+            ch = this.readKey(this.lexer.nextNonWhitespace());
+            break;
+          } else if (ch == '}') {
+            value = this.pop();
+          } else {
+            throw this.lexer.unexpected(ch, "',' or '}'");
+          } // if/else
+        } // if/else
+      } // while
+    } // while
+  } // parseValue(int)
+
+  /**
+   * Describe where we are in the document as a JSON path, such as
+   * $.items[42].price. Only used when reporting errors.
+   */
+  String path() {
+    StringBuilder path = new StringBuilder("$");
+    for (int i = 0; i < this.depth; i++) {
+      if (this.kinds[i] == ARRAY) {
+        if (this.counts[i] > 0) {
+          path.append('[').append(this.counts[i] - 1).append(']');
+        } // if
+      } else if (this.keys[i] != null) {
+        appendKey(path, this.keys[i].value);
+      } // if/else
+    } // for
+    return path.toString();
+  } // path()
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Add a hash key to a path, using dot notation when the key is a simple
+   * name and bracket notation otherwise.
+   */
+  static void appendKey(StringBuilder path, String key) {
+    boolean simple = !key.isEmpty() && Character.isJavaIdentifierStart(key.charAt(0));
+    for (int i = 1; simple && (i < key.length()); i++) {
+      simple = Character.isJavaIdentifierPart(key.charAt(i));
+    } // for
+    if (simple) {
+      path.append('.').append(key);
+    } else {
+      path.append("['").append(key.replace("\\", "\\\\").replace("'", "\\'")).append("']");
+    } // if/else
+  } // appendKey(StringBuilder, String)
+
+  /**
+   * Read a hash key (starting with ch) and the colon after it, returning the
+   * first character of the value.
+   */
+  int readKey(int ch) throws ParseException, IOException {
+    this.keys[this.depth - 1] = null;
+    if (ch != '"') {
+      throw this.lexer.unexpected(ch, "string key");
+    } // if
+    this.keys[this.depth - 1] = (this.arena == null)
+        ? new JSONString(this.lexer.readString())
+        : this.arena.key(this.lexer);
+    if (this.stats != null) {
+      ++this.stats.strings;
+      ++this.stats.tokens;
+    } // if
+    ch = this.lexer.nextNonWhitespace();
+    if (ch != ':') {
+      throw this.lexer.unexpected(ch, "':'");
+    } // if
+    return this.lexer.nextNonWhitespace();
+  } // readKey(int)
+
+  /**
+   * Make an empty hash.
+   */
+  JSONHash newHash() {
+    return (this.arena == null) ? new JSONHash() : this.arena.hash();
+  } // newHash()
+
+  /**
+   * Make an empty array.
+   */
+  JSONArray newArray() {
+    return (this.arena == null) ? new JSONArray() : this.arena.array();
+  } // newArray()
+
+  /**
+   * Forget any containers left open by a failed parse, so that the parser
+   * can start on a new document.
+   */
+  void reset() {
+    Arrays.fill(this.containers, 0, this.depth, null);
+    Arrays.fill(this.keys, 0, this.depth, null);
+    this.depth = 0;
+  } // reset()
+
+  /**
+   * Open a new container.
+   */
+  void push(int kind, Object container) throws ParseException {
+    this.checkDepth();
+    if (this.depth == this.kinds.length) {
+      int capacity = (int) Math.min((long) this.depth * 2, Integer.MAX_VALUE - 8);
+      this.kinds = Arrays.copyOf(this.kinds, capacity);
+      this.containers = Arrays.copyOf(this.containers, capacity);
+      this.keys = Arrays.copyOf(this.keys, capacity);
+      this.counts = Arrays.copyOf(this.counts, capacity);
+      this.reserved = Arrays.copyOf(this.reserved, capacity);
+    } // if
+    this.kinds[this.depth] = kind;
+    this.containers[this.depth] = container;
+    this.counts[this.depth] = 0;
+    this.reserved[this.depth] = 0;
+    ++this.depth;
+    this.countContainer(this.depth);
+  } // push(int, Object)
+
+  /**
+   * Make sure there's room for one more container, empty or not, inside
+   * the open ones.
+   */
+  void checkDepth() throws ParseException {
+    if (this.depth >= this.limits.maxDepth) {
+      throw this.lexer.error("Nesting deeper than " + this.limits.maxDepth, null);
+    } // if
+  } // checkDepth()
+
+  /**
+   * Close the innermost container, returning it.
+   */
+  JSONValue pop() throws ParseException {
+    --this.depth;
+    JSONValue container = (JSONValue) this.containers[this.depth];
+    this.containers[this.depth] = null;
+    this.keys[this.depth] = null;
+    if ((container instanceof JSONHash) && (this.arena == null)) {
+      ((JSONHash) container).trim();
+    } // if
+    if (this.counting && (container != null)) {
+      // Now we know exactly what the container holds.
+      this.account(JSONMemory.ownBytes(container) + JSONMemory.shapeBytes(container, this.shapes)
+          - this.reserved[this.depth]);
+    } // if
+    if (this.stats != null) {
+      ++this.stats.tokens;
+    } // if
+    return container;
+  } // pop()
+
+  /**
+   * Note that another entry is coming in the container at level top.
+   */
+  void countEntry(int top, String what) throws ParseException {
+    if (this.counts[top]++ >= this.limits.maxEntries) {
+      throw this.lexer.error(what + " has more than " + this.limits.maxEntries + " entries",
+          null);
+    } // if
+  } // countEntry(int, String)
+
+  /**
+   * Count bytes for an entry in the container at level top, until we can
+   * count the container exactly.
+   */
+  void reserve(int top, long more) throws ParseException {
+    this.reserved[top] += more;
+    this.account(more);
+  } // reserve(int, long)
+
+  /**
+   * Add to the estimate of the bytes held by the value, making sure it's
+   * within the budget.
+   */
+  void account(long more) throws ParseException {
+    this.bytes += more;
+    if (this.bytes > this.limits.maxRetainedBytes) {
+      throw this.lexer.error("Document holds more than " + this.limits.maxRetainedBytes
+          + " bytes", null);
+    } // if
+  } // account(long)
+
+  /**
+   * Note that we have opened a container at the given depth.
+   */
+  private void countContainer(int level) {
+    if (this.stats != null) {
+      ++this.stats.containers;
+      ++this.stats.tokens;
+      if (level > this.stats.maxDepth) {
+        this.stats.maxDepth = level;
+      } // if
+    } // if
+  } // countContainer(int)
+} // class JSONParser
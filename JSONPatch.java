@@ -0,0 +1,713 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+
+/**
+ * Differences between JSON documents, as RFC 6902 JSON Patches and RFC 7396
+ * Merge Patches, and the means to apply them.
+ *
+ * Diffs compare subtrees by a 64-bit structural hash first, so identical
+ * branches are skipped after a single check, and match up array elements
+ * by their longest common subsequence, so an insertion in a long array
+ * costs one "add" rather than a "replace" of everything after it.
+ *
+ * Applying a patch never modifies the document. Instead, we copy just the
+ * arrays and hashes on the path to each change (at most once each per
+ * patch) and share everything else with the document and the patch. So if
+ * you plan to modify the result in place, freeze the document first.
+ */
+public class JSONPatch {
+
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The largest table we'll build to align two arrays. Past this, we
+   * compare arrays element by element.
+   */
+  static final long MAX_LCS_CELLS = 1L << 22;
+
+  static final JSONString OP = new JSONString("op");
+  static final JSONString PATH = new JSONString("path");
+  static final JSONString FROM = new JSONString("from");
+  static final JSONString VALUE = new JSONString("value");
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The hashes of the arrays and hashes we've compared.
+   */
+  IdentityHashMap<JSONValue, Long> hashes = new IdentityHashMap<JSONValue, Long>();
+
+  /**
+   * The operations found by diff.
+   */
+  JSONArray operations = new JSONArray();
+
+  /**
+   * The document being patched.
+   */
+  JSONValue root;
+
+  /**
+   * The copies we've made while patching, which we may modify freely.
+   */
+  IdentityHashMap<JSONValue, Boolean> copies = new IdentityHashMap<JSONValue, Boolean>();
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Build a differ or patcher. (Use the static methods.)
+   */
+  JSONPatch() {
+  } // JSONPatch()
+
+  // +----------------+----------------------------------------------
+  // | Static methods |
+  // +----------------+
+
+  /**
+   * Compute a JSON Patch that turns source into target.
+   */
+  public static JSONArray diff(JSONValue source, JSONValue target) {
+    JSONPatch differ = new JSONPatch();
+    differ.findOperations(source, target);
+    return differ.operations;
+  } // diff(JSONValue, JSONValue)
+
+  /**
+   * Apply a JSON Patch to a document, returning the patched document.
+   *
+   * @throws JSONPatchException if any operation fails, in which case
+   *   nothing has changed.
+   */
+  public static JSONValue apply(JSONValue document, JSONArray patch) {
+    JSONPatch patcher = new JSONPatch();
+    patcher.root = document;
+    for (int i = 0; i < patch.size(); i++) {
+      JSONValue operation = patch.get(i);
+      if (!(operation instanceof JSONHash)) {
+        throw new JSONPatchException("Operation is not a hash", i);
+      } // if
+      patcher.perform((JSONHash) operation, i);
+    } // for
+    return patcher.root;
+  } // apply(JSONValue, JSONArray)
+
+  /**
+   * Apply a Merge Patch to a document, returning the patched document.
+   * Members of hashes in the patch replace those in the document, except
+   * that null removes them; anything other than a hash replaces the
+   * document entirely.
+   */
+  public static JSONValue merge(JSONValue document, JSONValue patch) {
+    if (!(patch instanceof JSONHash)) {
+      return patch;
+    } // if
+    JSONHash result =
+        (document instanceof JSONHash) ? copy((JSONHash) document) : new JSONHash();
+    Iterator<KVPair<JSONString, JSONValue>> pairs = ((JSONHash) patch).iterator();
+    while (pairs.hasNext()) {
+      KVPair<JSONString, JSONValue> pair = pairs.next();
+      if (isNull(pair.value())) {
+        result.remove(pair.key());
+      } else {
+        result.set(pair.key(), merge(result.getOrNull(pair.key()), pair.value()));
+      } // if/else
+    } // while
+    return result;
+  } // merge(JSONValue, JSONValue)
+
+  /**
+   * Compute a Merge Patch that turns source into target. Merge patches
+   * can't set a member to null, or change part of an array; nulls in
+   * target become removals, and changed arrays are replaced whole.
+   */
+  public static JSONValue mergeDiff(JSONValue source, JSONValue target) {
+    return new JSONPatch().findMergePatch(source, target);
+  } // mergeDiff(JSONValue, JSONValue)
+
+  // +---------+-----------------------------------------------------
+  // | Diffing |
+  // +---------+
+
+  /**
+   * Find the operations that turn source into target.
+   *
+   * We handle one pair of values at a time, from a stack. A pair of arrays
+   * emits its insertions and removals at once, and pushes its changed
+   * elements, identified by their final indices; since their operations
+   * come after the array's, those indices are correct when applied.
+   */
+  private void findOperations(JSONValue source, JSONValue target) {
+    ArrayDeque<Task> tasks = new ArrayDeque<Task>();
+    tasks.push(new Task(source, target, ""));
+    while (!tasks.isEmpty()) {
+      Task task = tasks.pop();
+      if (this.same(task.source, task.target)) {
+        continue;
+      } else if ((task.source instanceof JSONHash) && (task.target instanceof JSONHash)) {
+        this.diffHashes((JSONHash) task.source, (JSONHash) task.target, task.path, tasks);
+      } else if ((task.source instanceof JSONArray) && (task.target instanceof JSONArray)) {
+        this.diffArrays((JSONArray) task.source, (JSONArray) task.target, task.path, tasks);
+      } else {
+        this.emit("replace", task.path, task.target);
+      } // if/else
+    } // while
+  } // findOperations(JSONValue, JSONValue)
+
+  /**
+   * Compare two hashes.
+   */
+  private void diffHashes(JSONHash source, JSONHash target, String path,
+      ArrayDeque<Task> tasks) {
+    Iterator<KVPair<JSONString, JSONValue>> pairs = source.iterator();
+    while (pairs.hasNext()) {
+      KVPair<JSONString, JSONValue> pair = pairs.next();
+      String childPath = path + "/" + JSONPath.escapePointer(pair.key().value);
+      JSONValue other = target.getOrNull(pair.key());
+      if (other == null) {
+        this.emit("remove", childPath, null);
+      } else {
+        tasks.push(new Task(pair.value(), other, childPath));
+      } // if/else
+    } // while
+    pairs = target.iterator();
+    while (pairs.hasNext()) {
+      KVPair<JSONString, JSONValue> pair = pairs.next();
+      if (!source.containsKey(pair.key())) {
+        this.emit("add", path + "/" + JSONPath.escapePointer(pair.key().value), pair.value());
+      } // if
+    } // while
+  } // diffHashes(JSONHash, JSONHash, String, ArrayDeque<Task>)
+
+  /**
+   * Compare two arrays. Elements in the longest common subsequence stay
+   * put; in each gap between them, we pair up removed and inserted
+   * elements (and diff each pair), then remove or add the rest.
+   */
+  private void diffArrays(JSONArray source, JSONArray target, String path,
+      ArrayDeque<Task> tasks) {
+    ArrayList<JSONValue> a = source.values;
+    ArrayList<JSONValue> b = target.values;
+
+    // Trim the common ends, which is all most edits need.
+    int start = 0;
+    while ((start < a.size()) && (start < b.size()) && this.same(a.get(start), b.get(start))) {
+      start++;
+    } // while
+    int endA = a.size();
+    int endB = b.size();
+    while ((endA > start) && (endB > start) && this.same(a.get(endA - 1), b.get(endB - 1))) {
+      endA--;
+      endB--;
+    } // while
+
+    int n = endA - start;
+    int m = endB - start;
+    int[] lcs = null;
+    long[] hashA = new long[n];
+    long[] hashB = new long[m];
+    if ((long) (n + 1) * (m + 1) <= MAX_LCS_CELLS) {
+      for (int i = 0; i < n; i++) {
+        hashA[i] = this.hash(a.get(start + i));
+      } // for
+      for (int j = 0; j < m; j++) {
+        hashB[j] = this.hash(b.get(start + j));
+      } // for
+      // lcs[i * (m + 1) + j] is the length of the longest common
+      // subsequence of a[i..] and b[j..] (offset by start).
+      lcs = new int[(n + 1) * (m + 1)];
+      for (int i = n - 1; i >= 0; i--) {
+        for (int j = m - 1; j >= 0; j--) {
+          lcs[i * (m + 1) + j] = (hashA[i] == hashB[j])
+              ? lcs[(i + 1) * (m + 1) + j + 1] + 1
+              : Math.max(lcs[(i + 1) * (m + 1) + j], lcs[i * (m + 1) + j + 1]);
+        } // for
+      } // for
+    } // if
+
+    int i = 0;
+    int j = 0;
+    int gapA = 0;
+    int gapB = 0;
+    int index = start;
+    while ((i < n) || (j < m)) {
+      if ((lcs != null) && (i < n) && (j < m) && (hashA[i] == hashB[j])
+          && this.same(a.get(start + i), b.get(start + j))) {
+        index = this.closeGap(a, b, start + i - gapA, start + j - gapB, gapA, gapB, index,
+            path, tasks);
+        gapA = 0;
+        gapB = 0;
+        i++;
+        j++;
+        index++;
+      } else if ((j >= m) || ((i < n) && (lcs != null)
+          && (lcs[(i + 1) * (m + 1) + j] >= lcs[i * (m + 1) + j + 1]))) {
+        gapA++;
+        i++;
+      } else if ((i >= n) || (lcs != null)) {
+        gapB++;
+        j++;
+      } else {
+        // No table: pair elements up by position.
+        gapA++;
+        gapB++;
+        i++;
+        j++;
+      } // if/else
+    } // while
+    this.closeGap(a, b, start + n - gapA, start + m - gapB, gapA, gapB, index, path, tasks);
+  } // diffArrays(JSONArray, JSONArray, String, ArrayDeque<Task>)
+
+  /**
+   * Emit the operations for a run of countA elements of a (from fromA)
+   * replaced by countB elements of b (from fromB), which start at index in
+   * the array being patched. Returns the index just past the run.
+   */
+  private int closeGap(ArrayList<JSONValue> a, ArrayList<JSONValue> b, int fromA, int fromB,
+      int countA, int countB, int index, String path, ArrayDeque<Task> tasks) {
+    int pairs = Math.min(countA, countB);
+    for (int p = 0; p < pairs; p++) {
+      tasks.push(new Task(a.get(fromA + p), b.get(fromB + p), path + "/" + (fromB + p)));
+    } // for
+    for (int p = pairs; p < countA; p++) {
+      this.emit("remove", path + "/" + (index + pairs), null);
+    } // for
+    for (int p = pairs; p < countB; p++) {
+      this.emit("add", path + "/" + (index + p), b.get(fromB + p));
+    } // for
+    return index + countB;
+  } // closeGap(...)
+
+  /**
+   * Find a merge patch that turns source into target.
+   */
+  private JSONValue findMergePatch(JSONValue source, JSONValue target) {
+    if (!(source instanceof JSONHash) || !(target instanceof JSONHash)) {
+      return target;
+    } // if
+    JSONHash from = (JSONHash) source;
+    JSONHash to = (JSONHash) target;
+    JSONHash patch = new JSONHash();
+    Iterator<KVPair<JSONString, JSONValue>> pairs = from.iterator();
+    while (pairs.hasNext()) {
+      KVPair<JSONString, JSONValue> pair = pairs.next();
+      if (!to.containsKey(pair.key())) {
+        patch.set(pair.key(), JSONConstant.NULL);
+      } // if
+    } // while
+    pairs = to.iterator();
+    while (pairs.hasNext()) {
+      KVPair<JSONString, JSONValue> pair = pairs.next();
+      JSONValue old = from.getOrNull(pair.key());
+      if (old == null) {
+        patch.set(pair.key(), pair.value());
+      } else if (!this.same(old, pair.value())) {
+        patch.set(pair.key(), this.findMergePatch(old, pair.value()));
+      } // if/else
+    } // while
+    return patch;
+  } // findMergePatch(JSONValue, JSONValue)
+
+  /**
+   * Add an operation to the diff.
+   */
+  private void emit(String op, String path, JSONValue value) {
+    JSONHash operation = new JSONHash();
+    operation.set(OP, new JSONString(op));
+    operation.set(PATH, new JSONString(path));
+    if (value != null) {
+      operation.set(VALUE, value);
+    } // if
+    this.operations.add(operation);
+  } // emit(String, String, JSONValue)
+
+  // +---------+-----------------------------------------------------
+  // | Hashing |
+  // +---------+
+
+  /**
+   * Determine if two values are equal, checking their hashes first.
+   */
+  boolean same(JSONValue a, JSONValue b) {
+    return (a == b) || ((this.hash(a) == this.hash(b)) && a.equals(b));
+  } // same(JSONValue, JSONValue)
+
+  /**
+   * Get the structural hash of a value: equal values have equal hashes,
+   * and the order of hash entries doesn't matter. The hashes of arrays and
+   * hashes are remembered.
+   */
+  long hash(JSONValue value) {
+    if (!isContainer(value)) {
+      return scalarHash(value);
+    } // if
+    Long known = this.hashes.get(value);
+    if (known != null) {
+      return known;
+    } // if
+
+    for (JSONValue container : JSON.postOrder(value,
+        (child) -> !isContainer(child) || this.hashes.containsKey(child))) {
+      long hash;
+      if (container instanceof JSONArray) {
+        hash = 1;
+        for (JSONValue element : ((JSONArray) container).values) {
+          hash = (31 * hash) + this.childHash(element);
+        } // for
+      } else {
+        hash = 2;
+        Iterator<KVPair<JSONString, JSONValue>> pairs = ((JSONHash) container).iterator();
+        while (pairs.hasNext()) {
+          KVPair<JSONString, JSONValue> pair = pairs.next();
+          hash += mix(pair.key().value.hashCode() * 0x9E3779B97F4A7C15L
+              + this.childHash(pair.value()));
+        } // while
+      } // if/else
+      this.hashes.put(container, mix(hash));
+    } // for
+    return this.hashes.get(value);
+  } // hash(JSONValue)
+
+  /**
+   * Get the hash of a value whose hash, if it's a container, we've
+   * already computed.
+   */
+  private long childHash(JSONValue value) {
+    return isContainer(value) ? this.hashes.get(value) : scalarHash(value);
+  } // childHash(JSONValue)
+
+  /**
+   * Get the hash of a value that isn't an array or hash.
+   */
+  static long scalarHash(JSONValue value) {
+    long kind;
+    int code;
+    if (value instanceof JSONString) {
+      kind = 3;
+      code = ((JSONString) value).value.hashCode();
+    } else if (value instanceof JSONInteger) {
+      kind = 4;
+      code = ((JSONInteger) value).value.hashCode();
+    } else if (value instanceof JSONReal) {
+      kind = 5;
+      code = value.hashCode();
+    } else {
+      kind = 6;
+      code = (value == null) ? 0 : value.hashCode();
+    } // if/else
+    return mix((kind << 32) ^ (code & 0xFFFFFFFFL));
+  } // scalarHash(JSONValue)
+
+  /**
+   * Scramble the bits of a hash (the finalizer from MurmurHash3).
+   */
+  static long mix(long hash) {
+    hash ^= hash >>> 33;
+    hash *= 0xFF51AFD7ED558CCDL;
+    hash ^= hash >>> 33;
+    hash *= 0xC4CEB9FE1A85EC53L;
+    hash ^= hash >>> 33;
+    return hash;
+  } // mix(long)
+
+  // +----------+----------------------------------------------------
+  // | Patching |
+  // +----------+
+
+  /**
+   * Perform one operation.
+   */
+  private void perform(JSONHash operation, int i) {
+    String op = this.member(operation, OP, i);
+    String[] path = this.pointer(this.member(operation, PATH, i), i);
+    switch (op) {
+      case "add":
+        this.add(path, this.value(operation, i), i);
+        break;
+      case "remove":
+        this.remove(path, i);
+        break;
+      case "replace":
+        this.replace(path, this.value(operation, i), i);
+        break;
+      case "move":
+        String from = this.member(operation, FROM, i);
+        String to = operation.getString("path", null);
+        if (to.startsWith(from + "/")) {
+          throw new JSONPatchException("Cannot move a value into itself", i);
+        } else if (!to.equals(from)) {
+          String[] fromPath = this.pointer(from, i);
+          JSONValue value = this.get(fromPath, i);
+          this.remove(fromPath, i);
+          this.add(path, value, i);
+        } // if/else
+        break;
+      case "copy":
+        JSONValue original = this.get(this.pointer(this.member(operation, FROM, i), i), i);
+        this.share(original);
+        this.add(path, original, i);
+        break;
+      case "test":
+        // Numbers that are equal by value pass (RFC 6902, section 4.6).
+        if (!JSON.equalByValue(this.get(path, i), this.value(operation, i))) {
+          throw new JSONPatchException("Test failed", i);
+        } // if
+        break;
+      default:
+        throw new JSONPatchException("Unknown operation \"" + op + "\"", i);
+    } // switch
+  } // perform(JSONHash, int)
+
+  /**
+   * Add a value.
+   */
+  private void add(String[] path, JSONValue value, int i) {
+    if (path.length == 0) {
+      this.root = value;
+      return;
+    } // if
+    JSONValue parent = this.parent(path, i);
+    String last = path[path.length - 1];
+    if (parent instanceof JSONHash) {
+      ((JSONHash) parent).set(new JSONString(last), value);
+    } else if (last.equals("-")) {
+      ((JSONArray) parent).add(value);
+    } else {
+      ((JSONArray) parent).add(this.index(parent, last, 1, i), value);
+    } // if/else
+  } // add(String[], JSONValue, int)
+
+  /**
+   * Remove a value.
+   */
+  private void remove(String[] path, int i) {
+    if (path.length == 0) {
+      throw new JSONPatchException("Cannot remove the whole document", i);
+    } // if
+    JSONValue parent = this.parent(path, i);
+    String last = path[path.length - 1];
+    if (parent instanceof JSONHash) {
+      if (((JSONHash) parent).remove(new JSONString(last)) == null) {
+        throw new JSONPatchException("No member \"" + last + "\" to remove", i);
+      } // if
+    } else {
+      ((JSONArray) parent).remove(this.index(parent, last, 0, i));
+    } // if/else
+  } // remove(String[], int)
+
+  /**
+   * Replace a value.
+   */
+  private void replace(String[] path, JSONValue value, int i) {
+    if (path.length == 0) {
+      this.root = value;
+      return;
+    } // if
+    JSONValue parent = this.parent(path, i);
+    String last = path[path.length - 1];
+    if (parent instanceof JSONHash) {
+      JSONString key = new JSONString(last);
+      if (!((JSONHash) parent).containsKey(key)) {
+        throw new JSONPatchException("No member \"" + last + "\" to replace", i);
+      } // if
+      ((JSONHash) parent).set(key, value);
+    } else {
+      ((JSONArray) parent).set(this.index(parent, last, 0, i), value);
+    } // if/else
+  } // replace(String[], JSONValue, int)
+
+  /**
+   * Get the value at a path, without copying anything.
+   */
+  private JSONValue get(String[] path, int i) {
+    JSONValue value = this.root;
+    for (String token : path) {
+      value = this.child(value, token, i);
+    } // for
+    return value;
+  } // get(String[], int)
+
+  /**
+   * Get the container that holds the last step of a path, copying it and
+   * its ancestors (those we haven't already copied) so that it may be
+   * changed.
+   */
+  private JSONValue parent(String[] path, int i) {
+    this.root = this.own(this.root);
+    JSONValue node = this.root;
+    for (int step = 0; step < path.length - 1; step++) {
+      JSONValue child = this.child(node, path[step], i);
+      JSONValue copy = this.own(child);
+      if (copy != child) {
+        if (node instanceof JSONHash) {
+          ((JSONHash) node).set(new JSONString(path[step]), copy);
+        } else {
+          ((JSONArray) node).set(JSONPath.arrayIndex(path[step]), copy);
+        } // if/else
+      } // if
+      node = copy;
+    } // for
+    if (!isContainer(node)) {
+      throw new JSONPatchException("Path does not lead to an array or hash", i);
+    } // if
+    return node;
+  } // parent(String[], int)
+
+  /**
+   * Get the member of a container named by a path token.
+   */
+  private JSONValue child(JSONValue container, String token, int i) {
+    JSONValue child = null;
+    if (container instanceof JSONHash) {
+      child = ((JSONHash) container).getOrNull(token);
+    } else if (container instanceof JSONArray) {
+      child = ((JSONArray) container).getOrNull(JSONPath.arrayIndex(token));
+    } // if/else
+    if (child == null) {
+      throw new JSONPatchException("No value at \"" + token + "\"", i);
+    } // if
+    return child;
+  } // child(JSONValue, String, int)
+
+  /**
+   * Get a copy of a container that we may change (or the container itself,
+   * if it's one of our copies).
+   */
+  private JSONValue own(JSONValue value) {
+    if (!isContainer(value) || this.copies.containsKey(value)) {
+      return value;
+    } // if
+    JSONValue copy;
+    if (value instanceof JSONArray) {
+      JSONArray array = new JSONArray();
+      array.values.addAll(((JSONArray) value).values);
+      copy = array;
+    } else {
+      copy = copy((JSONHash) value);
+    } // if/else
+    this.copies.put(copy, Boolean.TRUE);
+    return copy;
+  } // own(JSONValue)
+
+  /**
+   * Note that a value is about to appear in two places, so neither it nor
+   * any of the copies within it may be changed in place any more.
+   */
+  private void share(JSONValue value) {
+    ArrayDeque<JSONValue> pending = new ArrayDeque<JSONValue>();
+    pending.push(value);
+    while (!pending.isEmpty()) {
+      JSONValue next = pending.pop();
+      if (this.copies.remove(next) == null) {
+        continue;
+      } // if
+      if (next instanceof JSONArray) {
+        for (JSONValue element : ((JSONArray) next).values) {
+          pending.push(element);
+        } // for
+      } else {
+        Iterator<KVPair<JSONString, JSONValue>> pairs = ((JSONHash) next).iterator();
+        while (pairs.hasNext()) {
+          pending.push(pairs.next().value());
+        } // while
+      } // if/else
+    } // while
+  } // share(JSONValue)
+
+  /**
+   * Get an array index from a path token, which must be at most
+   * size - 1 + extra.
+   */
+  private int index(JSONValue array, String token, int extra, int i) {
+    int index = JSONPath.arrayIndex(token);
+    if ((index < 0) || (index >= ((JSONArray) array).size() + extra)) {
+      throw new JSONPatchException("Invalid array index \"" + token + "\"", i);
+    } // if
+    return index;
+  } // index(JSONValue, String, int, int)
+
+  /**
+   * Get a string member of an operation.
+   */
+  private String member(JSONHash operation, JSONString name, int i) {
+    String value = JSON.asString(operation.getOrNull(name), null);
+    if (value == null) {
+      throw new JSONPatchException("Operation needs a string \"" + name.value + "\"", i);
+    } // if
+    return value;
+  } // member(JSONHash, JSONString, int)
+
+  /**
+   * Get the value member of an operation.
+   */
+  private JSONValue value(JSONHash operation, int i) {
+    JSONValue value = operation.getOrNull(VALUE);
+    if (value == null) {
+      throw new JSONPatchException("Operation needs a \"value\"", i);
+    } // if
+    return value;
+  } // value(JSONHash, int)
+
+  /**
+   * Split a JSON Pointer into its tokens.
+   */
+  private String[] pointer(String pointer, int i) {
+    try {
+      return JSONPath.pointerTokens(pointer);
+    } catch (IllegalArgumentException e) {
+      throw new JSONPatchException(e.getMessage(), i);
+    } // try/catch
+  } // pointer(String, int)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Make a shallow copy of a hash.
+   */
+  static JSONHash copy(JSONHash hash) {
+    JSONHash copy = new JSONHash();
+    Iterator<KVPair<JSONString, JSONValue>> pairs = hash.iterator();
+    while (pairs.hasNext()) {
+      KVPair<JSONString, JSONValue> pair = pairs.next();
+      copy.set(pair.key(), pair.value());
+    } // while
+    return copy;
+  } // copy(JSONHash)
+
+  static boolean isContainer(JSONValue value) {
+    return (value instanceof JSONArray) || (value instanceof JSONHash);
+  } // isContainer(JSONValue)
+
+  static boolean isNull(JSONValue value) {
+    return (value instanceof JSONConstant) && (((JSONConstant) value).value == null);
+  } // isNull(JSONValue)
+
+  // +---------------+-----------------------------------------------
+  // | Inner classes |
+  // +---------------+
+
+  /**
+   * A pair of values to compare, and where they are.
+   */
+  static class Task {
+    JSONValue source;
+    JSONValue target;
+    String path;
+
+    Task(JSONValue source, JSONValue target, String path) {
+      this.source = source;
+      this.target = target;
+      this.path = path;
+    } // Task(JSONValue, JSONValue, String)
+  } // class Task
+} // class JSONPatch
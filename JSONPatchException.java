@@ -0,0 +1,45 @@
+/**
+ * A JSON Patch that can't be applied: an operation is malformed, refers to
+ * a location that doesn't exist, or is a test that fails. The document the
+ * patch was applied to is unchanged.
+ */
+public class JSONPatchException extends IllegalArgumentException {
+
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  private static final long serialVersionUID = 1L;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The position of the failing operation in the patch.
+   */
+  int operation;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Build an exception for the operation at the given position.
+   */
+  public JSONPatchException(String reason, int operation) {
+    super(reason + " (operation " + operation + ")");
+    this.operation = operation;
+  } // JSONPatchException(String, int)
+
+  // +-----------+---------------------------------------------------
+  // | Accessors |
+  // +-----------+
+
+  /**
+   * Get the position of the failing operation in the patch, starting at 0.
+   */
+  public int getOperation() {
+    return this.operation;
+  } // getOperation()
+} // class JSONPatchException
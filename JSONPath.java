@@ -0,0 +1,595 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.text.ParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Compiled JSONPath expressions (and JSON Pointers). Compile once, then
+ * evaluate against parsed trees or straight against JSON text. When reading
+ * text, subtrees that cannot contain a match are skipped without being
+ * built.
+ *
+ * Supported JSONPath syntax: $, .name, ['name'], [index], [*], .*, and the
+ * descendant forms ..name, ..*, and ..[index]. JSON Pointers (RFC 6901)
+ * look like /items/42/price.
+ *
+ * Matches come parents first. Reading text, siblings come in document
+ * order; walking a tree, they come in the tree's iteration order, which
+ * for a hash is the order of its keys while it has a shape, but the
+ * order of its table once it has one of its own (see JSONHash; large
+ * hashes, and hashes that have lost a key, do). So a wildcard or descendant
+ * step through such a hash may find the same matches in a different order
+ * in the tree and in its text, and selectFirst and selectFirstFrom may
+ * return different (equally valid) matches. Where it matters which match
+ * comes first, use a path that can only match one value, or select them
+ * all.
+ *
+ * A compiled path is a small automaton. Its states are numbered by how
+ * many steps have matched so far, and a set of states is kept in a long,
+ * so paths are limited to 63 steps.
+ */
+public class JSONPath {
+
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The most steps in a path.
+   */
+  static final int MAX_STEPS = 63;
+
+  /**
+   * A step that matches a hash key.
+   */
+  static final int NAME = 0;
+
+  /**
+   * A step that matches an array index.
+   */
+  static final int INDEX = 1;
+
+  /**
+   * A step that matches anything.
+   */
+  static final int WILDCARD = 2;
+
+  /**
+   * A JSON Pointer step, which matches a hash key or (if numeric) an array
+   * index.
+   */
+  static final int MEMBER = 3;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The expression we compiled.
+   */
+  String expression;
+
+  /**
+   * The kind of each step.
+   */
+  int[] kinds;
+
+  /**
+   * The key for each NAME or MEMBER step (null otherwise).
+   */
+  JSONString[] names;
+
+  /**
+   * The index for each INDEX or MEMBER step (-1 otherwise).
+   */
+  int[] indices;
+
+  /**
+   * Whether each step may match at any depth (..) rather than only
+   * children.
+   */
+  boolean[] descendants;
+
+  /**
+   * The number of steps.
+   */
+  int length;
+
+  /**
+   * Whether the path has no wildcards or descendant steps, and so matches
+   * at most one value.
+   */
+  boolean simple;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Build an empty path with room for the given number of steps.
+   */
+  JSONPath(String expression, int capacity) {
+    this.expression = expression;
+    this.kinds = new int[capacity];
+    this.names = new JSONString[capacity];
+    this.indices = new int[capacity];
+    this.descendants = new boolean[capacity];
+    this.simple = true;
+  } // JSONPath(String, int)
+
+  // +-------------------------+-------------------------------------
+  // | Standard object methods |
+  // +-------------------------+
+
+  /**
+   * Convert to a string (e.g., for printing).
+   */
+  public String toString() {
+    return this.expression;
+  } // toString()
+
+  // +-----------+---------------------------------------------------
+  // | Compiling |
+  // +-----------+
+
+  /**
+   * Compile a JSONPath expression, such as $.items[*].price. Strings that
+   * start with '/' (or are empty) are treated as JSON Pointers.
+   */
+  public static JSONPath compile(String expression) {
+    if (expression.isEmpty() || (expression.charAt(0) == '/')) {
+      return compilePointer(expression);
+    } // if
+    if (expression.charAt(0) != '$') {
+      throw syntaxError(expression, 0, "path must start with '$'");
+    } // if
+
+    JSONPath path = new JSONPath(expression, expression.length());
+    int i = 1;
+    while (i < expression.length()) {
+      boolean descendant = false;
+      char ch = expression.charAt(i);
+      if (ch == '.') {
+        ++i;
+        if ((i < expression.length()) && (expression.charAt(i) == '.')) {
+          descendant = true;
+          ++i;
+        } // if
+        if ((i < expression.length()) && (expression.charAt(i) == '[') && descendant) {
+          i = path.compileBracket(i, true);
+        } else if ((i < expression.length()) && (expression.charAt(i) == '*')) {
+          path.addStep(WILDCARD, null, -1, descendant);
+          ++i;
+        } else {
+          int start = i;
+          while ((i < expression.length()) && (".[".indexOf(expression.charAt(i)) < 0)) {
+            ++i;
+          } // while
+          if (i == start) {
+            throw syntaxError(expression, i, "expected a name");
+          } // if
+          path.addStep(NAME, expression.substring(start, i), -1, descendant);
+        } // if/else
+      } else if (ch == '[') {
+        i = path.compileBracket(i, false);
+      } else {
+        throw syntaxError(expression, i, "expected '.' or '['");
+      } // if/else
+    } // while
+    return path.finish();
+  } // compile(String)
+
+  /**
+   * Compile a JSON Pointer (RFC 6901), such as /items/42/price.
+   */
+  public static JSONPath compilePointer(String pointer) {
+    String[] tokens = pointerTokens(pointer);
+    JSONPath path = new JSONPath(pointer, tokens.length);
+    for (String token : tokens) {
+      path.addStep(MEMBER, token, arrayIndex(token), false);
+    } // for
+    return path.finish();
+  } // compilePointer(String)
+
+  /**
+   * Split a JSON Pointer into its unescaped reference tokens.
+   */
+  public static String[] pointerTokens(String pointer) {
+    if (pointer.isEmpty()) {
+      return new String[0];
+    } // if
+    if (pointer.charAt(0) != '/') {
+      throw syntaxError(pointer, 0, "JSON Pointer must start with '/'");
+    } // if
+    String[] tokens = pointer.substring(1).split("/", -1);
+    for (int i = 0; i < tokens.length; i++) {
+      String token = tokens[i];
+      for (int j = token.indexOf('~'); j >= 0; j = token.indexOf('~', j + 1)) {
+        if ((j + 1 >= token.length()) || ("01".indexOf(token.charAt(j + 1)) < 0)) {
+          throw syntaxError(pointer, j, "'~' must be followed by '0' or '1'");
+        } // if
+      } // for
+      tokens[i] = token.replace("~1", "/").replace("~0", "~");
+    } // for
+    return tokens;
+  } // pointerTokens(String)
+
+  /**
+   * Escape a key for use in a JSON Pointer.
+   */
+  public static String escapePointer(String key) {
+    return key.replace("~", "~0").replace("/", "~1");
+  } // escapePointer(String)
+
+  // +------------------+--------------------------------------------
+  // | Evaluating trees |
+  // +------------------+
+
+  /**
+   * Find all of the values in a tree that the path matches. Parents come
+   * before their children; siblings come in iteration order, which need
+   * not be the order of the text the tree came from.
+   */
+  public List<JSONValue> select(JSONValue root) {
+    List<JSONValue> results = new ArrayList<JSONValue>();
+    if (this.simple) {
+      JSONValue result = this.navigate(root);
+      if (result != null) {
+        results.add(result);
+      } // if
+    } else {
+      this.search(root, 1L, results, false);
+    } // if/else
+    return results;
+  } // select(JSONValue)
+
+  /**
+   * Find the first value in a tree that the path matches, in the order
+   * of select, or null if there is none.
+   */
+  public JSONValue selectFirst(JSONValue root) {
+    if (this.simple) {
+      return this.navigate(root);
+    } // if
+    List<JSONValue> results = new ArrayList<JSONValue>(1);
+    this.search(root, 1L, results, true);
+    return results.isEmpty() ? null : results.get(0);
+  } // selectFirst(JSONValue)
+
+  // +-----------------+---------------------------------------------
+  // | Evaluating text |
+  // +-----------------+
+
+  /**
+   * Find all of the values in some JSON text that the path matches, without
+   * building the parts of the document that can't match.
+   */
+  public List<JSONValue> selectFrom(String source) throws ParseException, IOException {
+    return this.selectFrom(new JSONReader(source));
+  } // selectFrom(String)
+
+  /**
+   * Find all of the values in some JSON text that the path matches, without
+   * building the parts of the document that can't match.
+   */
+  public List<JSONValue> selectFrom(Reader source) throws ParseException, IOException {
+    return this.selectFrom(new JSONReader(source));
+  } // selectFrom(Reader)
+
+  /**
+   * Find all of the values in the rest of a document that the path matches.
+   * The reader must be at the start of the document.
+   */
+  public List<JSONValue> selectFrom(JSONReader in) throws ParseException, IOException {
+    List<JSONValue> results = new ArrayList<JSONValue>();
+    this.stream(in, results, false);
+    // Make sure nothing follows the document; peek complains if it does.
+    in.peek();
+    return results;
+  } // selectFrom(JSONReader)
+
+  /**
+   * Find the first value in some JSON text that the path matches, or null
+   * if there is none. We stop reading as soon as we find it.
+   */
+  public JSONValue selectFirstFrom(String source) throws ParseException, IOException {
+    return this.selectFirstFrom(new JSONReader(source));
+  } // selectFirstFrom(String)
+
+  /**
+   * Find the first value in some JSON text that the path matches, or null
+   * if there is none. We stop reading as soon as we find it.
+   */
+  public JSONValue selectFirstFrom(Reader source) throws ParseException, IOException {
+    return this.selectFirstFrom(new JSONReader(source));
+  } // selectFirstFrom(Reader)
+
+  /**
+   * Find the first value in the rest of a document that the path matches,
+   * in document order, or null if there is none.
+   */
+  public JSONValue selectFirstFrom(JSONReader in) throws ParseException, IOException {
+    List<JSONValue> results = new ArrayList<JSONValue>(1);
+    this.stream(in, results, true);
+    return results.isEmpty() ? null : results.get(0);
+  } // selectFirstFrom(JSONReader)
+
+  // +-------------------+-------------------------------------------
+  // | Automaton helpers |
+  // +-------------------+
+
+  /**
+   * Determine if a set of states includes the accepting state.
+   */
+  boolean accepts(long states) {
+    return (states & (1L << this.length)) != 0;
+  } // accepts(long)
+
+  /**
+   * Compute the states of a child (with the given key, or, if key is null,
+   * the given index) of a value in the given states.
+   */
+  long advance(long states, String key, int index) {
+    long result = 0;
+    long pending = states & ~(1L << this.length);
+    while (pending != 0) {
+      int step = Long.numberOfTrailingZeros(pending);
+      pending &= pending - 1;
+      if (this.descendants[step]) {
+        result |= 1L << step;
+      } // if
+      if (this.matches(step, key, index)) {
+        result |= 1L << (step + 1);
+      } // if
+    } // while
+    return result;
+  } // advance(long, String, int)
+
+  /**
+   * Determine if a step matches a child with the given key or index.
+   */
+  boolean matches(int step, String key, int index) {
+    switch (this.kinds[step]) {
+      case NAME:
+        return (key != null) && this.names[step].value.equals(key);
+      case INDEX:
+        return (key == null) && (this.indices[step] == index);
+      case MEMBER:
+        return (key != null) ? this.names[step].value.equals(key) : (this.indices[step] == index);
+      default:
+        return true;
+    } // switch
+  } // matches(int, String, int)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Follow a simple path directly, returning null if it goes nowhere.
+   */
+  private JSONValue navigate(JSONValue value) {
+    for (int step = 0; (step < this.length) && (value != null); step++) {
+      if (JSON.isArray(value) && (this.kinds[step] != NAME)) {
+        value = JSON.element(value, this.indices[step]);
+      } else if (JSON.isContainer(value) && !JSON.isArray(value)
+          && (this.kinds[step] != INDEX)) {
+        value = JSON.member(value, this.names[step]);
+      } else {
+        value = null;
+      } // if/else
+    } // for
+    return value;
+  } // navigate(JSONValue)
+
+  /**
+   * Add the matches in a tree (whose root is in the given states) to
+   * results, walking the tree with an explicit stack.
+   */
+  void search(JSONValue root, long rootStates, List<JSONValue> results, boolean firstOnly) {
+    ArrayDeque<Object[]> pending = new ArrayDeque<Object[]>();
+    pending.push(new Object[] {root, rootStates});
+    while (!pending.isEmpty()) {
+      Object[] next = pending.pop();
+      JSONValue value = (JSONValue) next[0];
+      long states = (Long) next[1];
+      if (this.accepts(states)) {
+        results.add(value);
+        if (firstOnly) {
+          return;
+        } // if
+      } // if
+
+      // Push children in reverse, so that we visit them in order.
+      ArrayList<Object[]> children = new ArrayList<Object[]>();
+      if (JSON.isArray(value)) {
+        Iterator<?> elements = JSON.entries(value);
+        for (int i = 0; elements.hasNext(); i++) {
+          JSONValue element = (JSONValue) elements.next();
+          long childStates = this.advance(states, null, i);
+          if (childStates != 0) {
+            children.add(new Object[] {element, childStates});
+          } // if
+        } // for
+      } else if (JSON.isContainer(value)) {
+        Iterator<?> pairs = JSON.entries(value);
+        while (pairs.hasNext()) {
+          @SuppressWarnings("unchecked")
+          KVPair<JSONString, JSONValue> pair = (KVPair<JSONString, JSONValue>) pairs.next();
+          long childStates = this.advance(states, pair.key().value, -1);
+          if (childStates != 0) {
+            children.add(new Object[] {pair.value(), childStates});
+          } // if
+        } // while
+      } // if/else
+      for (int i = children.size() - 1; i >= 0; i--) {
+        pending.push(children.get(i));
+      } // for
+    } // while
+  } // search(JSONValue, long, List<JSONValue>, boolean)
+
+  /**
+   * Add the matches in the next value of a reader to results, building
+   * only the matching values. Returns early if firstOnly is set and we
+   * find a match.
+   */
+  private void stream(JSONReader in, List<JSONValue> results, boolean firstOnly)
+      throws ParseException, IOException {
+    if (this.accepts(1L)) {
+      results.add(in.readValue());
+      return;
+    } // if
+
+    // The states of each open container, and whether it is an array.
+    long[] states = new long[16];
+    boolean[] arrays = new boolean[16];
+    int[] indices = new int[16];
+    int depth = 0;
+    long childStates = 1L;
+
+    while (true) {
+      // Handle the value whose states are childStates.
+      if (this.accepts(childStates)) {
+        JSONValue value = in.readValue();
+        this.search(value, childStates, results, firstOnly);
+        if (firstOnly && !results.isEmpty()) {
+          return;
+        } // if
+      } else if (childStates == 0) {
+        in.skipValue();
+      } else {
+        JSONToken token = in.next();
+        if ((token == JSONToken.BEGIN_ARRAY) || (token == JSONToken.BEGIN_HASH)) {
+          if (depth == states.length) {
+            states = Arrays.copyOf(states, depth * 2);
+            arrays = Arrays.copyOf(arrays, depth * 2);
+            indices = Arrays.copyOf(indices, depth * 2);
+          } // if
+          states[depth] = childStates;
+          arrays[depth] = (token == JSONToken.BEGIN_ARRAY);
+          indices[depth] = 0;
+          ++depth;
+        } // if
+      } // if/else
+
+      // Find the next child, closing any containers that have ended.
+      while (true) {
+        if (depth == 0) {
+          return;
+        } // if
+        if (in.hasNext()) {
+          break;
+        } // if
+        in.next();
+        --depth;
+      } // while
+      int top = depth - 1;
+      if (arrays[top]) {
+        childStates = this.advance(states[top], null, indices[top]++);
+      } else {
+        in.next();
+        childStates = this.advance(states[top], in.stringValue(), -1);
+      } // if/else
+    } // while
+  } // stream(JSONReader, List<JSONValue>, boolean)
+
+  /**
+   * Compile a bracketed step starting at position i, returning the position
+   * after it.
+   */
+  private int compileBracket(int i, boolean descendant) {
+    String expression = this.expression;
+    int close = expression.indexOf(']', i);
+    if (close < 0) {
+      throw syntaxError(expression, i, "missing ']'");
+    } // if
+    char first = (i + 1 < close) ? expression.charAt(i + 1) : ']';
+    if ((first == '\'') || (first == '"')) {
+      StringBuilder name = new StringBuilder();
+      int j = i + 2;
+      while ((j < expression.length()) && (expression.charAt(j) != first)) {
+        char ch = expression.charAt(j++);
+        if ((ch == '\\') && (j < expression.length())) {
+          ch = expression.charAt(j++);
+        } // if
+        name.append(ch);
+      } // while
+      if ((j + 1 >= expression.length()) || (expression.charAt(j + 1) != ']')) {
+        throw syntaxError(expression, j, "unterminated quoted name");
+      } // if
+      this.addStep(NAME, name.toString(), -1, descendant);
+      return j + 2;
+    } // if
+    String inside = expression.substring(i + 1, close).trim();
+    if (inside.equals("*")) {
+      this.addStep(WILDCARD, null, -1, descendant);
+    } else {
+      int index = arrayIndex(inside);
+      if (index < 0) {
+        throw syntaxError(expression, i, "expected an index, '*', or a quoted name");
+      } // if
+      this.addStep(INDEX, null, index, descendant);
+    } // if/else
+    return close + 1;
+  } // compileBracket(int, boolean)
+
+  /**
+   * Add a step.
+   */
+  private void addStep(int kind, String name, int index, boolean descendant) {
+    if (this.length == MAX_STEPS) {
+      throw syntaxError(this.expression, 0, "more than " + MAX_STEPS + " steps");
+    } // if
+    this.kinds[this.length] = kind;
+    this.names[this.length] = (name == null) ? null : new JSONString(name);
+    this.indices[this.length] = index;
+    this.descendants[this.length] = descendant;
+    if (descendant || (kind == WILDCARD)) {
+      this.simple = false;
+    } // if
+    ++this.length;
+  } // addStep(int, String, int, boolean)
+
+  /**
+   * Trim the step arrays to size.
+   */
+  private JSONPath finish() {
+    this.kinds = Arrays.copyOf(this.kinds, this.length);
+    this.names = Arrays.copyOf(this.names, this.length);
+    this.indices = Arrays.copyOf(this.indices, this.length);
+    this.descendants = Arrays.copyOf(this.descendants, this.length);
+    return this;
+  } // finish()
+
+  /**
+   * Interpret a string as a non-negative array index, returning -1 if it
+   * isn't one.
+   */
+  static int arrayIndex(String token) {
+    if (token.isEmpty() || (token.length() > 9)
+        || ((token.charAt(0) == '0') && (token.length() > 1))) {
+      return -1;
+    } // if
+    int index = 0;
+    for (int i = 0; i < token.length(); i++) {
+      char ch = token.charAt(i);
+      if (!JSONLexer.isDigit(ch)) {
+        return -1;
+      } // if
+      index = (index * 10) + (ch - '0');
+    } // for
+    return index;
+  } // arrayIndex(String)
+
+  /**
+   * Build an exception for a malformed expression.
+   */
+  static IllegalArgumentException syntaxError(String expression, int position, String problem) {
+    return new IllegalArgumentException(
+        "Invalid path \"" + expression + "\" at position " + position + ": " + problem);
+  } // syntaxError(String, int, String)
+} // class JSONPath
@@ -0,0 +1,460 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.text.ParseException;
+
+/**
+ * A pull parser: rather than building a whole tree, it hands out one token
+ * at a time, and lets the caller skip values it doesn't care about without
+ * building them.
+ *
+ * Typical use:
+ *
+ * <pre>
+ *   JSONReader in = new JSONReader(text);
+ *   in.next();                          // BEGIN_HASH
+ *   while (in.peek() == JSONToken.KEY) {
+ *     in.next();
+ *     if (in.stringValue().equals("id")) {
+ *       JSONValue id = in.readValue();
+ *     } else {
+ *       in.skipValue();
+ *     } // if/else
+ *   } // while
+ *   in.next();                          // END_HASH
+ * </pre>
+ */
+public class JSONReader {
+
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * We're waiting for the top-level value.
+   */
+  static final int START = 0;
+
+  /**
+   * We've just read a value.
+   */
+  static final int AFTER_VALUE = 1;
+
+  /**
+   * We've just opened an array.
+   */
+  static final int FIRST_IN_ARRAY = 2;
+
+  /**
+   * We've just opened a hash.
+   */
+  static final int FIRST_IN_HASH = 3;
+
+  /**
+   * We've just read a key.
+   */
+  static final int AFTER_KEY = 4;
+
+  /**
+   * We've reached the end of the input.
+   */
+  static final int DONE = 5;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * Where the characters come from.
+   */
+  JSONLexer lexer;
+
+  /**
+   * Tracks open containers (and builds values for readValue).
+   */
+  JSONParser parser;
+
+  /**
+   * What we're waiting for (one of the constants above).
+   */
+  int state = START;
+
+  /**
+   * The token found by peek, or null if we haven't peeked.
+   */
+  JSONToken peeked;
+
+  /**
+   * The first character of the peeked token, which has been consumed.
+   */
+  int peekedChar;
+
+  /**
+   * The most recent token returned by next.
+   */
+  JSONToken current;
+
+  /**
+   * The text of the most recent key or string, once read.
+   */
+  String text;
+
+  /**
+   * Whether the most recent token was a string we haven't read yet. We
+   * read strings lazily, so that skipping them costs no allocation.
+   */
+  boolean pendingString;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Build a reader for a string.
+   */
+  public JSONReader(String source) throws ParseException {
+    this(new JSONLexer(source, JSON.defaultLimits));
+  } // JSONReader(String)
+
+  /**
+   * Build a reader for a string, enforcing the given limits.
+   */
+  public JSONReader(String source, ParserLimits limits) throws ParseException {
+    this(new JSONLexer(source, limits));
+  } // JSONReader(String, ParserLimits)
+
+  /**
+   * Build a reader for a reader.
+   */
+  public JSONReader(Reader source) {
+    this(new JSONLexer(source, JSON.defaultLimits));
+  } // JSONReader(Reader)
+
+  /**
+   * Build a reader for a reader, enforcing the given limits.
+   */
+  public JSONReader(Reader source, ParserLimits limits) {
+    this(new JSONLexer(source, limits));
+  } // JSONReader(Reader, ParserLimits)
+
+  /**
+   * Build a reader for a lexer.
+   */
+  JSONReader(JSONLexer lexer) {
+    this.lexer = lexer;
+    this.parser = new JSONParser(lexer);
+  } // JSONReader(JSONLexer)
+
+  // +-----------+---------------------------------------------------
+  // | Accessors |
+  // +-----------+
+
+  /**
+   * Get the number of open arrays and hashes.
+   */
+  public int depth() {
+    return this.parser.depth;
+  } // depth()
+
+  /**
+   * Get the path of the current value, such as $.items[42].price.
+   */
+  public String path() {
+    return this.parser.path();
+  } // path()
+
+  /**
+   * Get the offset in the input of the next unread character.
+   */
+  public long offset() {
+    return this.lexer.offset();
+  } // offset()
+
+  // +--------+------------------------------------------------------
+  // | Tokens |
+  // +--------+
+
+  /**
+   * Find out what the next token will be without consuming it.
+   */
+  public JSONToken peek() throws ParseException, IOException {
+    if (this.peeked == null) {
+      this.peeked = this.findNext();
+    } // if
+    return this.peeked;
+  } // peek()
+
+  /**
+   * Determine if the current array or hash has another entry.
+   */
+  public boolean hasNext() throws ParseException, IOException {
+    JSONToken next = this.peek();
+    return (next != JSONToken.END_ARRAY) && (next != JSONToken.END_HASH)
+        && (next != JSONToken.END_DOCUMENT);
+  } // hasNext()
+
+  /**
+   * Consume and return the next token.
+   */
+  public JSONToken next() throws ParseException, IOException {
+    JSONToken token = this.peek();
+    this.peeked = null;
+    this.current = token;
+    switch (token) {
+      case BEGIN_ARRAY:
+        this.parser.push(JSONParser.ARRAY, null);
+        this.state = FIRST_IN_ARRAY;
+        break;
+      case BEGIN_HASH:
+        this.parser.push(JSONParser.HASH, null);
+        this.state = FIRST_IN_HASH;
+        break;
+      case END_ARRAY:
+      case END_HASH:
+        this.parser.pop();
+        this.state = AFTER_VALUE;
+        break;
+      case KEY:
+        this.text = this.lexer.readString();
+        this.parser.keys[this.parser.depth - 1] = new JSONString(this.text);
+        this.state = AFTER_KEY;
+        break;
+      case STRING:
+        this.pendingString = true;
+        this.state = AFTER_VALUE;
+        break;
+      case NUMBER:
+        this.lexer.scanNumber(this.peekedChar);
+        this.state = AFTER_VALUE;
+        break;
+      case TRUE:
+      case FALSE:
+      case NULL:
+        this.lexer.readConstant(this.peekedChar);
+        this.state = AFTER_VALUE;
+        break;
+      default:
+        break;
+    } // switch
+    return token;
+  } // next()
+
+  /**
+   * Get the text of the key or string just returned by next.
+   */
+  public String stringValue() throws ParseException, IOException {
+    if (this.pendingString) {
+      this.pendingString = false;
+      this.text = this.lexer.readString();
+    } else if ((this.current != JSONToken.KEY) && (this.current != JSONToken.STRING)) {
+      throw new IllegalStateException("Current token is " + this.current + ", not a string");
+    } // if/else
+    return this.text;
+  } // stringValue()
+
+  /**
+   * Get the value of the number just returned by next.
+   */
+  public JSONValue numberValue() {
+    this.checkCurrent(JSONToken.NUMBER);
+    return this.lexer.makeNumber();
+  } // numberValue()
+
+  /**
+   * Get the value of the number just returned by next as a long, without
+   * building a JSONValue.
+   */
+  public long longValue() throws ParseException {
+    this.checkCurrent(JSONToken.NUMBER);
+    try {
+      return this.lexer.makeLong();
+    } catch (ArithmeticException e) {
+      throw this.error("Number is not an integer that fits in a long", "integer");
+    } // try/catch
+  } // longValue()
+
+  /**
+   * Get the value of the number just returned by next as a double, without
+   * building a JSONValue.
+   */
+  public double doubleValue() {
+    this.checkCurrent(JSONToken.NUMBER);
+    return this.lexer.makeDouble();
+  } // doubleValue()
+
+  // +--------+------------------------------------------------------
+  // | Values |
+  // +--------+
+
+  /**
+   * Skip the next value without building it. If the next token is a key,
+   * skip the key and its value.
+   */
+  public void skipValue() throws ParseException, IOException {
+    JSONToken token = this.peek();
+    switch (token) {
+      case KEY:
+        this.next();
+        this.skipValue();
+        break;
+      case BEGIN_ARRAY:
+      case BEGIN_HASH:
+        this.peeked = null;
+        this.lexer.skipContainer(this.parser.depth + 1);
+        this.current = null;
+        this.state = AFTER_VALUE;
+        break;
+      case STRING:
+        this.peeked = null;
+        this.lexer.skipString();
+        this.current = null;
+        this.state = AFTER_VALUE;
+        break;
+      case END_ARRAY:
+      case END_HASH:
+      case END_DOCUMENT:
+        throw new IllegalStateException("No value to skip at " + token);
+      default:
+        this.next();
+        break;
+    } // switch
+  } // skipValue()
+
+  /**
+   * Read the next value (a key's value, if we've just read a key) as a
+   * whole tree.
+   */
+  public JSONValue readValue() throws ParseException, IOException {
+    JSONToken token = this.peek();
+    if (!token.startsValue()) {
+      throw new IllegalStateException("No value to read at " + token);
+    } // if
+    this.peeked = null;
+    this.current = null;
+    this.state = AFTER_VALUE;
+    return this.parser.parseValue(this.peekedChar);
+  } // readValue()
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Make sure the current token is the expected one.
+   */
+  void checkCurrent(JSONToken expected) {
+    if (this.current != expected) {
+      throw new IllegalStateException("Current token is " + this.current + ", not " + expected);
+    } // if
+  } // checkCurrent(JSONToken)
+
+  /**
+   * Build an exception describing a problem at the current position, such
+   * as a value of the wrong kind.
+   */
+  JSONParseException error(String reason, String expected) {
+    return this.lexer.error(reason, expected);
+  } // error(String, String)
+
+  /**
+   * Consume the punctuation before the next token and the token's first
+   * character, working out what kind of token it is.
+   */
+  private JSONToken findNext() throws ParseException, IOException {
+    if (this.pendingString) {
+      this.pendingString = false;
+      this.lexer.skipString();
+    } // if
+
+    JSONParser stack = this.parser;
+    int ch;
+    switch (this.state) {
+      case START:
+        return this.startValue(this.lexer.nextNonWhitespace());
+      case AFTER_VALUE:
+        ch = this.lexer.nextNonWhitespace();
+        if (stack.depth == 0) {
+          if (ch != -1) {
+            throw this.lexer.unexpected(ch, "end of input");
+          } // if
+          this.state = DONE;
+          return JSONToken.END_DOCUMENT;
+        } // if
+        int top = stack.depth - 1;
+        if (stack.kinds[top] == JSONParser.ARRAY) {
+          if (ch == ']') {
+            return JSONToken.END_ARRAY;
+          } else if (ch != ',') {
+            throw this.lexer.unexpected(ch, "',' or ']'");
+          } // if/else
+          stack.countEntry(top, "Array");
+          return this.startValue(this.lexer.nextNonWhitespace());
+        } // if
+        if (ch == '}') {
+          return JSONToken.END_HASH;
+        } else if (ch != ',') {
+          throw this.lexer.unexpected(ch, "',' or '}'");
+        } // if/else
+        stack.countEntry(top, "Hash");
+        return this.startKey(this.lexer.nextNonWhitespace());
+      case FIRST_IN_ARRAY:
+        ch = this.lexer.nextNonWhitespace();
+        if (ch == ']') {
+          return JSONToken.END_ARRAY;
+        } // if
+        stack.countEntry(stack.depth - 1, "Array");
+        return this.startValue(ch);
+      case FIRST_IN_HASH:
+        ch = this.lexer.nextNonWhitespace();
+        if (ch == '}') {
+          return JSONToken.END_HASH;
+        } // if
+        stack.countEntry(stack.depth - 1, "Hash");
+        return this.startKey(ch);
+      case AFTER_KEY:
+        ch = this.lexer.nextNonWhitespace();
+        if (ch != ':') {
+          throw this.lexer.unexpected(ch, "':'");
+        } // if
+        return this.startValue(this.lexer.nextNonWhitespace());
+      default:
+        return JSONToken.END_DOCUMENT;
+    } // switch
+  } // findNext()
+
+  /**
+   * Work out what kind of value starts with ch.
+   */
+  private JSONToken startValue(int ch) throws ParseException {
+    this.peekedChar = ch;
+    switch (ch) {
+      case '{':
+        return JSONToken.BEGIN_HASH;
+      case '[':
+        return JSONToken.BEGIN_ARRAY;
+      case '"':
+        return JSONToken.STRING;
+      case 't':
+        return JSONToken.TRUE;
+      case 'f':
+        return JSONToken.FALSE;
+      case 'n':
+        return JSONToken.NULL;
+      default:
+        if ((ch == '-') || JSONLexer.isDigit(ch)) {
+          return JSONToken.NUMBER;
+        } // if
+        throw this.lexer.unexpected(ch, "value");
+    } // switch
+  } // startValue(int)
+
+  /**
+   * Make sure that ch starts a key.
+   */
+  private JSONToken startKey(int ch) throws ParseException {
+    this.parser.keys[this.parser.depth - 1] = null;
+    if (ch != '"') {
+      throw this.lexer.unexpected(ch, "string key");
+    } // if
+    return JSONToken.KEY;
+  } // startKey(int)
+} // class JSONReader
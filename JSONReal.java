@@ -2,7 +2,9 @@ import java.io.PrintWriter;
 import java.math.BigDecimal;
 
 /**
- * JSON reals.
+ * JSON reals. A real holds either an exact decimal or a double. Reals
+ * built from doubles (and those parsed when JSON.setExactReals(false) is
+ * in effect) only build a decimal if someone asks for one.
  */
 public class JSONReal implements JSONValue {
 
@@ -11,10 +13,22 @@ public class JSONReal implements JSONValue {
   // +--------+
 
   /**
-   * The underlying double.
+   * The underlying decimal, or null if the real holds a double and we
+   * haven't needed the decimal yet.
    */
   BigDecimal value;
 
+  /**
+   * The underlying double, if the real holds one.
+   */
+  double number;
+
+  /**
+   * Whether the real holds a double, so that value (once built) is the
+   * decimal its text (as written by toString) reads back as.
+   */
+  boolean holdsDouble;
+
   // +--------------+------------------------------------------------
   // | Constructors |
   // +--------------+
@@ -35,9 +49,15 @@ public class JSONReal implements JSONValue {
 
   /**
    * Create a new real given a double.
+   *
+   * @throws NumberFormatException if d is infinite or NaN.
    */
   public JSONReal(double d) {
-    this.value = BigDecimal.valueOf(d);
+    if (Double.isNaN(d) || Double.isInfinite(d)) {
+      throw new NumberFormatException("Infinite or NaN");
+    } // if
+    this.number = d;
+    this.holdsDouble = true;
   } // JSONReal(double)
 
   // +-------------------------+-------------------------------------
@@ -45,28 +65,34 @@ public class JSONReal implements JSONValue {
   // +-------------------------+
 
   /**
-   * Convert to a string (e.g., for printing).
+   * Convert to a string (e.g., for printing). Doubles are written with as
+   * few digits as will read back as the same double.
    */
   public String toString() {
-    return this.value.toString();
+    return this.holdsDouble ? JSONNumbers.toString(this.number) : format(this.value);
   } // toString()
 
   /**
    * Compare to another object.
    */
   public boolean equals(Object other) {
-    //BigDecimal otherReal = ((JSONReal) other).value;
     if (!(other instanceof JSONReal)) {
       return false;
     } // if
-    return this.value.equals(((JSONReal)other).value);
+    JSONReal that = (JSONReal) other;
+    if (this.holdsDouble && that.holdsDouble) {
+      // 0.0 and -0.0 have the same decimal.
+      return this.number == that.number;
+    } // if
+    return this.decimalValue().equals(that.decimalValue());
   } // equals(Object)
 
   /**
-   * Compute the hash code.
+   * Compute the hash code. We hash the nearest double, which equal reals
+   * share however they're held.
    */
   public int hashCode() {
-    return this.value.hashCode();
+    return Double.hashCode(this.doubleValue() + 0.0);
   } // hashCode()
 
   // +--------------------+------------------------------------------
@@ -77,14 +103,53 @@ public class JSONReal implements JSONValue {
    * Write the value as JSON.
    */
   public void writeJSON(PrintWriter pen) {
-    pen.printf(this.value.toString());
+    pen.print(this.toString());
   } // writeJSON(PrintWriter)
 
+  /**
+   * Estimate the bytes held by the number.
+   */
+  public long estimatedRetainedBytes() {
+    return JSONMemory.retainedBytes(this);
+  } // estimatedRetainedBytes()
+
   /**
    * Get the underlying value.
    */
   public BigDecimal getValue() {
-    return this.value;
+    return this.decimalValue();
   } // getValue()
 
+  /**
+   * Get the value as a decimal. For a double, that's the decimal its text
+   * reads back as, so a real equals the real we parse from its text.
+   */
+  public BigDecimal decimalValue() {
+    if (this.value == null) {
+      this.value = new BigDecimal(JSONNumbers.toString(this.number));
+    } // if
+    return this.value;
+  } // decimalValue()
+
+  /**
+   * Get the value as a double, rounding if need be.
+   */
+  public double doubleValue() {
+    return this.holdsDouble ? this.number : JSONNumbers.toDouble(this.value);
+  } // doubleValue()
+
+  /**
+   * Write a decimal as JSON. BigDecimal's own exponents (1E+3) are
+   * written the way most JSON is (1e3); either way, the text reads back
+   * as an equal decimal.
+   */
+  static String format(BigDecimal decimal) {
+    String text = decimal.toString();
+    int e = text.indexOf('E');
+    if (e < 0) {
+      return text;
+    } // if
+    return text.substring(0, e) + "e"
+        + text.substring((text.charAt(e + 1) == '+') ? e + 2 : e + 1);
+  } // format(BigDecimal)
 } // class JSONReal
@@ -0,0 +1,740 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+
+/**
+ * A compiled JSON Schema, which validates documents as it parses them, so
+ * that invalid input is rejected at the first bad value, and subtrees the
+ * schema says nothing about are read (or skipped) without checks.
+ *
+ * We support the common subset of JSON Schema: type, enum, const,
+ * minimum, maximum, exclusiveMinimum, exclusiveMaximum (as numbers),
+ * minLength, maxLength, items (a single schema), minItems, maxItems,
+ * properties, required, and additionalProperties, along with the
+ * annotations (title, description, format, and so on), which we ignore.
+ * Compiling a schema that uses anything else, such as $ref or oneOf, fails
+ * rather than quietly accepting documents the schema would reject.
+ *
+ * Typical use:
+ *
+ * <pre>
+ *   JSONSchema schema = JSONSchema.compile(schemaText);
+ *   JSONValue order = schema.parse(text);   // or schema.validate(text)
+ * </pre>
+ *
+ * Schemas are immutable, so one may be shared between threads.
+ */
+public class JSONSchema {
+
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  // The types a value may have, as bits.
+  static final int NULL = 1;
+  static final int BOOLEAN = 2;
+  static final int INTEGER = 4;
+  static final int NUMBER = 8;
+  static final int STRING = 16;
+  static final int ARRAY = 32;
+  static final int HASH = 64;
+  static final int ANY = 127;
+
+  /**
+   * The names of the types, in the order of their bits.
+   */
+  static final String[] TYPE_NAMES =
+      {"null", "boolean", "integer", "number", "string", "array", "object"};
+
+  /**
+   * Keywords that don't affect validation.
+   */
+  static final HashSet<String> ANNOTATIONS = new HashSet<String>(Arrays.asList(
+      "$schema", "$id", "id", "$comment", "title", "description", "default", "examples",
+      "format", "readOnly", "writeOnly", "deprecated"));
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The rules for the whole document.
+   */
+  Rules root;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  JSONSchema(Rules root) {
+    this.root = root;
+  } // JSONSchema(Rules)
+
+  /**
+   * Compile a schema.
+   *
+   * @throws IllegalArgumentException if the schema is malformed or uses
+   *   keywords we don't support.
+   */
+  public static JSONSchema compile(JSONValue schema) {
+    return new JSONSchema(compileRules(schema, "#"));
+  } // compile(JSONValue)
+
+  /**
+   * Compile a schema given as JSON text.
+   *
+   * @throws IllegalArgumentException if the schema is malformed or uses
+   *   keywords we don't support.
+   */
+  public static JSONSchema compile(String schema) throws ParseException, IOException {
+    return compile(JSON.parse(schema));
+  } // compile(String)
+
+  // +------------+--------------------------------------------------
+  // | Validation |
+  // +------------+
+
+  /**
+   * Parse a document, checking it against the schema.
+   *
+   * @throws JSONParseException if the document is malformed or breaks
+   *   the schema, with the path of the offending value.
+   */
+  public JSONValue parse(String source) throws ParseException, IOException {
+    return this.read(new JSONReader(source), true);
+  } // parse(String)
+
+  /**
+   * Parse a document from a reader, checking it against the schema.
+   */
+  public JSONValue parse(Reader source) throws ParseException, IOException {
+    return this.read(new JSONReader(source), true);
+  } // parse(Reader)
+
+  /**
+   * Check a document against the schema, without building it.
+   *
+   * @throws JSONParseException if the document is malformed or breaks
+   *   the schema.
+   */
+  public void validate(String source) throws ParseException, IOException {
+    this.read(new JSONReader(source), false);
+  } // validate(String)
+
+  /**
+   * Check a document from a reader against the schema, without building
+   * it.
+   */
+  public void validate(Reader source) throws ParseException, IOException {
+    this.read(new JSONReader(source), false);
+  } // validate(Reader)
+
+  /**
+   * Determine if a document is well formed and matches the schema.
+   */
+  public boolean isValid(String source) throws IOException {
+    try {
+      this.validate(source);
+      return true;
+    } catch (ParseException e) {
+      return false;
+    } // try/catch
+  } // isValid(String)
+
+  // +---------+-----------------------------------------------------
+  // | Reading |
+  // +---------+
+
+  /**
+   * Read a whole document.
+   */
+  JSONValue read(JSONReader in, boolean build) throws ParseException, IOException {
+    JSONValue result = read(this.root, in, build);
+    if (in.next() != JSONToken.END_DOCUMENT) {
+      throw in.error("Unexpected content after the document", "end of input");
+    } // if
+    return result;
+  } // read(JSONReader, boolean)
+
+  /**
+   * Read the next value, checking it against the rules. Returns the value,
+   * or null if we're not building.
+   */
+  static JSONValue read(Rules rules, JSONReader in, boolean build)
+      throws ParseException, IOException {
+    JSONToken token = in.peek();
+    int type = typeOf(token);
+    if ((rules.types & type) == 0) {
+      // Integers pass as numbers, and we check the value below.
+      if ((type != NUMBER) || ((rules.types & INTEGER) == 0)) {
+        in.next();
+        throw in.error("Value is " + describe(type), describeTypes(rules.types));
+      } // if
+    } // if
+
+    if (rules.values != null) {
+      JSONValue value = in.readValue();
+      if (!rules.values.contains(JSON.byValue(value))) {
+        throw in.error("Value is not allowed", "one of " + rules.allowed);
+      } // if
+      return value;
+    } else if (rules.unconstrained) {
+      if (build) {
+        return in.readValue();
+      } // if
+      in.skipValue();
+      return null;
+    } // if/else
+
+    switch (token) {
+      case BEGIN_HASH:
+        return readHash(rules, in, build);
+      case BEGIN_ARRAY:
+        return readArray(rules, in, build);
+      case STRING:
+        in.next();
+        if (!build && (rules.minLength == 0) && (rules.maxLength == Integer.MAX_VALUE)) {
+          return null;
+        } // if
+        String str = in.stringValue();
+        rules.checkLength(in, str);
+        return build ? new JSONString(str) : null;
+      case NUMBER:
+        in.next();
+        return rules.checkNumber(in, build ? in.numberValue() : null);
+      default:
+        in.next();
+        return !build
+            ? null
+            : (token == JSONToken.TRUE)
+                ? JSONConstant.TRUE
+                : (token == JSONToken.FALSE) ? JSONConstant.FALSE : JSONConstant.NULL;
+    } // switch
+  } // read(Rules, JSONReader, boolean)
+
+  /**
+   * Read a hash. Declared properties go straight into slots, in which we
+   * can check for required ones without consulting a hash table; we guess
+   * that each key is the one declared after the previous one, which is
+   * usually right, before looking keys up.
+   */
+  static JSONValue readHash(Rules rules, JSONReader in, boolean build)
+      throws ParseException, IOException {
+    in.next();
+    JSONValue[] slots = new JSONValue[rules.names.length];
+    ArrayList<JSONValue> extras = null;
+    int count = 0;
+    int guess = 0;
+    while (in.peek() == JSONToken.KEY) {
+      in.next();
+      String key = in.stringValue();
+      int slot;
+      if ((guess < rules.names.length) && rules.names[guess].value.equals(key)) {
+        slot = guess;
+      } else {
+        Integer found = rules.slots.get(key);
+        slot = (found == null) ? -1 : found;
+      } // if/else
+      if (slot >= 0) {
+        JSONValue value = read(rules.properties[slot], in, build);
+        if (slots[slot] == null) {
+          count++;
+        } // if
+        slots[slot] = build ? value : JSONConstant.NULL;
+        guess = slot + 1;
+      } else if (rules.closed) {
+        throw in.error("Property \"" + key + "\" is not allowed",
+            "one of " + Arrays.toString(rules.names));
+      } else {
+        JSONValue value = read(rules.additional, in, build);
+        if (build) {
+          if (extras == null) {
+            extras = new ArrayList<JSONValue>();
+          } // if
+          extras.add(new JSONString(key));
+          extras.add(value);
+        } // if
+      } // if/else
+    } // while
+    in.next();
+    if (count < rules.requiredCount) {
+      for (int i = 0; i < rules.requiredCount; i++) {
+        if (slots[i] == null) {
+          throw in.error("Missing property \"" + rules.names[i].value + "\"", null);
+        } // if
+      } // for
+    } // if
+    if (!build) {
+      return null;
+    } // if
+
+    JSONHash hash = new JSONHash(count + ((extras == null) ? 0 : extras.size() / 2));
+    for (int i = 0; i < slots.length; i++) {
+      if (slots[i] != null) {
+        hash.set(rules.names[i], slots[i]);
+      } // if
+    } // for
+    if (extras != null) {
+      for (int i = 0; i < extras.size(); i += 2) {
+        hash.set((JSONString) extras.get(i), extras.get(i + 1));
+      } // for
+    } // if
+    return hash;
+  } // readHash(Rules, JSONReader, boolean)
+
+  /**
+   * Read an array.
+   */
+  static JSONValue readArray(Rules rules, JSONReader in, boolean build)
+      throws ParseException, IOException {
+    in.next();
+    JSONArray array = build ? new JSONArray() : null;
+    int count = 0;
+    while (in.hasNext()) {
+      if (++count > rules.maxItems) {
+        throw in.error("Array has more than " + rules.maxItems + " items", "']'");
+      } // if
+      JSONValue value = read(rules.items, in, build);
+      if (build) {
+        array.values.add(value);
+      } // if
+    } // while
+    if (count < rules.minItems) {
+      throw in.error("Array has fewer than " + rules.minItems + " items", "value");
+    } // if
+    in.next();
+    return array;
+  } // readArray(Rules, JSONReader, boolean)
+
+  // +-----------+---------------------------------------------------
+  // | Compiling |
+  // +-----------+
+
+  /**
+   * Compile the rules of a schema, which is at where (a JSON Pointer
+   * fragment, for error messages).
+   */
+  static Rules compileRules(JSONValue schema, String where) {
+    Rules rules = new Rules();
+    if (JSONConstant.TRUE.equals(schema)) {
+      return rules.finish();
+    } else if (JSONConstant.FALSE.equals(schema)) {
+      rules.types = 0;
+      return rules.finish();
+    } else if (!(schema instanceof JSONHash)) {
+      throw invalid(where, "a schema must be a hash or a boolean");
+    } // if/else
+
+    JSONHash hash = (JSONHash) schema;
+    ArrayList<JSONString> names = new ArrayList<JSONString>();
+    ArrayList<Rules> properties = new ArrayList<Rules>();
+    ArrayList<String> required = new ArrayList<String>();
+    Iterator<KVPair<JSONString, JSONValue>> pairs = hash.iterator();
+    while (pairs.hasNext()) {
+      KVPair<JSONString, JSONValue> pair = pairs.next();
+      String keyword = pair.key().value;
+      JSONValue value = pair.value();
+      String at = where + "/" + JSONPath.escapePointer(keyword);
+      switch (keyword) {
+        case "type":
+          rules.types = 0;
+          if (value instanceof JSONArray) {
+            for (JSONValue name : ((JSONArray) value).values) {
+              rules.types |= typeNamed(name, at);
+            } // for
+          } else {
+            rules.types = typeNamed(value, at);
+          } // if/else
+          break;
+        case "enum":
+          if (!(value instanceof JSONArray)) {
+            throw invalid(at, "enum must be an array");
+          } // if
+          rules.values = new HashSet<JSONValue>();
+          for (JSONValue allowed : ((JSONArray) value).values) {
+            rules.values.add(JSON.byValue(allowed));
+          } // for
+          rules.allowed = JSON.encode(value);
+          break;
+        case "const":
+          rules.values = new HashSet<JSONValue>();
+          rules.values.add(JSON.byValue(value));
+          rules.allowed = "[" + JSON.encode(value) + "]";
+          break;
+        case "minimum":
+          rules.minimum = number(value, at);
+          break;
+        case "maximum":
+          rules.maximum = number(value, at);
+          break;
+        case "exclusiveMinimum":
+          rules.minimum = number(value, at);
+          rules.exclusiveMinimum = true;
+          break;
+        case "exclusiveMaximum":
+          rules.maximum = number(value, at);
+          rules.exclusiveMaximum = true;
+          break;
+        case "minLength":
+          rules.minLength = count(value, at);
+          break;
+        case "maxLength":
+          rules.maxLength = count(value, at);
+          break;
+        case "minItems":
+          rules.minItems = count(value, at);
+          break;
+        case "maxItems":
+          rules.maxItems = count(value, at);
+          break;
+        case "items":
+          rules.items = compileRules(value, at);
+          break;
+        case "properties":
+          if (!(value instanceof JSONHash)) {
+            throw invalid(at, "properties must be a hash");
+          } // if
+          Iterator<KVPair<JSONString, JSONValue>> declared = ((JSONHash) value).iterator();
+          while (declared.hasNext()) {
+            KVPair<JSONString, JSONValue> property = declared.next();
+            names.add(property.key());
+            properties.add(compileRules(property.value(),
+                at + "/" + JSONPath.escapePointer(property.key().value)));
+          } // while
+          break;
+        case "required":
+          if (!(value instanceof JSONArray)) {
+            throw invalid(at, "required must be an array of strings");
+          } // if
+          for (JSONValue name : ((JSONArray) value).values) {
+            if (!(name instanceof JSONString)) {
+              throw invalid(at, "required must be an array of strings");
+            } // if
+            required.add(((JSONString) name).value);
+          } // for
+          break;
+        case "additionalProperties":
+          rules.additional = compileRules(value, at);
+          rules.closed = (rules.additional.types == 0);
+          break;
+        default:
+          if (!ANNOTATIONS.contains(keyword)) {
+            throw invalid(at, "unsupported keyword");
+          } // if
+          break;
+      } // switch
+    } // while
+
+    // Required properties come first, so that checking for them is a
+    // matter of looking at the first few slots.
+    ArrayList<JSONString> order = new ArrayList<JSONString>();
+    ArrayList<Rules> orderRules = new ArrayList<Rules>();
+    for (String name : required) {
+      JSONString key = new JSONString(name);
+      if (!order.contains(key)) {
+        int declared = names.indexOf(key);
+        order.add(key);
+        orderRules.add((declared < 0) ? Rules.ANYTHING : properties.get(declared));
+      } // if
+    } // for
+    rules.requiredCount = order.size();
+    for (int i = 0; i < names.size(); i++) {
+      if (!order.contains(names.get(i))) {
+        order.add(names.get(i));
+        orderRules.add(properties.get(i));
+      } // if
+    } // for
+    rules.names = order.toArray(new JSONString[order.size()]);
+    rules.properties = orderRules.toArray(new Rules[orderRules.size()]);
+    return rules.finish();
+  } // compileRules(JSONValue, String)
+
+  /**
+   * Get the bit for a type name.
+   */
+  static int typeNamed(JSONValue name, String at) {
+    for (int i = 0; i < TYPE_NAMES.length; i++) {
+      if ((name instanceof JSONString) && TYPE_NAMES[i].equals(((JSONString) name).value)) {
+        return 1 << i;
+      } // if
+    } // for
+    throw invalid(at, "unknown type " + name);
+  } // typeNamed(JSONValue, String)
+
+  /**
+   * Get the value of a keyword that should be a number.
+   */
+  static BigDecimal number(JSONValue value, String at) {
+    if (value instanceof JSONInteger) {
+      return new BigDecimal(((JSONInteger) value).value);
+    } else if (value instanceof JSONReal) {
+      return ((JSONReal) value).decimalValue();
+    } // if/else
+    throw invalid(at, "expected a number");
+  } // number(JSONValue, String)
+
+  /**
+   * Get the value of a keyword that should be a non-negative integer.
+   */
+  static int count(JSONValue value, String at) {
+    long count = JSON.asLong(value, -1);
+    if (count < 0) {
+      throw invalid(at, "expected a non-negative integer");
+    } // if
+    return (int) Math.min(count, Integer.MAX_VALUE);
+  } // count(JSONValue, String)
+
+  /**
+   * Build an exception for a schema we can't compile.
+   */
+  static IllegalArgumentException invalid(String at, String problem) {
+    return new IllegalArgumentException("Invalid schema at " + at + ": " + problem);
+  } // invalid(String, String)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Get the type of value a token starts.
+   */
+  static int typeOf(JSONToken token) {
+    switch (token) {
+      case BEGIN_HASH:
+        return HASH;
+      case BEGIN_ARRAY:
+        return ARRAY;
+      case STRING:
+        return STRING;
+      case NUMBER:
+        return NUMBER;
+      case TRUE:
+      case FALSE:
+        return BOOLEAN;
+      case NULL:
+        return NULL;
+      default:
+        return 0;
+    } // switch
+  } // typeOf(JSONToken)
+
+  /**
+   * Describe a type, for error messages.
+   */
+  static String describe(int type) {
+    switch (type) {
+      case 0:
+        return "missing";
+      case NULL:
+        return "null";
+      case ARRAY:
+        return "an array";
+      case HASH:
+        return "an object";
+      default:
+        return "a " + TYPE_NAMES[Integer.numberOfTrailingZeros(type)];
+    } // switch
+  } // describe(int)
+
+  /**
+   * Describe the types allowed, for error messages.
+   */
+  static String describeTypes(int types) {
+    StringBuilder result = new StringBuilder();
+    for (int i = 0; i < TYPE_NAMES.length; i++) {
+      if ((types & (1 << i)) != 0) {
+        result.append((result.length() == 0) ? "" : " or ").append(TYPE_NAMES[i]);
+      } // if
+    } // for
+    return (result.length() == 0) ? "nothing" : result.toString();
+  } // describeTypes(int)
+
+  // +---------------+-----------------------------------------------
+  // | Inner classes |
+  // +---------------+
+
+  /**
+   * The compiled rules for one place in a document.
+   */
+  static class Rules {
+    /**
+     * Rules that allow anything.
+     */
+    static final Rules ANYTHING = new Rules().finish();
+
+    int types = ANY;
+
+    /**
+     * The values allowed by enum or const, as JSON.byValue gives them (so
+     * that numbers match by value), or null; and how to describe them in
+     * error messages.
+     */
+    HashSet<JSONValue> values;
+    String allowed;
+
+    BigDecimal minimum;
+    BigDecimal maximum;
+    boolean exclusiveMinimum;
+    boolean exclusiveMaximum;
+    int minLength = 0;
+    int maxLength = Integer.MAX_VALUE;
+    int minItems = 0;
+    int maxItems = Integer.MAX_VALUE;
+
+    /**
+     * The rules for array elements.
+     */
+    Rules items = ANYTHING;
+
+    /**
+     * The declared properties, required ones first, and their rules.
+     */
+    JSONString[] names = new JSONString[0];
+    Rules[] properties = new Rules[0];
+
+    /**
+     * The number of required properties.
+     */
+    int requiredCount;
+
+    /**
+     * Where each property goes in names.
+     */
+    HashMap<String, Integer> slots = new HashMap<String, Integer>();
+
+    /**
+     * The rules for undeclared properties.
+     */
+    Rules additional = ANYTHING;
+
+    /**
+     * Whether undeclared properties are forbidden.
+     */
+    boolean closed;
+
+    /**
+     * The bounds, as doubles, which we check first.
+     */
+    double low = Double.NEGATIVE_INFINITY;
+    double high = Double.POSITIVE_INFINITY;
+
+    /**
+     * Whether, type aside, anything goes.
+     */
+    boolean unconstrained;
+
+    /**
+     * Fill in the derived fields.
+     */
+    Rules finish() {
+      for (int i = 0; i < this.names.length; i++) {
+        this.slots.put(this.names[i].value, i);
+      } // for
+      if (this.minimum != null) {
+        this.low = this.minimum.doubleValue();
+      } // if
+      if (this.maximum != null) {
+        this.high = this.maximum.doubleValue();
+      } // if
+      // Only ANYTHING itself has null items and additional, while it's
+      // being built.
+      this.unconstrained = (this.values == null) && (this.minimum == null)
+          && (this.maximum == null) && ((this.types & INTEGER) == 0 || (this.types & NUMBER) != 0)
+          && (this.minLength == 0) && (this.maxLength == Integer.MAX_VALUE)
+          && (this.minItems == 0) && (this.maxItems == Integer.MAX_VALUE)
+          && ((this.items == null) || this.items.unconstrained) && (this.names.length == 0)
+          && ((this.additional == null) || this.additional.unconstrained) && !this.closed;
+      return this;
+    } // finish()
+
+    /**
+     * Check the length of a string.
+     */
+    void checkLength(JSONReader in, String str) throws ParseException {
+      // Lengths count code points, which are never more than chars.
+      int length = ((this.minLength == 0) && (str.length() <= this.maxLength))
+          ? str.length()
+          : str.codePointCount(0, str.length());
+      if (length < this.minLength) {
+        throw in.error("String is shorter than " + this.minLength + " characters", "longer string");
+      } else if (length > this.maxLength) {
+        throw in.error("String is longer than " + this.maxLength + " characters", "shorter string");
+      } // if/else
+    } // checkLength(JSONReader, String)
+
+    /**
+     * Check the number just read (whose value, if we've built it, is
+     * given). Returns the value.
+     */
+    JSONValue checkNumber(JSONReader in, JSONValue value) throws ParseException {
+      JSONLexer lexer = in.lexer;
+      boolean real = (value == null) ? lexer.numberReal : (value instanceof JSONReal);
+      if (((this.types & NUMBER) == 0) && real && !isIntegral(value, lexer)) {
+        throw in.error("Value is a number", describeTypes(this.types));
+      } // if
+      if ((this.minimum == null) && (this.maximum == null)) {
+        return value;
+      } // if
+      double number = (value == null) ? lexer.makeDouble() : doubleOf(value);
+      int low = compare(number, this.low, this.minimum, value, lexer);
+      int high = compare(number, this.high, this.maximum, value, lexer);
+      if ((low < 0) || (this.exclusiveMinimum && (low == 0))) {
+        throw in.error("Value is below the minimum",
+            (this.exclusiveMinimum ? "more than " : "at least ") + this.minimum.toPlainString());
+      } else if ((high > 0) || (this.exclusiveMaximum && (high == 0))) {
+        throw in.error("Value is above the maximum",
+            (this.exclusiveMaximum ? "less than " : "at most ") + this.maximum.toPlainString());
+      } // if/else
+      return value;
+    } // checkNumber(JSONReader, JSONValue)
+  } // class Rules
+
+  /**
+   * Compare a number to a bound, using doubles when they settle it and
+   * exact decimals when they don't.
+   */
+  static int compare(double number, double bound, BigDecimal exact, JSONValue value,
+      JSONLexer lexer) {
+    if (exact == null) {
+      return 0;
+    } else if (number != bound) {
+      return (number < bound) ? -1 : 1;
+    } // if/else
+    return decimalOf(value, lexer).compareTo(exact);
+  } // compare(double, double, BigDecimal, JSONValue, JSONLexer)
+
+  /**
+   * Determine if the number just read is a whole number, such as 3.0.
+   */
+  static boolean isIntegral(JSONValue value, JSONLexer lexer) {
+    BigDecimal decimal = decimalOf(value, lexer);
+    return (decimal.signum() == 0) || (decimal.stripTrailingZeros().scale() <= 0);
+  } // isIntegral(JSONValue, JSONLexer)
+
+  /**
+   * Get the exact value of a number.
+   */
+  static BigDecimal decimalOf(JSONValue value, JSONLexer lexer) {
+    if (value instanceof JSONInteger) {
+      return new BigDecimal(((JSONInteger) value).value);
+    } else if (value instanceof JSONReal) {
+      return ((JSONReal) value).decimalValue();
+    } // if/else
+    return new BigDecimal(lexer.buf, lexer.numberStart, lexer.numberLength);
+  } // decimalOf(JSONValue, JSONLexer)
+
+  /**
+   * Get a number as a double.
+   */
+  static double doubleOf(JSONValue value) {
+    return (value instanceof JSONInteger)
+        ? ((JSONInteger) value).value.doubleValue()
+        : ((JSONReal) value).doubleValue();
+  } // doubleOf(JSONValue)
+} // class JSONSchema
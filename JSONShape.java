@@ -0,0 +1,246 @@
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The shared layout of hashes built from the same sequence of keys. A
+ * shape knows its keys and the slot that holds each key's value, so a
+ * hash with a shape needs only an array of values, rather than a table
+ * of pairs. Shapes are interned: starting from EMPTY and adding the same
+ * keys in the same order always leads to the same shape, so all the
+ * records of a large document typically share a handful of them.
+ *
+ * The tree of shapes is shared by the whole process, and its keys come
+ * from documents, so we keep it small: long keys don't go in shapes at
+ * all, and once the tree holds MAX_BYTES (by JSONMemory's estimate), we
+ * retire it and start a new one. Retired shapes forget their transitions
+ * and refuse new ones, so hashes that have them switch to tables as they
+ * grow. Hashes keep the shapes they have, so a retired shape lives
+ * exactly as long as the hashes that use it, and holds nothing else.
+ *
+ * Shapes never change once built, except to remember new transitions,
+ * and so may be shared between threads.
+ */
+final class JSONShape {
+
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The most keys a shape may have. Larger hashes use a table.
+   */
+  static final int MAX_KEYS = 64;
+
+  /**
+   * The longest key a shape may have. Hashes with longer keys use a
+   * table, which owns its keys (and is charged for them).
+   */
+  static final int MAX_KEY_LENGTH = 64;
+
+  /**
+   * The most bytes the tree of shapes may hold before we start a new one,
+   * so that documents with ever-changing keys (e.g., ids used as keys)
+   * can't fill memory with shapes.
+   */
+  static final long MAX_BYTES = 4 << 20;
+
+  /**
+   * Shapes with more keys than this find them with a map, rather than by
+   * scanning.
+   */
+  static final int SCAN_LIMIT = 8;
+
+  /**
+   * The bytes held by the shapes built since we last started a new tree.
+   */
+  static final AtomicLong bytes = new AtomicLong();
+
+  /**
+   * The generation of the current tree, which grows each time we retire
+   * one.
+   */
+  static volatile int generation;
+
+  /**
+   * The shape with no keys, from which all others grow. It belongs to
+   * every generation.
+   */
+  static final JSONShape EMPTY = new JSONShape(new JSONString[0], 0);
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The keys, in slot order.
+   */
+  final JSONString[] keys;
+
+  /**
+   * The slot for each key, for shapes too large to scan (or null).
+   */
+  final HashMap<String, Integer> slots;
+
+  /**
+   * The generation of the tree the shape belongs to.
+   */
+  final int born;
+
+  /**
+   * The shapes reached by adding one more key (or null, if none yet, or
+   * if the shape is retired).
+   */
+  volatile ConcurrentHashMap<JSONString, JSONShape> transitions;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  JSONShape(JSONString[] keys, int born) {
+    this.keys = keys;
+    this.born = born;
+    if (keys.length > SCAN_LIMIT) {
+      this.slots = new HashMap<String, Integer>(keys.length * 2);
+      for (int i = 0; i < keys.length; i++) {
+        this.slots.put(keys[i].value, i);
+      } // for
+    } else {
+      this.slots = null;
+    } // if/else
+  } // JSONShape(JSONString[], int)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Determine how many keys the shape has.
+   */
+  int size() {
+    return this.keys.length;
+  } // size()
+
+  /**
+   * Find the slot for a key, or -1 if the shape doesn't have it.
+   */
+  int indexOf(JSONString key) {
+    if (this.slots != null) {
+      Integer slot = this.slots.get(key.value);
+      return (slot == null) ? -1 : slot;
+    } // if
+    for (int i = 0; i < this.keys.length; i++) {
+      JSONString candidate = this.keys[i];
+      if ((candidate == key) || candidate.value.equals(key.value)) {
+        return i;
+      } // if
+    } // for
+    return -1;
+  } // indexOf(JSONString)
+
+  /**
+   * Find the slot for a key given as plain text, or -1 if the shape
+   * doesn't have it.
+   */
+  int indexOf(CharSequence key) {
+    if (this.slots != null) {
+      Integer slot = this.slots.get(key.toString());
+      return (slot == null) ? -1 : slot;
+    } // if
+    for (int i = 0; i < this.keys.length; i++) {
+      if (this.keys[i].value.contentEquals(key)) {
+        return i;
+      } // if
+    } // for
+    return -1;
+  } // indexOf(CharSequence)
+
+  /**
+   * Determine if the shape belongs to a tree we've let go.
+   */
+  boolean isRetired() {
+    return (this != EMPTY) && (this.born != generation);
+  } // isRetired()
+
+  /**
+   * Get the shape with one more key, which the caller has checked isn't
+   * already here. Returns null if there is no such shape, because there
+   * would be too many keys, the key is too long, or the shape is retired.
+   */
+  JSONShape with(JSONString key) {
+    // We read the generation before the transitions, so that a shape
+    // added to a tree restart has let go is born retired.
+    int born = (this == EMPTY) ? generation : this.born;
+    if ((this.keys.length >= MAX_KEYS) || (key.value.length() > MAX_KEY_LENGTH)
+        || this.isRetired()) {
+      return null;
+    } // if
+    ConcurrentHashMap<JSONString, JSONShape> next = this.transitions;
+    if (next == null) {
+      synchronized (this) {
+        next = this.transitions;
+        if (this.isRetired()) {
+          return null;
+        } else if (next == null) {
+          next = new ConcurrentHashMap<JSONString, JSONShape>(2);
+          this.transitions = next;
+        } // if/else
+      } // synchronized
+    } // if
+    JSONShape shape = next.get(key);
+    if (shape != null) {
+      return shape;
+    } // if
+    shape = next.computeIfAbsent(key, (k) -> {
+      JSONString[] keys = new JSONString[this.keys.length + 1];
+      System.arraycopy(this.keys, 0, keys, 0, this.keys.length);
+      keys[this.keys.length] = k;
+      JSONShape built = new JSONShape(keys, born);
+      // The shape, its entry in our transitions, and its new key.
+      bytes.addAndGet(JSONMemory.shapeBytes(built) + JSONMemory.CHM_NODE
+          + JSONMemory.scalarBytes(k));
+      return built;
+    });
+    if (bytes.get() > MAX_BYTES) {
+      restart();
+    } // if
+    return shape;
+  } // with(JSONString)
+
+  /**
+   * Retire the tree of shapes, so that later hashes start a new one, and
+   * have its shapes forget their transitions, so that hashes holding one
+   * don't keep the rest of the tree alive.
+   */
+  static void restart() {
+    synchronized (EMPTY) {
+      if (bytes.get() <= MAX_BYTES) {
+        return;
+      } // if
+      // Drop the old tree before moving on a generation, so that anyone
+      // who sees the new generation sees the new tree.
+      ConcurrentHashMap<JSONString, JSONShape> old = EMPTY.transitions;
+      EMPTY.transitions = null;
+      bytes.set(0);
+      ++generation;
+      ArrayDeque<ConcurrentHashMap<JSONString, JSONShape>> pending =
+          new ArrayDeque<ConcurrentHashMap<JSONString, JSONShape>>();
+      if (old != null) {
+        pending.push(old);
+      } // if
+      while (!pending.isEmpty()) {
+        for (JSONShape shape : pending.pop().values()) {
+          ConcurrentHashMap<JSONString, JSONShape> next;
+          synchronized (shape) {
+            next = shape.transitions;
+            shape.transitions = null;
+          } // synchronized
+          if (next != null) {
+            pending.push(next);
+          } // if
+        } // for
+      } // while
+    } // synchronized
+  } // restart()
+} // class JSONShape
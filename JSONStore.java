@@ -0,0 +1,807 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A read-only document kept outside the Java heap, in a direct or
+ * memory-mapped buffer, so that the garbage collector sees a few objects
+ * per document rather than one per value. The root (and anything reached
+ * from it) is a view that decodes values only as they are asked for:
+ * arrays and hashes are JSONStore.Array and JSONStore.Hash, which find
+ * an element or key without reading the rest, and scalars are built on
+ * each access.
+ *
+ * A store may be written to a file and later mapped back in with open,
+ * which reads nothing until values are used.
+ *
+ * The layout is the bytes 'J' 'S', a version byte, and a flags byte,
+ * then the values, each written after everything in it, and finally the
+ * offset of the root as a four-byte integer. Each value starts with a tag
+ * byte:
+ *
+ * <pre>
+ *   0x00 null, 0x01 false, 0x02 true
+ *   0x03 integer: eight bytes
+ *   0x04 big integer: length, two's-complement bytes
+ *   0x05 real: scale, length, two's-complement unscaled bytes
+ *   0x06 real held as a double: eight bytes
+ *   0x07 string: length, UTF-8 bytes (as in JSONBinary)
+ *   0x08 array: count, hash code, then the offset of each value
+ *   0x09 hash: count, hash code, then a key hash code, key offset, and
+ *        value offset for each pair, in order of key hash code
+ * </pre>
+ *
+ * All numbers are four-byte big-endian integers unless noted. Equal keys,
+ * strings, integers, and constants are stored once, as are subtrees that
+ * appear in several places. Since offsets are ints, a store holds at most
+ * 2GB; split larger data across several stores.
+ */
+public class JSONStore {
+
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  static final int VERSION = 2;
+
+  /**
+   * The number of bytes before the first value.
+   */
+  static final int HEADER = 4;
+
+  static final int NULL = 0x00;
+  static final int FALSE = 0x01;
+  static final int TRUE = 0x02;
+  static final int INTEGER = 0x03;
+  static final int BIG_INTEGER = 0x04;
+  static final int REAL = 0x05;
+  static final int DOUBLE = 0x06;
+  static final int STRING = 0x07;
+  static final int ARRAY = 0x08;
+  static final int HASH = 0x09;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The encoded document.
+   */
+  ByteBuffer buf;
+
+  /**
+   * The offset of the root.
+   */
+  int root;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Build a store over an encoded document, checking its header and
+   * trailer.
+   *
+   * @throws IllegalArgumentException if the buffer doesn't hold a store.
+   */
+  JSONStore(ByteBuffer buf) {
+    this.buf = buf.asReadOnlyBuffer();
+    int size = this.buf.limit();
+    if ((size < HEADER + 5) || (this.buf.get(0) != 'J') || (this.buf.get(1) != 'S')) {
+      throw new IllegalArgumentException("Not a JSON store");
+    } else if (this.buf.get(2) != VERSION) {
+      throw new IllegalArgumentException("Unsupported JSON store version " + this.buf.get(2));
+    } // if/else
+    this.root = this.buf.getInt(size - 4);
+    if ((this.root < HEADER) || (this.root >= size - 4)) {
+      throw new IllegalArgumentException("Corrupt JSON store: root at " + this.root);
+    } // if
+  } // JSONStore(ByteBuffer)
+
+  /**
+   * Store a value in memory outside the heap.
+   *
+   * @throws IllegalArgumentException if the value needs more than 2GB.
+   */
+  public static JSONStore of(JSONValue value) {
+    BufferOutput out = new BufferOutput();
+    try {
+      write(value, out);
+    } catch (IOException e) {
+      // BufferOutput doesn't throw them.
+      throw new IllegalStateException(e);
+    } // try/catch
+    return new JSONStore(out.buf.flip());
+  } // of(JSONValue)
+
+  /**
+   * Store a value in a file, and map the file.
+   */
+  public static JSONStore write(JSONValue value, Path file) throws IOException {
+    try (OutputStream out = Files.newOutputStream(file)) {
+      write(value, out);
+    } // try
+    return open(file);
+  } // write(JSONValue, Path)
+
+  /**
+   * Map a file written by write. The file must not change while the store
+   * is in use.
+   *
+   * @throws IllegalArgumentException if the file doesn't hold a store.
+   */
+  public static JSONStore open(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new IllegalArgumentException("Not a JSON store");
+      } // if
+      return new JSONStore(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    } // try
+  } // open(Path)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Get the stored value.
+   */
+  public JSONValue root() {
+    return this.valueAt(this.root, this.buf.limit() - 4);
+  } // root()
+
+  /**
+   * Determine how many bytes the store takes.
+   */
+  public int byteSize() {
+    return this.buf.limit();
+  } // byteSize()
+
+  /**
+   * Copy a value, including any stored (or persistent) arrays and hashes
+   * in it, into ordinary arrays and hashes on the heap.
+   */
+  public static JSONValue copy(JSONValue value) {
+    IdentityHashMap<JSONValue, JSONValue> copies = new IdentityHashMap<JSONValue, JSONValue>();
+    for (JSONValue next : JSON.postOrder(value, (child) -> false)) {
+      Iterator<?> entries = JSON.entries(next);
+      if (JSON.isArray(next)) {
+        JSONArray array = new JSONArray();
+        array.values.ensureCapacity(JSON.size(next));
+        while (entries.hasNext()) {
+          JSONValue element = (JSONValue) entries.next();
+          array.values.add(copies.getOrDefault(element, element));
+        } // while
+        copies.put(next, array);
+      } else {
+        JSONHash hash = new JSONHash(JSON.size(next));
+        while (entries.hasNext()) {
+          @SuppressWarnings("unchecked")
+          KVPair<JSONString, JSONValue> pair = (KVPair<JSONString, JSONValue>) entries.next();
+          hash.set(pair.key(), copies.getOrDefault(pair.value(), pair.value()));
+        } // while
+        copies.put(next, hash);
+      } // if/else
+    } // for
+    return copies.getOrDefault(value, value);
+  } // copy(JSONValue)
+
+  // +---------+-----------------------------------------------------
+  // | Writing |
+  // +---------+
+
+  /**
+   * Write a value to a stream. We write each container after everything
+   * in it, so that we never need to go back and fill in an offset.
+   */
+  static void write(JSONValue value, OutputStream stream) throws IOException {
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+    out.write('J');
+    out.write('S');
+    out.write(VERSION);
+    out.write(0);
+    Writer writer = new Writer(out);
+    for (JSONValue container : JSON.postOrder(value, (child) -> false)) {
+      writer.writeContainer(container);
+    } // for
+    out.writeInt(writer.offsetOf(value));
+    out.flush();
+  } // write(JSONValue, OutputStream)
+
+  /**
+   * Writes the values, remembering where each one went.
+   */
+  static class Writer {
+    /**
+     * Where the values go. Its size is the offset of the next value.
+     */
+    DataOutputStream out;
+
+    /**
+     * The offsets of the containers written so far.
+     */
+    IdentityHashMap<JSONValue, Integer> containers = new IdentityHashMap<JSONValue, Integer>();
+
+    /**
+     * The offsets of the strings, integers, and constants written so far.
+     */
+    HashMap<JSONValue, Integer> scalars = new HashMap<JSONValue, Integer>();
+
+    /**
+     * The hash codes of the containers written so far, which we store
+     * with each container so that views needn't compute them.
+     */
+    IdentityHashMap<JSONValue, Integer> hashes = new IdentityHashMap<JSONValue, Integer>();
+
+    Writer(DataOutputStream out) {
+      this.out = out;
+    } // Writer(DataOutputStream)
+
+    /**
+     * Write an array or hash whose contents have been written.
+     */
+    void writeContainer(JSONValue container) throws IOException {
+      int count = JSON.size(container);
+      // Everything inside has been written, so this only reads the
+      // container itself.
+      int hash = JSON.hashCode(container, this.hashes);
+      Iterator<?> entries = JSON.entries(container);
+      if (JSON.isArray(container)) {
+        int[] offsets = new int[count];
+        for (int i = 0; i < count; i++) {
+          offsets[i] = this.offsetOf((JSONValue) entries.next());
+        } // for
+        int offset = this.start();
+        this.out.write(ARRAY);
+        this.out.writeInt(count);
+        this.out.writeInt(hash);
+        for (int child : offsets) {
+          this.out.writeInt(child);
+        } // for
+        this.containers.put(container, offset);
+        return;
+      } // if
+
+      // Hashes are sorted by key hash code, so lookups can search.
+      String[] keys = new String[count];
+      int[] keyOffsets = new int[count];
+      int[] valueOffsets = new int[count];
+      Integer[] order = new Integer[count];
+      for (int i = 0; i < count; i++) {
+        @SuppressWarnings("unchecked")
+        KVPair<JSONString, JSONValue> pair = (KVPair<JSONString, JSONValue>) entries.next();
+        keys[i] = pair.key().value;
+        keyOffsets[i] = this.offsetOf(pair.key());
+        valueOffsets[i] = this.offsetOf(pair.value());
+        order[i] = i;
+      } // for
+      Arrays.sort(order, (a, b) -> Integer.compare(keys[a].hashCode(), keys[b].hashCode()));
+      int offset = this.start();
+      this.out.write(HASH);
+      this.out.writeInt(count);
+      this.out.writeInt(hash);
+      for (int i : order) {
+        this.out.writeInt(keys[i].hashCode());
+        this.out.writeInt(keyOffsets[i]);
+        this.out.writeInt(valueOffsets[i]);
+      } // for
+      this.containers.put(container, offset);
+    } // writeContainer(JSONValue)
+
+    /**
+     * Find the offset of a value, writing it first if it's a scalar we
+     * haven't written.
+     */
+    int offsetOf(JSONValue value) throws IOException {
+      Integer offset = this.containers.get(value);
+      if (offset != null) {
+        return offset;
+      } else if (value instanceof JSONReal) {
+        // Equal reals may differ in scale, so we don't share them.
+        return this.writeScalar(value);
+      } // if/else
+      offset = this.scalars.get(value);
+      if (offset == null) {
+        offset = this.writeScalar(value);
+        this.scalars.put(value, offset);
+      } // if
+      return offset;
+    } // offsetOf(JSONValue)
+
+    /**
+     * Write a scalar, returning its offset.
+     */
+    int writeScalar(JSONValue value) throws IOException {
+      int offset = this.start();
+      if (value instanceof JSONString) {
+        String text = ((JSONString) value).value;
+        byte[] bytes = new byte[JSONBinary.utf8Length(text)];
+        JSONBinary.writeUtf8(text, bytes, 0);
+        this.out.write(STRING);
+        this.writeBytes(bytes);
+      } else if (value instanceof JSONInteger) {
+        BigInteger integer = ((JSONInteger) value).value;
+        if (integer.bitLength() < 64) {
+          this.out.write(INTEGER);
+          this.out.writeLong(integer.longValue());
+        } else {
+          this.out.write(BIG_INTEGER);
+          this.writeBytes(integer.toByteArray());
+        } // if/else
+      } else if ((value instanceof JSONReal) && ((JSONReal) value).holdsDouble) {
+        this.out.write(DOUBLE);
+        this.out.writeLong(Double.doubleToRawLongBits(((JSONReal) value).number));
+      } else if (value instanceof JSONReal) {
+        BigDecimal real = ((JSONReal) value).value;
+        this.out.write(REAL);
+        this.out.writeInt(real.scale());
+        this.writeBytes(real.unscaledValue().toByteArray());
+      } else if (value instanceof JSONConstant) {
+        Object constant = ((JSONConstant) value).value;
+        this.out.write((constant == null) ? NULL : ((Boolean) constant) ? TRUE : FALSE);
+      } else {
+        throw new IllegalArgumentException("Cannot store " + value.getClass().getName());
+      } // if/else
+      return offset;
+    } // writeScalar(JSONValue)
+
+    /**
+     * Write a length and then some bytes.
+     */
+    void writeBytes(byte[] bytes) throws IOException {
+      this.out.writeInt(bytes.length);
+      this.out.write(bytes);
+    } // writeBytes(byte[])
+
+    /**
+     * Get the offset of the next value, checking that it (and a large
+     * value after it) still fits in an int.
+     */
+    int start() {
+      int offset = this.out.size();
+      if (offset >= Integer.MAX_VALUE - (1 << 20)) {
+        throw new IllegalArgumentException("Value too large for a JSON store");
+      } // if
+      return offset;
+    } // start()
+  } // class Writer
+
+  /**
+   * An output stream that fills a direct buffer, replacing it with a
+   * larger one as needed.
+   */
+  static class BufferOutput extends OutputStream {
+    ByteBuffer buf = ByteBuffer.allocateDirect(1 << 16);
+
+    public void write(int b) {
+      this.reserve(1);
+      this.buf.put((byte) b);
+    } // write(int)
+
+    public void write(byte[] bytes, int offset, int length) {
+      this.reserve(length);
+      this.buf.put(bytes, offset, length);
+    } // write(byte[], int, int)
+
+    /**
+     * Make sure there's room for some more bytes.
+     */
+    void reserve(int count) {
+      if (this.buf.remaining() < count) {
+        long capacity = Math.max(2L * this.buf.capacity(), (long) this.buf.position() + count);
+        ByteBuffer bigger =
+            ByteBuffer.allocateDirect((int) Math.min(capacity, Integer.MAX_VALUE - 8));
+        bigger.put(this.buf.flip());
+        this.buf = bigger;
+      } // if
+    } // reserve(int)
+  } // class BufferOutput
+
+  // +---------+-----------------------------------------------------
+  // | Reading |
+  // +---------+
+
+  /**
+   * Get a view of the value at an offset, which the value at parent
+   * refers to. Values come before anything that refers to them, which we
+   * check, so that no damaged store can send us around in circles.
+   */
+  JSONValue valueAt(int offset, int parent) {
+    if ((offset < HEADER) || (offset >= parent)) {
+      throw new IllegalStateException("Corrupt JSON store: value at " + offset);
+    } // if
+    switch (this.buf.get(offset)) {
+      case NULL:
+        return JSONConstant.NULL;
+      case FALSE:
+        return JSONConstant.FALSE;
+      case TRUE:
+        return JSONConstant.TRUE;
+      case INTEGER:
+        return new JSONInteger(this.buf.getLong(offset + 1));
+      case BIG_INTEGER:
+        return new JSONInteger(new BigInteger(this.bytesAt(offset + 1)));
+      case DOUBLE:
+        return new JSONReal(Double.longBitsToDouble(this.buf.getLong(offset + 1)));
+      case REAL:
+        return new JSONReal(new BigDecimal(new BigInteger(this.bytesAt(offset + 5)),
+            this.buf.getInt(offset + 1)));
+      case STRING:
+        return new JSONString(this.stringAt(offset));
+      case ARRAY:
+        return new Array(this, offset);
+      case HASH:
+        return new Hash(this, offset);
+      default:
+        throw new IllegalStateException("Corrupt JSON store: tag " + this.buf.get(offset)
+            + " at " + offset);
+    } // switch
+  } // valueAt(int, int)
+
+  /**
+   * Get the bytes after a length at an offset.
+   */
+  byte[] bytesAt(int offset) {
+    byte[] bytes = new byte[this.buf.getInt(offset)];
+    this.buf.get(offset + 4, bytes);
+    return bytes;
+  } // bytesAt(int)
+
+  /**
+   * Decode the string at an offset.
+   */
+  String stringAt(int offset) {
+    int length = this.buf.getInt(offset + 1);
+    char[] chars = new char[length];
+    int n = 0;
+    int end = offset + 5 + length;
+    for (int i = offset + 5; i < end; ) {
+      int b = this.buf.get(i++) & 0xFF;
+      if (b < 0x80) {
+        chars[n++] = (char) b;
+      } else if (b < 0xE0) {
+        chars[n++] = (char) (((b & 0x1F) << 6) | (this.buf.get(i++) & 0x3F));
+      } else if (b < 0xF0) {
+        chars[n++] = (char) (((b & 0x0F) << 12) | ((this.buf.get(i++) & 0x3F) << 6)
+            | (this.buf.get(i++) & 0x3F));
+      } else {
+        int point = ((b & 0x07) << 18) | ((this.buf.get(i++) & 0x3F) << 12)
+            | ((this.buf.get(i++) & 0x3F) << 6) | (this.buf.get(i++) & 0x3F);
+        chars[n++] = Character.highSurrogate(point);
+        chars[n++] = Character.lowSurrogate(point);
+      } // if/else
+    } // for
+    return new String(chars, 0, n);
+  } // stringAt(int)
+
+  /**
+   * Determine if the string at an offset has the same text as key,
+   * without decoding it.
+   */
+  boolean matches(int offset, CharSequence key) {
+    int end = offset + 5 + this.buf.getInt(offset + 1);
+    int n = 0;
+    int length = key.length();
+    for (int i = offset + 5; i < end; ) {
+      int b = this.buf.get(i++) & 0xFF;
+      int ch;
+      if (b < 0x80) {
+        ch = b;
+      } else if (b < 0xE0) {
+        ch = ((b & 0x1F) << 6) | (this.buf.get(i++) & 0x3F);
+      } else if (b < 0xF0) {
+        ch = ((b & 0x0F) << 12) | ((this.buf.get(i++) & 0x3F) << 6) | (this.buf.get(i++) & 0x3F);
+      } else {
+        int point = ((b & 0x07) << 18) | ((this.buf.get(i++) & 0x3F) << 12)
+            | ((this.buf.get(i++) & 0x3F) << 6) | (this.buf.get(i++) & 0x3F);
+        if ((n >= length) || (key.charAt(n++) != Character.highSurrogate(point))) {
+          return false;
+        } // if
+        ch = Character.lowSurrogate(point);
+      } // if/else
+      if ((n >= length) || (key.charAt(n++) != ch)) {
+        return false;
+      } // if
+    } // for
+    return n == length;
+  } // matches(int, CharSequence)
+
+  // +-------+-------------------------------------------------------
+  // | Views |
+  // +-------+
+
+  /**
+   * A stored array.
+   */
+  public static class Array implements JSONValue {
+    /**
+     * The store the array is in.
+     */
+    JSONStore store;
+
+    /**
+     * The offset of the array in the store.
+     */
+    int offset;
+
+    /**
+     * The number of values.
+     */
+    int size;
+
+    /**
+     * The hash code, as stored.
+     */
+    int hash;
+
+    Array(JSONStore store, int offset) {
+      this.store = store;
+      this.offset = offset;
+      this.size = store.buf.getInt(offset + 1);
+      this.hash = store.buf.getInt(offset + 5);
+    } // Array(JSONStore, int)
+
+    public String toString() {
+      StringBuilder result = new StringBuilder("[");
+      for (int i = 0; i < this.size; i++) {
+        result.append(this.get(i)).append(", ");
+      } // for
+      return result.append("]").toString();
+    } // toString()
+
+    public boolean equals(Object other) {
+      return JSON.equal(this, other);
+    } // equals(Object)
+
+    public int hashCode() {
+      return JSON.hashCode(this);
+    } // hashCode()
+
+    public void writeJSON(PrintWriter pen) {
+      JSONWriter.print(this, pen);
+    } // writeJSON(PrintWriter)
+
+    /**
+     * Estimate the bytes held by the view itself; the store is shared.
+     */
+    public long estimatedRetainedBytes() {
+      return JSONMemory.retainedBytes(this);
+    } // estimatedRetainedBytes()
+
+    public Iterator<JSONValue> getValue() {
+      return this.iterator();
+    } // getValue()
+
+    /**
+     * Get the value at a particular index.
+     */
+    public JSONValue get(int index) throws IndexOutOfBoundsException {
+      if ((index < 0) || (index >= this.size)) {
+        throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length "
+            + this.size);
+      } // if
+      return this.store.valueAt(this.store.buf.getInt(this.offset + 9 + 4 * index), this.offset);
+    } // get(int)
+
+    /**
+     * Get the value at a particular index, or null if the index is out of
+     * bounds.
+     */
+    public JSONValue getOrNull(int index) {
+      return ((index >= 0) && (index < this.size)) ? this.get(index) : null;
+    } // getOrNull(int)
+
+    /**
+     * Determine how many values are in the array.
+     */
+    public int size() {
+      return this.size;
+    } // size()
+
+    /**
+     * Get all of the values, in order.
+     */
+    public Iterator<JSONValue> iterator() {
+      return new Iterator<JSONValue>() {
+        int index = 0;
+
+        public boolean hasNext() {
+          return this.index < Array.this.size;
+        } // hasNext()
+
+        public JSONValue next() {
+          if (this.index >= Array.this.size) {
+            throw new NoSuchElementException();
+          } // if
+          return Array.this.get(this.index++);
+        } // next()
+      }; // new Iterator
+    } // iterator()
+  } // class Array
+
+  /**
+   * A stored hash.
+   */
+  public static class Hash implements JSONValue {
+    /**
+     * The store the hash is in.
+     */
+    JSONStore store;
+
+    /**
+     * The offset of the hash in the store.
+     */
+    int offset;
+
+    /**
+     * The number of pairs.
+     */
+    int size;
+
+    /**
+     * The hash code, as stored.
+     */
+    int hash;
+
+    Hash(JSONStore store, int offset) {
+      this.store = store;
+      this.offset = offset;
+      this.size = store.buf.getInt(offset + 1);
+      this.hash = store.buf.getInt(offset + 5);
+    } // Hash(JSONStore, int)
+
+    public String toString() {
+      StringBuilder result = new StringBuilder("{");
+      Iterator<KVPair<JSONString, JSONValue>> pairs = this.iterator();
+      while (pairs.hasNext()) {
+        KVPair<JSONString, JSONValue> pair = pairs.next();
+        result.append(pair.key()).append(" : ").append(pair.value());
+        if (pairs.hasNext()) {
+          result.append(",");
+        } // if
+      } // while
+      return result.append("}").toString();
+    } // toString()
+
+    public boolean equals(Object other) {
+      return JSON.equal(this, other);
+    } // equals(Object)
+
+    public int hashCode() {
+      return JSON.hashCode(this);
+    } // hashCode()
+
+    public void writeJSON(PrintWriter pen) {
+      JSONWriter.print(this, pen);
+    } // writeJSON(PrintWriter)
+
+    /**
+     * Estimate the bytes held by the view itself; the store is shared.
+     */
+    public long estimatedRetainedBytes() {
+      return JSONMemory.retainedBytes(this);
+    } // estimatedRetainedBytes()
+
+    public Iterator<KVPair<JSONString, JSONValue>> getValue() {
+      return this.iterator();
+    } // getValue()
+
+    /**
+     * Determine if the hash contains a key.
+     */
+    public boolean containsKey(CharSequence key) {
+      return this.find(key) >= 0;
+    } // containsKey(CharSequence)
+
+    /**
+     * Get the value associated with a key.
+     *
+     * @throws IndexOutOfBoundsException if the key is not in the hash.
+     */
+    public JSONValue get(JSONString key) {
+      JSONValue value = this.getOrNull(key.value);
+      if (value == null) {
+        throw new IndexOutOfBoundsException("Invalid key: " + key.toString());
+      } // if
+      return value;
+    } // get(JSONString)
+
+    /**
+     * Get the value associated with a key, or null if there is none.
+     */
+    public JSONValue getOrNull(JSONString key) {
+      return this.getOrNull(key.value);
+    } // getOrNull(JSONString)
+
+    /**
+     * Get the value associated with a key given as plain text, or null if
+     * there is none.
+     */
+    public JSONValue getOrNull(CharSequence key) {
+      int entry = this.find(key);
+      return (entry < 0) ? null : this.store.valueAt(this.store.buf.getInt(entry + 8), this.offset);
+    } // getOrNull(CharSequence)
+
+    /**
+     * Find out how many key/value pairs are in the hash.
+     */
+    public int size() {
+      return this.size;
+    } // size()
+
+    /**
+     * Get all of the key/value pairs, in order of key hash code.
+     */
+    public Iterator<KVPair<JSONString, JSONValue>> iterator() {
+      return new Iterator<KVPair<JSONString, JSONValue>>() {
+        int index = 0;
+
+        public boolean hasNext() {
+          return this.index < Hash.this.size;
+        } // hasNext()
+
+        public KVPair<JSONString, JSONValue> next() {
+          if (this.index >= Hash.this.size) {
+            throw new NoSuchElementException();
+          } // if
+          int entry = Hash.this.entry(this.index++);
+          ByteBuffer buf = Hash.this.store.buf;
+          JSONValue key = Hash.this.store.valueAt(buf.getInt(entry + 4), Hash.this.offset);
+          if (!(key instanceof JSONString)) {
+            throw new IllegalStateException("Corrupt JSON store: key at " + entry);
+          } // if
+          return new KVPair<JSONString, JSONValue>((JSONString) key,
+              Hash.this.store.valueAt(buf.getInt(entry + 8), Hash.this.offset));
+        } // next()
+      }; // new Iterator
+    } // iterator()
+
+    /**
+     * Find the offset of the ith pair.
+     */
+    int entry(int i) {
+      return this.offset + 9 + 12 * i;
+    } // entry(int)
+
+    /**
+     * Find the offset of the pair for a key, or -1 if there is none.
+     */
+    int find(CharSequence key) {
+      ByteBuffer buf = this.store.buf;
+      int target = JSONHash.hashOf(key);
+      // Find the first pair whose key hash code is at least target.
+      int low = 0;
+      int high = this.size;
+      while (low < high) {
+        int mid = (low + high) >>> 1;
+        if (buf.getInt(this.entry(mid)) < target) {
+          low = mid + 1;
+        } else {
+          high = mid;
+        } // if/else
+      } // while
+      for (int i = low; (i < this.size) && (buf.getInt(this.entry(i)) == target); i++) {
+        int keyOffset = buf.getInt(this.entry(i) + 4);
+        if ((keyOffset >= HEADER) && (keyOffset < this.offset)
+            && (buf.get(keyOffset) == STRING) && this.store.matches(keyOffset, key)) {
+          return this.entry(i);
+        } // if
+      } // for
+      return -1;
+    } // find(CharSequence)
+  } // class Hash
+} // class JSONStore
@@ -58,9 +58,16 @@ public class JSONString implements JSONValue {
    * Write the value as JSON.
    */
   public void writeJSON(PrintWriter pen) {
-    pen.printf("\"" + this.value + "\"");
+    JSONWriter.print(this, pen);
   } // writeJSON(PrintWriter)
 
+  /**
+   * Estimate the bytes held by the string.
+   */
+  public long estimatedRetainedBytes() {
+    return JSONMemory.retainedBytes(this);
+  } // estimatedRetainedBytes()
+
   /**
    * Get the underlying value.
    */
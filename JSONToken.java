@@ -0,0 +1,66 @@
+/**
+ * The kinds of token a JSONReader produces.
+ */
+public enum JSONToken {
+  /**
+   * The start of an array.
+   */
+  BEGIN_ARRAY,
+
+  /**
+   * The end of an array.
+   */
+  END_ARRAY,
+
+  /**
+   * The start of a hash.
+   */
+  BEGIN_HASH,
+
+  /**
+   * The end of a hash.
+   */
+  END_HASH,
+
+  /**
+   * A hash key.
+   */
+  KEY,
+
+  /**
+   * A string value.
+   */
+  STRING,
+
+  /**
+   * A number (integer or real).
+   */
+  NUMBER,
+
+  /**
+   * The constant true.
+   */
+  TRUE,
+
+  /**
+   * The constant false.
+   */
+  FALSE,
+
+  /**
+   * The constant null.
+   */
+  NULL,
+
+  /**
+   * The end of the input.
+   */
+  END_DOCUMENT;
+
+  /**
+   * Determine if this token starts a value.
+   */
+  public boolean startsValue() {
+    return (this != END_ARRAY) && (this != END_HASH) && (this != KEY) && (this != END_DOCUMENT);
+  } // startsValue()
+} // enum JSONToken
@@ -0,0 +1,316 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.text.ParseException;
+import java.util.Arrays;
+
+/**
+ * Streaming edits: drop, replace, rename, or truncate the values that
+ * paths match, reading tokens and writing the result as we go, without
+ * building a tree. Values that no rule can reach (which, for most rules,
+ * is nearly everything) are copied straight from the input buffer to the
+ * output, unparsed.
+ *
+ * Transformers are immutable; each rule method returns a new one, so a
+ * transformer may be built once and shared between threads.
+ *
+ * Typical use:
+ *
+ * <pre>
+ *   JSONTransformer redact = new JSONTransformer()
+ *       .drop("$..password")
+ *       .replace("$..ssn", new JSONString("***"))
+ *       .rename("$.msg", "message")
+ *       .truncate("$..stack", 200);
+ *   String clean = redact.transform(line);
+ * </pre>
+ *
+ * Rules use the syntax of JSONPath. If several match the same value, drop
+ * wins, then the first replace or truncate (a truncate rule leaves values
+ * other than strings alone). A rename applies as well as any of those.
+ */
+public class JSONTransformer {
+
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * A rule that drops matching values (and their keys).
+   */
+  static final int DROP = 0;
+
+  /**
+   * A rule that replaces matching values with a fixed value.
+   */
+  static final int REPLACE = 1;
+
+  /**
+   * A rule that gives matching hash entries a new key.
+   */
+  static final int RENAME = 2;
+
+  /**
+   * A rule that shortens matching strings.
+   */
+  static final int TRUNCATE = 3;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The path each rule applies to.
+   */
+  final JSONPath[] paths;
+
+  /**
+   * The kind of each rule.
+   */
+  final int[] kinds;
+
+  /**
+   * The replacement value, new key, or maximum length for each rule.
+   */
+  final Object[] arguments;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Build a transformer with no rules, which copies its input.
+   */
+  public JSONTransformer() {
+    this.paths = new JSONPath[0];
+    this.kinds = new int[0];
+    this.arguments = new Object[0];
+  } // JSONTransformer()
+
+  /**
+   * Build a transformer with the rules of base, and one more.
+   */
+  JSONTransformer(JSONTransformer base, String path, int kind, Object argument) {
+    JSONPath compiled = JSONPath.compile(path);
+    if ((compiled.length == 0) && ((kind == DROP) || (kind == RENAME))) {
+      throw new IllegalArgumentException("Cannot drop or rename the whole document");
+    } // if
+    int count = base.paths.length;
+    this.paths = Arrays.copyOf(base.paths, count + 1);
+    this.kinds = Arrays.copyOf(base.kinds, count + 1);
+    this.arguments = Arrays.copyOf(base.arguments, count + 1);
+    this.paths[count] = compiled;
+    this.kinds[count] = kind;
+    this.arguments[count] = argument;
+  } // JSONTransformer(JSONTransformer, String, int, Object)
+
+  // +-------+-------------------------------------------------------
+  // | Rules |
+  // +-------+
+
+  /**
+   * Get a transformer that also drops the values a path matches. Dropped
+   * hash entries lose their keys; dropped array elements close up.
+   */
+  public JSONTransformer drop(String path) {
+    return new JSONTransformer(this, path, DROP, null);
+  } // drop(String)
+
+  /**
+   * Get a transformer that also replaces the values a path matches.
+   */
+  public JSONTransformer replace(String path, JSONValue value) {
+    if (value == null) {
+      throw new IllegalArgumentException("Null replacement");
+    } // if
+    return new JSONTransformer(this, path, REPLACE, value);
+  } // replace(String, JSONValue)
+
+  /**
+   * Get a transformer that also renames the hash entries whose values a
+   * path matches. Array elements can't be renamed, and are left alone.
+   */
+  public JSONTransformer rename(String path, String key) {
+    if (key == null) {
+      throw new IllegalArgumentException("Null key");
+    } // if
+    return new JSONTransformer(this, path, RENAME, key);
+  } // rename(String, String)
+
+  /**
+   * Get a transformer that also cuts the strings a path matches down to
+   * at most maxLength characters.
+   */
+  public JSONTransformer truncate(String path, int maxLength) {
+    if (maxLength < 0) {
+      throw new IllegalArgumentException("Negative length " + maxLength);
+    } // if
+    return new JSONTransformer(this, path, TRUNCATE, maxLength);
+  } // truncate(String, int)
+
+  // +--------------+------------------------------------------------
+  // | Transforming |
+  // +--------------+
+
+  /**
+   * Transform a document.
+   */
+  public String transform(String source) throws ParseException, IOException {
+    StringWriter result = new StringWriter(source.length());
+    JSONWriter out = new JSONWriter(result);
+    this.transform(new JSONReader(source), out);
+    out.flush();
+    return result.toString();
+  } // transform(String)
+
+  /**
+   * Transform a document from a reader, writing the result to a writer.
+   * If the input is malformed, whatever precedes the mistake will already
+   * have been written.
+   */
+  public void transform(Reader source, Writer sink) throws ParseException, IOException {
+    JSONWriter out = new JSONWriter(sink);
+    this.transform(new JSONReader(source), out);
+    out.flush();
+  } // transform(Reader, Writer)
+
+  /**
+   * Transform the document a reader is at the start of, writing the result
+   * (as the next value) to out.
+   */
+  public void transform(JSONReader in, JSONWriter out) throws ParseException, IOException {
+    int rules = this.paths.length;
+    // The states of each rule for each open container, whether each is an
+    // array, and the index of the next element of each array.
+    long[] states = new long[16 * rules];
+    boolean[] arrays = new boolean[16];
+    int[] indices = new int[16];
+    int depth = 0;
+    long[] childStates = new long[rules];
+    Arrays.fill(childStates, 1L);
+    String key = null;
+
+    while (true) {
+      // Handle the value whose states are childStates.
+      boolean drop = false;
+      boolean live = false;
+      int rename = -1;
+      int action = -1;
+      for (int r = 0; r < rules; r++) {
+        live |= (childStates[r] != 0);
+        if (this.paths[r].accepts(childStates[r])) {
+          if (this.kinds[r] == DROP) {
+            drop = true;
+          } else if (this.kinds[r] == RENAME) {
+            rename = (rename < 0) ? r : rename;
+          } else if (action < 0) {
+            action = r;
+          } // if/else
+        } // if
+      } // for
+
+      JSONToken token = in.peek();
+      if (drop) {
+        in.skipValue();
+      } else {
+        if (key != null) {
+          out.key((rename < 0) ? key : (String) this.arguments[rename]);
+        } // if
+        if ((action >= 0) && (this.kinds[action] == REPLACE)) {
+          in.skipValue();
+          out.value((JSONValue) this.arguments[action]);
+        } else if ((action >= 0) && (token == JSONToken.STRING)) {
+          in.next();
+          out.value(shorten(in.stringValue(), (Integer) this.arguments[action]));
+        } else if (live && ((token == JSONToken.BEGIN_ARRAY) || (token == JSONToken.BEGIN_HASH))) {
+          in.next();
+          if (token == JSONToken.BEGIN_ARRAY) {
+            out.beginArray();
+          } else {
+            out.beginHash();
+          } // if/else
+          if (depth == arrays.length) {
+            states = Arrays.copyOf(states, 2 * depth * rules);
+            arrays = Arrays.copyOf(arrays, 2 * depth);
+            indices = Arrays.copyOf(indices, 2 * depth);
+          } // if
+          System.arraycopy(childStates, 0, states, depth * rules, rules);
+          arrays[depth] = (token == JSONToken.BEGIN_ARRAY);
+          indices[depth] = 0;
+          ++depth;
+        } else {
+          copy(in, out);
+        } // if/else
+      } // if/else
+
+      // Find the next child, closing any containers that have ended.
+      while (true) {
+        if (depth == 0) {
+          // Make sure nothing follows the document; peek complains if it
+          // does.
+          in.peek();
+          return;
+        } // if
+        if (in.hasNext()) {
+          break;
+        } // if
+        in.next();
+        --depth;
+        if (arrays[depth]) {
+          out.endArray();
+        } else {
+          out.endHash();
+        } // if/else
+      } // while
+      int top = depth - 1;
+      int index = -1;
+      key = null;
+      if (arrays[top]) {
+        index = indices[top]++;
+      } else {
+        in.next();
+        key = in.stringValue();
+      } // if/else
+      for (int r = 0; r < rules; r++) {
+        childStates[r] = this.paths[r].advance(states[top * rules + r], key, index);
+      } // for
+    } // while
+  } // transform(JSONReader, JSONWriter)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Copy the next value from in to out as it appears in the input. The
+   * reader has just peeked at the value, so its first character is the one
+   * before the lexer's position.
+   */
+  static void copy(JSONReader in, JSONWriter out) throws ParseException, IOException {
+    JSONLexer lexer = in.lexer;
+    out.beforeValue();
+    lexer.startCopy(lexer.bufPos - 1, out);
+    try {
+      in.skipValue();
+      lexer.endCopy();
+    } finally {
+      lexer.copy = null;
+    } // try/finally
+  } // copy(JSONReader, JSONWriter)
+
+  /**
+   * Cut a string down to at most maxLength characters, without splitting
+   * a surrogate pair.
+   */
+  static String shorten(String str, int maxLength) {
+    if (str.length() <= maxLength) {
+      return str;
+    } // if
+    int end = maxLength;
+    if ((end > 0) && Character.isHighSurrogate(str.charAt(end - 1))) {
+      --end;
+    } // if
+    return str.substring(0, end);
+  } // shorten(String, int)
+} // class JSONTransformer
@@ -0,0 +1,267 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.MalformedInputException;
+
+/**
+ * A reader that decodes UTF-8 bytes (from an array, a stream, or a
+ * ByteBuffer) for the lexer. Runs of ASCII, which is most of most JSON,
+ * are found eight bytes at a time by checking the top bit of each byte
+ * of a long. Other characters are validated as we go: overlong forms,
+ * surrogates, values past U+10FFFF, and truncated sequences are
+ * reported with a MalformedInputException (which the lexer turns into a
+ * parse error at the right place) rather than quietly replaced.
+ */
+class JSONUtf8Reader extends Reader {
+
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The size of the buffer used for streams and ByteBuffers without
+   * arrays.
+   */
+  static final int BUFFER_SIZE = 8192;
+
+  /**
+   * The top bit of each byte of a long.
+   */
+  static final long HIGH_BITS = 0x8080808080808080L;
+
+  /**
+   * A view of byte arrays as longs.
+   */
+  static final VarHandle LONGS =
+      MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The stream more bytes come from, or null.
+   */
+  InputStream stream;
+
+  /**
+   * The ByteBuffer more bytes come from, or null.
+   */
+  ByteBuffer chunks;
+
+  /**
+   * The bytes being decoded.
+   */
+  byte[] bytes;
+
+  /**
+   * The position of the next undecoded byte.
+   */
+  int pos;
+
+  /**
+   * The end of the valid bytes.
+   */
+  int limit;
+
+  /**
+   * The low surrogate of a character we had no room for, or 0.
+   */
+  char pending;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Decode part of an array.
+   */
+  JSONUtf8Reader(byte[] source, int start, int end) {
+    this.bytes = source;
+    this.pos = start;
+    this.limit = end;
+  } // JSONUtf8Reader(byte[], int, int)
+
+  /**
+   * Decode a stream.
+   */
+  JSONUtf8Reader(InputStream source) {
+    this.stream = source;
+    this.bytes = new byte[BUFFER_SIZE];
+  } // JSONUtf8Reader(InputStream)
+
+  /**
+   * Decode the bytes between a buffer's position and its limit, leaving
+   * the buffer itself alone.
+   */
+  JSONUtf8Reader(ByteBuffer source) {
+    if (source.hasArray()) {
+      this.bytes = source.array();
+      this.pos = source.arrayOffset() + source.position();
+      this.limit = source.arrayOffset() + source.limit();
+    } else {
+      this.chunks = source.duplicate();
+      this.bytes = new byte[BUFFER_SIZE];
+    } // if/else
+  } // JSONUtf8Reader(ByteBuffer)
+
+  // +------------------+--------------------------------------------
+  // | Required methods |
+  // +------------------+
+
+  /**
+   * Decode up to len characters into cbuf at off. If the input goes bad,
+   * we return the characters before the mistake, and throw on the next
+   * call.
+   */
+  public int read(char[] cbuf, int off, int len) throws IOException {
+    int out = off;
+    int end = off + len;
+    if ((this.pending != 0) && (out < end)) {
+      cbuf[out++] = this.pending;
+      this.pending = 0;
+    } // if
+    while (out < end) {
+      if ((this.pos >= this.limit) && !this.fill(1)) {
+        break;
+      } // if
+      byte[] in = this.bytes;
+      int i = this.pos;
+      // ASCII, eight bytes at a time.
+      int stop = Math.min(this.limit - 8, i + (end - out) - 8);
+      while ((i <= stop) && ((((long) LONGS.get(in, i)) & HIGH_BITS) == 0)) {
+        for (int j = 0; j < 8; j++) {
+          cbuf[out + j] = (char) in[i + j];
+        } // for
+        i += 8;
+        out += 8;
+      } // while
+      // Then byte by byte, until the next character that isn't ASCII.
+      int ascii = Math.min(this.limit - i, end - out);
+      while ((ascii > 0) && (in[i] >= 0)) {
+        cbuf[out++] = (char) in[i++];
+        --ascii;
+      } // while
+      this.pos = i;
+      if ((out == end) || (i == this.limit)) {
+        continue;
+      } // if
+
+      int code = this.decode();
+      if (code < 0) {
+        if (out > off) {
+          break;
+        } // if
+        throw new MalformedInputException(-code);
+      } // if
+      if (code < 0x10000) {
+        cbuf[out++] = (char) code;
+      } else {
+        cbuf[out++] = Character.highSurrogate(code);
+        if (out < end) {
+          cbuf[out++] = Character.lowSurrogate(code);
+        } else {
+          this.pending = Character.lowSurrogate(code);
+        } // if/else
+      } // if/else
+    } // while
+    return ((out == off) && (len > 0)) ? -1 : out - off;
+  } // read(char[], int, int)
+
+  /**
+   * Close the underlying stream, if any.
+   */
+  public void close() throws IOException {
+    if (this.stream != null) {
+      this.stream.close();
+    } // if
+  } // close()
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Decode the character at pos, whose first byte is not ASCII, and move
+   * past it. Returns the code point, or minus the number of bad bytes
+   * (leaving pos alone) if the bytes there aren't well formed.
+   */
+  private int decode() throws IOException {
+    int first = this.bytes[this.pos] & 0xFF;
+    int length;
+    int low = 0x80;
+    int high = 0xBF;
+    if ((first >= 0xC2) && (first <= 0xDF)) {
+      length = 2;
+    } else if ((first >= 0xE0) && (first <= 0xEF)) {
+      length = 3;
+      if (first == 0xE0) {
+        low = 0xA0;
+      } else if (first == 0xED) {
+        high = 0x9F;
+      } // if/else
+    } else if ((first >= 0xF0) && (first <= 0xF4)) {
+      length = 4;
+      if (first == 0xF0) {
+        low = 0x90;
+      } else if (first == 0xF4) {
+        high = 0x8F;
+      } // if/else
+    } else {
+      return -1;
+    } // if/else
+
+    this.fill(length);
+    byte[] in = this.bytes;
+    int i = this.pos;
+    int code = first & (0x7F >> length);
+    for (int k = 1; k < length; k++) {
+      if (i + k >= this.limit) {
+        return -k;
+      } // if
+      int next = in[i + k] & 0xFF;
+      if ((next < low) || (next > high)) {
+        return -k;
+      } // if
+      code = (code << 6) | (next & 0x3F);
+      low = 0x80;
+      high = 0xBF;
+    } // for
+    this.pos = i + length;
+    return code;
+  } // decode()
+
+  /**
+   * Make sure at least count bytes are buffered after pos, if the input
+   * has that many. Returns false if there are none.
+   */
+  private boolean fill(int count) throws IOException {
+    if ((this.stream == null) && (this.chunks == null)) {
+      return this.pos < this.limit;
+    } // if
+    if (this.limit - this.pos < count) {
+      int remaining = this.limit - this.pos;
+      System.arraycopy(this.bytes, this.pos, this.bytes, 0, remaining);
+      this.pos = 0;
+      this.limit = remaining;
+      while (this.limit < count) {
+        int read;
+        if (this.stream != null) {
+          read = this.stream.read(this.bytes, this.limit, this.bytes.length - this.limit);
+        } else {
+          read = Math.min(this.chunks.remaining(), this.bytes.length - this.limit);
+          this.chunks.get(this.bytes, this.limit, read);
+        } // if/else
+        if (read <= 0) {
+          break;
+        } // if
+        this.limit += read;
+      } // while
+    } // if
+    return this.pos < this.limit;
+  } // fill(int)
+} // class JSONUtf8Reader
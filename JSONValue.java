@@ -38,4 +38,15 @@ public interface JSONValue {
    */
   public Object getValue();
 
+  /**
+   * Estimate how many bytes of heap the value holds on to: the value and
+   * everything in it, laid out as the running JVM lays out objects.
+   * Objects shared with the rest of the program, such as the constants,
+   * aren't counted. Values from elsewhere get JSONMemory's estimate of
+   * their own object.
+   */
+  public default long estimatedRetainedBytes() {
+    return JSONMemory.retainedBytes(this);
+  } // estimatedRetainedBytes()
+
 } // interface JSONValue
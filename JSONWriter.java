@@ -0,0 +1,531 @@
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * A streaming writer for compact JSON. Output is gathered in a buffer and
+ * handed to the underlying writer in large pieces; strings are escaped as
+ * they are copied.
+ *
+ * Typical use:
+ *
+ * <pre>
+ *   JSONWriter out = new JSONWriter(writer);
+ *   out.beginHash();
+ *   out.key("id");
+ *   out.value(42);
+ *   out.key("tags");
+ *   out.beginArray();
+ *   out.value("a");
+ *   out.endArray();
+ *   out.endHash();
+ *   out.flush();
+ * </pre>
+ */
+public class JSONWriter implements Closeable, Flushable {
+
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The size of the output buffer.
+   */
+  static final int BUFFER_SIZE = 8192;
+
+  /**
+   * The initial number of containers we can track.
+   */
+  static final int INITIAL_DEPTH = 16;
+
+  /**
+   * Hex digits, for \\u escapes.
+   */
+  static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * Where the characters go.
+   */
+  Writer out;
+
+  /**
+   * Characters not yet handed to out.
+   */
+  char[] buf = new char[BUFFER_SIZE];
+
+  /**
+   * The number of characters in buf.
+   */
+  int pos;
+
+  /**
+   * The kind of each open container (JSONParser.ARRAY or JSONParser.HASH).
+   */
+  int[] kinds = new int[INITIAL_DEPTH];
+
+  /**
+   * The number of entries written to each open container.
+   */
+  int[] counts = new int[INITIAL_DEPTH];
+
+  /**
+   * The number of open containers.
+   */
+  int depth;
+
+  /**
+   * Whether we've written a key and are waiting for its value.
+   */
+  boolean afterKey;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Build a writer that writes to out.
+   */
+  public JSONWriter(Writer out) {
+    this.out = out;
+  } // JSONWriter(Writer)
+
+  // +-----------+---------------------------------------------------
+  // | Accessors |
+  // +-----------+
+
+  /**
+   * Get the number of open arrays and hashes.
+   */
+  public int depth() {
+    return this.depth;
+  } // depth()
+
+  // +-----------+---------------------------------------------------
+  // | Structure |
+  // +-----------+
+
+  /**
+   * Start an array.
+   */
+  public JSONWriter beginArray() throws IOException {
+    this.beforeValue();
+    this.push(JSONParser.ARRAY);
+    this.write('[');
+    return this;
+  } // beginArray()
+
+  /**
+   * Finish the innermost array.
+   */
+  public JSONWriter endArray() throws IOException {
+    this.pop(JSONParser.ARRAY);
+    this.write(']');
+    return this;
+  } // endArray()
+
+  /**
+   * Start a hash.
+   */
+  public JSONWriter beginHash() throws IOException {
+    this.beforeValue();
+    this.push(JSONParser.HASH);
+    this.write('{');
+    return this;
+  } // beginHash()
+
+  /**
+   * Finish the innermost hash.
+   */
+  public JSONWriter endHash() throws IOException {
+    this.pop(JSONParser.HASH);
+    this.write('}');
+    return this;
+  } // endHash()
+
+  /**
+   * Write the key of the next hash entry.
+   */
+  public JSONWriter key(String name) throws IOException {
+    int top = this.depth - 1;
+    if ((top < 0) || (this.kinds[top] != JSONParser.HASH) || this.afterKey) {
+      throw new IllegalStateException("A key must be written in a hash, before a value");
+    } // if
+    if (this.counts[top]++ > 0) {
+      this.write(',');
+    } // if
+    this.writeString(name);
+    this.write(':');
+    this.afterKey = true;
+    return this;
+  } // key(String)
+
+  // +--------+------------------------------------------------------
+  // | Values |
+  // +--------+
+
+  /**
+   * Write a string, or null.
+   */
+  public JSONWriter value(String value) throws IOException {
+    if (value == null) {
+      return this.nullValue();
+    } // if
+    this.beforeValue();
+    this.writeString(value);
+    return this;
+  } // value(String)
+
+  /**
+   * Write an integer.
+   */
+  public JSONWriter value(long value) throws IOException {
+    this.beforeValue();
+    this.writeRaw(Long.toString(value));
+    return this;
+  } // value(long)
+
+  /**
+   * Write a real number, with as few digits as read back as the same
+   * double. JSON has no way to write NaN or the infinities.
+   */
+  public JSONWriter value(double value) throws IOException {
+    if (Double.isNaN(value) || Double.isInfinite(value)) {
+      throw new IllegalArgumentException("JSON cannot represent " + value);
+    } // if
+    this.beforeValue();
+    if (this.buf.length - this.pos < JSONNumbers.MAX_CHARS) {
+      this.flushBuffer();
+    } // if
+    this.pos = JSONNumbers.format(value, this.buf, this.pos);
+    return this;
+  } // value(double)
+
+  /**
+   * Write true or false.
+   */
+  public JSONWriter value(boolean value) throws IOException {
+    this.beforeValue();
+    this.writeRaw(value ? "true" : "false");
+    return this;
+  } // value(boolean)
+
+  /**
+   * Write an integer, or null.
+   */
+  public JSONWriter value(BigInteger value) throws IOException {
+    if (value == null) {
+      return this.nullValue();
+    } // if
+    this.beforeValue();
+    this.writeRaw(value.toString());
+    return this;
+  } // value(BigInteger)
+
+  /**
+   * Write a real number, or null.
+   */
+  public JSONWriter value(BigDecimal value) throws IOException {
+    if (value == null) {
+      return this.nullValue();
+    } // if
+    this.beforeValue();
+    this.writeRaw(JSONReal.format(value));
+    return this;
+  } // value(BigDecimal)
+
+  /**
+   * Write null.
+   */
+  public JSONWriter nullValue() throws IOException {
+    this.beforeValue();
+    this.writeRaw("null");
+    return this;
+  } // nullValue()
+
+  /**
+   * Write a whole tree (or null). Nesting is tracked on the heap, so deep
+   * trees can't overflow the call stack.
+   */
+  public JSONWriter value(JSONValue value) throws IOException {
+    if (!this.writeScalar(value)) {
+      ArrayDeque<Iterator<?>> stack = new ArrayDeque<Iterator<?>>();
+      stack.push(this.open(value));
+      while (!stack.isEmpty()) {
+        Iterator<?> entries = stack.peek();
+        if (!entries.hasNext()) {
+          stack.pop();
+          if (this.kinds[this.depth - 1] == JSONParser.ARRAY) {
+            this.endArray();
+          } else {
+            this.endHash();
+          } // if/else
+          continue;
+        } // if
+        Object entry = entries.next();
+        JSONValue child;
+        if (entry instanceof KVPair) {
+          @SuppressWarnings("unchecked")
+          KVPair<JSONString, JSONValue> pair = (KVPair<JSONString, JSONValue>) entry;
+          this.key(pair.key().value);
+          child = pair.value();
+        } else {
+          child = (JSONValue) entry;
+        } // if/else
+        if (!this.writeScalar(child)) {
+          stack.push(this.open(child));
+        } // if
+      } // while
+    } // if
+    return this;
+  } // value(JSONValue)
+
+  // +--------+------------------------------------------------------
+  // | Output |
+  // +--------+
+
+  /**
+   * Hand everything written so far to the underlying writer, and flush it.
+   */
+  public void flush() throws IOException {
+    this.flushBuffer();
+    this.out.flush();
+  } // flush()
+
+  /**
+   * Flush and close the underlying writer.
+   */
+  public void close() throws IOException {
+    this.flushBuffer();
+    this.out.close();
+  } // close()
+
+  /**
+   * Write a tree to a PrintWriter, which (being a PrintWriter) reports
+   * errors through checkError rather than by throwing.
+   */
+  static void print(JSONValue value, PrintWriter pen) {
+    JSONWriter writer = new JSONWriter(pen);
+    try {
+      writer.value(value);
+      writer.flushBuffer();
+    } catch (IOException e) {
+      // PrintWriter never throws IOException.
+    } // try/catch
+  } // print(JSONValue, PrintWriter)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Write the separator (if any) that comes before a value, making sure a
+   * value is allowed here.
+   */
+  void beforeValue() throws IOException {
+    int top = this.depth - 1;
+    if (top < 0) {
+      return;
+    } // if
+    if (this.kinds[top] == JSONParser.HASH) {
+      if (!this.afterKey) {
+        throw new IllegalStateException("A value in a hash must follow a key");
+      } // if
+      this.afterKey = false;
+    } else if (this.counts[top]++ > 0) {
+      this.write(',');
+    } // if/else
+  } // beforeValue()
+
+  /**
+   * Note that we've opened a container.
+   */
+  private void push(int kind) {
+    if (this.depth == this.kinds.length) {
+      this.kinds = Arrays.copyOf(this.kinds, this.depth * 2);
+      this.counts = Arrays.copyOf(this.counts, this.depth * 2);
+    } // if
+    this.kinds[this.depth] = kind;
+    this.counts[this.depth] = 0;
+    ++this.depth;
+  } // push(int)
+
+  /**
+   * Note that we've closed a container, making sure it's the right kind.
+   */
+  private void pop(int kind) {
+    if ((this.depth == 0) || (this.kinds[this.depth - 1] != kind) || this.afterKey) {
+      throw new IllegalStateException("Nothing to close with " + ((kind == JSONParser.ARRAY)
+          ? "']'" : "'}'"));
+    } // if
+    --this.depth;
+  } // pop(int)
+
+  /**
+   * Write a value that isn't an array or hash. Returns false, having
+   * written nothing, for arrays and hashes.
+   */
+  private boolean writeScalar(JSONValue value) throws IOException {
+    if ((value == null) || (value instanceof JSONConstant)) {
+      Object constant = (value == null) ? null : ((JSONConstant) value).value;
+      if (constant == null) {
+        this.nullValue();
+      } else {
+        this.value(((Boolean) constant).booleanValue());
+      } // if/else
+    } else if (value instanceof JSONString) {
+      this.value(((JSONString) value).value);
+    } else if (value instanceof JSONInteger) {
+      this.value(((JSONInteger) value).value);
+    } else if (value instanceof JSONReal) {
+      JSONReal real = (JSONReal) value;
+      if (real.holdsDouble) {
+        this.value(real.number);
+      } else {
+        this.value(real.value);
+      } // if/else
+    } else if (JSON.isContainer(value)) {
+      return false;
+    } else {
+      throw new IllegalArgumentException("Cannot write " + value.getClass().getName());
+    } // if/else
+    return true;
+  } // writeScalar(JSONValue)
+
+  /**
+   * Open an array or hash, returning an iterator for its entries.
+   */
+  private Iterator<?> open(JSONValue value) throws IOException {
+    if (JSON.isArray(value)) {
+      this.beginArray();
+    } else {
+      this.beginHash();
+    } // if/else
+    return JSON.entries(value);
+  } // open(JSONValue)
+
+  /**
+   * Write a string, with quotes and escapes. Runs of characters that need no
+   * escaping are copied in bulk.
+   */
+  private void writeString(String str) throws IOException {
+    this.write('"');
+    int length = str.length();
+    int start = 0;
+    for (int i = 0; i < length; i++) {
+      char ch = str.charAt(i);
+      if ((ch < 0x20) || (ch == '"') || (ch == '\\')) {
+        this.writeRaw(str, start, i);
+        this.writeEscape(ch);
+        start = i + 1;
+      } // if
+    } // for
+    this.writeRaw(str, start, length);
+    this.write('"');
+  } // writeString(String)
+
+  /**
+   * Write the escape sequence for a character.
+   */
+  private void writeEscape(char ch) throws IOException {
+    this.write('\\');
+    switch (ch) {
+      case '"':
+      case '\\':
+        this.write(ch);
+        break;
+      case '\b':
+        this.write('b');
+        break;
+      case '\f':
+        this.write('f');
+        break;
+      case '\n':
+        this.write('n');
+        break;
+      case '\r':
+        this.write('r');
+        break;
+      case '\t':
+        this.write('t');
+        break;
+      default:
+        this.write('u');
+        this.write('0');
+        this.write('0');
+        this.write(HEX[ch >> 4]);
+        this.write(HEX[ch & 0xF]);
+        break;
+    } // switch
+  } // writeEscape(char)
+
+  /**
+   * Write one character.
+   */
+  private void write(char ch) throws IOException {
+    if (this.pos == this.buf.length) {
+      this.flushBuffer();
+    } // if
+    this.buf[this.pos++] = ch;
+  } // write(char)
+
+  /**
+   * Write some text as is.
+   */
+  void writeRaw(String str) throws IOException {
+    this.writeRaw(str, 0, str.length());
+  } // writeRaw(String)
+
+  /**
+   * Write part of some text as is.
+   */
+  private void writeRaw(String str, int start, int end) throws IOException {
+    while (start < end) {
+      if (this.pos == this.buf.length) {
+        this.flushBuffer();
+      } // if
+      int count = Math.min(end - start, this.buf.length - this.pos);
+      str.getChars(start, start + count, this.buf, this.pos);
+      this.pos += count;
+      start += count;
+    } // while
+  } // writeRaw(String, int, int)
+
+  /**
+   * Write some characters as is. Long runs skip the buffer.
+   */
+  void writeRaw(char[] chars, int start, int end) throws IOException {
+    int count = end - start;
+    if (count <= this.buf.length - this.pos) {
+      System.arraycopy(chars, start, this.buf, this.pos, count);
+      this.pos += count;
+    } else if (count >= this.buf.length) {
+      this.flushBuffer();
+      this.out.write(chars, start, count);
+    } else {
+      this.flushBuffer();
+      System.arraycopy(chars, start, this.buf, 0, count);
+      this.pos = count;
+    } // if/else
+  } // writeRaw(char[], int, int)
+
+  /**
+   * Hand the buffer to the underlying writer.
+   */
+  void flushBuffer() throws IOException {
+    if (this.pos > 0) {
+      this.out.write(this.buf, 0, this.pos);
+      this.pos = 0;
+    } // if
+  } // flushBuffer()
+} // class JSONWriter
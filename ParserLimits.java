@@ -0,0 +1,212 @@
+import java.util.Objects;
+
+/**
+ * Limits on what the parser will accept, so that hostile input (absurdly
+ * deep nesting, enormous strings, and the like) fails quickly instead of
+ * exhausting the stack or the heap. Limits are immutable; use the with
+ * methods to derive new ones.
+ */
+public class ParserLimits {
+
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The limits used when none are given. Generous enough for any sensible
+   * document.
+   */
+  public static final ParserLimits DEFAULT =
+      new ParserLimits(1000, 20_000_000, 1000, Integer.MAX_VALUE, Long.MAX_VALUE);
+
+  /**
+   * No limits at all. Only use this for trusted input.
+   */
+  public static final ParserLimits NONE = new ParserLimits(Integer.MAX_VALUE,
+      Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, Long.MAX_VALUE);
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The deepest permitted nesting of arrays and hashes.
+   */
+  final int maxDepth;
+
+  /**
+   * The longest permitted string, in characters (after unescaping).
+   */
+  final int maxStringLength;
+
+  /**
+   * The longest permitted number, in characters.
+   */
+  final int maxNumberLength;
+
+  /**
+   * The most entries permitted in a single array or hash.
+   */
+  final int maxEntries;
+
+  /**
+   * The longest permitted document, in characters.
+   */
+  final long maxDocumentLength;
+
+  /**
+   * The most heap a parsed document may hold on to, in (estimated) bytes.
+   */
+  final long maxRetainedBytes;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Build a new set of limits, with no limit on retained bytes.
+   */
+  public ParserLimits(int maxDepth, int maxStringLength, int maxNumberLength, int maxEntries,
+      long maxDocumentLength) {
+    this(maxDepth, maxStringLength, maxNumberLength, maxEntries, maxDocumentLength,
+        Long.MAX_VALUE);
+  } // ParserLimits(int, int, int, int, long)
+
+  /**
+   * Build a new set of limits.
+   */
+  public ParserLimits(int maxDepth, int maxStringLength, int maxNumberLength, int maxEntries,
+      long maxDocumentLength, long maxRetainedBytes) {
+    if ((maxDepth < 1) || (maxStringLength < 0) || (maxNumberLength < 1) || (maxEntries < 0)
+        || (maxDocumentLength < 1) || (maxRetainedBytes < 0)) {
+      throw new IllegalArgumentException("Invalid parser limits");
+    } // if
+    this.maxDepth = maxDepth;
+    this.maxStringLength = maxStringLength;
+    this.maxNumberLength = maxNumberLength;
+    this.maxEntries = maxEntries;
+    this.maxDocumentLength = maxDocumentLength;
+    this.maxRetainedBytes = maxRetainedBytes;
+  } // ParserLimits(int, int, int, int, long, long)
+
+  // +-------------------------+-------------------------------------
+  // | Standard object methods |
+  // +-------------------------+
+
+  /**
+   * Convert to a string (e.g., for printing).
+   */
+  public String toString() {
+    return "ParserLimits(maxDepth=" + this.maxDepth + ", maxStringLength=" + this.maxStringLength
+        + ", maxNumberLength=" + this.maxNumberLength + ", maxEntries=" + this.maxEntries
+        + ", maxDocumentLength=" + this.maxDocumentLength + ", maxRetainedBytes="
+        + this.maxRetainedBytes + ")";
+  } // toString()
+
+  /**
+   * Compare to another object. Limits are equal when every limit is.
+   */
+  public boolean equals(Object other) {
+    if (!(other instanceof ParserLimits)) {
+      return false;
+    } // if
+    ParserLimits limits = (ParserLimits) other;
+    return (this.maxDepth == limits.maxDepth)
+        && (this.maxStringLength == limits.maxStringLength)
+        && (this.maxNumberLength == limits.maxNumberLength)
+        && (this.maxEntries == limits.maxEntries)
+        && (this.maxDocumentLength == limits.maxDocumentLength)
+        && (this.maxRetainedBytes == limits.maxRetainedBytes);
+  } // equals(Object)
+
+  /**
+   * Compute the hash code.
+   */
+  public int hashCode() {
+    return Objects.hash(this.maxDepth, this.maxStringLength, this.maxNumberLength,
+        this.maxEntries, this.maxDocumentLength, this.maxRetainedBytes);
+  } // hashCode()
+
+  // +-----------+---------------------------------------------------
+  // | Accessors |
+  // +-----------+
+
+  public int maxDepth() {
+    return this.maxDepth;
+  } // maxDepth()
+
+  public int maxStringLength() {
+    return this.maxStringLength;
+  } // maxStringLength()
+
+  public int maxNumberLength() {
+    return this.maxNumberLength;
+  } // maxNumberLength()
+
+  public int maxEntries() {
+    return this.maxEntries;
+  } // maxEntries()
+
+  public long maxDocumentLength() {
+    return this.maxDocumentLength;
+  } // maxDocumentLength()
+
+  public long maxRetainedBytes() {
+    return this.maxRetainedBytes;
+  } // maxRetainedBytes()
+
+  // +----------------+----------------------------------------------
+  // | Derived limits |
+  // +----------------+
+
+  /**
+   * Get a copy of these limits with a different maximum depth.
+   */
+  public ParserLimits withMaxDepth(int newMaxDepth) {
+    return new ParserLimits(newMaxDepth, this.maxStringLength, this.maxNumberLength,
+        this.maxEntries, this.maxDocumentLength, this.maxRetainedBytes);
+  } // withMaxDepth(int)
+
+  /**
+   * Get a copy of these limits with a different maximum string length.
+   */
+  public ParserLimits withMaxStringLength(int newMaxStringLength) {
+    return new ParserLimits(this.maxDepth, newMaxStringLength, this.maxNumberLength,
+        this.maxEntries, this.maxDocumentLength, this.maxRetainedBytes);
+  } // withMaxStringLength(int)
+
+  /**
+   * Get a copy of these limits with a different maximum number length.
+   */
+  public ParserLimits withMaxNumberLength(int newMaxNumberLength) {
+    return new ParserLimits(this.maxDepth, this.maxStringLength, newMaxNumberLength,
+        this.maxEntries, this.maxDocumentLength, this.maxRetainedBytes);
+  } // withMaxNumberLength(int)
+
+  /**
+   * Get a copy of these limits with a different maximum number of entries.
+   */
+  public ParserLimits withMaxEntries(int newMaxEntries) {
+    return new ParserLimits(this.maxDepth, this.maxStringLength, this.maxNumberLength,
+        newMaxEntries, this.maxDocumentLength, this.maxRetainedBytes);
+  } // withMaxEntries(int)
+
+  /**
+   * Get a copy of these limits with a different maximum document length.
+   */
+  public ParserLimits withMaxDocumentLength(long newMaxDocumentLength) {
+    return new ParserLimits(this.maxDepth, this.maxStringLength, this.maxNumberLength,
+        this.maxEntries, newMaxDocumentLength, this.maxRetainedBytes);
+  } // withMaxDocumentLength(long)
+
+  /**
+   * Get a copy of these limits with a different maximum number of
+   * retained bytes, as estimated by JSONValue.estimatedRetainedBytes.
+   * Setting one makes the parser keep a running estimate, which costs a
+   * little time.
+   */
+  public ParserLimits withMaxRetainedBytes(long newMaxRetainedBytes) {
+    return new ParserLimits(this.maxDepth, this.maxStringLength, this.maxNumberLength,
+        this.maxEntries, this.maxDocumentLength, newMaxRetainedBytes);
+  } // withMaxRetainedBytes(long)
+} // class ParserLimits
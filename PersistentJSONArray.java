@@ -0,0 +1,390 @@
+import java.io.PrintWriter;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Immutable JSON arrays. Instead of changing an array, withIndex, append,
+ * and withoutLast return a new one, which shares all but O(log n) of its
+ * structure with the old one, so that old versions remain cheap to keep
+ * and safe to read from any thread.
+ *
+ * The values live in the leaves of a trie with 32-way branching, indexed
+ * by five bits of the index per level, except for the last (up to) 32,
+ * which we keep in a separate tail so that appending is usually a single
+ * small copy.
+ *
+ * Values stored in a persistent array should themselves be immutable
+ * (persistent, frozen, or scalar). See JSON.persist for converting a tree.
+ */
+public class PersistentJSONArray implements JSONValue {
+
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The number of bits of the index used at each level of the trie.
+   */
+  static final int BITS = 5;
+
+  /**
+   * The number of children of each node.
+   */
+  static final int WIDTH = 1 << BITS;
+
+  /**
+   * The array with no values.
+   */
+  public static final PersistentJSONArray EMPTY =
+      new PersistentJSONArray(0, BITS, new Object[WIDTH], new Object[0]);
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The number of values.
+   */
+  int size;
+
+  /**
+   * How far to shift an index to find its slot in the root.
+   */
+  int shift;
+
+  /**
+   * The root of the trie. Interior nodes hold child nodes; leaves hold
+   * values.
+   */
+  Object[] root;
+
+  /**
+   * The last values, which aren't yet in the trie.
+   */
+  Object[] tail;
+
+  /**
+   * The hash code, once computed (or 0).
+   */
+  int hash;
+
+  /**
+   * The estimated retained bytes, once computed (or 0).
+   */
+  long bytes;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  PersistentJSONArray(int size, int shift, Object[] root, Object[] tail) {
+    this.size = size;
+    this.shift = shift;
+    this.root = root;
+    this.tail = tail;
+  } // PersistentJSONArray(int, int, Object[], Object[])
+
+  /**
+   * Make a persistent copy of an array, converting the arrays and hashes
+   * in it as well.
+   */
+  public static PersistentJSONArray from(JSONArray array) {
+    return (PersistentJSONArray) JSON.persist(array);
+  } // from(JSONArray)
+
+  // +-------------------------+-------------------------------------
+  // | Standard object methods |
+  // +-------------------------+
+
+  /**
+   * Convert to a string (e.g., for printing).
+   */
+  public String toString() {
+    StringBuilder result = new StringBuilder("[");
+    for (JSONValue value : this.iterable()) {
+      result.append(value).append(", ");
+    } // for
+    return result.append("]").toString();
+  } // toString()
+
+  /**
+   * Compare to another object. Ordinary and persistent arrays with the
+   * same values are equal.
+   */
+  public boolean equals(Object other) {
+    return JSON.equal(this, other);
+  } // equals(Object)
+
+  /**
+   * Compute the hash code.
+   */
+  public int hashCode() {
+    return JSON.hashCode(this);
+  } // hashCode()
+
+  // +--------------------+------------------------------------------
+  // | Additional methods |
+  // +--------------------+
+
+  /**
+   * Write the value as JSON.
+   */
+  public void writeJSON(PrintWriter pen) {
+    JSONWriter.print(this, pen);
+  } // writeJSON(PrintWriter)
+
+  /**
+   * Estimate the bytes held by the array and everything in it, including
+   * parts it may share with other versions. The total is remembered.
+   */
+  public long estimatedRetainedBytes() {
+    return JSONMemory.retainedBytes(this);
+  } // estimatedRetainedBytes()
+
+  /**
+   * Get the underlying value.
+   */
+  public Iterator<JSONValue> getValue() {
+    return this.iterator();
+  } // getValue()
+
+  // +---------------+-----------------------------------------------
+  // | Array methods |
+  // +---------------+
+
+  /**
+   * Get the value at a particular index.
+   */
+  public JSONValue get(int index) throws IndexOutOfBoundsException {
+    if ((index < 0) || (index >= this.size)) {
+      throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length "
+          + this.size);
+    } // if
+    return (JSONValue) this.leafFor(index)[index & (WIDTH - 1)];
+  } // get(int)
+
+  /**
+   * Get the value at a particular index, or null if the index is out of
+   * bounds.
+   */
+  public JSONValue getOrNull(int index) {
+    return ((index >= 0) && (index < this.size)) ? this.get(index) : null;
+  } // getOrNull(int)
+
+  /**
+   * Get an array like this one, but with value at index. An index equal
+   * to the size appends the value.
+   */
+  public PersistentJSONArray withIndex(int index, JSONValue value)
+      throws IndexOutOfBoundsException {
+    if (index == this.size) {
+      return this.append(value);
+    } else if ((index < 0) || (index > this.size)) {
+      throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length "
+          + this.size);
+    } // if/else
+    if (index >= this.tailOffset()) {
+      Object[] newTail = this.tail.clone();
+      newTail[index & (WIDTH - 1)] = value;
+      return new PersistentJSONArray(this.size, this.shift, this.root, newTail);
+    } // if
+    return new PersistentJSONArray(this.size, this.shift,
+        replace(this.shift, this.root, index, value), this.tail);
+  } // withIndex(int, JSONValue)
+
+  /**
+   * Get an array like this one, but with value added to the end.
+   */
+  public PersistentJSONArray append(JSONValue value) {
+    if (this.size - this.tailOffset() < WIDTH) {
+      Object[] newTail = new Object[this.tail.length + 1];
+      System.arraycopy(this.tail, 0, newTail, 0, this.tail.length);
+      newTail[this.tail.length] = value;
+      return new PersistentJSONArray(this.size + 1, this.shift, this.root, newTail);
+    } // if
+
+    // The tail is full, so move it into the trie, adding a level if the
+    // trie is full too.
+    Object[] newRoot;
+    int newShift = this.shift;
+    if ((this.size >>> BITS) > (1 << this.shift)) {
+      newRoot = new Object[WIDTH];
+      newRoot[0] = this.root;
+      newRoot[1] = path(this.shift, this.tail);
+      newShift += BITS;
+    } else {
+      newRoot = this.pushTail(this.shift, this.root);
+    } // if/else
+    return new PersistentJSONArray(this.size + 1, newShift, newRoot, new Object[] {value});
+  } // append(JSONValue)
+
+  /**
+   * Get an array like this one, but without its last value.
+   *
+   * @throws IllegalStateException if the array is empty.
+   */
+  public PersistentJSONArray withoutLast() {
+    if (this.size == 0) {
+      throw new IllegalStateException("Cannot remove from an empty array");
+    } else if (this.size == 1) {
+      return EMPTY;
+    } else if (this.size - this.tailOffset() > 1) {
+      Object[] newTail = new Object[this.tail.length - 1];
+      System.arraycopy(this.tail, 0, newTail, 0, newTail.length);
+      return new PersistentJSONArray(this.size - 1, this.shift, this.root, newTail);
+    } // if/else
+
+    // The tail would be empty, so take the last leaf of the trie instead.
+    Object[] newTail = this.leafFor(this.size - 2);
+    Object[] newRoot = this.popTail(this.shift, this.root);
+    int newShift = this.shift;
+    if (newRoot == null) {
+      newRoot = EMPTY.root;
+    } // if
+    if ((this.shift > BITS) && (newRoot[1] == null)) {
+      newRoot = (Object[]) newRoot[0];
+      newShift -= BITS;
+    } // if
+    return new PersistentJSONArray(this.size - 1, newShift, newRoot, newTail);
+  } // withoutLast()
+
+  /**
+   * Determine how many values are in the array.
+   */
+  public int size() {
+    return this.size;
+  } // size()
+
+  /**
+   * Get all of the values, in order.
+   */
+  public Iterator<JSONValue> iterator() {
+    return new Iterator<JSONValue>() {
+      int index = 0;
+      Object[] leaf;
+
+      public boolean hasNext() {
+        return this.index < PersistentJSONArray.this.size;
+      } // hasNext()
+
+      public JSONValue next() {
+        if (this.index >= PersistentJSONArray.this.size) {
+          throw new NoSuchElementException();
+        } // if
+        if ((this.index & (WIDTH - 1)) == 0) {
+          this.leaf = PersistentJSONArray.this.leafFor(this.index);
+        } // if
+        return (JSONValue) this.leaf[this.index++ & (WIDTH - 1)];
+      } // next()
+    }; // new Iterator
+  } // iterator()
+
+  /**
+   * Make an ordinary (mutable) array with the same values.
+   */
+  public JSONArray toArray() {
+    JSONArray result = new JSONArray();
+    result.values.ensureCapacity(this.size);
+    for (JSONValue value : this.iterable()) {
+      result.values.add(value);
+    } // for
+    return result;
+  } // toArray()
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Get the values for a for loop.
+   */
+  Iterable<JSONValue> iterable() {
+    return this::iterator;
+  } // iterable()
+
+  /**
+   * Find the index of the first value in the tail.
+   */
+  int tailOffset() {
+    return (this.size < WIDTH) ? 0 : ((this.size - 1) >>> BITS) << BITS;
+  } // tailOffset()
+
+  /**
+   * Find the leaf (or tail) holding an index.
+   */
+  Object[] leafFor(int index) {
+    if (index >= this.tailOffset()) {
+      return this.tail;
+    } // if
+    Object[] node = this.root;
+    for (int level = this.shift; level > 0; level -= BITS) {
+      node = (Object[]) node[(index >>> level) & (WIDTH - 1)];
+    } // for
+    return node;
+  } // leafFor(int)
+
+  /**
+   * Copy the path to an index, replacing its value.
+   */
+  static Object[] replace(int level, Object[] node, int index, JSONValue value) {
+    Object[] copy = node.clone();
+    if (level == 0) {
+      copy[index & (WIDTH - 1)] = value;
+    } else {
+      int slot = (index >>> level) & (WIDTH - 1);
+      copy[slot] = replace(level - BITS, (Object[]) node[slot], index, value);
+    } // if/else
+    return copy;
+  } // replace(int, Object[], int, JSONValue)
+
+  /**
+   * Copy the path to the end of the trie, adding the tail as a new leaf.
+   */
+  Object[] pushTail(int level, Object[] node) {
+    int slot = ((this.size - 1) >>> level) & (WIDTH - 1);
+    Object[] copy = node.clone();
+    if (level == BITS) {
+      copy[slot] = this.tail;
+    } else {
+      Object[] child = (Object[]) node[slot];
+      copy[slot] = (child == null)
+          ? path(level - BITS, this.tail)
+          : this.pushTail(level - BITS, child);
+    } // if/else
+    return copy;
+  } // pushTail(int, Object[])
+
+  /**
+   * Copy the path to the end of the trie, removing its last leaf. Returns
+   * null if the node would be empty.
+   */
+  Object[] popTail(int level, Object[] node) {
+    int slot = ((this.size - 2) >>> level) & (WIDTH - 1);
+    if (level > BITS) {
+      Object[] child = this.popTail(level - BITS, (Object[]) node[slot]);
+      if ((child == null) && (slot == 0)) {
+        return null;
+      } // if
+      Object[] copy = node.clone();
+      copy[slot] = child;
+      return copy;
+    } else if (slot == 0) {
+      return null;
+    } // if/else
+    Object[] copy = node.clone();
+    copy[slot] = null;
+    return copy;
+  } // popTail(int, Object[])
+
+  /**
+   * Build a chain of nodes down to a leaf.
+   */
+  static Object[] path(int level, Object[] leaf) {
+    if (level == 0) {
+      return leaf;
+    } // if
+    Object[] node = new Object[WIDTH];
+    node[0] = path(level - BITS, leaf);
+    return node;
+  } // path(int, Object[])
+} // class PersistentJSONArray
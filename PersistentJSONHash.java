@@ -0,0 +1,523 @@
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Immutable JSON hashes. Instead of changing a hash, with and without
+ * return a new one, which shares all but O(log n) of its structure with
+ * the old one, so that old versions remain cheap to keep and safe to read
+ * from any thread.
+ *
+ * The pairs live in a hash array mapped trie: each level of the trie uses
+ * five more bits of the key's hash to choose one of up to 32 slots, and a
+ * bitmap records which slots are in use, so that nodes store only those.
+ * Keys whose hashes are identical share a collision node.
+ *
+ * Values stored in a persistent hash should themselves be immutable
+ * (persistent, frozen, or scalar). See JSON.persist for converting a tree.
+ */
+public class PersistentJSONHash implements JSONValue {
+
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The hash with no pairs.
+   */
+  public static final PersistentJSONHash EMPTY =
+      new PersistentJSONHash(new BitmapNode(0, new Object[0]), 0);
+
+  /**
+   * The number of bits of the hash used at each level of the trie.
+   */
+  static final int BITS = 5;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The root of the trie.
+   */
+  Node root;
+
+  /**
+   * The number of pairs.
+   */
+  int size;
+
+  /**
+   * The hash code, once computed (or 0).
+   */
+  int hash;
+
+  /**
+   * The estimated retained bytes, once computed (or 0).
+   */
+  long bytes;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  PersistentJSONHash(Node root, int size) {
+    this.root = root;
+    this.size = size;
+  } // PersistentJSONHash(Node, int)
+
+  /**
+   * Make a persistent copy of a hash, converting the arrays and hashes in
+   * it as well.
+   */
+  public static PersistentJSONHash from(JSONHash hash) {
+    return (PersistentJSONHash) JSON.persist(hash);
+  } // from(JSONHash)
+
+  // +-------------------------+-------------------------------------
+  // | Standard object methods |
+  // +-------------------------+
+
+  /**
+   * Convert to a string (e.g., for printing).
+   */
+  public String toString() {
+    StringBuilder result = new StringBuilder("{");
+    Iterator<KVPair<JSONString, JSONValue>> pairs = this.iterator();
+    while (pairs.hasNext()) {
+      KVPair<JSONString, JSONValue> pair = pairs.next();
+      result.append(pair.key()).append(" : ").append(pair.value());
+      if (pairs.hasNext()) {
+        result.append(",");
+      } // if
+    } // while
+    return result.append("}").toString();
+  } // toString()
+
+  /**
+   * Compare to another object. Ordinary and persistent hashes with the
+   * same pairs, in any order, are equal.
+   */
+  public boolean equals(Object other) {
+    return JSON.equal(this, other);
+  } // equals(Object)
+
+  /**
+   * Compute the hash code, which doesn't depend on the order of the pairs.
+   */
+  public int hashCode() {
+    return JSON.hashCode(this);
+  } // hashCode()
+
+  // +--------------------+------------------------------------------
+  // | Additional methods |
+  // +--------------------+
+
+  /**
+   * Write the value as JSON.
+   */
+  public void writeJSON(PrintWriter pen) {
+    JSONWriter.print(this, pen);
+  } // writeJSON(PrintWriter)
+
+  /**
+   * Estimate the bytes held by the hash and everything in it, including
+   * parts it may share with other versions. The total is remembered.
+   */
+  public long estimatedRetainedBytes() {
+    return JSONMemory.retainedBytes(this);
+  } // estimatedRetainedBytes()
+
+  /**
+   * Get the underlying value.
+   */
+  public Iterator<KVPair<JSONString, JSONValue>> getValue() {
+    return this.iterator();
+  } // getValue()
+
+  // +-------------------+-------------------------------------------
+  // | Hashtable methods |
+  // +-------------------+
+
+  /**
+   * Determine if the hash contains a key.
+   */
+  public boolean containsKey(JSONString key) {
+    return this.getOrNull(key) != null;
+  } // containsKey(JSONString)
+
+  /**
+   * Determine if the hash contains a key, given as plain text.
+   */
+  public boolean containsKey(CharSequence key) {
+    return this.getOrNull(key) != null;
+  } // containsKey(CharSequence)
+
+  /**
+   * Get the value associated with a key.
+   *
+   * @throws IndexOutOfBoundsException if the key is not in the hash.
+   */
+  public JSONValue get(JSONString key) {
+    JSONValue value = this.getOrNull(key);
+    if (value == null) {
+      throw new IndexOutOfBoundsException("Invalid key: " + key.toString());
+    } // if
+    return value;
+  } // get(JSONString)
+
+  /**
+   * Get the value associated with a key, or null if there is none.
+   */
+  public JSONValue getOrNull(JSONString key) {
+    return this.root.get(key, key.hashCode(), 0);
+  } // getOrNull(JSONString)
+
+  /**
+   * Get the value associated with a key given as plain text, or null if
+   * there is none.
+   */
+  public JSONValue getOrNull(CharSequence key) {
+    return this.getOrNull(new JSONString(key.toString()));
+  } // getOrNull(CharSequence)
+
+  /**
+   * Get a hash like this one, but with key set to value.
+   */
+  public PersistentJSONHash with(JSONString key, JSONValue value) {
+    boolean[] added = new boolean[1];
+    Node newRoot = this.root.with(key, key.hashCode(), value, 0, added);
+    if (newRoot == this.root) {
+      return this;
+    } // if
+    return new PersistentJSONHash(newRoot, added[0] ? this.size + 1 : this.size);
+  } // with(JSONString, JSONValue)
+
+  /**
+   * Get a hash like this one, but with key (given as plain text) set to
+   * value.
+   */
+  public PersistentJSONHash with(String key, JSONValue value) {
+    return this.with(new JSONString(key), value);
+  } // with(String, JSONValue)
+
+  /**
+   * Get a hash like this one, but without key.
+   */
+  public PersistentJSONHash without(JSONString key) {
+    Node newRoot = this.root.without(key, key.hashCode(), 0);
+    if (newRoot == this.root) {
+      return this;
+    } else if (newRoot == null) {
+      return EMPTY;
+    } // if/else
+    return new PersistentJSONHash(newRoot, this.size - 1);
+  } // without(JSONString)
+
+  /**
+   * Get a hash like this one, but without key (given as plain text).
+   */
+  public PersistentJSONHash without(String key) {
+    return this.without(new JSONString(key));
+  } // without(String)
+
+  /**
+   * Find out how many key/value pairs are in the hash.
+   */
+  public int size() {
+    return this.size;
+  } // size()
+
+  /**
+   * Get all of the key/value pairs.
+   */
+  public Iterator<KVPair<JSONString, JSONValue>> iterator() {
+    return new Iterator<KVPair<JSONString, JSONValue>>() {
+      // The slot arrays of the nodes we're in, and our positions in them.
+      // A path through the trie passes through at most seven bitmap nodes
+      // and a collision node.
+      Object[][] slots = new Object[8][];
+      int[] positions = new int[8];
+      int depth = 0;
+      KVPair<JSONString, JSONValue> next;
+
+      {
+        this.slots[0] = PersistentJSONHash.this.root.slots();
+        this.advance();
+      } // initializer
+
+      public boolean hasNext() {
+        return this.next != null;
+      } // hasNext()
+
+      public KVPair<JSONString, JSONValue> next() {
+        if (this.next == null) {
+          throw new NoSuchElementException();
+        } // if
+        KVPair<JSONString, JSONValue> result = this.next;
+        this.advance();
+        return result;
+      } // next()
+
+      @SuppressWarnings("unchecked")
+      void advance() {
+        this.next = null;
+        while (this.depth >= 0) {
+          if (this.positions[this.depth] == this.slots[this.depth].length) {
+            --this.depth;
+            continue;
+          } // if
+          Object slot = this.slots[this.depth][this.positions[this.depth]++];
+          if (slot instanceof Node) {
+            ++this.depth;
+            this.slots[this.depth] = ((Node) slot).slots();
+            this.positions[this.depth] = 0;
+          } else {
+            this.next = (KVPair<JSONString, JSONValue>) slot;
+            return;
+          } // if/else
+        } // while
+      } // advance()
+    }; // new Iterator
+  } // iterator()
+
+  /**
+   * Make an ordinary (mutable) hash with the same pairs.
+   */
+  public JSONHash toHash() {
+    JSONHash result = new JSONHash();
+    Iterator<KVPair<JSONString, JSONValue>> pairs = this.iterator();
+    while (pairs.hasNext()) {
+      KVPair<JSONString, JSONValue> pair = pairs.next();
+      result.set(pair.key(), pair.value());
+    } // while
+    return result;
+  } // toHash()
+
+  // +---------------+-----------------------------------------------
+  // | Inner classes |
+  // +---------------+
+
+  /**
+   * A node of the trie. Nodes never change once built; with and without
+   * return the node itself when there's nothing to do, and without returns
+   * null when the node would be empty.
+   */
+  abstract static class Node {
+    abstract JSONValue get(JSONString key, int hash, int shift);
+
+    abstract Node with(JSONString key, int hash, JSONValue value, int shift, boolean[] added);
+
+    abstract Node without(JSONString key, int hash, int shift);
+
+    /**
+     * Get the pairs and child nodes in this node.
+     */
+    abstract Object[] slots();
+  } // class Node
+
+  /**
+   * A node whose slots are pairs or child nodes, one for each bit set in
+   * the bitmap.
+   */
+  static final class BitmapNode extends Node {
+    int bitmap;
+    Object[] slots;
+
+    BitmapNode(int bitmap, Object[] slots) {
+      this.bitmap = bitmap;
+      this.slots = slots;
+    } // BitmapNode(int, Object[])
+
+    Object[] slots() {
+      return this.slots;
+    } // slots()
+
+    /**
+     * Find where the slot for a bit goes in the slot array.
+     */
+    int index(int bit) {
+      return Integer.bitCount(this.bitmap & (bit - 1));
+    } // index(int)
+
+    @SuppressWarnings("unchecked")
+    JSONValue get(JSONString key, int hash, int shift) {
+      int bit = 1 << ((hash >>> shift) & 31);
+      if ((this.bitmap & bit) == 0) {
+        return null;
+      } // if
+      Object slot = this.slots[this.index(bit)];
+      if (slot instanceof Node) {
+        return ((Node) slot).get(key, hash, shift + BITS);
+      } // if
+      KVPair<JSONString, JSONValue> pair = (KVPair<JSONString, JSONValue>) slot;
+      return pair.key().equals(key) ? pair.value() : null;
+    } // get(JSONString, int, int)
+
+    @SuppressWarnings("unchecked")
+    Node with(JSONString key, int hash, JSONValue value, int shift, boolean[] added) {
+      int bit = 1 << ((hash >>> shift) & 31);
+      int index = this.index(bit);
+      if ((this.bitmap & bit) == 0) {
+        Object[] newSlots = new Object[this.slots.length + 1];
+        System.arraycopy(this.slots, 0, newSlots, 0, index);
+        newSlots[index] = new KVPair<JSONString, JSONValue>(key, value);
+        System.arraycopy(this.slots, index, newSlots, index + 1, this.slots.length - index);
+        added[0] = true;
+        return new BitmapNode(this.bitmap | bit, newSlots);
+      } // if
+
+      Object slot = this.slots[index];
+      Object newSlot;
+      if (slot instanceof Node) {
+        newSlot = ((Node) slot).with(key, hash, value, shift + BITS, added);
+      } else {
+        KVPair<JSONString, JSONValue> pair = (KVPair<JSONString, JSONValue>) slot;
+        if (!pair.key().equals(key)) {
+          newSlot = pair(pair, new KVPair<JSONString, JSONValue>(key, value), hash,
+              shift + BITS);
+          added[0] = true;
+        } else if (pair.value() == value) {
+          newSlot = slot;
+        } else {
+          newSlot = new KVPair<JSONString, JSONValue>(key, value);
+        } // if/else
+      } // if/else
+      if (newSlot == slot) {
+        return this;
+      } // if
+      Object[] newSlots = this.slots.clone();
+      newSlots[index] = newSlot;
+      return new BitmapNode(this.bitmap, newSlots);
+    } // with(JSONString, int, JSONValue, int, boolean[])
+
+    @SuppressWarnings("unchecked")
+    Node without(JSONString key, int hash, int shift) {
+      int bit = 1 << ((hash >>> shift) & 31);
+      if ((this.bitmap & bit) == 0) {
+        return this;
+      } // if
+      int index = this.index(bit);
+      Object slot = this.slots[index];
+      if (slot instanceof Node) {
+        Node child = ((Node) slot).without(key, hash, shift + BITS);
+        if (child == slot) {
+          return this;
+        } else if (child != null) {
+          // A child left with a single pair gives way to the pair, which
+          // keeps the trie no deeper than the hashes require.
+          Object[] newSlots = this.slots.clone();
+          newSlots[index] = ((child instanceof BitmapNode) && (child.slots().length == 1)
+              && !(child.slots()[0] instanceof Node)) ? child.slots()[0] : child;
+          return new BitmapNode(this.bitmap, newSlots);
+        } // if/else
+      } else if (!((KVPair<JSONString, JSONValue>) slot).key().equals(key)) {
+        return this;
+      } // if/else
+      if (this.bitmap == bit) {
+        return null;
+      } // if
+      Object[] newSlots = new Object[this.slots.length - 1];
+      System.arraycopy(this.slots, 0, newSlots, 0, index);
+      System.arraycopy(this.slots, index + 1, newSlots, index, newSlots.length - index);
+      return new BitmapNode(this.bitmap & ~bit, newSlots);
+    } // without(JSONString, int, int)
+  } // class BitmapNode
+
+  /**
+   * A node for pairs whose keys have the same hash code.
+   */
+  static final class CollisionNode extends Node {
+    int hash;
+    Object[] pairs;
+
+    CollisionNode(int hash, Object[] pairs) {
+      this.hash = hash;
+      this.pairs = pairs;
+    } // CollisionNode(int, Object[])
+
+    Object[] slots() {
+      return this.pairs;
+    } // slots()
+
+    /**
+     * Find the position of a key, or -1 if it's not here.
+     */
+    @SuppressWarnings("unchecked")
+    int find(JSONString key) {
+      for (int i = 0; i < this.pairs.length; i++) {
+        if (((KVPair<JSONString, JSONValue>) this.pairs[i]).key().equals(key)) {
+          return i;
+        } // if
+      } // for
+      return -1;
+    } // find(JSONString)
+
+    @SuppressWarnings("unchecked")
+    JSONValue get(JSONString key, int hash, int shift) {
+      int i = (hash == this.hash) ? this.find(key) : -1;
+      return (i < 0) ? null : ((KVPair<JSONString, JSONValue>) this.pairs[i]).value();
+    } // get(JSONString, int, int)
+
+    Node with(JSONString key, int hash, JSONValue value, int shift, boolean[] added) {
+      if (hash != this.hash) {
+        // Put this node beneath a bitmap node, where the new key can
+        // have a slot of its own.
+        Node parent = new BitmapNode(1 << ((this.hash >>> shift) & 31), new Object[] {this});
+        return parent.with(key, hash, value, shift, added);
+      } // if
+      KVPair<JSONString, JSONValue> pair = new KVPair<JSONString, JSONValue>(key, value);
+      int i = this.find(key);
+      Object[] newPairs;
+      if (i < 0) {
+        newPairs = Arrays.copyOf(this.pairs, this.pairs.length + 1);
+        newPairs[this.pairs.length] = pair;
+        added[0] = true;
+      } else {
+        newPairs = this.pairs.clone();
+        newPairs[i] = pair;
+      } // if/else
+      return new CollisionNode(this.hash, newPairs);
+    } // with(JSONString, int, JSONValue, int, boolean[])
+
+    Node without(JSONString key, int hash, int shift) {
+      int i = (hash == this.hash) ? this.find(key) : -1;
+      if (i < 0) {
+        return this;
+      } else if (this.pairs.length == 2) {
+        return new BitmapNode(1 << ((this.hash >>> shift) & 31),
+            new Object[] {this.pairs[1 - i]});
+      } // if/else
+      Object[] newPairs = new Object[this.pairs.length - 1];
+      System.arraycopy(this.pairs, 0, newPairs, 0, i);
+      System.arraycopy(this.pairs, i + 1, newPairs, i, newPairs.length - i);
+      return new CollisionNode(this.hash, newPairs);
+    } // without(JSONString, int, int)
+  } // class CollisionNode
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Build a node holding two pairs whose keys differ, starting at the given
+   * level.
+   */
+  static Node pair(KVPair<JSONString, JSONValue> first, KVPair<JSONString, JSONValue> second,
+      int secondHash, int shift) {
+    int firstHash = first.key().hashCode();
+    if (firstHash == secondHash) {
+      return new CollisionNode(firstHash, new Object[] {first, second});
+    } // if
+    int firstBit = 1 << ((firstHash >>> shift) & 31);
+    int secondBit = 1 << ((secondHash >>> shift) & 31);
+    if (firstBit == secondBit) {
+      return new BitmapNode(firstBit,
+          new Object[] {pair(first, second, secondHash, shift + BITS)});
+    } // if
+    return new BitmapNode(firstBit | secondBit, (Integer.compareUnsigned(firstBit, secondBit) < 0)
+        ? new Object[] {first, second}
+        : new Object[] {second, first});
+  } // pair(KVPair, KVPair, int, int)
+} // class PersistentJSONHash